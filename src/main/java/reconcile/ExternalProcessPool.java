@@ -0,0 +1,470 @@
+package reconcile;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import reconcile.general.Utils;
+
+/**
+ * A pool of long-lived external processes. The processes are started once and reused for every request instead of
+ * forking a new process (and paying the startup and model loading cost) for each document.
+ *
+ * Requests are framed over the worker's stdin/stdout: the request text is written to the worker's stdin and the
+ * worker's stdout is read up to the first line containing {@link #END_OF_RECORD}. The text following the marker on that
+ * line is taken to be the status of the request. A request whose worker crashes or does not answer within the timeout
+ * fails with an IOException and is not retried, since the command may already have had side effects; the worker is
+ * restarted before it is handed out again.
+ *
+ * The default pool ({@link #getShellPool()}) keeps a number of shells running and executes command lines in them, so
+ * existing command line tools can be used without modification. The pool is off unless the EXTERNAL_POOL_SIZE config
+ * option is set to a positive number of shells; it should be at least TESTER.THREADS, otherwise the tester threads wait
+ * for each other's external calls. EXTERNAL_POOL_TIMEOUT sets the number of seconds a command may run (default 3600, 0
+ * for no limit). Command lines go through the shell, so arguments should be built with {@link #commandLine(String...)}.
+ *
+ * @author ves
+ */
+public class ExternalProcessPool {
+
+public static final String END_OF_RECORD = "<<END_OF_RECORD>>";
+
+private static final String[] SHELL = { "bash" };
+
+private static final int DEFAULT_TIMEOUT = 3600;
+
+/*
+ * Exit status of coreutils timeout when the command ran out of time
+ */
+private static final int TIMED_OUT = 124;
+
+/*
+ * How long the shell gets to kill a command that ran out of time before the worker itself is killed
+ */
+private static final long GRACE = 10000;
+
+private static ExternalProcessPool shellPool = null;
+
+/*
+ * Kills workers that take longer than the timeout
+ */
+private static Timer watchdog = null;
+
+private String[] command;
+private Worker[] workers;
+private LinkedBlockingQueue<Worker> idle;
+private long timeout = 0;
+
+/*
+ * A single external process and the streams used to talk to it
+ */
+private class Worker {
+
+private Process process;
+private BufferedWriter in;
+private BufferedReader out;
+
+private void start()
+    throws IOException
+{
+  process = new ProcessBuilder(command).start();
+  in = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()));
+  out = new BufferedReader(new InputStreamReader(process.getInputStream()));
+  drain(process.getErrorStream());
+}
+
+private boolean isAlive()
+{
+  if (process == null) return false;
+  try {
+    process.exitValue();
+    return false;
+  }
+  catch (IllegalThreadStateException e) {
+    return true;
+  }
+}
+
+private void stop()
+{
+  if (process == null) return;
+  try {
+    in.close();
+  }
+  catch (IOException e) {
+    // the process is going away anyway
+  }
+  process.destroy();
+  process = null;
+}
+
+private String request(String text, PrintStream output, final long limit)
+    throws IOException
+{
+  final Process running = process;
+  final boolean[] timedOut = new boolean[1];
+  TimerTask kill = null;
+  if (limit > 0) {
+    kill = new TimerTask() {
+
+      @Override
+      public void run()
+      {
+        synchronized (timedOut) {
+          timedOut[0] = true;
+        }
+        running.destroy();
+      }
+    };
+    getWatchdog().schedule(kill, limit);
+  }
+
+  try {
+    in.write(text);
+    if (!text.endsWith("\n")) {
+      in.write('\n');
+    }
+    in.flush();
+
+    String line;
+    while ((line = out.readLine()) != null) {
+      int marker = line.indexOf(END_OF_RECORD);
+      if (marker >= 0) {
+        if (marker > 0 && output != null) {
+          output.println(line.substring(0, marker));
+        }
+        return line.substring(marker + END_OF_RECORD.length()).trim();
+      }
+      if (output != null) {
+        output.println(line);
+      }
+    }
+  }
+  catch (IOException e) {
+    // reported below; a killed worker can fail on either stream
+  }
+  finally {
+    if (kill != null) {
+      kill.cancel();
+    }
+  }
+
+  synchronized (timedOut) {
+    if (timedOut[0])
+      throw new IOException("External process " + Arrays.toString(command) + " timed out after " + limit + " ms");
+  }
+  throw new IOException("External process " + Arrays.toString(command) + " exited in the middle of a request");
+}
+}
+
+/**
+ * Starts a pool of processes.
+ *
+ * @param command
+ *          the command used to start each of the worker processes
+ * @param size
+ *          the number of worker processes, i.e., the number of requests that can run concurrently
+ */
+public ExternalProcessPool(String[] command, int size) {
+  if (size < 1) throw new IllegalArgumentException("Pool size has to be positive: " + size);
+
+  this.command = command;
+  workers = new Worker[size];
+  idle = new LinkedBlockingQueue<Worker>();
+  for (int i = 0; i < size; i++) {
+    workers[i] = new Worker();
+    idle.add(workers[i]);
+  }
+}
+
+/**
+ * Sets the number of milliseconds a request may take before its worker is killed and the request fails. 0 (the
+ * default) means no limit.
+ */
+public void setTimeout(long timeout)
+{
+  this.timeout = timeout;
+}
+
+public long getTimeout()
+{
+  return timeout;
+}
+
+/**
+ * Returns the shared pool of shells, or null if the pool is turned off in the config.
+ */
+public static synchronized ExternalProcessPool getShellPool()
+{
+  if (shellPool == null) {
+    int size = getConfiguredSize();
+    if (size < 1) return null;
+
+    shellPool = new ExternalProcessPool(SHELL, size);
+    shellPool.setTimeout(1000L * Utils.getConfig().getInteger("EXTERNAL_POOL_TIMEOUT", DEFAULT_TIMEOUT));
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+
+      @Override
+      public void run()
+      {
+        shellPool.shutdown();
+      }
+    });
+  }
+
+  return shellPool;
+}
+
+private static int getConfiguredSize()
+{
+  return Utils.getConfig().getInteger("EXTERNAL_POOL_SIZE", 0);
+}
+
+private static synchronized Timer getWatchdog()
+{
+  if (watchdog == null) {
+    watchdog = new Timer("ExternalProcessPool watchdog", true);
+  }
+  return watchdog;
+}
+
+/**
+ * Quotes a single argument for the shell, so that spaces and metacharacters in it are passed on literally.
+ */
+public static String quote(String arg)
+{
+  return "'" + arg.replace("'", "'\\''") + "'";
+}
+
+/**
+ * Builds a shell command line that runs the given program with the given arguments, quoting each of them.
+ */
+public static String commandLine(String... args)
+{
+  StringBuilder line = new StringBuilder();
+  for (String arg : args) {
+    if (line.length() > 0) {
+      line.append(' ');
+    }
+    line.append(quote(arg));
+  }
+  return line.toString();
+}
+
+/**
+ * Splits a command on whitespace, the way Runtime.exec(String) does, and quotes the pieces for the shell.
+ */
+public static String splitCommandLine(String command)
+{
+  String trimmed = command.trim();
+  return trimmed.length() == 0 ? "" : commandLine(trimmed.split("\\s+"));
+}
+
+/**
+ * Runs a command line in one of the pooled shells if the pool is on, and in a new bash otherwise. Output of the command
+ * is copied to output (which may be null).
+ *
+ * @throws IOException
+ *           if the command exits with a non-zero status, times out or its shell dies
+ */
+public static void runExternal(String commandLine, PrintStream output)
+    throws IOException
+{
+  ExternalProcessPool pool = getShellPool();
+  if (pool == null) {
+    runUnpooled(commandLine, output);
+    return;
+  }
+
+  int status = pool.run(commandLine, output);
+  if (status == TIMED_OUT && pool.getTimeout() > 0)
+    throw new IOException("Command timed out after " + pool.getTimeout() + " ms: " + commandLine);
+  checkStatus(status, commandLine);
+}
+
+/*
+ * What runExternal does when the pool is off: the command gets a bash of its own, with stdin closed and stderr passed
+ * on as the pooled shells do, and no timeout.
+ */
+static void runUnpooled(String commandLine, PrintStream output)
+    throws IOException
+{
+  Process process = new ProcessBuilder("bash", "-c", commandLine).start();
+  process.getOutputStream().close();
+  drain(process.getErrorStream());
+  BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream()));
+  try {
+    String line;
+    while ((line = out.readLine()) != null) {
+      if (output != null) {
+        output.println(line);
+      }
+    }
+    checkStatus(process.waitFor(), commandLine);
+  }
+  catch (InterruptedException e) {
+    Thread.currentThread().interrupt();
+    throw new InterruptedIOException("Interrupted while running: " + commandLine);
+  }
+  finally {
+    out.close();
+    process.destroy();
+  }
+}
+
+private static void checkStatus(int status, String commandLine)
+    throws IOException
+{
+  if (status != 0) throw new IOException("Command exited with status " + status + ": " + commandLine);
+}
+
+/**
+ * Runs a command line in one of the shells of this pool and returns its exit status. The command runs in a separate
+ * bash so that exit, cd, etc. do not affect the pooled shell, and its stdin is redirected from /dev/null so it cannot
+ * read the rest of the protocol stream. With a timeout the command is started under coreutils timeout, which kills the
+ * command and everything it started and exits with status 124; killing only the pooled shell would leave the command
+ * running and holding the shell's output open.
+ */
+public int run(String commandLine, PrintStream output)
+    throws IOException
+{
+  String run = commandLine("bash", "-c", commandLine);
+  if (timeout > 0) {
+    run = "timeout -k 5 " + (timeout / 1000.0) + " " + run;
+  }
+  String status = request(run + " < /dev/null\necho '" + END_OF_RECORD + "' $?\n", output, timeout > 0 ? timeout
+      + GRACE : 0);
+  return Integer.parseInt(status);
+}
+
+/**
+ * Sends a request to one of the workers and copies its response to output (which may be null). The request has to make
+ * the worker print {@link #END_OF_RECORD} once it is done. Blocks until a worker is available.
+ *
+ * @return whatever the worker printed after the end of record marker
+ */
+public String request(String text, PrintStream output)
+    throws IOException
+{
+  return request(text, output, timeout);
+}
+
+private String request(String text, PrintStream output, long limit)
+    throws IOException
+{
+  Worker worker = checkOut();
+  try {
+    return worker.request(text, output, limit);
+  }
+  catch (IOException e) {
+    // the worker is restarted when it is next checked out; the request itself is not retried
+    worker.stop();
+    throw e;
+  }
+  finally {
+    idle.add(worker);
+  }
+}
+
+private Worker checkOut()
+    throws IOException
+{
+  Worker worker;
+  try {
+    worker = idle.take();
+  }
+  catch (InterruptedException e) {
+    throw new RuntimeException(e);
+  }
+
+  try {
+    if (!worker.isAlive()) {
+      worker.stop();
+      worker.start();
+    }
+  }
+  catch (IOException e) {
+    idle.add(worker);
+    throw e;
+  }
+
+  return worker;
+}
+
+/**
+ * Checks that every idle worker is still running, restarting the ones that are not.
+ *
+ * @return the number of workers that had to be restarted
+ */
+public int healthCheck()
+    throws IOException
+{
+  List<Worker> checked = new ArrayList<Worker>();
+  idle.drainTo(checked);
+  int restarted = 0;
+  try {
+    for (Worker worker : checked) {
+      if (worker.process != null && !worker.isAlive()) {
+        worker.stop();
+        worker.start();
+        restarted++;
+      }
+    }
+  }
+  finally {
+    idle.addAll(checked);
+  }
+  return restarted;
+}
+
+public int size()
+{
+  return workers.length;
+}
+
+/**
+ * Stops all the worker processes.
+ */
+public void shutdown()
+{
+  for (Worker worker : workers) {
+    worker.stop();
+  }
+}
+
+/*
+ * Copies the error stream of a worker to System.err so that the worker does not block on a full pipe
+ */
+private static void drain(final InputStream err)
+{
+  Thread t = new Thread() {
+
+    @Override
+    public void run()
+    {
+      BufferedReader br = new BufferedReader(new InputStreamReader(err));
+      String line;
+      try {
+        while ((line = br.readLine()) != null) {
+          System.err.println(line);
+        }
+      }
+      catch (IOException e) {
+        // the process went away
+      }
+    }
+  };
+  t.setDaemon(true);
+  t.start();
+}
+}
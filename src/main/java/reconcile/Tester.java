@@ -45,12 +45,8 @@ public static void classify(Iterable<Document> testFilenames, boolean inMemory)
 	
     Classifier learner = Constructor.createClassifier(classifier, fullModelFN);
 	 System.out.println(learner.getInfo(options));
-	 for (Document doc : testFilenames) {
-		 if(inMemory)
-			 learner.test(doc.getFeatureReader(), doc.getPredictionWriter(), options);
-		 else
-			 learner.test(doc.getFeatureFile(), doc.getPredictionFile(), fullModelFN, options);
-    }
+	 int numThreads = cfg.getInteger("TESTER.THREADS", 1);
+	 learner.test(testFilenames, fullModelFN, options, inMemory, numThreads);
   }
 }
 
@@ -1,8 +1,6 @@
 package reconcile.classifiers;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.PrintWriter;
 
 import reconcile.weka.core.Attribute;
@@ -33,7 +31,7 @@ public double[] test(File testFilename, File outputFilename, String model, Strin
 public double[] test(File testFilename, File outputFilename, String[] options)
 {
   try {
-    Instances insts = new Instances(new BufferedReader(new FileReader(testFilename)));
+    Instances insts = new Instances(testFilename);
 
     PrintWriter out = null;
     try {
@@ -88,7 +86,7 @@ public void train(File trainFilename, File model, String[] options)
 public double[] test(String testFilename, String outputFilename, String modelInputFilename, String[] options)
 {
   try {
-    ModifiedInstancesShort insts = new ModifiedInstancesShort(new BufferedReader(new FileReader(testFilename)));
+    ModifiedInstancesShort insts = new ModifiedInstancesShort(new File(testFilename));
 
     System.out.println("Working on " + testFilename + " -- " + outputFilename + " : " + insts.numInstances());
     PrintWriter out = null;
@@ -102,9 +100,9 @@ public double[] test(String testFilename, String outputFilename, String modelInp
       AttributeShort id2 = insts.attribute("ID2");
       for (int i = 0; i < insts.numInstances(); i++) {
         InstanceShort cur = insts.instance(i);
-        short curDoc = cur.value(docID);
-        short curID1 = cur.value(id1);
-        short curID2 = cur.value(id2);
+        int curDoc = cur.intValue(docID);
+        int curID1 = cur.intValue(id1);
+        int curID2 = cur.intValue(id2);
         out.println(curDoc + "," + curID1 + "," + curID2 + " -1");
 
       }
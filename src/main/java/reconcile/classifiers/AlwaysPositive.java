@@ -1,7 +1,6 @@
 package reconcile.classifiers;
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.PrintWriter;
 
 import reconcile.weka.core.AttributeShort;
@@ -30,7 +29,7 @@ public double[] test(File testFilename, File outputFilename, String model, Strin
 public double[] test(File testFilename, File outputFilename, String[] options)
 {
   try {
-    ModifiedInstancesShort insts = new ModifiedInstancesShort(new FileReader(testFilename));
+    ModifiedInstancesShort insts = new ModifiedInstancesShort(testFilename);
 
     System.out.println("Working on " + " : " + insts.numInstances());
     PrintWriter out = null;
@@ -43,9 +42,9 @@ public double[] test(File testFilename, File outputFilename, String[] options)
       AttributeShort id2 = insts.attribute("ID2");
       for (int i = 0; i < insts.numInstances(); i++) {
         InstanceShort cur = insts.instance(i);
-        short curDoc = cur.value(docID);
-        short curID1 = cur.value(id1);
-        short curID2 = cur.value(id2);
+        int curDoc = cur.intValue(docID);
+        int curID1 = cur.intValue(id1);
+        int curID2 = cur.intValue(id2);
         out.println(curDoc + "," + curID1 + "," + curID2 + " 1");
 
       }
@@ -9,7 +9,14 @@ package reconcile.classifiers;
 import java.io.File;
 import java.io.Reader;
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import reconcile.data.Document;
 import reconcile.general.Utils;
@@ -201,6 +208,93 @@ public double[] test(Document doc, String[] options)
 
 }
 
+/**
+ * Classifies a single document of a batch, either from its feature file or (inMemory) from its feature reader.
+ * Classifiers that can share work between the documents of a batch override this together with test(Iterable...).
+ *
+ * @return the minimum and maximum numerical values of the classified instances
+ */
+protected double[] test(Document doc, String model, String[] options, boolean inMemory)
+{
+  if (inMemory) return test(doc.getFeatureReader(), doc.getPredictionWriter(), options);
+  return test(doc.getFeatureFile(), doc.getPredictionFile(), model, options);
+}
+
+/**
+ * Whether test(Document, String, String[], boolean) can be called for several documents at the same time. Classifiers
+ * that keep per-call state in fields (or run an external program on shared temporary files) must return false.
+ */
+public boolean isThreadSafe()
+{
+  return false;
+}
+
+/**
+ * Classifies all documents of a corpus with the given model. The model is loaded once for the whole batch and the
+ * predictions of each document are written to that document's prediction file (or writer if inMemory).
+ *
+ * @return the minimum and maximum numerical values of the classified instances over all documents
+ */
+public double[] test(Iterable<Document> docs, String model, String[] options, boolean inMemory)
+{
+  double[] range = null;
+  for (Document doc : docs) {
+    range = mergeRange(range, test(doc, model, options, inMemory));
+  }
+  return range;
+}
+
+/**
+ * Classifies all documents of a corpus, sharding the documents over numThreads threads. Falls back to the sequential
+ * batch if the classifier is not thread safe or only one thread is requested.
+ *
+ * @return the minimum and maximum numerical values of the classified instances over all documents
+ */
+public double[] test(Iterable<Document> docs, final String model, final String[] options, final boolean inMemory,
+    int numThreads)
+{
+  if (numThreads <= 1 || !isThreadSafe()) return test(docs, model, options, inMemory);
+
+  ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+  try {
+    List<Future<double[]>> results = new ArrayList<Future<double[]>>();
+    for (final Document doc : docs) {
+      results.add(pool.submit(new Callable<double[]>() {
+
+        public double[] call()
+        {
+          return test(doc, model, options, inMemory);
+        }
+      }));
+    }
+
+    double[] range = null;
+    for (Future<double[]> result : results) {
+      range = mergeRange(range, result.get());
+    }
+    return range;
+  }
+  catch (InterruptedException e) {
+    throw new RuntimeException(e);
+  }
+  catch (ExecutionException e) {
+    if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+    throw new RuntimeException(e.getCause());
+  }
+  finally {
+    pool.shutdownNow();
+  }
+}
+
+private static double[] mergeRange(double[] range, double[] docRange)
+{
+  if (docRange == null) return range;
+  if (range == null) return new double[] { docRange[0], docRange[1] };
+  range[0] = Math.min(range[0], docRange[0]);
+  range[1] = Math.max(range[1], docRange[1]);
+  return range;
+}
+
 public String getInfo(String[] options)
 {
   String result = "Classifier " + getClass().getSimpleName() + ".";
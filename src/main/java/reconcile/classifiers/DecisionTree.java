@@ -1,10 +1,8 @@
 package reconcile.classifiers;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
@@ -28,6 +26,10 @@ import reconcile.weka.filters.unsupervised.attribute.Remove;
  */
 public class DecisionTree extends Classifier {
 
+private static J48 cachedModel = null;
+private static String cachedModelName = "no file";
+private static long modelTimestamp = 0;
+
 private J48 dt = null;
 private Evaluation Eval = null;
 
@@ -38,7 +40,7 @@ public static Instances readArffFile(File testFilename)
     throws IOException
 {
   Instances data = null;
-  data = new Instances(new BufferedReader(new FileReader(testFilename)));
+  data = new Instances(testFilename);
   data.setClassIndex(data.numAttributes() - 1);
   return data;
 }
@@ -67,6 +69,22 @@ public static J48 readModel(String fn)
   }
 }
 
+/*
+ * Returns the model stored in fn, reading it only when a different model is asked for or the model file has changed
+ * since it was read.
+ */
+private static synchronized J48 loadModel(String fn)
+    throws IOException
+{
+  if (cachedModel == null || !cachedModelName.equals(fn) || new File(fn).lastModified() > modelTimestamp) {
+    System.out.println("Reading classifier from file " + fn);
+    cachedModelName = fn;
+    modelTimestamp = System.currentTimeMillis();
+    cachedModel = readModel(fn);
+  }
+  return cachedModel;
+}
+
 public static void saveModel(J48 model, File fn)
     throws IOException
 {
@@ -84,7 +102,7 @@ public static void saveModel(J48 model, File fn)
 }
 
 public DecisionTree(String model) throws IOException {
-  dt = readModel(model);
+  dt = loadModel(model);
 }
 
 public DecisionTree() {
@@ -113,10 +131,10 @@ public double[] test(File testFilename, File outputFilename, String modelInputFi
 
   PrintWriter out;
   double max = Double.MIN_VALUE, min = Double.MAX_VALUE;
-  if (dt == null) {
+  if (modelInputFilename == null) modelInputFilename = mModelFile;
+  if (modelInputFilename != null) {
     try {
-      dt = readModel(modelInputFilename);
-		System.out.println(modelInputFilename);
+      dt = loadModel(modelInputFilename);
     }
     catch (Exception ex) {
       ex.printStackTrace();
@@ -0,0 +1,90 @@
+package reconcile.classifiers;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+
+import reconcile.Driver;
+import reconcile.weka.classifiers.functions.StreamingSGD;
+
+
+/**
+ * A linear model (logistic regression or linear SVM) trained with StreamingSGD, which reads the training file as a
+ * stream instead of loading it, so memory use doesn't grow with the size of the training data. Testing reads the test
+ * file the same way, so missing values (and, with -H, the hashing of the features) are treated the same as in
+ * training. The output is PerceptronM's: the Platt scaled score of each pair.
+ *
+ * @author ves
+ */
+public class LinearSGD
+    extends PerceptronM {
+
+private static StreamingSGD cachedModel = null;
+private static String cachedModelName = "no file";
+private static long modelTimestamp = 0;
+
+/*
+ * Returns the model, reading it only when a different model is asked for or the model file has changed since it was
+ * read. The model is shared (read-only) by all documents of a batch.
+ */
+private StreamingSGD loadModel(String modelInputFile)
+    throws IOException
+{
+  if (modelInputFile == null) modelInputFile = mModelFile;
+  synchronized (LinearSGD.class) {
+    if (cachedModel == null || !cachedModelName.equals(modelInputFile)
+        || new File(modelInputFile).lastModified() > modelTimestamp) {
+      System.out.println("Reading classifier from file " + modelInputFile);
+      cachedModelName = modelInputFile;
+      modelTimestamp = System.currentTimeMillis();
+      cachedModel = StreamingSGD.readModel(modelInputFile);
+    }
+    return cachedModel;
+  }
+}
+
+/**
+ * @param options
+ *          the options of StreamingSGD (e.g. -L hinge -I 10 -A -H 20); the training and model files are added here
+ */
+@Override
+public void train(File trainFilename, File modelOutputFilename, String[] options)
+{
+  String[] additionalOpts = { "-t", trainFilename.getAbsolutePath(), };
+  if (modelOutputFilename != null) {
+    String[] modelOpts = { "-F", modelOutputFilename.getAbsolutePath() };
+    additionalOpts = Driver.joinArrays(additionalOpts, modelOpts);
+  }
+  String[] allOpts = Driver.joinArrays(additionalOpts, options);
+  StreamingSGD.main(allOpts);
+}
+
+@Override
+public double[] test(Reader testFile, Writer outputFile, String modelInputFile, String[] options)
+{
+  double min = Double.MAX_VALUE;
+  double max = -Double.MAX_VALUE;
+  PrintWriter out = new PrintWriter(outputFile);
+  try {
+    StreamingSGD.Scorer scorer = loadModel(modelInputFile).scorer(new BufferedReader(testFile));
+    while (scorer.next()) {
+      double value = plattScale(scorer.score(), SCALE_A, SCALE_B);
+      min = min < value ? min : value;
+      max = max > value ? max : value;
+      out.println(scorer.docNo() + "," + scorer.id1() + "," + scorer.id2() + " " + value);
+    }
+  }
+  catch (IOException e) {
+    throw new RuntimeException(e);
+  }
+  finally {
+    out.flush();
+    out.close();
+  }
+  return new double[] { min, max };
+}
+
+}
@@ -29,19 +29,23 @@ private static double[] weightVector;
 private static String cachedModelName = "no file";
 private static long modelTimestamp = 0;
 
+/*
+ * Returns the weight vector of the model, reading it only when a different model is asked for or the model file has
+ * changed since it was read. The vector is shared (read-only) by all documents of a batch.
+ */
 private double[] loadClassifier(String modelInputFile, int numAtts)
 {
   if (modelInputFile == null) modelInputFile = mModelFile;
-  if (!mModelFile.equals(modelInputFile)) {
-	  readClassifier(modelInputFile, numAtts);
-  }
-  else {
-    readClassifier(modelInputFile, numAtts);
+  synchronized (PerceptronM.class) {
+    if (weightVector == null || weightVector.length != numAtts || !cachedModelName.equals(modelInputFile)
+        || new File(modelInputFile).lastModified() > modelTimestamp) {
+      readClassifier(modelInputFile, numAtts);
+    }
+    return weightVector;
   }
-  return weightVector;
 }
 
-private void readClassifier(String modelInputFile, int numAtts)
+private static void readClassifier(String modelInputFile, int numAtts)
 {
   System.out.println("Reading classifier from file " + modelInputFile);
   cachedModelName = modelInputFile;
@@ -90,9 +94,9 @@ public double[] test(Reader testFile, Writer outputFile, String modelInputFile,
 
   for (int i = 0; i < insts.numInstances(); i++) {
     InstanceShort cur = insts.instance(i);
-    short curDoc = cur.value(docID);
-    short curID1 = cur.value(id1);
-    short curID2 = cur.value(id2);
+    int curDoc = cur.intValue(docID);
+    int curID1 = cur.intValue(id1);
+    int curID2 = cur.intValue(id2);
     double value = plattScale(res[i], SCALE_A, SCALE_B);
     min = min < value ? min : value;
     max = max > value ? max : value;
@@ -126,6 +130,16 @@ public void train(File trainFilename, File modelOutputFilename, String[] options
 }
 
 
+/*
+ * The weight vector is only read while holding the class lock and every document is parsed into its own instances,
+ * so documents can be classified concurrently.
+ */
+@Override
+public boolean isThreadSafe()
+{
+  return true;
+}
+
 public double getVector2Norm()
 {
   return 0;
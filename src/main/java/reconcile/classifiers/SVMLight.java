@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import reconcile.ExternalProcessPool;
 import reconcile.general.Utils;
 
 
@@ -39,7 +40,8 @@ public double[] test(File testFile, File outputFile, String modelInputFile, Stri
     String svmFormatScript = ScriptDir + "svm_compatabalize.pl";
 
     System.out.println("SVM - Formatting test file: " + testFilename);
-    Utils.runExternal("perl " + svmFormatScript + " " + testFilename + " " + formattedTestFeatures);
+    ExternalProcessPool.runExternal(ExternalProcessPool.commandLine("perl", svmFormatScript, testFilename,
+        formattedTestFeatures), System.out);
 
     /** run the SVMlight classifier **/
     String externalClassifierPath = options[0];
@@ -47,8 +49,10 @@ public double[] test(File testFile, File outputFile, String modelInputFile, Stri
 
     System.out.println(outputFilename);
 
-    Utils.runExternal(externalClassifierPath + Utils.SEPARATOR + "svm_classify " + opts + " " + formattedTestFeatures + " "
-        + modelInputFilename + " " + outputFilename + ".svm");
+    ExternalProcessPool.runExternal(ExternalProcessPool.commandLine(externalClassifierPath + Utils.SEPARATOR
+        + "svm_classify") + " " + ExternalProcessPool.splitCommandLine(opts) + " "
+        + ExternalProcessPool.commandLine(formattedTestFeatures, modelInputFilename, outputFilename + ".svm"),
+        System.out);
 
     /** format the output of the SVMlight classifier **/
     // String svmOutputFormatScript = ScriptDir + "svm_formatOutput.pl";
@@ -86,7 +90,8 @@ public void train(File trainFile, File modelOutputFile, String[] options)
     String svmFormatScript = ScriptDir + "svm_compatabalize.pl";
 
     System.out.println("SVM - Formatting train file: " + trainFilename);
-    Utils.runExternal("perl " + svmFormatScript + " " + trainFilename + " " + formattedTrainFeatures);
+    ExternalProcessPool.runExternal(ExternalProcessPool.commandLine("perl", svmFormatScript, trainFilename,
+        formattedTrainFeatures), System.out);
 
     /** run the SVMlight learner **/
     String externalClassifierPath = options[0];
@@ -98,8 +103,9 @@ public void train(File trainFile, File modelOutputFile, String[] options)
     }
     */
 
-    Utils.runExternal(externalClassifierPath + Utils.SEPARATOR + "svm_learn " + opts + " " + formattedTrainFeatures
-        + " " + modelOutputFilename);
+    ExternalProcessPool.runExternal(ExternalProcessPool.commandLine(externalClassifierPath + Utils.SEPARATOR
+        + "svm_learn") + " " + ExternalProcessPool.splitCommandLine(opts) + " "
+        + ExternalProcessPool.commandLine(formattedTrainFeatures, modelOutputFilename), System.out);
   }
   catch (Exception e) {
     throw new RuntimeException(e);
@@ -108,7 +114,7 @@ public void train(File trainFile, File modelOutputFile, String[] options)
 
 private static double[] formatSVMOutput(String testFeatures, String predictions, String outputFilename)
 {
-  double min = Double.MAX_VALUE, max = Double.MIN_VALUE;
+  double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
   Pattern p = Pattern.compile(".*# (.*)$");
   BufferedReader testFile = null;
   BufferedReader predFile = null;
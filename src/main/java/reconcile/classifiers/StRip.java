@@ -1,13 +1,12 @@
 package reconcile.classifiers;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
 
 import reconcile.Driver;
 import reconcile.general.Utils;
+import reconcile.weka.classifiers.rules.CompiledRuleset;
 import reconcile.weka.classifiers.rules.StRipShort;
 import reconcile.weka.core.AttributeShort;
 import reconcile.weka.core.InstanceShort;
@@ -21,6 +20,31 @@ import reconcile.weka.core.ModifiedInstancesShort;
 public class StRip
     extends Classifier {
 
+private static CompiledRuleset ruleset;
+private static String cachedModelName = "no file";
+private static long modelTimestamp = 0;
+private static int cachedNumAtts = -1;
+
+/*
+ * Returns the compiled ruleset of the model, reading and compiling it only when a different model is asked for, the
+ * model file has changed since it was read or the feature files have a different number of attributes. The ruleset is
+ * shared (read-only) by all documents of a batch.
+ */
+private CompiledRuleset loadClassifier(String modelInputFile, ModifiedInstancesShort insts)
+{
+  if (modelInputFile == null) modelInputFile = mModelFile;
+  synchronized (StRip.class) {
+    if (ruleset == null || cachedNumAtts != insts.numAttributes() || !cachedModelName.equals(modelInputFile)
+        || new File(modelInputFile).lastModified() > modelTimestamp) {
+      cachedModelName = modelInputFile;
+      modelTimestamp = System.currentTimeMillis();
+      cachedNumAtts = insts.numAttributes();
+      ruleset = StRipShort.readClassifier(modelInputFile, insts).compile();
+    }
+    return ruleset;
+  }
+}
+
 @Override
 public double[] test(File testFilename, File outputFilename, String modelInputFilename, String[] options)
 {
@@ -30,22 +54,22 @@ public double[] test(File testFilename, File outputFilename, String modelInputFi
   PrintWriter out = null;
   // System.out.println("Testing "+testFilename+" -- "+outputFilename);
   try {
-    insts = new ModifiedInstancesShort(new BufferedReader(new FileReader(testFilename)));
+    insts = new ModifiedInstancesShort(testFilename);
     insts.setClass(insts.attribute("class"));
     insts.cleanUpValuesAndSetWeight(0);
     out = new PrintWriter(outputFilename);
     if (insts.numInstances() <= 0) return null;
-    StRipShort classifier = StRipShort.readClassifier(modelInputFilename, insts);
-    // System.out.println(classifier.toString());
+    CompiledRuleset classifier = loadClassifier(modelInputFilename, insts);
     AttributeShort docID = insts.attribute("DOCNUM");
     AttributeShort id1 = insts.attribute("ID1");
     AttributeShort id2 = insts.attribute("ID2");
+    double[] scores = classifier.classify(insts);
     for (int i = 0; i < insts.numInstances(); i++) {
       InstanceShort cur = insts.instance(i);
-      short curDoc = cur.value(docID);
-      short curID1 = cur.value(id1);
-      short curID2 = cur.value(id2);
-      double res = classifier.classifyInstance(cur);
+      int curDoc = cur.intValue(docID);
+      int curID1 = cur.intValue(id1);
+      int curID2 = cur.intValue(id2);
+      double res = scores[i];
       min = min < res ? min : res;
       max = max > res ? max : res;
       out.println(curDoc + "," + curID1 + "," + curID2 + " " + res);
@@ -77,6 +101,16 @@ public void train(File trainFilename, File modelOutputFilename, String[] options
   reconcile.weka.classifiers.rules.StRipShort.main(allOpts);
 }
 
+/*
+ * The ruleset is only read while holding the class lock and every document is parsed into its own instances, so
+ * documents can be classified concurrently.
+ */
+@Override
+public boolean isThreadSafe()
+{
+  return true;
+}
+
 /* (non-Javadoc)
  * @see reconcile.classifiers.Classifier#test(java.io.File, java.io.File, java.lang.String[])
  */
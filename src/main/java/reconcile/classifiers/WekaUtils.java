@@ -6,7 +6,7 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringReader;
+import java.io.InputStreamReader;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -91,11 +91,7 @@ public static Instances filterAttributes(Instances data, Set<String> ex)
 public static Instances readArffFile(InputStream fn)
     throws IOException
 {
-  String indata = FileUtils.readFile(fn);
-//  printStartEnd(indata);
-  Instances data = null;
-//  data = new Instances(new BufferedReader(new InputStreamReader(fn)));
-  data = new Instances(new BufferedReader(new StringReader(indata)));
+  Instances data = new Instances(new BufferedReader(new InputStreamReader(fn)));
   data.setClassIndex(data.numAttributes() - 1);
   return data;
 }
@@ -105,11 +101,8 @@ public static Instances readArffFile(InputStream fn)
 public static Instances readArffFile(File fn)
     throws IOException
 {
-  String indata = FileUtils.readFile(fn);
-//  printStartEnd(indata);
-  Instances data = null;
-//  data = new Instances(new BufferedReader(new InputStreamReader(fn)));
-  data = new Instances(new BufferedReader(new StringReader(indata)));
+  // parses the memory-mapped file directly (see FastArffReader)
+  Instances data = new Instances(fn);
   data.setClassIndex(data.numAttributes() - 1);
   return data;
 }
@@ -0,0 +1,172 @@
+package reconcile.featureExtractor;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import reconcile.data.Annotation;
+import reconcile.data.AnnotationSet;
+
+/**
+ * An immutable span index over an annotation set. The annotations are sorted by start offset and a max-end segment
+ * tree is kept over that order, so getOverlapping and getContained only visit the annotations near the query span
+ * instead of scanning the whole set. Results are returned as annotation sets, the same way the corresponding
+ * AnnotationSet methods return them.
+ *
+ * The index is a snapshot of the set when it was built. It is meant for sets that do not change while they are
+ * being queried (e.g., the parse of a document during markable extraction).
+ */
+public class AnnotationIndex {
+
+private AnnotationSet set;
+private String name;
+private Annotation[] annots;
+private int[] starts;
+private int[] ends;
+// maxEnd[node] is the largest end offset in the subtree of node; the leaves start at size
+private int[] maxEnd;
+private int size;
+
+public AnnotationIndex(AnnotationSet set) {
+  this.set = set;
+  name = set.getName();
+  annots = new Annotation[set.size()];
+  int n = 0;
+  for (Annotation a : set) {
+    annots[n++] = a;
+  }
+  annots = n == annots.length ? annots : Arrays.copyOf(annots, n);
+
+  Arrays.sort(annots, new Comparator<Annotation>() {
+
+    public int compare(Annotation a1, Annotation a2)
+    {
+      return a1.getStartOffset() - a2.getStartOffset();
+    }
+  });
+
+  starts = new int[n];
+  ends = new int[n];
+  for (int i = 0; i < n; i++) {
+    starts[i] = annots[i].getStartOffset();
+    ends[i] = annots[i].getEndOffset();
+  }
+
+  size = 1;
+  while (size < n) {
+    size <<= 1;
+  }
+  maxEnd = new int[2 * size];
+  Arrays.fill(maxEnd, Integer.MIN_VALUE);
+  System.arraycopy(ends, 0, maxEnd, size, n);
+  for (int i = size - 1; i > 0; i--) {
+    maxEnd[i] = Math.max(maxEnd[2 * i], maxEnd[2 * i + 1]);
+  }
+}
+
+/*
+ * The set this index was built from
+ */
+public AnnotationSet getAnnotationSet()
+{
+  return set;
+}
+
+public String getName()
+{
+  return name;
+}
+
+public int size()
+{
+  return annots.length;
+}
+
+/*
+ * Returns the annotations that share at least one character with a
+ */
+public AnnotationSet getOverlapping(Annotation a)
+{
+  return getOverlapping(a.getStartOffset(), a.getEndOffset());
+}
+
+public AnnotationSet getOverlapping(int start, int end)
+{
+  AnnotationSet result = new AnnotationSet(name);
+  // only annotations starting before end can overlap
+  int hi = lowerBound(end);
+  if (hi > 0) {
+    collectOverlapping(1, 0, size, hi, start, result);
+  }
+  return result;
+}
+
+private void collectOverlapping(int node, int lo, int len, int hi, int start, AnnotationSet result)
+{
+  if (lo >= hi || maxEnd[node] <= start) return;
+
+  if (len == 1) {
+    result.add(annots[lo]);
+    return;
+  }
+
+  int half = len >> 1;
+  collectOverlapping(2 * node, lo, half, hi, start, result);
+  collectOverlapping(2 * node + 1, lo + half, half, hi, start, result);
+}
+
+/*
+ * Returns the annotations whose span lies within the span of a (including a itself if it is in the set)
+ */
+public AnnotationSet getContained(Annotation a)
+{
+  return getContained(a.getStartOffset(), a.getEndOffset());
+}
+
+public AnnotationSet getContained(int start, int end)
+{
+  AnnotationSet result = new AnnotationSet(name);
+  int hi = upperBound(end);
+  for (int i = lowerBound(start); i < hi; i++) {
+    if (ends[i] <= end) {
+      result.add(annots[i]);
+    }
+  }
+  return result;
+}
+
+/*
+ * Index of the first annotation starting at or after offset
+ */
+private int lowerBound(int offset)
+{
+  int lo = 0, hi = starts.length;
+  while (lo < hi) {
+    int mid = (lo + hi) >>> 1;
+    if (starts[mid] < offset) {
+      lo = mid + 1;
+    }
+    else {
+      hi = mid;
+    }
+  }
+  return lo;
+}
+
+/*
+ * Index of the first annotation starting after offset
+ */
+private int upperBound(int offset)
+{
+  int lo = 0, hi = starts.length;
+  while (lo < hi) {
+    int mid = (lo + hi) >>> 1;
+    if (starts[mid] <= offset) {
+      lo = mid + 1;
+    }
+    else {
+      hi = mid;
+    }
+  }
+  return lo;
+}
+}
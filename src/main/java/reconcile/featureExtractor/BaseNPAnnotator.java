@@ -70,8 +70,13 @@ public class BaseNPAnnotator extends InternalAnnotator {
 
 	public static boolean containsSameHead(AnnotationSet nps, Annotation np,
 			boolean isNP, Document doc) {
+		return containsSameHead(nps, np, isNP, doc, new AnnotationIndex(doc
+				.getAnnotationSet(Constants.PARSE)));
+	}
+
+	public static boolean containsSameHead(AnnotationSet nps, Annotation np,
+			boolean isNP, Document doc, AnnotationIndex parse) {
 		AnnotationSet overlap = nps.getOverlapping(np);
-		AnnotationSet parse = doc.getAnnotationSet(Constants.PARSE);
 		AnnotationSet ne = doc.getAnnotationSet(Constants.NE);
 
 		if (overlap == null || overlap.size() < 1)
@@ -106,6 +111,10 @@ public class BaseNPAnnotator extends InternalAnnotator {
 	}
 
 	public static boolean isNested(Annotation a, AnnotationSet annots) {
+		return isNested(a, new AnnotationIndex(annots));
+	}
+
+	public static boolean isNested(Annotation a, AnnotationIndex annots) {
 		AnnotationSet overlap = annots.getOverlapping(a);
 		for (Annotation o : overlap) {
 			if (o.properCovers(a))
@@ -116,10 +125,17 @@ public class BaseNPAnnotator extends InternalAnnotator {
 
 	public static boolean containsPhrase(Annotation parseNode,
 			AnnotationSet parse, AnnotationSet basenp, String text) {
+		return containsPhrase(parseNode, new AnnotationIndex(parse), basenp,
+				text);
+	}
+
+	public static boolean containsPhrase(Annotation parseNode,
+			AnnotationIndex parseIndex, AnnotationSet basenp, String text) {
 		if (parseNode == null)
 			return false;
 
-		AnnotationSet contained = parse.getContained(parseNode);
+		AnnotationSet parse = parseIndex.getAnnotationSet();
+		AnnotationSet contained = parseIndex.getContained(parseNode);
 		AnnotationSet containedNPs = new AnnotationSet("cnp");
 		boolean npChild = false, containsNP = false, isPhrase = false;
 		for (Annotation c : contained) {
@@ -140,7 +156,7 @@ public class BaseNPAnnotator extends InternalAnnotator {
 		if (!containsNP)
 			return false;
 
-		if (containsDisjunction(parseNode, parse, text))
+		if (containsDisjunction(parseNode, parseIndex, text))
 			return true;
 
 		if (!npChild) {
@@ -178,7 +194,13 @@ public class BaseNPAnnotator extends InternalAnnotator {
 
 	public static boolean containsAppositive(Annotation parseNode,
 			AnnotationSet parse, String text) {
-		AnnotationSet contained = parse.getContained(parseNode);
+		return containsAppositive(parseNode, new AnnotationIndex(parse), text);
+	}
+
+	public static boolean containsAppositive(Annotation parseNode,
+			AnnotationIndex parseIndex, String text) {
+		AnnotationSet parse = parseIndex.getAnnotationSet();
+		AnnotationSet contained = parseIndex.getContained(parseNode);
 		boolean appos = true;
 		int numNps = 0;
 		int numCommas = 0;
@@ -206,8 +228,19 @@ public class BaseNPAnnotator extends InternalAnnotator {
 				text);
 	}
 
+	public static boolean containsBreak(Annotation a, AnnotationIndex parse,
+			AnnotationSet ne, String text) {
+		return containsBreak(a.getStartOffset(), a.getEndOffset(), parse, ne,
+				text);
+	}
+
 	public static boolean containsBreak(int start, int end,
 			AnnotationSet parse, AnnotationSet ne, String text) {
+		return containsBreak(start, end, new AnnotationIndex(parse), ne, text);
+	}
+
+	public static boolean containsBreak(int start, int end,
+			AnnotationIndex parse, AnnotationSet ne, String text) {
 		AnnotationSet overlap = parse.getContained(start, end);
 		AnnotationSet overlapNps = new AnnotationSet("onps");
 		for (Annotation o : overlap)
@@ -231,6 +264,11 @@ public class BaseNPAnnotator extends InternalAnnotator {
 
 	public static boolean containsConj(Annotation a, AnnotationSet parse,
 			String text) {
+		return containsConj(a, new AnnotationIndex(parse), text);
+	}
+
+	public static boolean containsConj(Annotation a, AnnotationIndex parse,
+			String text) {
 		AnnotationSet overlap = parse.getContained(a);
 		for (Annotation o : overlap) {
 			if (o.getType().equals("CC")
@@ -242,6 +280,11 @@ public class BaseNPAnnotator extends InternalAnnotator {
 
 	public static boolean containsDisjunction(Annotation a,
 			AnnotationSet parse, String text) {
+		return containsDisjunction(a, new AnnotationIndex(parse), text);
+	}
+
+	public static boolean containsDisjunction(Annotation a,
+			AnnotationIndex parse, String text) {
 		AnnotationSet overlap = parse.getContained(a);
 		for (Annotation o : overlap) {
 			if (o.getType().equals("CC")
@@ -410,10 +453,11 @@ public class BaseNPAnnotator extends InternalAnnotator {
 	public static AnnotationSet removeRecursives(AnnotationSet annots) {
 
 		AnnotationSet result = new AnnotationSet(annots.getName());
+		AnnotationIndex index = new AnnotationIndex(annots);
 		boolean recursive = false;
 
 		for (Annotation a : annots) {
-			AnnotationSet overlap = annots.getOverlapping(a);
+			AnnotationSet overlap = index.getOverlapping(a);
 			for (Annotation o : overlap) {
 				if (a.properCovers(o)) {
 					recursive = true;
@@ -437,6 +481,11 @@ public class BaseNPAnnotator extends InternalAnnotator {
 	 */
 	public static Annotation trimNP(Annotation np, AnnotationSet parse,
 			String text) {
+		return trimNP(np, new AnnotationIndex(parse), text);
+	}
+
+	public static Annotation trimNP(Annotation np, AnnotationIndex parse,
+			String text) {
 		AnnotationSet contained = parse.getContained(np);
 		Annotation result = np;
 		// Remove possesive 's as well as some other junk that occurs at end of
@@ -487,8 +536,14 @@ public class BaseNPAnnotator extends InternalAnnotator {
 	}
 
 	public static AnnotationSet getBaseNP(String annSetName, Document doc) {
+		return getBaseNP(annSetName, doc, new AnnotationIndex(doc
+				.getAnnotationSet(Constants.PARSE)));
+	}
+
+	public static AnnotationSet getBaseNP(String annSetName, Document doc,
+			AnnotationIndex parseIndex) {
 		AnnotationSet bnp = new AnnotationSet("bnp");
-		AnnotationSet parseAnns = doc.getAnnotationSet(Constants.PARSE);
+		AnnotationSet parseAnns = parseIndex.getAnnotationSet();
 
 		// Start with all nps
 		for (Annotation p : parseAnns) {
@@ -501,7 +556,7 @@ public class BaseNPAnnotator extends InternalAnnotator {
 
 		// Remove nps that contain PP's or S's
 		for (Annotation p : bnp) {
-			if (!containsPhrase(p, parseAnns, filtered, doc.getText())) {
+			if (!containsPhrase(p, parseIndex, filtered, doc.getText())) {
 				filtered.add(p);
 				// if(containsConj(p,parseAnns,text))
 				// System.out.println("Contains conjunction:
@@ -516,8 +571,9 @@ public class BaseNPAnnotator extends InternalAnnotator {
 		AnnotationSet result = new AnnotationSet(annSetName);
 
 		// Remove nps that are nested
+		AnnotationIndex filteredIndex = new AnnotationIndex(filtered);
 		for (Annotation p : filtered) {
-			if (!isNested(p, filtered)) {
+			if (!isNested(p, filteredIndex)) {
 				result.add(p);
 			}
 		}
@@ -537,6 +593,12 @@ public class BaseNPAnnotator extends InternalAnnotator {
 
 	public static AnnotationSet extractMarkables(AnnotationSet bnp,
 			AnnotationSet parse, String annSetName, Document doc) {
+		return extractMarkables(bnp, new AnnotationIndex(parse), annSetName,
+				doc);
+	}
+
+	public static AnnotationSet extractMarkables(AnnotationSet bnp,
+			AnnotationIndex parse, String annSetName, Document doc) {
 		AnnotationSet nerAnns = doc.getAnnotationSet(Constants.NE);
 
 		// remove overlapping nes
@@ -558,7 +620,7 @@ public class BaseNPAnnotator extends InternalAnnotator {
 				// System.out.println("0 annotation from "+content);
 			} else if (!result.containsSpan(np) && !origNes.coversSpan(np)
 					&& !isJunk(np, doc.getText())
-					&& (!containsSameHead(result, np, true, doc))) {
+					&& (!containsSameHead(result, np, true, doc, parse))) {
 				addNP(result, np, nes, origNes, parse, doc);
 				addNested(np, parse, result, origNes, nes, doc);
 			}
@@ -569,7 +631,7 @@ public class BaseNPAnnotator extends InternalAnnotator {
 			// a = trimNP(a, parse, text);
 			// System.out.print("Adding NE "+Utils.getAnnotText(a, text)+"...");
 			if (a.getLength() > 0 && !result.containsSpan(a)
-					&& !containsSameHead(result, a, true, doc)
+					&& !containsSameHead(result, a, true, doc, parse)
 					&& !isJunk(a, doc.getText())
 					&& !a.getType().equalsIgnoreCase("number")) {
 				if (!containsConflict(result, a, doc)) {
@@ -600,10 +662,10 @@ public class BaseNPAnnotator extends InternalAnnotator {
 	}
 
 	private static void addNP(AnnotationSet result, Annotation np,
-			AnnotationSet nes, AnnotationSet origNes, AnnotationSet parse,
+			AnnotationSet nes, AnnotationSet origNes, AnnotationIndex parse,
 			Document doc) {
 		np = trimNP(np, parse, doc.getText());
-		if (!containsSameHead(result, np, true, doc)) {
+		if (!containsSameHead(result, np, true, doc, parse)) {
 
 			AnnotationSet overlapNe = nes.getOverlapping(np);
 
@@ -678,7 +740,7 @@ public class BaseNPAnnotator extends InternalAnnotator {
 					}
 				}
 			} else {
-				if (!containsSameHead(result, np, true, doc)
+				if (!containsSameHead(result, np, true, doc, parse)
 						&& !containsConflict(result, np, doc)) {
 					result.add(np);
 				}
@@ -687,7 +749,7 @@ public class BaseNPAnnotator extends InternalAnnotator {
 
 	}
 
-	private static void addNested(Annotation parent, AnnotationSet parse,
+	private static void addNested(Annotation parent, AnnotationIndex parse,
 			AnnotationSet result, AnnotationSet origNes, AnnotationSet nes,
 			Document doc) {
 
@@ -704,7 +766,7 @@ public class BaseNPAnnotator extends InternalAnnotator {
 				} else if (parent.properCovers(np) && !result.containsSpan(np)
 						&& !origNes.coversSpan(np)
 						&& !isJunk(np, doc.getText())
-						&& !containsSameHead(result, np, true, doc) /*
+						&& !containsSameHead(result, np, true, doc, parse) /*
 																	 * &&
 																	 * !containsAppositive(np,
 																	 * parse,
@@ -723,7 +785,7 @@ public class BaseNPAnnotator extends InternalAnnotator {
 		// endOffsets.add(new Integer(parent.getEndOffset()));
 	}
 
-	private static void addNestedNonNPs(Annotation parent, AnnotationSet parse,
+	private static void addNestedNonNPs(Annotation parent, AnnotationIndex parse,
 			AnnotationSet result, AnnotationSet origNes, AnnotationSet nes,
 			Document doc) {
 
@@ -732,13 +794,13 @@ public class BaseNPAnnotator extends InternalAnnotator {
 		AnnotationSet pContained = parse.getContained(parent);
 		for (Annotation p : pContained) {
 			if (isNoun(p, doc.getText()) && parent.properCovers(p)
-					&& !containsSameHead(result, p, false, doc)
+					&& !containsSameHead(result, p, false, doc, parse)
 					&& !result.containsSpan(p) && !origNes.coversSpan(p)
 					&& !isJunk(p, doc.getText())) {
 				if (!getAllTitles().contains(doc.getAnnotText(p).toLowerCase())) {// &&FeatureUtils.isCapitalized(Utils.getAnnotText(p,
 					// text)))
 					p = trimNP(p, parse, doc.getText());
-					if (!containsSameHead(result, p, false, doc)
+					if (!containsSameHead(result, p, false, doc, parse)
 							&& !result.containsSpan(p))
 						if (!containsConflict(result, p, doc)) {
 							add(result, p, doc.getText());
@@ -806,9 +868,13 @@ public class BaseNPAnnotator extends InternalAnnotator {
 	// This method extracts the base NPs that are used in coreference resolution
 	// Uses the MUC definition of NP
 	public static AnnotationSet run(String annSetName, Document doc) {
-		AnnotationSet parseAnns = doc.getAnnotationSet(Constants.PARSE);
-		AnnotationSet bnp = getBaseNP(annSetName, doc);
-		AnnotationSet result = extractMarkables(bnp, parseAnns, annSetName, doc);
+		// the parse does not change during extraction, so index it once for
+		// all the overlap/containment queries
+		AnnotationIndex parseIndex = new AnnotationIndex(doc
+				.getAnnotationSet(Constants.PARSE));
+		AnnotationSet bnp = getBaseNP(annSetName, doc, parseIndex);
+		AnnotationSet result = extractMarkables(bnp, parseIndex, annSetName,
+				doc);
 		fixNumbering(result);
 
 		AnnotationSet renumbered = new AnnotationSet(annSetName);
@@ -65,9 +65,14 @@ public static Set<String> getAllTitles()
 }
 
 public static boolean containsSameHead(AnnotationSet nps, Annotation np, boolean isNP, Document doc)
+{
+  return containsSameHead(nps, np, isNP, doc, new AnnotationIndex(doc.getAnnotationSet(Constants.PARSE)));
+}
+
+public static boolean containsSameHead(AnnotationSet nps, Annotation np, boolean isNP, Document doc,
+    AnnotationIndex parse)
 {
   AnnotationSet overlap = nps.getOverlapping(np);
-  AnnotationSet parse = doc.getAnnotationSet(Constants.PARSE);
   AnnotationSet ne = doc.getAnnotationSet(Constants.NE);
 
   if (overlap == null || overlap.size() < 1) return false;
@@ -96,6 +101,11 @@ public static boolean containsConflict(AnnotationSet nps, Annotation np, Documen
 
 
 public static boolean isNested(Annotation a, AnnotationSet annots)
+{
+  return isNested(a, new AnnotationIndex(annots));
+}
+
+public static boolean isNested(Annotation a, AnnotationIndex annots)
 {
   AnnotationSet overlap = annots.getOverlapping(a);
   for (Annotation o : overlap) {
@@ -105,10 +115,16 @@ public static boolean isNested(Annotation a, AnnotationSet annots)
 }
 
 public boolean containsPhrase(Annotation parseNode, AnnotationSet parse, AnnotationSet basenp, String text)
+{
+  return containsPhrase(parseNode, new AnnotationIndex(parse), basenp, text);
+}
+
+public boolean containsPhrase(Annotation parseNode, AnnotationIndex parseIndex, AnnotationSet basenp, String text)
 {
   if (parseNode == null) return false;
 
-  AnnotationSet contained = parse.getContained(parseNode);
+  AnnotationSet parse = parseIndex.getAnnotationSet();
+  AnnotationSet contained = parseIndex.getContained(parseNode);
   AnnotationSet containedNPs = new AnnotationSet("cnp");
   boolean npChild = false, containsNP = false, isPhrase = false;
   for (Annotation c : contained) {
@@ -127,7 +143,7 @@ public boolean containsPhrase(Annotation parseNode, AnnotationSet parse, Annotat
 
   if (!containsNP) return false;
 
-  if (containsDisjunction(parseNode, parse, text)) return true;
+  if (containsDisjunction(parseNode, parseIndex, text)) return true;
 
   if (!npChild) {
     for (Annotation c : contained) {
@@ -164,7 +180,13 @@ public boolean containsPhrase(Annotation parseNode, AnnotationSet parse, Annotat
 
 public static boolean containsAppositive(Annotation parseNode, AnnotationSet parse, String text)
 {
-  AnnotationSet contained = parse.getContained(parseNode);
+  return containsAppositive(parseNode, new AnnotationIndex(parse), text);
+}
+
+public static boolean containsAppositive(Annotation parseNode, AnnotationIndex parseIndex, String text)
+{
+  AnnotationSet parse = parseIndex.getAnnotationSet();
+  AnnotationSet contained = parseIndex.getContained(parseNode);
   boolean appos = true;
   int numNps = 0;
   int numCommas = 0;
@@ -192,7 +214,17 @@ public static boolean containsBreak(Annotation a, AnnotationSet parse, Annotatio
   return containsBreak(a.getStartOffset(), a.getEndOffset(), parse, ne, text);
 }
 
+public static boolean containsBreak(Annotation a, AnnotationIndex parse, AnnotationSet ne, String text)
+{
+  return containsBreak(a.getStartOffset(), a.getEndOffset(), parse, ne, text);
+}
+
 public static boolean containsBreak(int start, int end, AnnotationSet parse, AnnotationSet ne, String text)
+{
+  return containsBreak(start, end, new AnnotationIndex(parse), ne, text);
+}
+
+public static boolean containsBreak(int start, int end, AnnotationIndex parse, AnnotationSet ne, String text)
 {
   AnnotationSet overlap = parse.getContained(start, end);
   AnnotationSet overlapNps = new AnnotationSet("onps");
@@ -212,6 +244,11 @@ public static boolean containsBreak(int start, int end, AnnotationSet parse, Ann
 }
 
 public static boolean containsConj(Annotation a, AnnotationSet parse, String text)
+{
+  return containsConj(a, new AnnotationIndex(parse), text);
+}
+
+public static boolean containsConj(Annotation a, AnnotationIndex parse, String text)
 {
   AnnotationSet overlap = parse.getContained(a);
   for (Annotation o : overlap) {
@@ -221,6 +258,11 @@ public static boolean containsConj(Annotation a, AnnotationSet parse, String tex
 }
 
 public static boolean containsDisjunction(Annotation a, AnnotationSet parse, String text)
+{
+  return containsDisjunction(a, new AnnotationIndex(parse), text);
+}
+
+public static boolean containsDisjunction(Annotation a, AnnotationIndex parse, String text)
 {
   AnnotationSet overlap = parse.getContained(a);
   for (Annotation o : overlap) {
@@ -233,7 +275,8 @@ public abstract boolean isNoun(Annotation a, String text);
 
 public abstract boolean isNP(Annotation an, String text);
 
-public abstract boolean addNE(Annotation a, AnnotationSet includedCEs, AnnotationSet baseCEs, Document doc);
+public abstract boolean addNE(Annotation a, AnnotationSet includedCEs, AnnotationSet baseCEs, AnnotationIndex parse,
+    Document doc);
 
 public static boolean isGerund(Annotation p, String text)
 {
@@ -267,10 +310,11 @@ public static AnnotationSet removeRecursives(AnnotationSet annots)
 {
 
   AnnotationSet result = new AnnotationSet(annots.getName());
+  AnnotationIndex index = new AnnotationIndex(annots);
   boolean recursive = false;
 
   for (Annotation a : annots) {
-    AnnotationSet overlap = annots.getOverlapping(a);
+    AnnotationSet overlap = index.getOverlapping(a);
     for (Annotation o : overlap) {
       if (a.properCovers(o)) {
         recursive = true;
@@ -292,6 +336,11 @@ public static AnnotationSet removeRecursives(AnnotationSet annots)
  * This method cleans potential nps by removing leading and trailing junk as well as possesives
  */
 public static Annotation trimNP(Annotation np, AnnotationSet parse, String text)
+{
+  return trimNP(np, new AnnotationIndex(parse), text);
+}
+
+public static Annotation trimNP(Annotation np, AnnotationIndex parse, String text)
 {
   AnnotationSet contained = parse.getContained(np);
   Annotation result = np;
@@ -334,9 +383,14 @@ public static Annotation trimNP(Annotation np, AnnotationSet parse, String text)
 }
 
 public AnnotationSet getBaseCEs(String annSetName, Document doc)
+{
+  return getBaseCEs(annSetName, doc, new AnnotationIndex(doc.getAnnotationSet(Constants.PARSE)));
+}
+
+public AnnotationSet getBaseCEs(String annSetName, Document doc, AnnotationIndex parseIndex)
 {
   AnnotationSet bce = new AnnotationSet("bce");
-  AnnotationSet parseAnns = doc.getAnnotationSet(Constants.PARSE);
+  AnnotationSet parseAnns = parseIndex.getAnnotationSet();
 
   // Start with all nps
   for (Annotation p : parseAnns) {
@@ -349,7 +403,7 @@ public AnnotationSet getBaseCEs(String annSetName, Document doc)
 
   // Remove ce that contain PP's or S's
   for (Annotation p : bce) {
-    if (!containsPhrase(p, parseAnns, filtered, doc.getText())) {
+    if (!containsPhrase(p, parseIndex, filtered, doc.getText())) {
       filtered.add(p);
       // if(containsConj(p,parseAnns,text))
       // System.out.println("Contains conjunction: "+Utils.getAnnotText(p, text));
@@ -362,8 +416,9 @@ public AnnotationSet getBaseCEs(String annSetName, Document doc)
   AnnotationSet result = new AnnotationSet(annSetName);
 
   // Remove nps that are nested
+  AnnotationIndex filteredIndex = new AnnotationIndex(filtered);
   for (Annotation p : filtered) {
-    if (!isNested(p, filtered)) {
+    if (!isNested(p, filteredIndex)) {
       result.add(p);
     }
   }
@@ -383,6 +438,11 @@ public static void fixNumbering(AnnotationSet nps)
 }
 
 public AnnotationSet extractCEs(AnnotationSet bnp, AnnotationSet parse, String annSetName, Document doc)
+{
+  return extractCEs(bnp, new AnnotationIndex(parse), annSetName, doc);
+}
+
+public AnnotationSet extractCEs(AnnotationSet bnp, AnnotationIndex parse, String annSetName, Document doc)
 {
   AnnotationSet nerAnns = doc.getAnnotationSet(Constants.NE);
 
@@ -403,7 +463,7 @@ public AnnotationSet extractCEs(AnnotationSet bnp, AnnotationSet parse, String a
       // System.out.println("0 annotation from "+content);
     }
     else if (!result.containsSpan(np) && !origNes.coversSpan(np) && !isJunk(np, doc.getText())
-        && (!containsSameHead(result, np, true, doc))) {
+        && (!containsSameHead(result, np, true, doc, parse))) {
       addNP(result, np, nes, origNes, parse, doc);
       addNested(np, parse, result, origNes, nes, doc);
     }
@@ -413,10 +473,10 @@ public AnnotationSet extractCEs(AnnotationSet bnp, AnnotationSet parse, String a
   for (Annotation a : nes) {
     // a = trimNP(a, parse, text);
     // System.out.print("Adding NE "+Utils.getAnnotText(a, text)+"...");
-    if (a.getLength() > 0 && !result.containsSpan(a) && !containsSameHead(result, a, true, doc)
+    if (a.getLength() > 0 && !result.containsSpan(a) && !containsSameHead(result, a, true, doc, parse)
         && !isJunk(a, doc.getText()) && !a.getType().equalsIgnoreCase("number")) {
       if (!containsConflict(result, a, doc)) {
-    	if(addNE(a,result,bnp, doc))  
+    	if(addNE(a,result,bnp, parse, doc))  
     	  result.add(a.getStartOffset(), a.getEndOffset(), "NE");
         // System.out.println("added.");
       }
@@ -441,10 +501,10 @@ public AnnotationSet extractCEs(AnnotationSet bnp, AnnotationSet parse, String a
 }
 
 private static void addNP(AnnotationSet result, Annotation np, AnnotationSet nes, AnnotationSet origNes,
-    AnnotationSet parse, Document doc)
+    AnnotationIndex parse, Document doc)
 {
   np = trimNP(np, parse, doc.getText());
-  if (!containsSameHead(result, np, true, doc)) {
+  if (!containsSameHead(result, np, true, doc, parse)) {
 
     AnnotationSet overlapNe = nes.getOverlapping(np);
 
@@ -511,7 +571,7 @@ private static void addNP(AnnotationSet result, Annotation np, AnnotationSet nes
       }
     }
     else {
-      if (!containsSameHead(result, np, true, doc) && !containsConflict(result, np, doc)) {
+      if (!containsSameHead(result, np, true, doc, parse) && !containsConflict(result, np, doc)) {
         result.add(np);
       }
     }
@@ -519,7 +579,7 @@ private static void addNP(AnnotationSet result, Annotation np, AnnotationSet nes
 
 }
 
-private static void addNested(Annotation parent, AnnotationSet parse, AnnotationSet result, AnnotationSet origNes,
+private static void addNested(Annotation parent, AnnotationIndex parse, AnnotationSet result, AnnotationSet origNes,
     AnnotationSet nes, Document doc)
 {
 
@@ -533,7 +593,7 @@ private static void addNested(Annotation parent, AnnotationSet parse, Annotation
         // System.out.println("0 annotation from "+Utils.getAnnotText(par1, text));
       }
       else if (parent.properCovers(np) && !result.containsSpan(np) && !origNes.coversSpan(np)
-          && !isJunk(np, doc.getText()) && !containsSameHead(result, np, true, doc) /*&& !containsAppositive(np, parse, text)*/) {
+          && !isJunk(np, doc.getText()) && !containsSameHead(result, np, true, doc, parse) /*&& !containsAppositive(np, parse, text)*/) {
         // System.out.println("Found "+FeatureUtils.getText(np, text));
         // add(result, np, text);
         if (!containsConflict(result, np, doc)) {
@@ -546,19 +606,19 @@ private static void addNested(Annotation parent, AnnotationSet parse, Annotation
   // endOffsets.add(new Integer(parent.getEndOffset()));
 }
 
-private void addNestedNonNPs(Annotation parent, AnnotationSet parse, AnnotationSet result,
+private void addNestedNonNPs(Annotation parent, AnnotationIndex parse, AnnotationSet result,
     AnnotationSet origNes, AnnotationSet nes, Document doc)
 {
 
   // System.out.println("Adding NON NPs inside "+FeatureUtils.getText(parent, text));
   AnnotationSet pContained = parse.getContained(parent);
   for (Annotation p : pContained) {
-    if (isNoun(p, doc.getText()) && parent.properCovers(p) && !containsSameHead(result, p, false, doc)
+    if (isNoun(p, doc.getText()) && parent.properCovers(p) && !containsSameHead(result, p, false, doc, parse)
         && !result.containsSpan(p) && !origNes.coversSpan(p) && !isJunk(p, doc.getText())) {
       if (!getAllTitles().contains(doc.getAnnotText(p).toLowerCase())) {// &&FeatureUtils.isCapitalized(Utils.getAnnotText(p,
                                                                         // text)))
         p = trimNP(p, parse, doc.getText());
-        if (!containsSameHead(result, p, false, doc) && !result.containsSpan(p))
+        if (!containsSameHead(result, p, false, doc, parse) && !result.containsSpan(p))
           if (!containsConflict(result, p, doc)) {
             add(result, p, doc.getText());
           }
@@ -624,9 +684,10 @@ public void run(Document doc, String[] annSetNames)
 // Uses the MUC definition of NP
 public AnnotationSet run(String annSetName, Document doc)
 {
-  AnnotationSet parseAnns = doc.getAnnotationSet(Constants.PARSE);
-  AnnotationSet bnp = getBaseCEs(annSetName, doc);
-  AnnotationSet result = extractCEs(bnp, parseAnns, annSetName, doc);
+  // the parse does not change during extraction, so index it once for all the overlap/containment queries
+  AnnotationIndex parseIndex = new AnnotationIndex(doc.getAnnotationSet(Constants.PARSE));
+  AnnotationSet bnp = getBaseCEs(annSetName, doc, parseIndex);
+  AnnotationSet result = extractCEs(bnp, parseIndex, annSetName, doc);
   fixNumbering(result);
 
   AnnotationSet renumbered = new AnnotationSet(annSetName);
@@ -40,7 +40,8 @@ public boolean isNP(Annotation an, String text)
   return false;
 }
 
-public boolean addNE(Annotation a, AnnotationSet includedCEs, AnnotationSet baseCEs, Document doc){
+public boolean addNE(Annotation a, AnnotationSet includedCEs, AnnotationSet baseCEs, AnnotationIndex parse,
+    Document doc){
 	return true;
 }
 
@@ -35,7 +35,8 @@ public boolean isNP(Annotation an, String text)
   return false;
 }
 
-public boolean addNE(Annotation a, AnnotationSet includedCEs, AnnotationSet baseCEs, Document doc){
+public boolean addNE(Annotation a, AnnotationSet includedCEs, AnnotationSet baseCEs, AnnotationIndex parse,
+    Document doc){
 	return true;
 }
 
@@ -4,7 +4,6 @@ import reconcile.data.Annotation;
 import reconcile.data.AnnotationSet;
 import reconcile.data.Document;
 import reconcile.features.FeatureUtils;
-import reconcile.general.Constants;
 import reconcile.general.SyntaxUtils;
 
 
@@ -40,8 +39,8 @@ public boolean isNP(Annotation an, String text)
 	return false;
 }
 
-public boolean addNE(Annotation a, AnnotationSet includedCEs, AnnotationSet baseCEs, Document doc){
-	AnnotationSet parse = doc.getAnnotationSet(Constants.PARSE);
+public boolean addNE(Annotation a, AnnotationSet includedCEs, AnnotationSet baseCEs, AnnotationIndex parse,
+    Document doc){
 	String text = doc.getText();
 	AnnotationSet olapCEs = baseCEs.getOverlapping(a);
 	if(!includedCEs.coversSpan(a))
@@ -53,7 +52,7 @@ public boolean addNE(Annotation a, AnnotationSet includedCEs, AnnotationSet base
 		if(containsConj(oAn, parse, text))
 			return true;
 	}
-	Annotation par = SyntaxUtils.getHighestNode(a,parse);
+	Annotation par = SyntaxUtils.getHighestNode(a,parse.getAnnotationSet());
 	if(par!=null&&par.getType().equalsIgnoreCase("NP"))
 		return true;
 	if(a.getEndOffset()+2<text.length()){
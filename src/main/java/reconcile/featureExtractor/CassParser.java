@@ -7,7 +7,6 @@ import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -15,6 +14,7 @@ import java.util.Stack;
 import java.util.TreeMap;
 import java.util.regex.Pattern;
 
+import reconcile.ExternalProcessPool;
 import reconcile.data.Annotation;
 import reconcile.data.AnnotationSet;
 import reconcile.data.Document;
@@ -215,15 +215,15 @@ public void run(Document doc, String[] annSetNames)
     ;
     // +" | "+applicationDirectory+Utils.SEPARATOR+"cass";
     inFile = doc + Utils.SEPARATOR + "temp" + Utils.SEPARATOR + "cassOut";
-    String command[] = {
-        "bash ",
-        "-c",
-        (applicationDirectory + Utils.SEPARATOR + applicationName + " " + tempFilename + " | " + applicationDirectory
-            + Utils.SEPARATOR + "cass -r").replaceAll("\\\\", "/") };
+    String appDir = applicationDirectory.replaceAll("\\\\", "/");
+    String cassIn = tempFilename.replaceAll("\\\\", "/");
+    String command = ExternalProcessPool.commandLine(appDir + "/" + applicationName, cassIn)
+        + " | " + ExternalProcessPool.commandLine(appDir + "/cass", "-r");
     // String intermFilename = tempDirname+Utils.SEPARATOR+"cassIntermediate";
     PrintStream outStream = new PrintStream(inFile);
-    System.err.println("Running " + Arrays.toString(command));
-    Utils.runExternal(command, true, outStream);
+    System.err.println("Running " + command);
+    ExternalProcessPool.runExternal(command, outStream);
+    outStream.close();
     postprocess();
   }
   catch (Exception e) {
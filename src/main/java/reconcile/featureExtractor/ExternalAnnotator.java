@@ -6,8 +6,8 @@ package reconcile.featureExtractor;
 import java.io.BufferedReader;
 import java.io.IOException;
 
+import reconcile.ExternalProcessPool;
 import reconcile.data.Document;
-import reconcile.general.Utils;
 
 
 /**
@@ -42,7 +42,7 @@ public void runApplication()
     preprocess();
     String command = getApplicationName() + " " + runOptions();
     System.err.println("Running " + command);
-    Utils.runExternal(command);
+    ExternalProcessPool.runExternal(ExternalProcessPool.splitCommandLine(command), System.out);
     // Run the command
     // Process p = Runtime.getRuntime().exec(command);
     //
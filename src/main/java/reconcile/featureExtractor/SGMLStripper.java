@@ -5,11 +5,17 @@
 package reconcile.featureExtractor;
 
 import java.io.BufferedReader;
-import java.io.FileWriter;
+import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
 
 import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.XMLReaderFactory;
 
 import reconcile.data.Annotation;
 import reconcile.data.AnnotationSet;
@@ -46,6 +52,50 @@ public void characters(char ch[], int start, int length)
 }
 }
 
+/*
+ * Feeds the sgml file to the parser one formatted line at a time, so the
+ * input is cleaned up and stripped in a single pass without writing out a
+ * formatted copy of the whole document first.
+ */
+private class FormattingReader
+    extends Reader {
+
+private BufferedReader in;
+private StringBuilder buf = new StringBuilder();
+private int pos = 0;
+
+public FormattingReader(BufferedReader in) {
+  this.in = in;
+}
+
+@Override
+public int read(char[] cbuf, int off, int len)
+    throws IOException
+{
+  if (len == 0) return 0;
+
+  while (pos >= buf.length()) {
+    String line = in.readLine();
+    if (line == null) return -1;
+    buf.setLength(0);
+    pos = 0;
+    format(line, buf);
+  }
+
+  int n = Math.min(len, buf.length() - pos);
+  buf.getChars(pos, pos + n, cbuf, off);
+  pos += n;
+  return n;
+}
+
+@Override
+public void close()
+    throws IOException
+{
+  in.close();
+}
+}
+
 /*
  * Call the parent's constructor. 
  */
@@ -100,8 +150,53 @@ protected int getNextID()
   return MAX_ID++;
 }
 
-public abstract void format(BufferedReader br, FileWriter out)
-    throws IOException;
+/*
+ * Preprocesses a single line of the input so things like ampersands don't
+ * break the parser. The formatted text, including the newline, is appended
+ * to out. By default the line is passed through unchanged.
+ */
+public void format(String line, StringBuilder out)
+{
+  out.append(line).append('\n');
+}
+
+/*
+ * Runs the sgml file through format() and the handler in one streaming
+ * pass. Only the annotations and the output text written by the handler
+ * are kept around.
+ */
+protected void parse(String inputFile)
+    throws IOException, SAXException
+{
+  parse(inputFile, true);
+}
+
+protected void parse(String inputFile, boolean formatInput)
+    throws IOException, SAXException
+{
+  File file = new File(inputFile);
+  long stTime = System.currentTimeMillis();
+
+  XMLReader xmlr = XMLReaderFactory.createXMLReader();
+  xmlr.setContentHandler(handler);
+  xmlr.setErrorHandler(handler);
+
+  BufferedReader br = new BufferedReader(new FileReader(file));
+  Reader reader = formatInput ? new FormattingReader(br) : br;
+  try {
+    xmlr.parse(new InputSource(reader));
+  }
+  finally {
+    reader.close();
+  }
+
+  if (Constants.DEBUG) {
+    long elapsedTime = Math.max(System.currentTimeMillis() - stTime, 1);
+    double mb = file.length() / (1024.0 * 1024.0);
+    System.out.println(getName() + ": stripped " + String.format("%.2f", mb) + " MB in " + elapsedTime + " ms ("
+        + String.format("%.2f", mb * 1000 / elapsedTime) + " MB/s)");
+  }
+}
 
 @Override
 public abstract void run(Document doc, String[] annSetNames);
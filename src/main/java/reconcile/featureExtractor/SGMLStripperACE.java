@@ -4,18 +4,16 @@ package reconcile.featureExtractor;
  * SGMLStripperACE.java nathan; Removes SGML tags from ACE corpora; produces ace_annots and raw.txt files. This class
  * removes all SGML tags from the actual newswire article.
  */
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.util.Map;
 import java.util.Stack;
 import java.util.TreeMap;
+import java.util.regex.Pattern;
 
 import org.xml.sax.Attributes;
-import org.xml.sax.InputSource;
-import org.xml.sax.XMLReader;
-import org.xml.sax.helpers.XMLReaderFactory;
 
 import reconcile.data.Annotation;
 import reconcile.data.AnnotationSet;
@@ -32,8 +30,11 @@ private int skip;
 // private static final String[] FIELDS_TO_SKIP = {"DOCNO", "DOCID", "DOCTYPE", "DATETIME", "HEADER", "HEADLINE",
 // "SLUG", "DATE_TIME", "TRAILER"};
 private static final String[] FIELDS_TO_INCLUDE = { "TEXT", "TXT" };
-private FileWriter rawTextFile;
-private FileWriter originalRawTextFile;
+private static final Pattern AMP = Pattern.compile("@amp;|&amp;|&AMP;");
+private static final Pattern ENTITY2 = Pattern.compile("&\\w\\w;");
+private static final Pattern ENTITY3 = Pattern.compile("&\\w\\w\\w;");
+private Writer rawTextFile;
+private Writer originalRawTextFile;
 private int offset;
 
 Stack<Annotation> anStack;
@@ -46,25 +47,9 @@ public SGMLStripperACE() {
  * Gets rid of some bad charactes in ACE04
  */
 @Override
-public void format(BufferedReader br, FileWriter out)
-    throws IOException
+public void format(String line, StringBuilder out)
 {
-  String line;
-
-  try {
-    while ((line = br.readLine()) != null) {
-      line = line.replaceAll("&", "&amp;");
-      out.write(line + "\n");
-    }
-  }
-  catch (IOException ex) {
-    System.err.println(ex);
-  }
-
-  out.close();
-  br.close();
-
-  return;
+  out.append(line.replace("&", "&amp;")).append('\n');
 }
 
 @Override
@@ -73,41 +58,21 @@ public void run(Document doc, String[] annSetNames)
   String inputFile = doc.getAbsolutePath() + Utils.SEPARATOR + "raw.sgml";
   String textFile = doc.getAbsolutePath() + Utils.SEPARATOR + "raw.txt";
   String origTextFile = doc.getAbsolutePath() + Utils.SEPARATOR + "orig.raw.txt";
-  String outFile = doc.getAbsolutePath() + Utils.SEPARATOR + "raw.formatted";
   Utils.getConfig();
 
   try {
-    FileReader reader = new FileReader(inputFile);
-    FileWriter writer = new FileWriter(outFile);
-    XMLReader xmlr = XMLReaderFactory.createXMLReader();
-    xmlr.setContentHandler(handler);
-    xmlr.setErrorHandler(handler);
-
-    rawTextFile = new FileWriter(textFile);
-    originalRawTextFile = new FileWriter(origTextFile);
+    rawTextFile = new BufferedWriter(new FileWriter(textFile));
+    originalRawTextFile = new BufferedWriter(new FileWriter(origTextFile));
     markups = new AnnotationSet(annSetNames[0]);
     anStack = new Stack<Annotation>();
     offset = 0;
     skip = 1;
 
-    BufferedReader br = new BufferedReader(reader);
-    try {
-      format(br, writer);
-      reader.close();
-    }
-    catch (IOException ex) {
-      throw new RuntimeException(ex);
-    }
-
-    reader = new FileReader(outFile);
-
     // Parse the incoming XML file.
-    xmlr.parse(new InputSource(reader));
+    parse(inputFile);
     rawTextFile.close();
     originalRawTextFile.close();
     addResultSet(doc,markups);
-    reader.close();
-    writer.close();
   }
   catch (Exception ex) {
     throw new RuntimeException(ex);
@@ -196,11 +161,11 @@ public void characters(char ch[], int start, int length)
 
 public String unescapeText(String text)
 {
-  text = text.replaceAll("@amp;", "&    ");
-  text = text.replaceAll("&amp;", "&    ");
-  text = text.replaceAll("&AMP;", "&    ");
-  text = text.replaceAll("&\\w\\w;", "    ");
-  text = text.replaceAll("&\\w\\w\\w;", "     ");
+  if (text.indexOf('&') < 0 && text.indexOf('@') < 0) return text;
+
+  text = AMP.matcher(text).replaceAll("&    ");
+  text = ENTITY2.matcher(text).replaceAll("    ");
+  text = ENTITY3.matcher(text).replaceAll("     ");
 
   return text;
 }
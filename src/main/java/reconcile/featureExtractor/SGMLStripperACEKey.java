@@ -4,19 +4,13 @@ package reconcile.featureExtractor;
  * SGMLStripperACEKey.java nathan; July 7, 2008 Removes SGML tags from ACE corpora; produces ace_annots. This class
  * removes XML tags from the key.xml file and provides info for scoring.
  */
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Map;
 import java.util.Stack;
 import java.util.TreeMap;
 
 import org.xml.sax.Attributes;
-import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
-import org.xml.sax.XMLReader;
-import org.xml.sax.helpers.XMLReaderFactory;
 
 import reconcile.SystemConfig;
 import reconcile.data.Annotation;
@@ -54,13 +48,6 @@ public SGMLStripperACEKey() {
   super();
 }
 
-@Override
-public void format(BufferedReader br, FileWriter out)
-    throws IOException
-{
-  return;
-}
-
 public String translateNEType(String sem)
 {
   if (sem.startsWith("LOC"))
@@ -98,13 +85,8 @@ public void run(Document doc, String[] annSetNames)
 
 
   try {
-    FileReader reader = new FileReader(keyFile);
-    XMLReader xmlr = XMLReaderFactory.createXMLReader();
     AnnotationSet gsNEs;
 
-    xmlr.setContentHandler(handler);
-    xmlr.setErrorHandler(handler);
-
     AnnotationSet markups = doc.getAnnotationSet(Constants.ORIG);
     markups.setName(annSetNames[0]);
     //markups.setName("ace_annots");
@@ -112,7 +94,7 @@ public void run(Document doc, String[] annSetNames)
     anStack = new Stack<Annotation>();
 
     // Parse the incoming XML file.
-    xmlr.parse(new InputSource(reader));
+    parse(keyFile, false);
     if (Constants.DEBUG) {
       nps.checkForCrossingWordBoundaries(doc);
     }
@@ -4,18 +4,15 @@
 
 package reconcile.featureExtractor;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.util.Map;
 import java.util.Stack;
 import java.util.TreeMap;
 
 import org.xml.sax.Attributes;
-import org.xml.sax.InputSource;
-import org.xml.sax.XMLReader;
-import org.xml.sax.helpers.XMLReaderFactory;
 
 import reconcile.data.Annotation;
 import reconcile.data.AnnotationSet;
@@ -28,7 +25,9 @@ public class SGMLStripperMUCFullText
 
 private AnnotationSet markups;
 private int skip;
-FileWriter rawTextFile;
+private boolean paragraph;
+private boolean muc6;
+Writer rawTextFile;
 int offset;
 Stack<Annotation> anStack;
 
@@ -44,50 +43,34 @@ public SGMLStripperMUCFullText() {
  * the parser. 
  */
 @Override
-public void format(BufferedReader br, FileWriter out)
-    throws IOException
+public void format(String line, StringBuilder out)
 {
-  String line;
-  boolean paragraph = false;
-  boolean muc6 = Utils.getConfig().getString("DATASET").equals("muc6") ? true : false;
+  line = line.replace("&", "&amp;");
+
+  // For MUC 7
+  if (!muc6) {
+    if (line.startsWith("<STORYID")) {
+      int rabIndex = line.indexOf(">");
+      out.append("<STORYID").append(line, rabIndex, line.length() - 1).append('\n');
+      return;
+    }
 
-  try {
-    while ((line = br.readLine()) != null) {
-      line = line.replaceAll("&", "&amp;");
-
-      // For MUC 7
-      if (!muc6) {
-        if (line.startsWith("<STORYID")) {
-          int rabIndex = line.indexOf(">");
-          String outline = "<STORYID" + line.substring(rabIndex, line.length() - 1) + "\n";
-          out.write(outline);
-          continue;
-        }
-
-        if (line.startsWith("<SLUG")) {
-          int rabIndex = line.indexOf(">");
-          String outline = "<SLUG" + line.substring(rabIndex, line.length() - 1) + "\n";
-          out.write(outline);
-          continue;
-        }
-        if ((line.contains("<p>") && paragraph) || line.contains("</TEXT>")) {
-          out.write("</p>\n");
-        }
-
-        if (line.contains("<p>") && !paragraph) {
-          paragraph = true;
-        }
-      }
-
-      out.write(line.trim() + "\n");
+    if (line.startsWith("<SLUG")) {
+      int rabIndex = line.indexOf(">");
+      out.append("<SLUG").append(line, rabIndex, line.length() - 1).append('\n');
+      return;
+    }
+
+    if ((line.contains("<p>") && paragraph) || line.contains("</TEXT>")) {
+      out.append("</p>\n");
+    }
+
+    if (line.contains("<p>") && !paragraph) {
+      paragraph = true;
     }
-  }
-  catch (IOException ex) {
-    System.err.println(ex);
   }
 
-  out.close();
-  br.close();
+  out.append(line.trim()).append('\n');
 }
 
 @Override
@@ -97,37 +80,17 @@ public void run(Document doc, String[] annSetNames)
   String textFile = doc.getAbsolutePath() + Utils.SEPARATOR + "raw.txt";
 
   try {
-    /* The new file will be called raw.txt */
-    String outFile = doc.getAbsolutePath() + Utils.SEPARATOR + "raw.formatted";
-
-    FileWriter writer = new FileWriter(outFile);
-    FileReader reader = new FileReader(inputFile);
-
-    XMLReader xmlr = XMLReaderFactory.createXMLReader();
-
-    xmlr.setContentHandler(handler);
-    xmlr.setErrorHandler(handler);
-
-    BufferedReader br = new BufferedReader(reader);
-
-    try {
-      format(br, writer);
-      reader.close();
-    }
-    catch (IOException ex) {
-      throw new RuntimeException(ex);
-    }
-
-    reader = new FileReader(outFile);
-    rawTextFile = new FileWriter(textFile);
+    rawTextFile = new BufferedWriter(new FileWriter(textFile));
     markups = new AnnotationSet(annSetNames[0]);
     anStack = new Stack<Annotation>();
 
     offset = 0;
     skip = 0;
+    paragraph = false;
+    muc6 = Utils.getConfig().getString("DATASET").equals("muc6");
 
     // Parse the incoming XML file.
-    xmlr.parse(new InputSource(reader));
+    parse(inputFile);
 
     addResultSet(doc,markups);
     rawTextFile.close();
@@ -185,14 +148,12 @@ public void characters(char ch[], int start, int length)
    */
   if (skip > 0) return;
 
-  for (int i = start; i < start + length; i++) {
-    try {
-      rawTextFile.write(ch[i]);
-      offset++;
-    }
-    catch (IOException e) {
-      throw new RuntimeException(e);
-    }
+  try {
+    rawTextFile.write(ch, start, length);
+    offset += length;
+  }
+  catch (IOException e) {
+    throw new RuntimeException(e);
   }
 }
 }
@@ -3,19 +3,16 @@
  */
 package reconcile.featureExtractor;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.util.Map;
 import java.util.Stack;
 import java.util.TreeMap;
 
 import org.xml.sax.Attributes;
-import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
-import org.xml.sax.XMLReader;
-import org.xml.sax.helpers.XMLReaderFactory;
 
 import reconcile.data.Annotation;
 import reconcile.data.AnnotationSet;
@@ -37,8 +34,10 @@ private boolean headline = false;
 private boolean trailer = false;
 private boolean insertNewline = false;
 private boolean inText = false;
-FileWriter rawTextFile;
-FileWriter originalRawTextFile;
+private boolean paragraph;
+private boolean muc6;
+Writer rawTextFile;
+Writer originalRawTextFile;
 int offset;
 Stack<Annotation> anStack;
 
@@ -54,51 +53,34 @@ public SGMLStripperMUCRemoveFields() {
  * the parser. 
  */
 @Override
-public void format(BufferedReader br, FileWriter out)
-    throws IOException
+public void format(String line, StringBuilder out)
 {
-  String line;
-  boolean paragraph = false;
-  boolean muc6 = Utils.getConfig().getString("DATASET").equals("muc6") ? true : false;
+  line = line.replace("&", "@amp;");
+
+  // For MUC 7
+  if (!muc6) {
+    if (line.startsWith("<STORYID")) {
+      int rabIndex = line.indexOf(">");
+      out.append("<STORYID").append(line, rabIndex, line.length()).append('\n');
+      return;
+    }
 
-  try {
-    while ((line = br.readLine()) != null) {
-      line = line.replaceAll("&", "@amp;");
-
-      // For MUC 7
-      if (!muc6) {
-        if (line.startsWith("<STORYID")) {
-          int rabIndex = line.indexOf(">");
-          String outline = "<STORYID" + line.substring(rabIndex, line.length()) + "\n";
-          out.write(outline);
-          continue;
-        }
-
-        if (line.startsWith("<SLUG")) {
-          int rabIndex = line.indexOf(">");
-          String outline = "<SLUG" + line.substring(rabIndex, line.length()) + "\n";
-          out.write(outline);
-          continue;
-        }
-
-        if ((line.contains("<p>") && paragraph) || line.contains("</TEXT>")) {
-          out.write("</p>\n");
-        }
-
-        if (line.contains("<p>") && !paragraph) {
-          paragraph = true;
-        }
-      }
+    if (line.startsWith("<SLUG")) {
+      int rabIndex = line.indexOf(">");
+      out.append("<SLUG").append(line, rabIndex, line.length()).append('\n');
+      return;
+    }
 
-      out.write(line.trim() + "\n");
+    if ((line.contains("<p>") && paragraph) || line.contains("</TEXT>")) {
+      out.append("</p>\n");
+    }
+
+    if (line.contains("<p>") && !paragraph) {
+      paragraph = true;
     }
-  }
-  catch (IOException ex) {
-    System.err.println(ex);
   }
 
-  out.close();
-  br.close();
+  out.append(line.trim()).append('\n');
 }
 
 @Override
@@ -109,38 +91,18 @@ public void run(Document doc, String[] annSetNames)
   String origTextFile = doc.getAbsolutePath() + Utils.SEPARATOR + "orig.raw.txt";
 
   try {
-    /* The new file will be called raw.txt */
-    String outFile = doc.getAbsolutePath() + Utils.SEPARATOR + "raw.formatted";
-
-    FileWriter writer = new FileWriter(outFile);
-    FileReader reader = new FileReader(inputFile);
-
-    XMLReader xmlr = XMLReaderFactory.createXMLReader();
-
-    xmlr.setContentHandler(handler);
-    xmlr.setErrorHandler(handler);
-
-    BufferedReader br = new BufferedReader(reader);
-
-    try {
-      format(br, writer);
-      reader.close();
-    }
-    catch (IOException ex) {
-      throw new RuntimeException(ex);
-    }
-
-    reader = new FileReader(outFile);
-    rawTextFile = new FileWriter(textFile);
-    originalRawTextFile = new FileWriter(origTextFile);
+    rawTextFile = new BufferedWriter(new FileWriter(textFile));
+    originalRawTextFile = new BufferedWriter(new FileWriter(origTextFile));
     markups = new AnnotationSet(annSetNames[0]);
     anStack = new Stack<Annotation>();
 
     offset = 0;
     skip = 0;
+    paragraph = false;
+    muc6 = Utils.getConfig().getString("DATASET").equals("muc6");
 
     // Parse the incoming XML file.
-    xmlr.parse(new InputSource(reader));
+    parse(inputFile);
 
     addResultSet(doc,markups);
 
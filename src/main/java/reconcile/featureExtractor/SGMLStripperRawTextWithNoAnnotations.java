@@ -3,10 +3,7 @@
  */
 package reconcile.featureExtractor;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.FileWriter;
-import java.io.IOException;
 import java.util.Stack;
 
 import org.xml.sax.Attributes;
@@ -31,15 +28,6 @@ public SGMLStripperRawTextWithNoAnnotations() {
   super();
 }
 
-/*
- * Preprocesses the input file so things like ampersands don't break
- * the parser. 
- */
-@Override
-public void format(BufferedReader br, FileWriter out) throws IOException
-{
-}
-
 @Override
 public void run(Document doc, String[] annSetNames)
 {
@@ -3,19 +3,16 @@
  */
 package reconcile.featureExtractor;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.util.Map;
 import java.util.Stack;
 import java.util.TreeMap;
 
 import org.xml.sax.Attributes;
-import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
-import org.xml.sax.XMLReader;
-import org.xml.sax.helpers.XMLReaderFactory;
 
 import reconcile.data.Annotation;
 import reconcile.data.AnnotationSet;
@@ -35,8 +32,8 @@ private boolean headline = false;
 private boolean trailer = false;
 private boolean insertNewline = false;
 private boolean inText = false;
-FileWriter rawTextFile;
-FileWriter originalRawTextFile;
+Writer rawTextFile;
+Writer originalRawTextFile;
 int offset;
 Stack<Annotation> anStack;
 
@@ -52,33 +49,15 @@ public SGMLStripperSGMLNoAnnotations() {
  * the parser. 
  */
 @Override
-public void format(BufferedReader br, FileWriter out)
-    throws IOException
+public void format(String line, StringBuilder out)
 {
-  String line;
-  boolean paragraph = false;
-
-  try {
-    while ((line = br.readLine()) != null) {
-	  //System.out.println(line);
-     if (line.startsWith("<DOC id")) {
-        int rabIndex = line.indexOf(">");
-        String outline = "<DOC" + line.substring(rabIndex, line.length()) + "\n";
-        out.write(outline);
-        continue;
-     }
-
-      line = line.replaceAll("&", "@amp;");
-		out.write(line + "\n");
-    }
-  }
-	catch (IOException ex) {
-    System.err.println(ex);
+  if (line.startsWith("<DOC id")) {
+    int rabIndex = line.indexOf(">");
+    out.append("<DOC").append(line, rabIndex, line.length()).append('\n');
+    return;
   }
 
-	out.flush();
-	out.close();
-	br.close();
+  out.append(line.replace("&", "@amp;")).append('\n');
 }
 
 @Override
@@ -90,30 +69,8 @@ public void run(Document doc, String[] annSetNames)
   AnnotationSet nps = new AnnotationSet("gsNPs");
 
   try {
-    /* The new file will be called raw.txt */
-    String outFile = doc.getAbsolutePath() + Utils.SEPARATOR + "raw.formatted";
-
-    FileWriter writer = new FileWriter(outFile);
-    FileReader reader = new FileReader(inputFile);
-
-    XMLReader xmlr = XMLReaderFactory.createXMLReader();
-
-    xmlr.setContentHandler(handler);
-    xmlr.setErrorHandler(handler);
-
-    BufferedReader br = new BufferedReader(reader);
-
-    try {
-      format(br, writer);
-      reader.close();
-    }
-    catch (IOException ex) {
-      throw new RuntimeException(ex);
-    }
-
-    reader = new FileReader(outFile);
-    rawTextFile = new FileWriter(textFile);
-    originalRawTextFile = new FileWriter(origTextFile);
+    rawTextFile = new BufferedWriter(new FileWriter(textFile));
+    originalRawTextFile = new BufferedWriter(new FileWriter(origTextFile));
     markups = new AnnotationSet(annSetNames[0]);
     anStack = new Stack<Annotation>();
 
@@ -121,7 +78,7 @@ public void run(Document doc, String[] annSetNames)
     skip = 0;
 
     // Parse the incoming XML file.
-    xmlr.parse(new InputSource(reader));
+    parse(inputFile);
 
     doc.writeAnnotationSet(markups);
 	 doc.writeAnnotationSet(nps);
@@ -233,10 +190,7 @@ public void endElement(String uri, String name, String qName)
 @Override
 public void characters(char ch[], int start, int length)
 {
-  String text = "";
-  for (int i = start; i < start + length; i++) {
-    text += ch[i];
-  }
+  String text = new String(ch, start, length);
 
   text = unescapeText(text);
   if (headline) {
@@ -264,7 +218,7 @@ public void characters(char ch[], int start, int length)
       end = "\n";
     }
     String[] texts = text.split("\n");
-    String text1 = "";
+    StringBuilder text1 = new StringBuilder();
     boolean first = true;
     for (String t : texts) {
       if (inText && t.startsWith("@")) {
@@ -275,14 +229,14 @@ public void characters(char ch[], int start, int length)
         first = false;
       }
       else {
-        text1 += "\n";
+        text1.append("\n");
       }
-      text1 += t;
+      text1.append(t);
     }
-    text1 += end;
+    text1.append(end);
     // if(!text.equals(text1))
     // System.out.println("!===="+text1+"-"+text);
-    text = text1;
+    text = text1.toString();
   }
   // Clean up the trailer
   if (trailer && !text.matches("(\\d|\\-)+")) {
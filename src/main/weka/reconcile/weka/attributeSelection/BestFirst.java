@@ -57,6 +57,9 @@ import reconcile.weka.core.Utils;
  * Size of lookup cache for evaluated subsets. Expressed as a multiple
  * of the number of attributes in the data set. (default = 1). <p>
  *
+ * -num-threads <num> <br>
+ * Number of subsets evaluated at once. (default = 1). <p>
+ *
  * @author Mark Hall (mhall@cs.waikato.ac.nz)
  * @version $Revision: 1.1 $
  */
@@ -253,6 +256,9 @@ public class BestFirst extends ASSearch
 
   /** holds the maximum size of the lookup cache for evaluated subsets */
   protected int m_cacheSize;
+
+  /** number of subsets evaluated at once */
+  protected int m_numThreads;
   
   /**
    * Returns a string describing this search method
@@ -284,7 +290,7 @@ public class BestFirst extends ASSearch
    *
    **/
   public Enumeration listOptions () {
-    Vector newVector = new Vector(4);
+    Vector newVector = new Vector(5);
     
     newVector.addElement(new Option("\tSpecify a starting set of attributes." 
 				    + "\n\tEg. 1,3,5-7."
@@ -301,6 +307,9 @@ public class BestFirst extends ASSearch
 				    +"\n\tExpressed as a multiple of the number of"
 				    +"\n\tattributes in the data set. (default = 1)",
 				    "S", 1, "-S <num>"));
+    newVector.addElement(new Option("\tNumber of subsets evaluated at once."
+				    +"\n\t(default = 1)",
+				    "num-threads", 1, "-num-threads <num>"));
 				    
     return  newVector.elements();
   }
@@ -325,6 +334,9 @@ public class BestFirst extends ASSearch
    * Size of lookup cache for evaluated subsets. Expressed as a multiple
    * of the number of attributes in the data set. (default = 1). <p>
    *
+   * -num-threads <num> <br>
+   * Number of subsets evaluated at once. (default = 1). <p>
+   *
    * @param options the list of options as an array of strings
    * @exception Exception if an option is not supported
    *
@@ -359,6 +371,11 @@ public class BestFirst extends ASSearch
       setLookupCacheSize(Integer.parseInt(optionString));
     }
 
+    optionString = Utils.getOption("num-threads", options);
+    if (optionString.length() != 0) {
+      setNumThreads(Integer.parseInt(optionString));
+    }
+
     m_debug = Utils.getFlag('Z', options);
   }
 
@@ -396,6 +413,36 @@ public class BestFirst extends ASSearch
       +"(default = 1).";
   }
 
+  /**
+   * Set the number of subsets evaluated at once: the expansions of a
+   * node are evaluated by that many threads. (default = 1).
+   *
+   * @param n the number of threads
+   */
+  public void setNumThreads(int n) {
+    m_numThreads = n;
+  }
+
+  /**
+   * Return the number of subsets evaluated at once.
+   *
+   * @return the number of threads
+   */
+  public int getNumThreads() {
+    return m_numThreads;
+  }
+
+  /**
+   * Returns the tip text for this property
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String numThreadsTipText() {
+    return "Set the number of subsets evaluated at once. The expansions of a "
+      +"node are evaluated by that many threads, each with its own copy of "
+      +"the evaluator; the search doesn't depend on it. (default = 1).";
+  }
+
   /**
    * Returns the tip text for this property
    * @return tip text for this property suitable for
@@ -500,7 +547,7 @@ public class BestFirst extends ASSearch
    * @return an array of strings suitable for passing to setOptions()
    */
   public String[] getOptions () {
-    String[] options = new String[6];
+    String[] options = new String[8];
     int current = 0;
 
     if (!(getStartSet().equals(""))) {
@@ -511,6 +558,8 @@ public class BestFirst extends ASSearch
     options[current++] = "" + m_searchDirection;
     options[current++] = "-N";
     options[current++] = "" + m_maxStale;
+    options[current++] = "-num-threads";
+    options[current++] = "" + m_numThreads;
 
     while (current < options.length) {
       options[current++] = "";
@@ -634,6 +683,8 @@ public class BestFirst extends ASSearch
     }
 
     SubsetEvaluator ASEvaluator = (SubsetEvaluator)ASEval;
+    SubsetEvaluationService service =
+      new SubsetEvaluationService(ASEvaluator, m_numThreads, m_numThreads > 1);
     m_numAttribs = data.numAttributes();
     int i, j;
     int best_size = 0;
@@ -691,7 +742,7 @@ public class BestFirst extends ASSearch
     }
 
     // evaluate the initial subset
-    best_merit = ASEvaluator.evaluateSubset(best_group);
+    best_merit = service.evaluateSubset(best_group);
     // add the initial group to the list and the hash table
     Object [] best = new Object[1];
     best[0] = best_group.clone();
@@ -734,6 +785,11 @@ public class BestFirst extends ASSearch
       }
 
       do {
+	// evaluate the new expansions at once, they are looked up below
+	if (m_numThreads > 1) {
+	  service.evaluateSubsets(expansions(temp_group, sd, lookup));
+	}
+
 	for (i = 0; i < m_numAttribs; i++) {
 	  if (sd == SELECTION_FORWARD) {
 	    z = ((i != m_classIndex) && (!temp_group.get(i)));
@@ -758,7 +814,7 @@ public class BestFirst extends ASSearch
 	    tt = (BitSet)temp_group.clone();
 	    hashC = tt.toString();
 	    if (lookup.containsKey(hashC) == false) {
-	      merit = ASEvaluator.evaluateSubset(temp_group);
+	      merit = service.evaluateSubset(temp_group);
 	      m_totalEvals++;
 
 	      if (m_debug) {
@@ -791,6 +847,7 @@ public class BestFirst extends ASSearch
 
 	      if (insertCount > m_cacheSize * m_numAttribs) {
 		lookup = new Hashtable(m_cacheSize * m_numAttribs);
+		service.clearCache();
 		insertCount = 0;
 	      }
 	      // insert this one in the list and in the hash table
@@ -846,9 +903,41 @@ public class BestFirst extends ASSearch
     m_classIndex = -1;
     m_totalEvals = 0;
     m_cacheSize = 1;
+    m_numThreads = 1;
     m_debug = false;
   }
 
+  /**
+   * Makes the subsets that add (forward) or delete (backward) one
+   * attribute to or from a subset and aren't in the lookup table.
+   *
+   * @param group the subset
+   * @param direction the direction of the expansion
+   * @param lookup the lookup table
+   * @return the new expansions
+   */
+  protected BitSet [] expansions (BitSet group, int direction,
+				  Hashtable lookup) {
+    FastVector result = new FastVector();
+
+    for (int i = 0; i < m_numAttribs; i++) {
+      if ((i != m_classIndex) && 
+	  (group.get(i) == (direction == SELECTION_BACKWARD))) {
+	BitSet expansion = (BitSet)group.clone();
+	expansion.flip(i);
+	if (lookup.containsKey(expansion.toString()) == false) {
+	  result.addElement(expansion);
+	}
+      }
+    }
+
+    BitSet [] expansions = new BitSet [result.size()];
+    for (int i = 0; i < expansions.length; i++) {
+      expansions[i] = (BitSet)result.elementAt(i);
+    }
+    return  expansions;
+  }
+
 
   /**
    * converts a BitSet into a list of attribute indexes 
@@ -44,6 +44,9 @@ import reconcile.weka.core.Utils;
  * -V <br>
  * Verbose output. Output new best subsets as the search progresses. <p>
  *
+ * -num-threads <num> <br>
+ * Number of subsets evaluated at once. <p>
+ *
  * @author Mark Hall (mhall@cs.waikato.ac.nz)
  * @version $Revision: 1.1 $
  */
@@ -85,6 +88,9 @@ public class ExhaustiveSearch extends ASSearch
   /** the number of subsets evaluated during the search */
   private int m_evaluations;
 
+  /** the number of subsets evaluated at once */
+  private int m_numThreads;
+
   /**
    * Returns a string describing this search method
    * @return a description of the search suitable for
@@ -111,7 +117,7 @@ public class ExhaustiveSearch extends ASSearch
    * @return an enumeration of all the available options.
    **/
   public Enumeration listOptions () {
-    Vector newVector = new Vector(2);
+    Vector newVector = new Vector(3);
 
     newVector.addElement(new Option("\tSpecify a starting set of attributes." 
 				    + "\n\tEg. 1,3,5-7."
@@ -126,6 +132,10 @@ public class ExhaustiveSearch extends ASSearch
 				    +"\n\t(default = false)."
 				    , "V", 0
 				    , "-V"));
+    newVector.addElement(new Option("\tNumber of subsets evaluated at once."
+				    +"\n\t(default = 1)."
+				    , "num-threads", 1
+				    , "-num-threads <num>"));
     return  newVector.elements();
   }
 
@@ -140,6 +150,9 @@ public class ExhaustiveSearch extends ASSearch
    * -V <br>
    * Verbose output. Output new best subsets as the search progresses. <p>
    *
+   * -num-threads <num> <br>
+   * Number of subsets evaluated at once. <p>
+   *
    * @param options the list of options as an array of strings
    * @exception Exception if an option is not supported
    *
@@ -155,6 +168,11 @@ public class ExhaustiveSearch extends ASSearch
     }
 
     setVerbose(Utils.getFlag('V',options));
+
+    optionString = Utils.getOption("num-threads", options);
+    if (optionString.length() != 0) {
+      setNumThreads(Integer.parseInt(optionString));
+    }
   }
 
   /**
@@ -218,12 +236,38 @@ public class ExhaustiveSearch extends ASSearch
     return m_verbose;
   }
 
+  /**
+   * Returns the tip text for this property
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String numThreadsTipText() {
+    return "Number of subsets evaluated at once, by that many threads. The "
+      +"result and the number of subsets evaluated don't depend on it.";
+  }
+
+  /**
+   * set the number of subsets evaluated at once
+   * @param n the number of threads
+   */
+  public void setNumThreads(int n) {
+    m_numThreads = n;
+  }
+
+  /**
+   * get the number of subsets evaluated at once
+   * @return the number of threads
+   */
+  public int getNumThreads() {
+    return m_numThreads;
+  }
+
   /**
    * Gets the current settings of RandomSearch.
    * @return an array of strings suitable for passing to setOptions()
    */
   public String[] getOptions () {
-    String[] options = new String[3];
+    String[] options = new String[5];
     int current = 0;
 
     if (!(getStartSet().equals(""))) {
@@ -235,6 +279,9 @@ public class ExhaustiveSearch extends ASSearch
       options[current++] = "-V";
     }
 
+    options[current++] = "-num-threads";
+    options[current++] = ""+m_numThreads;
+
     while (current < options.length) {
       options[current++] = "";
     }
@@ -388,65 +435,56 @@ public class ExhaustiveSearch extends ASSearch
        }
      }
 
-     int i,j;
      if (!done) {
-       enumerateSizes: for (setSize = 1;setSize<=m_numAttribs;setSize++) {
-	 // set up and evaluate initial subset of this size
-         //	 subset = 0;
-	 tempGroup = new BitSet(m_numAttribs);
-	 for (i=0;i<setSize;i++) {
-	   tempGroup.set(i);
-	   if (m_hasClass && i == m_classIndex) {
-	     tempGroup.clear(i);
+       // the subsets are evaluated in batches, in the order they are
+       // enumerated in, and looked at in that order
+       SubsetEvaluationService service =
+	 new SubsetEvaluationService(ASEvaluator, m_numThreads, false);
+       int batchSize = (m_numThreads > 1) ? 64 * m_numThreads : 1;
+       setSize = 1;
+       tempGroup = firstSubset(setSize);
+       while (!done && tempGroup != null) {
+	 BitSet [] batch = new BitSet [batchSize];
+	 int numSubsets = 0;
+	 while (numSubsets < batchSize && tempGroup != null) {
+	   batch[numSubsets++] = (BitSet)tempGroup.clone();
+	   // generate the next subset of this size, or the first one of
+	   // the next size
+	   if (tempGroup.cardinality() > 0) {
+	     generateNextSubset(setSize, tempGroup);
 	   }
-	 }
-	 tempMerit = ASEvaluator.evaluateSubset(tempGroup);
-	 m_evaluations++;
-	 if (tempMerit >= best_merit) {
-	   tempSize = countFeatures(tempGroup);
-	   if (tempMerit > best_merit || 
-	       (tempSize < sizeOfBest)) {
-	     best_merit = tempMerit;
-	     m_bestGroup = (BitSet)(tempGroup.clone());
-	     sizeOfBest = tempSize;
-	     if (m_verbose) {
-	       System.out.println("New best subset ("
-				+Utils.doubleToString(Math.
-						      abs(best_merit),8,5)
-				  +"): "+printSubset(m_bestGroup));
-	     }
-	   }
-	   if (m_stopAfterFirst) {
-	     done = true;
-	     break enumerateSizes;
+	   if (tempGroup.cardinality() == 0) {
+	     setSize++;
+	     tempGroup = (setSize <= m_numAttribs) ? firstSubset(setSize) : null;
 	   }
 	 }
-	 // generate all the other subsets of this size
-         while (tempGroup.cardinality() > 0) {
-           generateNextSubset(setSize, tempGroup);
-           if (tempGroup.cardinality() > 0) {
-	     tempMerit = ASEvaluator.evaluateSubset(tempGroup);
-	     m_evaluations++;
-	     if (tempMerit >= best_merit) {
-	       tempSize = countFeatures(tempGroup);
-	       if (tempMerit > best_merit || 
-		   (tempSize < sizeOfBest)) {
-		 best_merit = tempMerit;
-		 m_bestGroup = (BitSet)(tempGroup.clone());
-		 sizeOfBest = tempSize;
-		 if (m_verbose) {
-		   System.out.println("New best subset ("
-				      +Utils.
-				      doubleToString(Math.
-						     abs(best_merit),8,5)
-				      +"): "+printSubset(m_bestGroup));
-		 }
-	       }
-	       if (m_stopAfterFirst) {
-		 done = true;
-		 break enumerateSizes;
+	 if (numSubsets < batchSize) {
+	   BitSet [] last = new BitSet [numSubsets];
+	   System.arraycopy(batch, 0, last, 0, numSubsets);
+	   batch = last;
+	 }
+	 double [] merits = service.evaluateSubsets(batch);
+
+	 for (int i = 0; i < batch.length; i++) {
+	   m_evaluations++;
+	   if (merits[i] >= best_merit) {
+	     tempSize = countFeatures(batch[i]);
+	     if (merits[i] > best_merit || 
+		 (tempSize < sizeOfBest)) {
+	       best_merit = merits[i];
+	       m_bestGroup = batch[i];
+	       sizeOfBest = tempSize;
+	       if (m_verbose) {
+		 System.out.println("New best subset ("
+				    +Utils.doubleToString(Math.
+							  abs(best_merit),8,5)
+				    +"): "+printSubset(m_bestGroup));
 	       }
 	     }
+	     if (m_stopAfterFirst) {
+	       done = true;
+	       break;
+	     }
 	   }
 	 }
        }
@@ -456,6 +494,23 @@ public class ExhaustiveSearch extends ASSearch
      return attributeList(m_bestGroup);
    }
 
+  /**
+   * makes the first subset of a size that generateNextSubset() starts
+   * from: the first size attributes, except the class
+   * @param size the size
+   * @return the first subset
+   */
+  private BitSet firstSubset(int size) {
+    BitSet subset = new BitSet(m_numAttribs);
+    for (int i=0;i<size;i++) {
+      subset.set(i);
+      if (m_hasClass && i == m_classIndex) {
+	subset.clear(i);
+      }
+    }
+    return subset;
+  }
+
   /**
    * counts the number of features in a subset
    * @param featureSet the feature set for which to count the features
@@ -584,5 +639,6 @@ public class ExhaustiveSearch extends ASSearch
     m_stopAfterFirst = false;
     m_verbose = false;
     m_evaluations = 0;
+    m_numThreads = 1;
   }
 }
@@ -67,6 +67,9 @@ import reconcile.weka.core.Utils;
  * -S <seed> <br>
  * Sets the seed for random number generation. <p>
  *
+ * -num-threads <num> <br>
+ * Number of population members evaluated at once. (default = 1). <p>
+ *
  * @author Mark Hall (mhall@cs.waikato.ac.nz)
  * @version $Revision: 1.1 $
  */
@@ -115,6 +118,9 @@ public class GeneticSearch extends ASSearch implements
   /** seed for random number generation */
   private int m_seed;
 
+  /** number of population members evaluated at once */
+  private int m_numThreads;
+
   /** the probability of crossover occuring */
   private double m_pCrossover;
 
@@ -247,7 +253,7 @@ public class GeneticSearch extends ASSearch implements
    * @return an enumeration of all the available options.
    **/
   public Enumeration listOptions () {
-    Vector newVector = new Vector(6);
+    Vector newVector = new Vector(8);
 
     newVector.addElement(new Option("\tSpecify a starting set of attributes." 
 				    + "\n\tEg. 1,3,5-7."
@@ -279,6 +285,9 @@ public class GeneticSearch extends ASSearch implements
     newVector.addElement(new Option("\tSet the random number seed."
 				    +"\n\t(default = 1)" 
 				    , "S", 1, "-S <seed>"));
+    newVector.addElement(new Option("\tNumber of population members evaluated"
+				    +"\n\tat once. (default = 1)"
+				    , "num-threads", 1, "-num-threads <num>"));
     return  newVector.elements();
   }
 
@@ -309,6 +318,9 @@ public class GeneticSearch extends ASSearch implements
    * -S <seed> <br>
    * Sets the seed for random number generation. <p>
    *
+   * -num-threads <num> <br>
+   * Number of population members evaluated at once. (default = 1). <p>
+   *
    * @param options the list of options as an array of strings
    * @exception Exception if an option is not supported
    *
@@ -353,6 +365,11 @@ public class GeneticSearch extends ASSearch implements
     if (optionString.length() != 0) {
       setSeed(Integer.parseInt(optionString));
     }
+
+    optionString = Utils.getOption("num-threads", options);
+    if (optionString.length() != 0) {
+      setNumThreads(Integer.parseInt(optionString));
+    }
   }
 
   /**
@@ -361,7 +378,7 @@ public class GeneticSearch extends ASSearch implements
    * @return an array of strings suitable for passing to setOptions()
    */
   public String[] getOptions () {
-    String[] options = new String[14];
+    String[] options = new String[16];
     int current = 0;
 
     if (!(getStartSet().equals(""))) {
@@ -380,6 +397,8 @@ public class GeneticSearch extends ASSearch implements
     options[current++] = "" + getReportFrequency();
     options[current++] = "-S";
     options[current++] = "" + getSeed();
+    options[current++] = "-num-threads";
+    options[current++] = "" + getNumThreads();
 
     while (current < options.length) {
       options[current++] = "";
@@ -387,6 +406,34 @@ public class GeneticSearch extends ASSearch implements
     return  options;
   }
 
+  /**
+   * Returns the tip text for this property
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String numThreadsTipText() {
+    return "Set the number of population members evaluated at once. The "
+      +"new members of a generation are evaluated by that many threads, "
+      +"each with its own copy of the evaluator; the search doesn't depend "
+      +"on it.";
+  }
+
+  /**
+   * set the number of population members evaluated at once
+   * @param n the number of threads
+   */
+  public void setNumThreads(int n) {
+    m_numThreads = n;
+  }
+
+  /**
+   * get the number of population members evaluated at once
+   * @return the number of threads
+   */
+  public int getNumThreads() {
+    return m_numThreads;
+  }
+
   /**
    * Returns the tip text for this property
    * @return tip text for this property suitable for
@@ -686,6 +733,8 @@ public class GeneticSearch extends ASSearch implements
     }
 
     SubsetEvaluator ASEvaluator = (SubsetEvaluator)ASEval;
+    SubsetEvaluationService service =
+      new SubsetEvaluationService(ASEvaluator, m_numThreads, false);
     m_numAttribs = data.numAttributes();
 
     m_startRange.setUpper(m_numAttribs-1);
@@ -700,7 +749,7 @@ public class GeneticSearch extends ASSearch implements
 
     // set up random initial population
     initPopulation();
-    evaluatePopulation(ASEvaluator);
+    evaluatePopulation(service);
     populationStatistics();
     scalePopulation();
     checkBest();
@@ -709,7 +758,7 @@ public class GeneticSearch extends ASSearch implements
     boolean converged;
     for (int i=1;i<=m_maxGenerations;i++) {
       generation();
-      evaluatePopulation(ASEvaluator);
+      evaluatePopulation(service);
       populationStatistics();
       scalePopulation();
       // find the best pop member and check for convergence
@@ -967,22 +1016,34 @@ public class GeneticSearch extends ASSearch implements
   /**
    * evaluates an entire population. Population members are looked up in
    * a hash table and if they are not found then they are evaluated using
-   * ASEvaluator.
-   * @param ASEvaluator the subset evaluator to use for evaluating population
-   * members
+   * the service, all at once.
+   * @param service the service to use for evaluating population members
    * @exception Exception if something goes wrong during evaluation
    */
-  private void evaluatePopulation (SubsetEvaluator ASEvaluator)
+  private void evaluatePopulation (SubsetEvaluationService service)
     throws Exception {
     int i;
-    double merit;
+    int num = 0;
+    int [] index = new int [m_popSize];
+    BitSet [] batch = new BitSet [m_popSize];
+
+    // evaluate the members that aren't in the lookup table
+    for (i=0;i<m_popSize;i++) {
+      if (m_lookupTable.containsKey(m_population[i]
+				    .getChromosome()) == false) {
+	index[i] = num;
+	batch[num++] = m_population[i].getChromosome();
+      }
+    }
+    BitSet [] todo = new BitSet [num];
+    System.arraycopy(batch, 0, todo, 0, num);
+    double [] merits = service.evaluateSubsets(todo);
 
     for (i=0;i<m_popSize;i++) {
-      // if its not in the lookup table then evaluate and insert
+      // if its not in the lookup table then insert
       if (m_lookupTable.containsKey(m_population[i]
 				    .getChromosome()) == false) {
-	merit = ASEvaluator.evaluateSubset(m_population[i].getChromosome());
-	m_population[i].setObjective(merit);
+	m_population[i].setObjective(merits[index[i]]);
 	m_lookupTable.put(m_population[i].getChromosome(),m_population[i]);
       } else {
 	GABitSet temp = (GABitSet)m_lookupTable.
@@ -1189,6 +1250,7 @@ public class GeneticSearch extends ASSearch implements
     m_starting = null;
     m_startRange = new Range();
     m_seed = 1;
+    m_numThreads = 1;
   }
 }
 
@@ -50,6 +50,9 @@ import reconcile.weka.core.Utils;
  * Specify a threshold by which the AttributeSelection module can. <br>
  * discard attributes. Use in conjunction with -R <p>
  *
+ * -num-threads <num> <br>
+ * Number of subsets evaluated at once. <p>
+ *
  * @author Mark Hall
  * @version $Revision: 1.1 $
  */
@@ -111,6 +114,9 @@ public class GreedyStepwise extends ASSearch
   /** Use a backwards search instead of a forwards one */
   protected boolean m_backward = false;
 
+  /** Number of subsets evaluated at once */
+  protected int m_numThreads = 1;
+
   /**
    * Returns a string describing this search method
    * @return a description of the search suitable for
@@ -135,6 +141,35 @@ public class GreedyStepwise extends ASSearch
     resetOptions();
   }
 
+  /**
+   * Returns the tip text for this property
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String numThreadsTipText() {
+    return "The number of subsets evaluated at once. The additions/deletions "
+      +"at each step are evaluated by that many threads; the search doesn't "
+      +"depend on it.";
+  }
+
+  /**
+   * Set the number of subsets evaluated at once
+   *
+   * @param n the number of threads
+   */
+  public void setNumThreads(int n) {
+    m_numThreads = n;
+  }
+
+  /**
+   * Get the number of subsets evaluated at once
+   *
+   * @return the number of threads
+   */
+  public int getNumThreads() {
+    return m_numThreads;
+  }
+
   /**
    * Returns the tip text for this property
    * @return tip text for this property suitable for
@@ -299,7 +334,7 @@ public class GreedyStepwise extends ASSearch
    * @return an enumeration of all the available options.
    **/
   public Enumeration listOptions () {
-    Vector newVector = new Vector(4);
+    Vector newVector = new Vector(6);
 
     newVector.addElement(new Option("\tUse a backward search instead  of a"
 				    +"\n\tforward one."
@@ -323,6 +358,11 @@ public class GreedyStepwise extends ASSearch
 			     ,"N",1
 			     , "-N <num to select>"));
 
+    newVector
+      .addElement(new Option("\tNumber of subsets evaluated at once" 
+			     ,"num-threads",1
+			     , "-num-threads <num>"));
+
     return newVector.elements();
 
   }
@@ -349,6 +389,9 @@ public class GreedyStepwise extends ASSearch
    * Specify the number of attributes to retain. Overides any threshold. <br>
    * <p>
    *
+   * -num-threads <num> <br>
+   * Number of subsets evaluated at once. <p>
+   *
    * @param options the list of options as an array of strings
    * @exception Exception if an option is not supported
    *
@@ -378,6 +421,13 @@ public class GreedyStepwise extends ASSearch
     if (optionString.length() != 0) {
       setNumToSelect(Integer.parseInt(optionString));
     }
+
+    optionString = Utils.getOption("num-threads", options);
+    if (optionString.length() != 0) {
+      setNumThreads(Integer.parseInt(optionString));
+    } else {
+      setNumThreads(1);
+    }
   }
 
   /**
@@ -386,7 +436,7 @@ public class GreedyStepwise extends ASSearch
    * @return an array of strings suitable for passing to setOptions()
    */
   public String[] getOptions () {
-    String[] options = new String[8];
+    String[] options = new String[10];
     int current = 0;
     
     if (getSearchBackwards()) {
@@ -407,6 +457,9 @@ public class GreedyStepwise extends ASSearch
     options[current++] = "-N";
     options[current++] = ""+getNumToSelect();
 
+    options[current++] = "-num-threads";
+    options[current++] = ""+getNumThreads();
+
     while (current < options.length) {
       options[current++] = "";
     }
@@ -536,6 +589,8 @@ public class GreedyStepwise extends ASSearch
     }
 
     SubsetEvaluator ASEvaluator = (SubsetEvaluator)m_ASEval;
+    SubsetEvaluationService service =
+      new SubsetEvaluationService(ASEvaluator, m_numThreads, m_numThreads > 1);
 
     if (m_rankedAtts == null) {
       m_rankedAtts = new double[m_numAttribs][2];
@@ -560,7 +615,7 @@ public class GreedyStepwise extends ASSearch
     }
 
     // Evaluate the initial subset
-    best_merit = ASEvaluator.evaluateSubset(m_best_group);
+    best_merit = service.evaluateSubset(m_best_group);
 
     // main search loop
     boolean done = false;
@@ -574,6 +629,24 @@ public class GreedyStepwise extends ASSearch
       }
       done = true;
       addone = false;
+
+      // evaluate all the additions/deletions at once, they are looked
+      // up below. No later step can ask for them again
+      if (m_numThreads > 1) {
+	BitSet [] steps = new BitSet [m_numAttribs];
+	int numSteps = 0;
+	for (i=0;i<m_numAttribs;i++) {
+	  if ((i != m_classIndex) && (temp_group.get(i) == m_backward)) {
+	    steps[numSteps] = (BitSet)temp_group.clone();
+	    steps[numSteps++].flip(i);
+	  }
+	}
+	BitSet [] batch = new BitSet [numSteps];
+	System.arraycopy(steps, 0, batch, 0, numSteps);
+	service.clearCache();
+	service.evaluateSubsets(batch);
+      }
+
       for (i=0;i<m_numAttribs;i++) {
 	if (m_backward) {
 	  z = ((i != m_classIndex) && (temp_group.get(i)));
@@ -587,7 +660,7 @@ public class GreedyStepwise extends ASSearch
 	  } else {
 	    temp_group.set(i);
 	  }
-	  temp_merit = ASEvaluator.evaluateSubset(temp_group);
+	  temp_merit = service.evaluateSubset(temp_group);
 	  if (m_backward) {
 	    z = (temp_merit >= temp_best);
 	  } else {
@@ -26,7 +26,9 @@ import java.util.BitSet;
 import java.util.Enumeration;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.Callable;
 
+import reconcile.weka.core.FastVector;
 import reconcile.weka.core.Instance;
 import reconcile.weka.core.Instances;
 import reconcile.weka.core.Option;
@@ -81,6 +83,9 @@ import reconcile.weka.experiment.Stats;
  * -Z <br>
  * Turn on verbose output for monitoring the search <p>
  *
+ * -num-threads <num> <br>
+ * Number of competing subsets trained at once. (default = 1). <p>
+ *
  * @author Mark Hall (mhall@cs.waikato.ac.nz)
  * @version $Revision: 1.1 $
  */
@@ -156,6 +161,9 @@ public class RaceSearch extends ASSearch implements RankedOutputSearch,
   /** verbose output for monitoring the search and debugging */
   private boolean m_debug = false;
 
+  /** the number of competing subsets trained at once */
+  private int m_numThreads = 1;
+
   /** If true then produce a ranked list of attributes by fully traversing
       a forward hillclimb race */
   private boolean m_rankingRequested = false;
@@ -368,6 +376,33 @@ public class RaceSearch extends ASSearch implements RankedOutputSearch,
     return m_debug;
   }
 
+  /**
+   * Returns the tip text for this property
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String numThreadsTipText() {
+    return "The number of competing subsets trained at once. At the start of "
+      +"each fold the surviving subsets are trained by that many threads; "
+      +"the race doesn't depend on it.";
+  }
+
+  /**
+   * Set the number of competing subsets trained at once.
+   * @param n the number of threads
+   */
+  public void setNumThreads(int n) {
+    m_numThreads = n;
+  }
+
+  /**
+   * Get the number of competing subsets trained at once.
+   * @return the number of threads
+   */
+  public int getNumThreads() {
+    return m_numThreads;
+  }
+
   /**
    * Returns the tip text for this property
    * @return tip text for this property suitable for
@@ -508,7 +543,7 @@ public class RaceSearch extends ASSearch implements RankedOutputSearch,
    * @return an enumeration of all the available options.
    **/
   public Enumeration listOptions () {
-    Vector newVector = new Vector(8);
+    Vector newVector = new Vector(11);
      newVector.addElement(new Option("\tType of race to perform.\n\t"
 				     +"(default = 0).",
 				     "R", 1 ,"-R <0 = forward | 1 = backward "
@@ -555,6 +590,9 @@ public class RaceSearch extends ASSearch implements RankedOutputSearch,
      newVector.addElement(new Option("\tVerbose output for monitoring the "
 				     +"search.",
 				     "Z",0,"-Z"));
+     newVector.addElement(new Option("\tNumber of competing subsets trained "
+				     +"at once.\n\t(default = 1).",
+				     "num-threads",1,"-num-threads <num>"));
      if ((m_ASEval != null) && 
 	 (m_ASEval instanceof OptionHandler)) {
        newVector.addElement(new Option("", "", 0, "\nOptions specific to " 
@@ -607,6 +645,9 @@ public class RaceSearch extends ASSearch implements RankedOutputSearch,
    * -Z <br>
    * Turn on verbose output for monitoring the search <p>
    *
+   * -num-threads <num> <br>
+   * Number of competing subsets trained at once. (default = 1). <p>
+   *
    * @param options the list of options as an array of strings
    * @exception Exception if an option is not supported
    *
@@ -663,6 +704,11 @@ public class RaceSearch extends ASSearch implements RankedOutputSearch,
     }
 
     setDebug(Utils.getFlag('Z', options));
+
+    optionString = Utils.getOption("num-threads", options);
+    if (optionString.length() != 0) {
+      setNumThreads(Integer.parseInt(optionString));
+    }
   }
 
   /**
@@ -677,7 +723,7 @@ public class RaceSearch extends ASSearch implements RankedOutputSearch,
 	(m_ASEval instanceof OptionHandler)) {
       evaluatorOptions = ((OptionHandler)m_ASEval).getOptions();
     }
-    String[] options = new String[17+evaluatorOptions.length];
+    String[] options = new String[19+evaluatorOptions.length];
 
     options[current++] = "-R"; options[current++] = ""+m_raceType;
     options[current++] = "-L"; options[current++] = ""+getSignificanceLevel();
@@ -691,6 +737,7 @@ public class RaceSearch extends ASSearch implements RankedOutputSearch,
     if (getDebug()) {
       options[current++] = "-Z";
     }
+    options[current++] = "-num-threads"; options[current++] = ""+m_numThreads;
     
     if (getAttributeEvaluator() != null) {
       options[current++] = "-A";
@@ -1311,8 +1358,10 @@ public class RaceSearch extends ASSearch implements RankedOutputSearch,
 				boolean baseSetIncluded, Random random) 
     throws Exception {
     // the evaluators --- one for each subset
-    ASEvaluation [] evaluators = 
+    final ASEvaluation [] evaluators = 
       m_theEvaluator.makeCopies(m_theEvaluator, raceSets.length);
+    SubsetEvaluationService service =
+      new SubsetEvaluationService(m_theEvaluator, m_numThreads, false);
 
     // array of subsets eliminated from the race
     boolean [] eliminated = new boolean [raceSets.length];
@@ -1334,7 +1383,7 @@ public class RaceSearch extends ASSearch implements RankedOutputSearch,
       }
     }
     
-    BitSet [] raceBitSets = new BitSet[raceSets.length];
+    final BitSet [] raceBitSets = new BitSet[raceSets.length];
     for (int i=0;i<raceSets.length;i++) {
       raceBitSets[i] = new BitSet(m_numAttribs);
       for (int j=0;j<m_numAttribs;j++) {
@@ -1346,10 +1395,9 @@ public class RaceSearch extends ASSearch implements RankedOutputSearch,
 
     // now loop over the data points collecting leave-one-out errors for
     // each attribute set
-    Instances trainCV;
     Instances testCV;
     Instance testInst;
-    double [] errors = new double [raceSets.length];
+    final double [] errors = new double [raceSets.length];
     int eliminatedCount = 0;
     int processedCount = 0;
     // if there is one set left in the race then we need to continue to
@@ -1362,37 +1410,49 @@ public class RaceSearch extends ASSearch implements RankedOutputSearch,
 
       // We want to randomize the data the same way for every 
       // learning scheme.
-      trainCV = data.trainCV(m_numFolds, i, new Random (1));
+      final Instances trainCV = data.trainCV(m_numFolds, i, new Random (1));
       testCV = data.testCV(m_numFolds, i);
       foldSize = testCV.numInstances();
       
       // loop over the surviving attribute sets building classifiers for this
-      // training set
+      // training set and computing their errors for the first test point.
+      // The evaluators are independent, so this is done on the threads
+      final Instance first = 
+	(testCV.numInstances() > 0) ? testCV.instance(0) : null;
+      FastVector tasks = new FastVector();
       for (int j=startPt;j<raceSets.length;j++) {
 	if (!eliminated[j]) {
-	  evaluators[j].buildEvaluator(trainCV);
+	  final int racer = j;
+	  tasks.addElement(new Callable() {
+	      public Object call() throws Exception {
+		evaluators[racer].buildEvaluator(trainCV);
+		if (first != null) {
+		  errors[racer] = -((HoldOutSubsetEvaluator)evaluators[racer]).
+		    evaluateSubset(raceBitSets[racer], first, true);
+		}
+		return null;
+	      }
+	    });
 	}
       }
+      Callable [] todo = new Callable [tasks.size()];
+      for (int j=0;j<todo.length;j++) {
+	todo[j] = (Callable)tasks.elementAt(j);
+      }
+      service.run(todo);
 
       for (int z=0;z<testCV.numInstances();z++) {
 	testInst = testCV.instance(z);
 	processedCount++;
 
 	// loop over surviving attribute sets computing errors for this
-	// test point
+	// test point (those for the first one were computed above)
 	for (int zz=startPt;zz<raceSets.length;zz++) {
-	  if (!eliminated[zz]) {
-	    if (z == 0) {// first test instance---make sure classifier is built
-	      errors[zz] = -((HoldOutSubsetEvaluator)evaluators[zz]).
-		evaluateSubset(raceBitSets[zz], 
-			       testInst,
-			       true);
-	    } else { // must be k fold rather than leave one out
-	      errors[zz] = -((HoldOutSubsetEvaluator)evaluators[zz]).
-		evaluateSubset(raceBitSets[zz], 
-			       testInst,
-			       false);
-	    }
+	  if (!eliminated[zz] && (z > 0)) { // must be k fold rather than loo
+	    errors[zz] = -((HoldOutSubsetEvaluator)evaluators[zz]).
+	      evaluateSubset(raceBitSets[zz], 
+			     testInst,
+			     false);
 	  }
 	}
 
@@ -1663,6 +1723,7 @@ public class RaceSearch extends ASSearch implements RankedOutputSearch,
     m_Ranking = null;
     m_raceType = FORWARD_RACE;
     m_debug = false;
+    m_numThreads = 1;
     m_theEvaluator = null;
     m_bestMerit = -Double.MAX_VALUE;
     m_numFolds = 10;
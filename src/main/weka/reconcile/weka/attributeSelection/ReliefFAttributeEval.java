@@ -25,12 +25,21 @@ package  reconcile.weka.attributeSelection;
 import java.util.Enumeration;
 import java.util.Random;
 import java.util.Vector;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import reconcile.weka.classifiers.lazy.neighboursearch.NearestNeighbourSearch;
+import reconcile.weka.classifiers.lazy.neighboursearch.NeighbourDistance;
 import reconcile.weka.core.Attribute;
 import reconcile.weka.core.Instance;
 import reconcile.weka.core.Instances;
 import reconcile.weka.core.Option;
 import reconcile.weka.core.OptionHandler;
+import reconcile.weka.core.SelectedTag;
 import reconcile.weka.core.UnsupportedAttributeTypeException;
 import reconcile.weka.core.Utils;
 
@@ -76,6 +85,15 @@ import reconcile.weka.core.Utils;
  * weights decrease for more distant instances). Use in conjunction with <br>
  * -W. Sensible values = 1/5 to 1/10 the number of nearest neighbours. <br>
  *
+ * -search linear|kdtree|balltree <br>
+ * The nearest neighbour search: a scan of all the instances, a KD-tree
+ * or a ball tree for each class. The trees may keep other neighbours of
+ * those as near as the kth. (default linear) <p>
+ *
+ * -num-threads <num> <br>
+ * Number of threads that find the neighbours of the sampled instances.
+ * (default 1) <p>
+ *
  * @author Mark Hall (mhall@cs.waikato.ac.nz)
  * @version $Revision: 1.1 $
  */
@@ -144,14 +162,29 @@ public class ReliefFAttributeEval
   /** Lower bound for numeric attributes */
   private double[] m_minArray;
 
-  /** Keep track of the farthest instance for each class */
-  private double[] m_worst;
-
-  /** Index in the m_karray of the farthest instance for each class */
-  private int[] m_index;
-
   /** Number of nearest neighbours stored of each class */
   private int[] m_stored;
+
+  /**
+   * The instances packed into bits, if all the attributes but the class
+   * have two values and no missing values, or null
+   */
+  private long[][] m_bits;
+
+  /** The nearest neighbour search (one of the TAGS_SEARCH) */
+  private int m_searchType;
+
+  /** 
+   * A search over the instances of each class (or all the instances if
+   * the class is numeric), null for a scan
+   */
+  private NearestNeighbourSearch[] m_searches;
+
+  /** The indices of the instances each search is over */
+  private int[][] m_members;
+
+  /** The number of threads finding nearest neighbours */
+  private int m_numThreads;
  
   /** Random number seed used for sampling instances */
   private int m_seed;
@@ -194,7 +227,7 @@ public class ReliefFAttributeEval
    * @return an enumeration of all the available options.
    **/
   public Enumeration listOptions () {
-    Vector newVector = new Vector(4);
+    Vector newVector = new Vector(7);
     newVector
       .addElement(new Option("\tSpecify the number of instances to\n" 
 			     + "\tsample when estimating attributes.\n" 
@@ -221,6 +254,16 @@ public class ReliefFAttributeEval
 			    + "\tSensible value=1/5 to 1/10 of the\n" 
 			    + "\tnumber of nearest neighbours.\n" 
 			    + "\t(Default = 2)", "A", 1, "-A <num>"));
+    newVector.
+      addElement(new Option("\tThe nearest neighbour search: linear (a\n" 
+			    + "\tscan of all the instances), kdtree or\n" 
+			    + "\tballtree. (Default = linear)", "search", 1
+			    , "-search <linear|kdtree|balltree>"));
+    newVector.
+      addElement(new Option("\tNumber of threads that find the nearest\n" 
+			    + "\tneighbours of the sampled instances.\n" 
+			    + "\t(Default = 1)", "num-threads", 1
+			    , "-num-threads <num>"));
     return  newVector.elements();
   }
 
@@ -249,6 +292,15 @@ public class ReliefFAttributeEval
    * weights decrease for more distant instances). Use in conjunction with <br>
    * -W. Sensible values = 1/5 to 1/10 the number of nearest neighbours. <br>
    *
+   * -search linear|kdtree|balltree <br>
+   * The nearest neighbour search: a scan of all the instances, a KD-tree
+   * or a ball tree for each class. The trees may keep other neighbours of
+   * those as near as the kth. (default linear) <p>
+   *
+   * -num-threads <num> <br>
+   * Number of threads that find the neighbours of the sampled instances.
+   * (default 1) <p>
+   *
    * @param options the list of options as an array of strings
    * @exception Exception if an option is not supported
    *
@@ -282,6 +334,21 @@ public class ReliefFAttributeEval
       setWeightByDistance(true); // turn on weighting by distance
       setSigma(Integer.parseInt(optionString));
     }
+
+    optionString = Utils.getOption("search", options);
+
+    if (optionString.length() != 0) {
+      setNearestNeighbourSearch(new SelectedTag(NearestNeighbourSearch
+						.typeOf(optionString),
+						NearestNeighbourSearch
+						.TAGS_SEARCH));
+    }
+
+    optionString = Utils.getOption("num-threads", options);
+
+    if (optionString.length() != 0) {
+      setNumThreads(Integer.parseInt(optionString));
+    }
   }
 
   /**
@@ -435,13 +502,79 @@ public class ReliefFAttributeEval
   }
 
 
+  /**
+   * Returns the tip text for this property
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String nearestNeighbourSearchTipText() {
+    return "The nearest neighbour search: a scan of all the instances, or "
+      +"a KD-tree or a ball tree over the instances of each class. The trees "
+      +"find neighbours as near as the scan does, but when several instances "
+      +"are as near as the kth they may keep different ones, and they add up "
+      +"the neighbours in a different order, so the weights can differ a "
+      +"little. The trees are faster with many instances and few "
+      +"attributes.";
+  }
+
+  /**
+   * Gets the nearest neighbour search.
+   *
+   * @return the search, one of the TAGS_SEARCH
+   */
+  public SelectedTag getNearestNeighbourSearch () {
+    return  new SelectedTag(m_searchType, NearestNeighbourSearch.TAGS_SEARCH);
+  }
+
+  /**
+   * Sets the nearest neighbour search.
+   *
+   * @param newSearch the search, one of the TAGS_SEARCH
+   */
+  public void setNearestNeighbourSearch (SelectedTag newSearch) {
+    if (newSearch.getTags() == NearestNeighbourSearch.TAGS_SEARCH) {
+      m_searchType = newSearch.getSelectedTag().getID();
+    }
+  }
+
+
+  /**
+   * Returns the tip text for this property
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String numThreadsTipText() {
+    return "The number of threads that find the nearest neighbours of the "
+      +"sampled instances. The weights are updated in the order the "
+      +"instances are sampled, so they don't depend on it.";
+  }
+
+  /**
+   * Sets the number of threads that find nearest neighbours.
+   *
+   * @param n the number of threads
+   */
+  public void setNumThreads (int n) {
+    m_numThreads = n;
+  }
+
+  /**
+   * Gets the number of threads that find nearest neighbours.
+   *
+   * @return the number of threads
+   */
+  public int getNumThreads () {
+    return  m_numThreads;
+  }
+
+
   /**
    * Gets the current settings of ReliefFAttributeEval.
    *
    * @return an array of strings suitable for passing to setOptions()
    */
   public String[] getOptions () {
-    String[] options = new String[9];
+    String[] options = new String[13];
     int current = 0;
 
     if (getWeightByDistance()) {
@@ -456,6 +589,11 @@ public class ReliefFAttributeEval
     options[current++] = "" + getNumNeighbours();
     options[current++] = "-A";
     options[current++] = "" + getSigma();
+    options[current++] = "-search";
+    options[current++] = getNearestNeighbourSearch().getSelectedTag()
+      .getReadable();
+    options[current++] = "-num-threads";
+    options[current++] = "" + getNumThreads();
 
     while (current < options.length) {
       options[current++] = "";
@@ -570,8 +708,6 @@ public class ReliefFAttributeEval
       }
     }
 
-    m_worst = new double[m_numClasses];
-    m_index = new int[m_numClasses];
     m_stored = new int[m_numClasses];
     m_minArray = new double[m_numAttribs];
     m_maxArray = new double[m_numAttribs];
@@ -583,6 +719,9 @@ public class ReliefFAttributeEval
     for (int i = 0; i < m_numInstances; i++) {
       updateMinMax(m_trainInstances.instance(i));
     }
+
+    packInstances();
+    buildSearches();
     
     if ((m_sampleM > m_numInstances) || (m_sampleM < 0)) {
       totalInstances = m_numInstances;
@@ -591,7 +730,10 @@ public class ReliefFAttributeEval
       totalInstances = m_sampleM;
     }
 
-    // process each instance, updating attribute weights
+    // the instances to process
+    int[] samples = new int[totalInstances];
+    int numSamples = 0;
+
     for (int i = 0; i < totalInstances; i++) {
       if (totalInstances == m_numInstances) {
         z = i;
@@ -605,25 +747,34 @@ public class ReliefFAttributeEval
       }
 
       if (!(m_trainInstances.instance(z).isMissing(m_classIndex))) {
-        // first clear the knn and worst index stuff for the classes
+        samples[numSamples++] = z;
+      }
+    }
+
+    // process each instance, updating attribute weights
+    if (m_numThreads > 1) {
+      processInParallel(samples, numSamples);
+    }
+    else {
+      for (int i = 0; i < numSamples; i++) {
+        z = samples[i];
+
+        // first clear the knn stuff for the classes
         for (int j = 0; j < m_numClasses; j++) {
-          m_index[j] = m_stored[j] = 0;
+          m_stored[j] = 0;
 
           for (int k = 0; k < m_Knn; k++) {
             m_karray[j][k][0] = m_karray[j][k][1] = 0;
           }
         }
 
-        findKHitMiss(z);
-
-        if (m_numericClass) {
-          updateWeightsNumericClass(z);
-        }
-        else {
-          updateWeightsDiscreteClass(z);
-        }
+        findKHitMiss(z, m_karray, m_stored);
+        updateWeights(z);
       }
     }
+    m_bits = null;
+    m_searches = null;
+    m_members = null;
 
     // now scale weights by 1/m_numInstances (nominal class) or
     // calculate weights numeric class
@@ -666,6 +817,8 @@ public class ReliefFAttributeEval
     m_sigma = 2;
     m_weightByDistance = false;
     m_seed = 1;
+    m_searchType = NearestNeighbourSearch.LINEAR;
+    m_numThreads = 1;
   }
 
 
@@ -720,6 +873,138 @@ public class ReliefFAttributeEval
     }
   }
 
+  /**
+   * Packs the training instances into bits if each attribute but the
+   * class has two values at most and no missing values (e.g. binary
+   * attributes): the difference between two values is then 0 or 1, and
+   * the distance between two instances the number of attributes whose
+   * bits differ. Otherwise m_bits is set to null.
+   */
+  private void packInstances () {
+    double[] firstValue = new double[m_numAttribs];
+    double[] secondValue = new double[m_numAttribs];
+    boolean[] used = new boolean[m_numAttribs];
+    int numBits = 0;
+
+    m_bits = null;
+    // find the two values of each attribute
+    for (int j = 0; j < m_numAttribs; j++) {
+      int type = m_trainInstances.attribute(j).type();
+
+      if ((j == m_classIndex) || 
+	  ((type != Attribute.NOMINAL) && (type != Attribute.NUMERIC))) {
+	continue; // makes no difference
+      }
+      firstValue[j] = secondValue[j] = Double.NaN;
+
+      for (int i = 0; i < m_numInstances; i++) {
+	double value = m_trainInstances.instance(i).value(j);
+
+	if (Instance.isMissingValue(value)) {
+	  return;
+	}
+	if (Double.isNaN(firstValue[j])) {
+	  firstValue[j] = value;
+	}
+	else if (value != firstValue[j]) {
+	  if (Double.isNaN(secondValue[j])) {
+	    secondValue[j] = value;
+	  }
+	  else if (value != secondValue[j]) {
+	    return;
+	  }
+	}
+      }
+      // both values normalize to 0 if they are this close
+      used[j] = !Double.isNaN(secondValue[j]) && 
+	((type == Attribute.NOMINAL) || 
+	 !Utils.eq(m_maxArray[j], m_minArray[j]));
+
+      if (used[j]) {
+	numBits++;
+      }
+    }
+
+    // a bit is set for the second value
+    m_bits = new long[m_numInstances][(numBits + 63) / 64];
+
+    for (int i = 0; i < m_numInstances; i++) {
+      Instance inst = m_trainInstances.instance(i);
+
+      for (int j = 0, bit = 0; j < m_numAttribs; j++) {
+	if (used[j]) {
+	  if (inst.value(j) == secondValue[j]) {
+	    m_bits[i][bit >> 6] |= 1L << (bit & 63);
+	  }
+	  bit++;
+	}
+      }
+    }
+  }
+
+
+  /**
+   * Builds a nearest neighbour search over the instances of each class,
+   * or all the instances if the class is numeric, unless the neighbours
+   * are found by a scan. As in findKHitMiss(), an instance with a missing
+   * class counts as one of the first class.
+   *
+   * @exception Exception if a search can't be built
+   */
+  private void buildSearches () throws Exception {
+    m_searches = null;
+    m_members = null;
+
+    if (m_searchType == NearestNeighbourSearch.LINEAR) {
+      return;
+    }
+    int[] counts = new int[m_numClasses];
+
+    for (int i = 0; i < m_numInstances; i++) {
+      if (!m_numericClass) {
+	counts[(int)m_trainInstances.instance(i).value(m_classIndex)]++;
+      }
+      else {
+	counts[0]++;
+      }
+    }
+    m_members = new int[m_numClasses][];
+
+    for (int cl = 0; cl < m_numClasses; cl++) {
+      m_members[cl] = new int[counts[cl]];
+      counts[cl] = 0;
+    }
+
+    for (int i = 0; i < m_numInstances; i++) {
+      int cl = (m_numericClass) 
+	? 0 
+	: (int)m_trainInstances.instance(i).value(m_classIndex);
+      m_members[cl][counts[cl]++] = i;
+    }
+    m_searches = new NearestNeighbourSearch[m_numClasses];
+
+    for (int cl = 0; cl < m_numClasses; cl++) {
+      if (m_members[cl].length == 0) {
+	continue;
+      }
+      Instances members;
+
+      if (m_numericClass) {
+	members = m_trainInstances;
+      }
+      else {
+	members = new Instances(m_trainInstances, m_members[cl].length);
+
+	for (int j = 0; j < m_members[cl].length; j++) {
+	  members.add(m_trainInstances.instance(m_members[cl][j]));
+	}
+      }
+      m_searches[cl] = NearestNeighbourSearch.forType(m_searchType);
+      m_searches[cl].setInstances(members, new Distance());
+    }
+  }
+
+
   /**
    * Computes the difference between two given attribute
    * values.
@@ -767,20 +1052,49 @@ public class ReliefFAttributeEval
     }
   }
 
+  /**
+   * Calculates the distance between two training instances, by counting
+   * the bits that differ if the instances are packed.
+   *
+   * @param first the index of the first instance
+   * @param second the index of the second instance
+   * @param bound the distance may be left at any value at least bound
+   * once it is known to be at least bound
+   * @return the distance between the two given instances
+   */
+  private double distance(int first, int second, double bound) {
+
+    if (m_bits != null) {
+      long[] firstBits = m_bits[first];
+      long[] secondBits = m_bits[second];
+      int count = 0;
+
+      for (int i = 0; i < firstBits.length; i++) {
+	count += Long.bitCount(firstBits[i] ^ secondBits[i]);
+      }
+      return count;
+    }
+    return distance(m_trainInstances.instance(first), 
+		    m_trainInstances.instance(second), bound);
+  }
+
   /**
    * Calculates the distance between two instances
    *
    * @param test the first instance
    * @param train the second instance
+   * @param bound the sum is not finished once it is at least bound (the
+   * differences aren't negative, so the distance is at least bound too)
    * @return the distance between the two given instances, between 0 and 1
    */          
-  private double distance(Instance first, Instance second) {  
+  private double distance(Instance first, Instance second, double bound) {  
 
     double distance = 0;
     int firstI, secondI;
 
     for (int p1 = 0, p2 = 0; 
-	 p1 < first.numValues() || p2 < second.numValues();) {
+	 (p1 < first.numValues() || p2 < second.numValues()) 
+	   && (distance < bound);) {
       if (p1 >= first.numValues()) {
 	firstI = m_trainInstances.numAttributes();
       } else {
@@ -821,6 +1135,45 @@ public class ReliefFAttributeEval
   }
 
 
+  /**
+   * The distance of ReliefF, for the nearest neighbour searches. It adds
+   * up the differences rather than their squares, so the differences
+   * given to the searches are their square roots, rounded down so that
+   * their squares are never more than the differences. The distance is a
+   * metric: the difference between a missing value and anything is at
+   * most 1, and at least 1/2 for attributes with more than one value.
+   */
+  private class Distance implements NeighbourDistance {
+
+    public double distance (Instance first, Instance second) {
+      return  ReliefFAttributeEval.this.distance(first, second, 
+						 Double.POSITIVE_INFINITY);
+    }
+
+    public double difference (int index, double val1, double val2) {
+      double diff = ReliefFAttributeEval.this.difference(index, val1, val2);
+      double root = Math.sqrt(diff);
+
+      if (root * root > diff) {
+	root = Math.nextAfter(root, 0);
+      }
+      return  root;
+    }
+
+    public double distanceFromSquares (double sumOfSquares) {
+      return  sumOfSquares;
+    }
+
+    public boolean isMetric () {
+      return  true;
+    }
+
+    public double metric (double distance) {
+      return  distance;
+    }
+  }
+
+
   /**
    * update attribute weights given an instance when the class is numeric
    *
@@ -1135,19 +1488,24 @@ public class ReliefFAttributeEval
    * classes) if the class is discrete.
    *
    * @param instNum the index of the instance to find nearest neighbours of
+   * @param karray receives the k nearest scores + instance indexes for
+   * each class
+   * @param stored receives the number of nearest neighbours of each class
    */
-  private void findKHitMiss (int instNum) {
+  private void findKHitMiss (int instNum, double[][][] karray, int[] stored) {
     int i, j;
     int cl;
     double ww;
     double temp_diff = 0.0;
-    Instance thisInst = m_trainInstances.instance(instNum);
+    int[] index = new int[m_numClasses];
+
+    if (m_searches != null) {
+      searchKHitMiss(instNum, karray, stored);
+      return;
+    }
 
     for (i = 0; i < m_numInstances; i++) {
       if (i != instNum) {
-	Instance cmpInst = m_trainInstances.instance(i);
-	temp_diff = distance(cmpInst, thisInst);
-
 	// class of this training instance or 0 if numeric
 	if (m_numericClass) {
 	  cl = 0;
@@ -1157,40 +1515,170 @@ public class ReliefFAttributeEval
 	}
 
 	// add this diff to the list for the class of this instance
-	if (m_stored[cl] < m_Knn) {
-	  m_karray[cl][m_stored[cl]][0] = temp_diff;
-	  m_karray[cl][m_stored[cl]][1] = i;
-	  m_stored[cl]++;
+	if (stored[cl] < m_Knn) {
+	  temp_diff = distance(i, instNum, Double.POSITIVE_INFINITY);
+	  karray[cl][stored[cl]][0] = temp_diff;
+	  karray[cl][stored[cl]][1] = i;
+	  stored[cl]++;
 
 	  // note the worst diff for this class
-	  for (j = 0, ww = -1.0; j < m_stored[cl]; j++) {
-	    if (m_karray[cl][j][0] > ww) {
-	      ww = m_karray[cl][j][0];
-	      m_index[cl] = j;
+	  for (j = 0, ww = -1.0; j < stored[cl]; j++) {
+	    if (karray[cl][j][0] > ww) {
+	      ww = karray[cl][j][0];
+	      index[cl] = j;
 	    }
 	  }
-
-	  m_worst[cl] = ww;
 	}
 	else 
 	  /* if we already have stored knn for this class then check to
 	     see if this instance is better than the worst */
 	  {
-	    if (temp_diff < m_karray[cl][m_index[cl]][0]) {
-	      m_karray[cl][m_index[cl]][0] = temp_diff;
-	      m_karray[cl][m_index[cl]][1] = i;
-
-	      for (j = 0, ww = -1.0; j < m_stored[cl]; j++) {
-		if (m_karray[cl][j][0] > ww) {
-		  ww = m_karray[cl][j][0];
-		  m_index[cl] = j;
+	    temp_diff = distance(i, instNum, karray[cl][index[cl]][0]);
+
+	    if (temp_diff < karray[cl][index[cl]][0]) {
+	      karray[cl][index[cl]][0] = temp_diff;
+	      karray[cl][index[cl]][1] = i;
+
+	      for (j = 0, ww = -1.0; j < stored[cl]; j++) {
+		if (karray[cl][j][0] > ww) {
+		  ww = karray[cl][j][0];
+		  index[cl] = j;
+		}
+	      }
+	    }
+	  }
+      }
+    }
+  }
+
+
+  /**
+   * Finds the K nearest neighbours of each class with the searches.
+   * Of several instances as near as the Kth, the ones first in the data
+   * are kept (the scan in findKHitMiss() keeps the ones that happen to
+   * stay in m_karray). They are stored in order of distance.
+   *
+   * @param instNum the index of the instance to find nearest neighbours of
+   * @param karray receives the k nearest scores + instance indexes for
+   * each class
+   * @param stored receives the number of nearest neighbours of each class
+   */
+  private void searchKHitMiss (int instNum, double[][][] karray, 
+			       int[] stored) {
+    Instance thisInst = m_trainInstances.instance(instNum);
+
+    for (int cl = 0; cl < m_numClasses; cl++) {
+      if (m_searches[cl] == null) {
+	stored[cl] = 0;
+	continue;
+      }
+
+      // one more, in case the instance itself is among them
+      int[] found = m_searches[cl].kNearestNeighbours(thisInst, m_Knn + 1);
+      int[] indices = new int[found.length];
+      double[] dists = new double[found.length];
+      int num = 0;
+
+      // in the order of the data; an instance goes before the ones
+      // further away and after those as near
+      for (int j = 0; j < found.length; j++) {
+	int i = m_members[cl][found[j]];
+
+	if (i != instNum) {
+	  double dist = distance(i, instNum, Double.POSITIVE_INFINITY);
+	  int k = num++;
+
+	  while ((k > 0) && (dists[k - 1] > dist)) {
+	    indices[k] = indices[k - 1];
+	    dists[k] = dists[k - 1];
+	    k--;
+	  }
+	  indices[k] = i;
+	  dists[k] = dist;
+	}
+      }
+      stored[cl] = Math.min(num, m_Knn);
+
+      for (int j = 0; j < stored[cl]; j++) {
+	karray[cl][j][0] = dists[j];
+	karray[cl][j][1] = indices[j];
+      }
+    }
+  }
+
+
+  /**
+   * Finds the nearest neighbours of the sampled instances on the threads,
+   * a block of instances at a time, and updates the weights with them in
+   * the order the instances were sampled, as a single thread does.
+   *
+   * @param samples the indices of the instances to process
+   * @param numSamples the number of instances to process
+   * @exception Exception if neighbours can't be found
+   */
+  private void processInParallel (final int[] samples, int numSamples)
+    throws Exception {
+    int blockSize = 64 * m_numThreads;
+    final double[][][][] karrays = new double[blockSize][][][];
+    final int[][] stored = new int[blockSize][];
+    ExecutorService pool = Executors.newFixedThreadPool(m_numThreads);
+
+    try {
+      for (int start = 0; start < numSamples; start += blockSize) {
+	final int first = start;
+	final int num = Math.min(blockSize, numSamples - start);
+	final AtomicInteger next = new AtomicInteger();
+	Future[] futures = new Future[m_numThreads];
+
+	for (int t = 0; t < futures.length; t++) {
+	  futures[t] = pool.submit(new Callable() {
+	      public Object call() throws Exception {
+		for (int i = next.getAndIncrement(); i < num; 
+		     i = next.getAndIncrement()) {
+		  karrays[i] = new double[m_numClasses][m_Knn][2];
+		  stored[i] = new int[m_numClasses];
+		  findKHitMiss(samples[first + i], karrays[i], stored[i]);
 		}
+		return null;
 	      }
+	    });
+	}
 
-	      m_worst[cl] = ww;
+	for (int t = 0; t < futures.length; t++) {
+	  try {
+	    futures[t].get();
+	  } catch (ExecutionException e) {
+	    if (e.getCause() instanceof Exception) {
+	      throw (Exception)e.getCause();
 	    }
+	    throw e;
 	  }
+	}
+
+	for (int i = 0; i < num; i++) {
+	  m_karray = karrays[i];
+	  m_stored = stored[i];
+	  updateWeights(samples[first + i]);
+	}
       }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+
+  /**
+   * update attribute weights given an instance and its nearest neighbours
+   * in m_karray
+   *
+   * @param instNum the index of the instance to use when updating weights
+   */
+  private void updateWeights (int instNum) {
+    if (m_numericClass) {
+      updateWeightsNumericClass(instNum);
+    }
+    else {
+      updateWeightsDiscreteClass(instNum);
     }
   }
 
@@ -0,0 +1,264 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    SubsetEvaluationService.java
+ *
+ */
+
+package reconcile.weka.attributeSelection;
+
+import java.util.BitSet;
+import java.util.Hashtable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Evaluates attribute subsets for a search, several at once. A search
+ * hands over a batch of subsets that don't depend on each other (the
+ * expansions of a node, a generation of a population) and gets their
+ * merits back in the same order. Each thread evaluates with its own
+ * copy of the built evaluator, so the evaluator needn't be thread safe,
+ * but its merit for a subset mustn't depend on the subsets evaluated
+ * before.<p>
+ *
+ * The merits can be remembered until the search clears them, so that a
+ * subset is only evaluated once however often the search asks for it.
+ * A search can therefore evaluate a batch up front and then ask for the
+ * subsets one at a time, in the order it always did. With one thread
+ * the subsets are evaluated in the calling thread by the evaluator
+ * itself, in the order they are given.
+ *
+ * @author ves
+ * @version $Revision: 1.1 $
+ */
+public class SubsetEvaluationService {
+
+  /** the evaluator the search was given */
+  private SubsetEvaluator m_evaluator;
+
+  /** a copy of the evaluator for each thread, made when first needed */
+  private SubsetEvaluator [] m_copies;
+
+  /** the number of threads */
+  private int m_numThreads;
+
+  /** the merits of the subsets evaluated so far, null if not kept */
+  private Hashtable m_cache;
+
+  /** the number of subsets evaluated */
+  private int m_numEvaluations;
+
+  /** the number of subsets found in the cache */
+  private int m_cacheHits;
+
+  /**
+   * Constructor.
+   *
+   * @param evaluator the built evaluator
+   * @param numThreads the number of threads that evaluate subsets
+   * @param cache true if the merits are kept for the rest of the search
+   */
+  public SubsetEvaluationService (SubsetEvaluator evaluator, int numThreads,
+				  boolean cache) {
+    m_evaluator = evaluator;
+    m_numThreads = Math.max(numThreads, 1);
+    if (cache) {
+      m_cache = new Hashtable();
+    }
+  }
+
+  /**
+   * Evaluates a subset, or looks up its merit if it has been evaluated
+   * before.
+   *
+   * @param subset the subset
+   * @return the merit of the subset
+   * @exception Exception if the subset could not be evaluated
+   */
+  public double evaluateSubset (BitSet subset)
+    throws Exception {
+    if (m_cache != null) {
+      Double merit = (Double)m_cache.get(subset);
+      if (merit != null) {
+	m_cacheHits++;
+	return merit.doubleValue();
+      }
+    }
+    double merit = m_evaluator.evaluateSubset(subset);
+    m_numEvaluations++;
+    if (m_cache != null) {
+      m_cache.put(subset.clone(), new Double(merit));
+    }
+    return merit;
+  }
+
+  /**
+   * Evaluates a batch of subsets at once. Subsets that are in the
+   * cache or occur more than once in the batch are only evaluated once.
+   *
+   * @param subsets the subsets (not changed)
+   * @return the merits of the subsets, in the same order
+   * @exception Exception the first exception thrown by the evaluator
+   */
+  public double [] evaluateSubsets (BitSet [] subsets)
+    throws Exception {
+    final double [] merits = new double [subsets.length];
+
+    // find the subsets that have to be evaluated
+    int [] source = new int [subsets.length];
+    final BitSet [] todo = new BitSet [subsets.length];
+    int numTodo = 0;
+    Hashtable batch = new Hashtable();
+    for (int i = 0; i < subsets.length; i++) {
+      if (m_cache != null && m_cache.containsKey(subsets[i])) {
+	merits[i] = ((Double)m_cache.get(subsets[i])).doubleValue();
+	m_cacheHits++;
+	source[i] = -1;
+      } else if (batch.containsKey(subsets[i])) {
+	source[i] = ((Integer)batch.get(subsets[i])).intValue();
+      } else {
+	batch.put(subsets[i], new Integer(numTodo));
+	source[i] = numTodo;
+	todo[numTodo++] = subsets[i];
+      }
+    }
+
+    final double [] results = new double [numTodo];
+    if (m_numThreads == 1 || numTodo <= 1) {
+      for (int i = 0; i < numTodo; i++) {
+	results[i] = m_evaluator.evaluateSubset(todo[i]);
+      }
+    } else {
+      if (m_copies == null) {
+	ASEvaluation [] copies =
+	  ASEvaluation.makeCopies(m_evaluator, m_numThreads);
+	m_copies = new SubsetEvaluator [copies.length];
+	for (int i = 0; i < copies.length; i++) {
+	  m_copies[i] = (SubsetEvaluator)copies[i];
+	}
+      }
+      final int total = numTodo;
+      final AtomicInteger next = new AtomicInteger();
+      Callable [] tasks = new Callable [Math.min(m_numThreads, numTodo)];
+      for (int p = 0; p < tasks.length; p++) {
+	final SubsetEvaluator evaluator = m_copies[p];
+	tasks[p] = new Callable() {
+	    public Object call() throws Exception {
+	      for (int i = next.getAndIncrement(); i < total;
+		   i = next.getAndIncrement()) {
+		results[i] = evaluator.evaluateSubset(todo[i]);
+	      }
+	      return null;
+	    }
+	  };
+      }
+      run(tasks);
+    }
+    m_numEvaluations += numTodo;
+
+    if (m_cache != null) {
+      for (int i = 0; i < numTodo; i++) {
+	m_cache.put(todo[i].clone(), new Double(results[i]));
+      }
+    }
+    for (int i = 0; i < subsets.length; i++) {
+      if (source[i] >= 0) {
+	merits[i] = results[source[i]];
+      }
+    }
+    return merits;
+  }
+
+  /**
+   * Forgets the merits kept so far, so that a search can bound the
+   * memory the cache takes.
+   */
+  public void clearCache () {
+    if (m_cache != null) {
+      m_cache.clear();
+    }
+  }
+
+  /**
+   * Runs some tasks that don't depend on each other on the threads,
+   * and waits until all of them are done. With one thread they run one
+   * after the other in the calling thread.
+   *
+   * @param tasks the tasks
+   * @exception Exception the first exception thrown by a task
+   */
+  public void run (Callable [] tasks)
+    throws Exception {
+    if (m_numThreads == 1 || tasks.length <= 1) {
+      for (int i = 0; i < tasks.length; i++) {
+	tasks[i].call();
+      }
+      return;
+    }
+    ExecutorService pool =
+      Executors.newFixedThreadPool(Math.min(m_numThreads, tasks.length));
+    try {
+      Future [] futures = new Future [tasks.length];
+      for (int i = 0; i < tasks.length; i++) {
+	futures[i] = pool.submit(tasks[i]);
+      }
+      for (int i = 0; i < tasks.length; i++) {
+	try {
+	  futures[i].get();
+	} catch (ExecutionException e) {
+	  if (e.getCause() instanceof Exception) {
+	    throw (Exception)e.getCause();
+	  }
+	  throw e;
+	}
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Gets the number of threads.
+   *
+   * @return the number of threads
+   */
+  public int getNumThreads () {
+    return m_numThreads;
+  }
+
+  /**
+   * Gets the number of subsets evaluated so far.
+   *
+   * @return the number of evaluations
+   */
+  public int getNumEvaluations () {
+    return m_numEvaluations;
+  }
+
+  /**
+   * Gets the number of subsets whose merit was found in the cache.
+   *
+   * @return the number of cache hits
+   */
+  public int getCacheHits () {
+    return m_cacheHits;
+  }
+}
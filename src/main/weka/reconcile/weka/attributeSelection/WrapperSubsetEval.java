@@ -66,6 +66,10 @@ import reconcile.weka.filters.unsupervised.attribute.Remove;
  * Seed for cross validation accuracy estimation.
  * (default = 1) <p>
  *
+ * -num-threads <num> <br>
+ * Number of cross validation folds built and tested at once.
+ * (default = 1) <p>
+ *
  * @author Mark Hall (mhall@cs.waikato.ac.nz)
  * @version $Revision: 1.1 $
  */
@@ -95,6 +99,8 @@ public class WrapperSubsetEval
    * estimating the accuracy of a subset
    */
   private double m_threshold;
+  /** number of folds built and tested at once */
+  private int m_numThreads;
 
   /**
    * Returns a string describing this attribute evaluator
@@ -121,7 +127,7 @@ public class WrapperSubsetEval
    * @return an enumeration of all the available options.
    **/
   public Enumeration listOptions () {
-    Vector newVector = new Vector(4);
+    Vector newVector = new Vector(5);
     newVector.addElement(new Option("\tclass name of base learner to use for" 
 				    + "\n\taccuracy estimation. Place any" 
 				    + "\n\tclassifier options LAST on the" 
@@ -140,6 +146,10 @@ public class WrapperSubsetEval
 				    + "expressed as a percentage of the " 
 				    + "mean).\n\t(default=0.01(1%))"
 				    , "T", 1, "-T <num>"));
+    newVector.addElement(new Option("\tnumber of cross validation folds "
+				    + "built\n\tand tested at once."
+				    + "\n\t(default = 1)", "num-threads", 1,
+				    "-num-threads <num>"));
 
     if ((m_BaseClassifier != null) && 
 	(m_BaseClassifier instanceof OptionHandler)) {
@@ -180,6 +190,10 @@ public class WrapperSubsetEval
    * Seed for cross validation accuracy estimation.
    * (default = 1) <p>
    *
+   * -num-threads <num> <br>
+   * Number of cross validation folds built and tested at once.
+   * (default = 1) <p>
+   *
    * @param options the list of options as an array of strings
    * @exception Exception if an option is not supported
    *
@@ -220,6 +234,11 @@ public class WrapperSubsetEval
       temp = Double.valueOf(optionString);
       setThreshold(temp.doubleValue());
     }
+
+    optionString = Utils.getOption("num-threads", options);
+    if (optionString.length() != 0) {
+      setNumThreads(Integer.parseInt(optionString));
+    }
   }
   
   /**
@@ -306,6 +325,35 @@ public class WrapperSubsetEval
     return  m_seed;
   }
 
+  /**
+   * Returns the tip text for this property
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String numThreadsTipText() {
+    return "Number of xval folds built and tested at once. The accuracy "
+      + "estimates don't depend on it.";
+  }
+
+  /**
+   * Set the number of folds built and tested at once
+   *
+   * @param n the number of threads
+   */
+  public void setNumThreads (int n) {
+    m_numThreads = n;
+  }
+
+
+  /**
+   * Get the number of folds built and tested at once
+   *
+   * @return the number of threads
+   */
+  public int getNumThreads () {
+    return  m_numThreads;
+  }
+
   /**
    * Returns the tip text for this property
    * @return tip text for this property suitable for
@@ -348,7 +396,7 @@ public class WrapperSubsetEval
       classifierOptions = ((OptionHandler)m_BaseClassifier).getOptions();
     }
 
-    String[] options = new String[9 + classifierOptions.length];
+    String[] options = new String[11 + classifierOptions.length];
     int current = 0;
 
     if (getClassifier() != null) {
@@ -362,6 +410,8 @@ public class WrapperSubsetEval
     options[current++] = "" + getThreshold();
     options[current++] = "-R";
     options[current++] = "" + getSeed();
+    options[current++] = "-num-threads";
+    options[current++] = "" + getNumThreads();
     options[current++] = "--";
     System.arraycopy(classifierOptions, 0, options, current, 
 		     classifierOptions.length);
@@ -382,6 +432,7 @@ public class WrapperSubsetEval
     m_folds = 5;
     m_seed = 1;
     m_threshold = 0.01;
+    m_numThreads = 1;
   }
 
 
@@ -450,6 +501,7 @@ public class WrapperSubsetEval
     // max of 5 repititions ofcross validation
     for (i = 0; i < 5; i++) {
       m_Evaluation = new Evaluation(trainCopy);
+      m_Evaluation.setNumThreads(m_numThreads);
       m_Evaluation.crossValidateModel(m_BaseClassifier, trainCopy, m_folds, Rnd);
       repError[i] = m_Evaluation.errorRate();
 
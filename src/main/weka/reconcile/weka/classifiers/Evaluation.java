@@ -33,6 +33,11 @@ import java.io.OutputStream;
 import java.io.Reader;
 import java.util.Enumeration;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -164,6 +169,9 @@ public class Evaluation implements Summarizable {
 	/** The number of folds for a cross-validation. */
 	protected int m_NumFolds;
 
+	/** The number of threads that build and test the folds at once. */
+	protected int m_NumThreads = 1;
+
 	/** The weight of all incorrectly classified instances. */
 	protected double m_Incorrect;
 
@@ -339,7 +347,9 @@ public class Evaluation implements Summarizable {
 
 	/**
 	 * Performs a (stratified if class is nominal) cross-validation for a
-	 * classifier on a set of instances.
+	 * classifier on a set of instances. With more than one thread (see
+	 * setNumThreads()) the folds are built and tested at once by
+	 * evaluateFolds(), with the same results.
 	 * 
 	 * @param classifier
 	 *          the classifier with any options set.
@@ -362,6 +372,17 @@ public class Evaluation implements Summarizable {
 		if (data.classAttribute().isNominal()) {
 			data.stratify(numFolds);
 		}
+		if (m_NumThreads > 1) {
+			Instances[] train = new Instances[numFolds];
+			Instances[] test = new Instances[numFolds];
+			for (int i = 0; i < numFolds; i++) {
+				train[i] = data.trainCV(numFolds, i, random);
+				test[i] = data.testCV(numFolds, i);
+			}
+			evaluateFolds(classifier, train, test);
+			m_NumFolds = numFolds;
+			return;
+		}
 		// Do the folds
 		for (int i = 0; i < numFolds; i++) {
 			Instances train = data.trainCV(numFolds, i, random);
@@ -374,6 +395,137 @@ public class Evaluation implements Summarizable {
 		m_NumFolds = numFolds;
 	}
 
+	/**
+	 * Evaluates a classifier on several pairs of training and test sets, as
+	 * if for each pair in turn a copy of the classifier was built on the
+	 * training set, the priors were set from it and the copy was evaluated
+	 * on the test set. Up to m_NumThreads copies (see makeCopies()) are
+	 * built and tested at once, but the statistics are only updated with
+	 * their predictions afterwards, in the order of the pairs and of the
+	 * test instances, so they are the same as with one thread. The
+	 * classifier mustn't change the training set or depend on static
+	 * state.
+	 * 
+	 * @param classifier
+	 *          the classifier with any options set
+	 * @param train
+	 *          the training sets
+	 * @param test
+	 *          the test sets, one for each training set
+	 * @exception Exception
+	 *              if a classifier could not be built or evaluated
+	 *              successfully
+	 */
+	public void evaluateFolds(Classifier classifier, final Instances[] train,
+			final Instances[] test) throws Exception {
+
+		if (m_NumThreads <= 1 || train.length <= 1) {
+			for (int i = 0; i < train.length; i++) {
+				setPriors(train[i]);
+				Classifier copiedClassifier = Classifier.makeCopy(classifier);
+				copiedClassifier.buildClassifier(train[i]);
+				evaluateModel(copiedClassifier, test[i]);
+			}
+			return;
+		}
+		final Classifier[] copies = Classifier.makeCopies(classifier,
+				train.length);
+		final double[][][] predictions = new double[train.length][][];
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(
+				m_NumThreads, train.length));
+		try {
+			Future[] futures = new Future[train.length];
+			for (int i = 0; i < train.length; i++) {
+				final int fold = i;
+				futures[i] = pool.submit(new Callable() {
+					public Object call() throws Exception {
+						copies[fold].buildClassifier(train[fold]);
+						predictions[fold] = predict(copies[fold], test[fold]);
+						copies[fold] = null;
+						return null;
+					}
+				});
+			}
+			for (int i = 0; i < train.length; i++) {
+				try {
+					futures[i].get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof Exception) {
+						throw (Exception) e.getCause();
+					}
+					throw e;
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		for (int i = 0; i < train.length; i++) {
+			setPriors(train[i]);
+			for (int j = 0; j < test[i].numInstances(); j++) {
+				if (m_ClassIsNominal) {
+					evaluateModelOnce(predictions[i][j], test[i].instance(j));
+				} else {
+					evaluateModelOnce(predictions[i][j][0], test[i].instance(j));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Computes what evaluateModelOnce() updates the statistics with for each
+	 * instance of a test set: the distribution for a nominal class, the
+	 * prediction otherwise.
+	 * 
+	 * @param classifier
+	 *          the built classifier
+	 * @param data
+	 *          the test instances
+	 * @return the distribution or prediction for each instance
+	 * @exception Exception
+	 *              if an instance could not be classified
+	 */
+	protected double[][] predict(Classifier classifier, Instances data)
+			throws Exception {
+
+		double[][] predictions = new double[data.numInstances()][];
+		for (int i = 0; i < data.numInstances(); i++) {
+			Instance instance = data.instance(i);
+			Instance classMissing = (Instance) instance.copy();
+			classMissing.setDataset(instance.dataset());
+			classMissing.setClassMissing();
+			if (m_ClassIsNominal) {
+				predictions[i] = classifier.distributionForInstance(classMissing);
+			} else {
+				predictions[i] = new double[] { classifier
+						.classifyInstance(classMissing) };
+			}
+		}
+		return predictions;
+	}
+
+	/**
+	 * Sets the number of threads that build and test the folds of a
+	 * cross-validation at once. The statistics don't depend on it.
+	 * 
+	 * @param numThreads
+	 *          the number of threads
+	 */
+	public void setNumThreads(int numThreads) {
+
+		m_NumThreads = numThreads;
+	}
+
+	/**
+	 * Gets the number of threads that build and test the folds of a
+	 * cross-validation at once.
+	 * 
+	 * @return the number of threads
+	 */
+	public int getNumThreads() {
+
+		return m_NumThreads;
+	}
+
 	/**
 	 * Performs a (stratified if class is nominal) cross-validation for a
 	 * classifier on a set of instances.
@@ -0,0 +1,231 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    RandomizableParallelIteratedSingleClassifierEnhancer.java
+ *
+ */
+
+package reconcile.weka.classifiers;
+
+import java.util.Enumeration;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import reconcile.weka.core.Instances;
+import reconcile.weka.core.Option;
+import reconcile.weka.core.Utils;
+
+
+/**
+ * Abstract utility class for randomizable ensembles whose members
+ * are independent of each other, so that they can be built by
+ * several threads at once. Subclasses draw everything random in
+ * the order of the members before the members are built, so the
+ * ensemble doesn't depend on the number of threads.
+ *
+ * The base classifier's buildClassifier() must not change the
+ * training data it is given, and its distributionForInstance()
+ * must be safe to call from several threads.
+ *
+ * @author ves
+ * @version $Revision: 1.1 $
+ */
+public abstract class RandomizableParallelIteratedSingleClassifierEnhancer
+  extends RandomizableIteratedSingleClassifierEnhancer {
+
+  /** The number of threads that build the members. */
+  protected int m_NumThreads = 1;
+
+  /**
+   * Returns an enumeration describing the available options.
+   *
+   * @return an enumeration of all the available options.
+   */
+  public Enumeration listOptions() {
+
+    Vector newVector = new Vector(1);
+
+    newVector.addElement(new Option(
+	      "\tNumber of threads that build the members and\n"
+	      + "\tclassify batches of instances.\n"
+	      + "\t(default 1)",
+	      "num-threads", 1, "-num-threads <num>"));
+
+    Enumeration enu = super.listOptions();
+    while (enu.hasMoreElements()) {
+      newVector.addElement(enu.nextElement());
+    }
+    return newVector.elements();
+  }
+
+  /**
+   * Parses a given list of options. Valid options are:<p>
+   *
+   * -W classname <br>
+   * Specify the full class name of the base learner.<p>
+   *
+   * -I num <br>
+   * Set the number of iterations (default 10). <p>
+   *
+   * -S num <br>
+   * Set the random number seed (default 1). <p>
+   *
+   * -num-threads num <br>
+   * Set the number of threads (default 1). <p>
+   *
+   * Options after -- are passed to the designated classifier.<p>
+   *
+   * @param options the list of options as an array of strings
+   * @exception Exception if an option is not supported
+   */
+  public void setOptions(String[] options) throws Exception {
+
+    String threads = Utils.getOption("num-threads", options);
+    if (threads.length() != 0) {
+      setNumThreads(Integer.parseInt(threads));
+    } else {
+      setNumThreads(1);
+    }
+
+    super.setOptions(options);
+  }
+
+  /**
+   * Gets the current settings of the classifier.
+   *
+   * @return an array of strings suitable for passing to setOptions
+   */
+  public String [] getOptions() {
+
+    String [] superOptions = super.getOptions();
+    String [] options = new String [superOptions.length + 2];
+
+    int current = 0;
+    options[current++] = "-num-threads";
+    options[current++] = "" + getNumThreads();
+
+    System.arraycopy(superOptions, 0, options, current,
+		     superOptions.length);
+
+    return options;
+  }
+
+  /**
+   * Returns the tip text for this property
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String numThreadsTipText() {
+    return "The number of threads that build the members and classify "
+      + "batches of instances. The ensemble doesn't depend on it.";
+  }
+
+  /**
+   * Sets the number of threads.
+   *
+   * @param numThreads the number of threads
+   */
+  public void setNumThreads(int numThreads) {
+
+    m_NumThreads = numThreads;
+  }
+
+  /**
+   * Gets the number of threads.
+   *
+   * @return the number of threads
+   */
+  public int getNumThreads() {
+
+    return m_NumThreads;
+  }
+
+  /**
+   * Runs the tasks, on up to m_NumThreads threads, and waits until
+   * all of them are done. With one thread they run one after the
+   * other in the calling thread.
+   *
+   * @param tasks the tasks
+   * @exception Exception the first exception thrown by a task
+   */
+  protected void runTasks(Callable[] tasks) throws Exception {
+
+    if (m_NumThreads <= 1 || tasks.length <= 1) {
+      for (int i = 0; i < tasks.length; i++) {
+	tasks[i].call();
+      }
+      return;
+    }
+    ExecutorService pool =
+      Executors.newFixedThreadPool(Math.min(m_NumThreads, tasks.length));
+    try {
+      Future[] futures = new Future[tasks.length];
+      for (int i = 0; i < tasks.length; i++) {
+	futures[i] = pool.submit(tasks[i]);
+      }
+      for (int i = 0; i < tasks.length; i++) {
+	try {
+	  futures[i].get();
+	} catch (ExecutionException e) {
+	  if (e.getCause() instanceof Exception) {
+	    throw (Exception) e.getCause();
+	  }
+	  throw e;
+	}
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Calculates the class membership probabilities of all the
+   * instances of a dataset. The instances are split into
+   * m_NumThreads ranges that are classified at the same time; the
+   * distribution of each instance is the one
+   * distributionForInstance() returns.
+   *
+   * @param data the instances to be classified
+   * @return the predicted class probability distribution of each instance
+   * @exception Exception if a distribution can't be computed successfully
+   */
+  public double[][] distributionsForInstances(final Instances data)
+    throws Exception {
+
+    final double[][] result = new double[data.numInstances()][];
+    int numParts = Math.max(1, Math.min(m_NumThreads, result.length));
+    Callable[] tasks = new Callable[numParts];
+    for (int p = 0; p < numParts; p++) {
+      final int from = (int) ((long) result.length * p / numParts);
+      final int to = (int) ((long) result.length * (p + 1) / numParts);
+      tasks[p] = new Callable() {
+	  public Object call() throws Exception {
+	    for (int i = from; i < to; i++) {
+	      result[i] = distributionForInstance(data.instance(i));
+	    }
+	    return null;
+	  }
+	};
+    }
+    runTasks(tasks);
+    return result;
+  }
+}
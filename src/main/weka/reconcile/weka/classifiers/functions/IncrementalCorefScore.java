@@ -0,0 +1,401 @@
+package reconcile.weka.classifiers.functions;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+
+import reconcile.weka.core.AttributeShort;
+import reconcile.weka.core.InstanceShort;
+import reconcile.weka.core.ModifiedInstancesShort;
+
+/**
+ * The MUC and B-cubed scores of a clustering of the noun phrases of one document, kept up to date as the pair
+ * decisions change.
+ *
+ * The predicted clustering is a union-find structure over the positive pairs. Every predicted cluster also keeps the
+ * number of its noun phrases that fall into each gold standard cluster. When two clusters are merged only the counts of
+ * the smaller one are folded into the larger one, so the cost of a merge depends on the clusters involved and not on
+ * the size of the document.
+ *
+ * setLinks() takes the new decision for every pair of the document. Pairs that became positive merge their clusters;
+ * a cluster that lost one of its positive pairs is taken apart into its noun phrases and put back together from the
+ * positive pairs of its members. Clusters that did not lose a pair are left alone, so after a weight update only the
+ * clusters whose decisions changed are touched.
+ *
+ * Both MUC numerators are the number of noun phrases minus the number of non-empty (predicted, gold) cluster
+ * intersections; the recall denominator is the number of noun phrases minus the number of gold clusters and the
+ * precision denominator the number of noun phrases minus the number of predicted clusters. The B-cubed sums add up
+ * |P(i)&G(i)|/|G(i)| (recall) and |P(i)&G(i)|/|P(i)| (precision) over all noun phrases i, like BCubedScore does. They
+ * are kept as integer sums of squared intersection sizes per gold and per predicted cluster and are added up in the
+ * order of the noun phrases, so the result does not depend on the order of the merges.
+ */
+public class IncrementalCorefScore {
+
+  // gold standard clusters: the cluster (root) of every noun phrase and the size of every cluster
+  private int[] m_Gold;
+  private int[] m_GoldSize;
+  private int m_NumGoldClusters;
+
+  // the noun phrases that appear in the document
+  private boolean[] m_Present;
+  private int m_NumNPs;
+
+  // the pairs (instances) of the document, the pairs of each noun phrase and the current decision for each pair
+  private int[] m_Id1, m_Id2;
+  private int[][] m_PairsOf;
+  private boolean[] m_Linked;
+
+  // whether m_Linked describes the current clusters (setClusters() bypasses it)
+  private boolean m_LinksValid;
+
+  // predicted clusters: union-find pointers, cluster sizes, a circular list of the members of each cluster, the
+  // smallest member of each cluster and the number of members in each gold cluster
+  private int[] m_Parent;
+  private int[] m_Size;
+  private int[] m_Next;
+  private int[] m_Min;
+  private HashMap<Integer, int[]>[] m_Overlap;
+  private int m_NumClusters;
+
+  // the number of non-empty (predicted, gold) intersections
+  private int m_Intersections;
+
+  // the sum of the squared intersection sizes of every gold cluster and of every predicted cluster
+  private long[] m_GoldSquares;
+  private long[] m_Squares;
+
+  /**
+   * Sets up the gold standard clusters from the class values of the instances of a document (the positive pairs are
+   * coreferent) and starts with every noun phrase in a cluster of its own.
+   */
+  @SuppressWarnings("unchecked")
+  public IncrementalCorefScore(ModifiedInstancesShort doc) {
+    AttributeShort ID1 = doc.m_ID1;
+    AttributeShort ID2 = doc.m_ID2;
+    int numPairs = doc.numInstances();
+    m_Id1 = new int[numPairs];
+    m_Id2 = new int[numPairs];
+    int len = 0;
+    for(int i = 0; i < numPairs; i++){
+      InstanceShort inst = doc.instance(i);
+      m_Id1[i] = inst.intValue(ID1);
+      m_Id2[i] = inst.intValue(ID2);
+      len = Math.max(len, Math.max(m_Id1[i], m_Id2[i]) + 1);
+    }
+
+    m_Present = new boolean[len];
+    m_Gold = new int[len];
+    for(int j = 0; j < len; j++)
+      m_Gold[j] = j;
+    int[] numPairsOf = new int[len];
+    for(int i = 0; i < numPairs; i++){
+      int id1 = m_Id1[i], id2 = m_Id2[i];
+      m_Present[id1] = m_Present[id2] = true;
+      numPairsOf[id1]++;
+      if(id2 != id1)
+        numPairsOf[id2]++;
+      if(doc.instance(i).classValue() == doc.m_Positive){
+        int r1 = root(m_Gold, id1), r2 = root(m_Gold, id2);
+        if(r1 != r2)
+          m_Gold[r1] = r2;
+      }
+    }
+
+    m_PairsOf = new int[len][];
+    for(int j = 0; j < len; j++)
+      m_PairsOf[j] = new int[numPairsOf[j]];
+    Arrays.fill(numPairsOf, 0);
+    for(int i = 0; i < numPairs; i++){
+      m_PairsOf[m_Id1[i]][numPairsOf[m_Id1[i]]++] = i;
+      if(m_Id2[i] != m_Id1[i])
+        m_PairsOf[m_Id2[i]][numPairsOf[m_Id2[i]]++] = i;
+    }
+    m_Linked = new boolean[numPairs];
+
+    m_GoldSize = new int[len];
+    m_NumNPs = 0;
+    m_NumGoldClusters = 0;
+    for(int j = 0; j < len; j++){
+      if(m_Present[j]){
+        m_Gold[j] = root(m_Gold, j);
+        if(m_GoldSize[m_Gold[j]]++ == 0)
+          m_NumGoldClusters++;
+        m_NumNPs++;
+      }
+    }
+
+    m_Parent = new int[len];
+    m_Size = new int[len];
+    m_Next = new int[len];
+    m_Min = new int[len];
+    m_Overlap = new HashMap[len];
+    m_GoldSquares = new long[len];
+    m_Squares = new long[len];
+    reset();
+  }
+
+  /**
+   * Puts every noun phrase back into a cluster of its own, with all pairs negative.
+   */
+  public void reset() {
+    Arrays.fill(m_GoldSquares, 0);
+    for(int j = 0; j < m_Parent.length; j++)
+      single(j);
+    Arrays.fill(m_Linked, false);
+    m_LinksValid = true;
+    m_NumClusters = m_NumNPs;
+    m_Intersections = m_NumNPs;
+  }
+
+  /*
+   * Makes j a cluster of its own. The caller adjusts the cluster and intersection counts.
+   */
+  private void single(int j) {
+    m_Parent[j] = j;
+    m_Next[j] = j;
+    m_Size[j] = 1;
+    m_Min[j] = j;
+    if(m_Present[j]){
+      m_Overlap[j] = new HashMap<Integer, int[]>(4);
+      m_Overlap[j].put(new Integer(m_Gold[j]), new int[]{1});
+      m_Squares[j] = 1;
+      m_GoldSquares[m_Gold[j]]++;
+    } else{
+      m_Overlap[j] = null;
+      m_Squares[j] = 0;
+    }
+  }
+
+  /**
+   * Sets the predicted clusters to the ones given by union-find pointers (see StPerceptronMUC.apply()). The next
+   * setLinks() rebuilds the clusters from scratch.
+   */
+  public void setClusters(int[] ptrs) {
+    reset();
+    m_LinksValid = false;
+    for(int j = 0; j < m_Parent.length; j++)
+      if(m_Present[j])
+        union(j, root(ptrs, j));
+  }
+
+  /**
+   * Sets the decision of every pair of the document (indexed like the instances of the document) and updates the
+   * clusters and scores. Only the clusters that gain or lose a positive pair change.
+   */
+  public void setLinks(boolean[] links) {
+    if(!m_LinksValid){
+      reset();
+      for(int i = 0; i < links.length; i++)
+        if(links[i]){
+          m_Linked[i] = true;
+          union(m_Id1[i], m_Id2[i]);
+        }
+      return;
+    }
+
+    // the clusters that lose a positive pair, identified by their smallest member, and the pairs that became positive
+    boolean[] broken = null;
+    int[] added = new int[links.length];
+    int numAdded = 0;
+    for(int i = 0; i < links.length; i++){
+      if(m_Linked[i] && !links[i]){
+        if(broken == null)
+          broken = new boolean[m_Parent.length];
+        broken[m_Min[find(m_Id1[i])]] = true;
+      } else if(links[i] && !m_Linked[i]){
+        added[numAdded++] = i;
+      }
+    }
+    System.arraycopy(links, 0, m_Linked, 0, links.length);
+
+    if(broken != null){
+      for(int j = 0; j < broken.length; j++)
+        if(broken[j])
+          split(find(j));
+    }
+    for(int k = 0; k < numAdded; k++)
+      union(m_Id1[added[k]], m_Id2[added[k]]);
+  }
+
+  /**
+   * Sets the decision of every pair from the predicted class of the instances of doc (as set by
+   * StPerceptronMUC.apply()) and updates the clusters and scores.
+   */
+  public void setPredictedLinks(ModifiedInstancesShort doc) {
+    boolean[] links = new boolean[doc.numInstances()];
+    for(int i = 0; i < links.length; i++)
+      links[i] = doc.instance(i).value(doc.m_Prediction) == doc.m_Positive;
+    setLinks(links);
+  }
+
+  /*
+   * Takes the cluster with root r apart into its members and merges them again along their positive pairs
+   */
+  private void split(int r) {
+    int[] members = new int[m_Size[r]];
+    int cur = r;
+    for(int k = 0; k < members.length; k++){
+      members[k] = cur;
+      cur = m_Next[cur];
+    }
+    Iterator<Map.Entry<Integer, int[]>> it = m_Overlap[r].entrySet().iterator();
+    while(it.hasNext()){
+      Map.Entry<Integer, int[]> e = it.next();
+      int c = e.getValue()[0];
+      m_GoldSquares[e.getKey().intValue()] -= (long)c * c;
+    }
+    m_Intersections += members.length - m_Overlap[r].size();
+    m_NumClusters += members.length - 1;
+    for(int k = 0; k < members.length; k++)
+      single(members[k]);
+    for(int k = 0; k < members.length; k++){
+      int[] pairs = m_PairsOf[members[k]];
+      for(int p = 0; p < pairs.length; p++)
+        if(m_Linked[pairs[p]])
+          union(m_Id1[pairs[p]], m_Id2[pairs[p]]);
+    }
+  }
+
+  /**
+   * Merges the predicted clusters of id1 and id2 and updates the scores.
+   *
+   * @return false if the two were already in the same cluster
+   */
+  public boolean union(int id1, int id2) {
+    int r1 = find(id1), r2 = find(id2);
+    if(r1 == r2)
+      return false;
+    // fold the smaller cluster into the larger one
+    if(m_Size[r1] < m_Size[r2]){
+      int t = r1;
+      r1 = r2;
+      r2 = t;
+    }
+    HashMap<Integer, int[]> into = m_Overlap[r1];
+    Iterator<Map.Entry<Integer, int[]>> it = m_Overlap[r2].entrySet().iterator();
+    while(it.hasNext()){
+      Map.Entry<Integer, int[]> e = it.next();
+      int[] count = into.get(e.getKey());
+      if(count == null){
+        into.put(e.getKey(), e.getValue());
+      } else{
+        // (a+b)^2 = a^2 + b^2 + 2ab
+        long cross = 2L * count[0] * e.getValue()[0];
+        m_GoldSquares[e.getKey().intValue()] += cross;
+        m_Squares[r1] += cross;
+        count[0] += e.getValue()[0];
+        m_Intersections--;
+      }
+    }
+    m_Squares[r1] += m_Squares[r2];
+    m_Overlap[r2] = null;
+    m_Parent[r2] = r1;
+    m_Size[r1] += m_Size[r2];
+    m_Min[r1] = Math.min(m_Min[r1], m_Min[r2]);
+    // splice the member lists
+    int t = m_Next[r1];
+    m_Next[r1] = m_Next[r2];
+    m_Next[r2] = t;
+    m_NumClusters--;
+    return true;
+  }
+
+  /**
+   * The predicted cluster (root) of a noun phrase.
+   */
+  public int find(int id) {
+    while(m_Parent[id] != id){
+      m_Parent[id] = m_Parent[m_Parent[id]];
+      id = m_Parent[id];
+    }
+    return id;
+  }
+
+  public boolean sameCluster(int id1, int id2) {
+    return find(id1) == find(id2);
+  }
+
+  public boolean sameGoldCluster(int id1, int id2) {
+    return m_Gold[id1] == m_Gold[id2];
+  }
+
+  /**
+   * The noun phrases in the predicted cluster of id.
+   */
+  public TreeSet<Integer> getCluster(int id) {
+    TreeSet<Integer> result = new TreeSet<Integer>();
+    int cur = id;
+    do{
+      result.add(new Integer(cur));
+      cur = m_Next[cur];
+    } while(cur != id);
+    return result;
+  }
+
+  /**
+   * The noun phrases in the gold standard cluster of id.
+   */
+  public TreeSet<Integer> getGoldCluster(int id) {
+    TreeSet<Integer> result = new TreeSet<Integer>();
+    for(int j = 0; j < m_Gold.length; j++)
+      if(m_Present[j] && m_Gold[j] == m_Gold[id])
+        result.add(new Integer(j));
+    return result;
+  }
+
+  public int numNounPhrases() {
+    return m_NumNPs;
+  }
+
+  public int numClusters() {
+    return m_NumClusters;
+  }
+
+  /**
+   * The MUC recall as {numerator, denominator}, as returned by MUCScore.mucScore(truth, prediction).
+   */
+  public int[] mucRecall() {
+    return new int[]{m_NumNPs - m_Intersections, m_NumNPs - m_NumGoldClusters};
+  }
+
+  /**
+   * The MUC precision as {numerator, denominator}, as returned by MUCScore.mucScore(prediction, truth).
+   */
+  public int[] mucPrecision() {
+    return new int[]{m_NumNPs - m_Intersections, m_NumNPs - m_NumClusters};
+  }
+
+  /**
+   * The sum of the B-cubed recall of all noun phrases, as returned by BCubedScore.bCubedScore(truth, prediction).
+   */
+  public double bCubedRecall() {
+    double result = 0;
+    for(int g = 0; g < m_Gold.length; g++)
+      if(m_GoldSize[g] > 0)
+        result += (double)m_GoldSquares[g] / m_GoldSize[g];
+    return result;
+  }
+
+  /**
+   * The sum of the B-cubed precision of all noun phrases, as returned by BCubedScore.bCubedScore(prediction, truth).
+   */
+  public double bCubedPrecision() {
+    double result = 0;
+    for(int j = 0; j < m_Parent.length; j++){
+      if(m_Present[j]){
+        int r = find(j);
+        if(m_Min[r] == j)
+          result += (double)m_Squares[r] / m_Size[r];
+      }
+    }
+    return result;
+  }
+
+  private static int root(int[] ptrs, int i) {
+    while(ptrs[i] != i)
+      i = ptrs[i];
+    return i;
+  }
+}
@@ -0,0 +1,270 @@
+package reconcile.weka.classifiers.functions;
+
+import java.io.File;
+import java.util.Random;
+
+import reconcile.weka.core.AttributeShort;
+import reconcile.weka.core.InstanceShort;
+import reconcile.weka.core.ModifiedInstancesShort;
+import reconcile.weka.core.Utils;
+
+/**
+ * The feature values of a set of instances stored by column, for scoring all the instances against a weight vector at
+ * once.
+ *
+ * Nominal features keep their short value indices; numeric features are decoded to their original values once, when
+ * the matrix is built, instead of once per inner product. The inner loops of dot() run over one column at a time with
+ * no method calls or boxing, so the JIT can unroll and vectorize them. The sum for each instance is still accumulated in
+ * attribute order, so the scores are identical to those computed one instance at a time.
+ */
+public class InstanceMatrix {
+
+	private int m_NumInstances;
+
+	private int m_NumAttributes;
+
+	/** The attribute index of each feature column */
+	private int[] m_Attributes;
+
+	/** Column values of nominal features (null for numeric features) */
+	private short[][] m_Nominal;
+
+	/** Column values of numeric features (null for nominal features) */
+	private double[][] m_Numeric;
+
+	/** The squared two-norm of each instance, computed on demand */
+	private double[] m_Norms = null;
+
+	public InstanceMatrix(ModifiedInstancesShort data) {
+		m_NumInstances = data.numInstances();
+		m_NumAttributes = data.numAttributes();
+
+		int numFeatures = 0;
+		int[] features = new int[m_NumAttributes];
+		for (int j = 0; j < m_NumAttributes; j++)
+			if (data.attribute(j).isFeature())
+				features[numFeatures++] = j;
+		m_Attributes = new int[numFeatures];
+		System.arraycopy(features, 0, m_Attributes, 0, numFeatures);
+
+		m_Nominal = new short[numFeatures][];
+		m_Numeric = new double[numFeatures][];
+		for (int f = 0; f < numFeatures; f++) {
+			int j = m_Attributes[f];
+			AttributeShort att = data.attribute(j);
+			if (att.isNominal()) {
+				short[] col = new short[m_NumInstances];
+				for (int i = 0; i < m_NumInstances; i++)
+					col[i] = data.instance(i).value(j);
+				m_Nominal[f] = col;
+			} else {
+				double[] col = new double[m_NumInstances];
+				for (int i = 0; i < m_NumInstances; i++)
+					col[i] = att.getOriginalValue(new Short(data.instance(i).value(j)));
+				m_Numeric[f] = col;
+			}
+		}
+	}
+
+	public int numInstances() {
+		return m_NumInstances;
+	}
+
+	/**
+	 * The inner product of w with every instance.
+	 */
+	public double[] dot(double[] w) {
+		if (w.length != m_NumAttributes)
+			throw new RuntimeException("Wrong number of attributes wv:" + w.length + " vs " + m_NumAttributes);
+		double[] result = new double[m_NumInstances];
+		for (int f = 0; f < m_Attributes.length; f++) {
+			double wj = w[m_Attributes[f]];
+			if (m_Nominal[f] != null)
+				addColumn(result, m_Nominal[f], wj);
+			else
+				addColumn(result, m_Numeric[f], wj);
+		}
+		return result;
+	}
+
+	/**
+	 * The inner product of w with every instance, divided by the two-norm of the instance.
+	 */
+	public double[] dotNormalized(double[] w) {
+		double[] result = dot(w);
+		double[] norms = norms();
+		for (int i = 0; i < m_NumInstances; i++)
+			result[i] = result[i] / Math.sqrt(norms[i]);
+		return result;
+	}
+
+	private double[] norms() {
+		if (m_Norms == null) {
+			double[] norms = new double[m_NumInstances];
+			for (int f = 0; f < m_Attributes.length; f++) {
+				if (m_Nominal[f] != null) {
+					short[] col = m_Nominal[f];
+					for (int i = 0; i < m_NumInstances; i++)
+						norms[i] += col[i] * col[i];
+				} else {
+					double[] col = m_Numeric[f];
+					for (int i = 0; i < m_NumInstances; i++)
+						norms[i] += col[i] * col[i];
+				}
+			}
+			m_Norms = norms;
+		}
+		return m_Norms;
+	}
+
+	private static void addColumn(double[] result, short[] col, double wj) {
+		for (int i = 0; i < result.length; i++)
+			result[i] += col[i] * wj;
+	}
+
+	private static void addColumn(double[] result, double[] col, double wj) {
+		for (int i = 0; i < result.length; i++)
+			result[i] += col[i] * wj;
+	}
+
+	/**
+	 * The inner product of w with a single instance, as WeightVectorApplier computed it before the matrix. Only used by
+	 * main() as the reference.
+	 */
+	private static double innerProduct(double[] w, InstanceShort i) {
+		if (w.length != i.numAttributes())
+			throw new RuntimeException("Wrong number of attributes wv:"+w.length+" vs "+i.numAttributes());
+		double result = 0;
+		for (int j = 0; j < i.numAttributes(); j++) {
+			if (i.attribute(j).isFeature()) {
+				if (i.attribute(j).isNominal())
+					result += i.value(j) * w[j];
+				else
+					result += i.attribute(j).getOriginalValue(new Short(i.value(j)))
+							* w[j];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * innerProduct() divided by the two-norm of the instance.
+	 */
+	private static double innerProductNormalizeCur(double[] w, InstanceShort i) {
+		if (w.length != i.numAttributes())
+			throw new RuntimeException("Wrong number of attributes wv:"+w.length+" vs "+i.numAttributes());
+		double result = 0;
+		double twoNorm = 0;
+		for (int j = 0; j < i.numAttributes(); j++) {
+			if (i.attribute(j).isFeature()) {
+				if (i.attribute(j).isNominal()){
+					result += i.value(j) * w[j];
+					twoNorm += i.value(j)*i.value(j);
+				}else{
+					result += i.attribute(j).getOriginalValue(new Short(i.value(j)))
+							* w[j];
+					twoNorm += i.attribute(j).getOriginalValue(new Short(i.value(j)))
+							*i.attribute(j).getOriginalValue(new Short(i.value(j)));
+				}
+			}
+		}
+		return result/Math.sqrt(twoNorm);
+	}
+
+	private static int countDifferences(double[] expected, double[] actual) {
+		int differ = 0;
+		for (int i = 0; i < expected.length; i++)
+			if (Double.doubleToLongBits(expected[i]) != Double.doubleToLongBits(actual[i]))
+				differ++;
+		return differ;
+	}
+
+	private static String rate(double total, long time) {
+		return Utils.doubleToString(total / (time / 1e9), 2) + " instances/s";
+	}
+
+	/**
+	 * Times scoring a test file one instance at a time against dot() and dotNormalized(), both with the matrix built for
+	 * every call (as WeightVectorApplier does) and with a matrix that is reused, and checks that the scores are
+	 * identical. The weights are drawn at random.
+	 *
+	 * Valid options are: -T test file, -I repetitions (default 10), -S seed for the weights (default 1).
+	 */
+	public static void main(String[] args) {
+		try {
+			String testFileName = Utils.getOption('T', args);
+			if (testFileName.length() == 0)
+				throw new Exception("Usage: InstanceMatrix -T test [-I repetitions] [-S seed]");
+			String repString = Utils.getOption('I', args);
+			int repetitions = repString.length() == 0 ? 10 : Integer.parseInt(repString);
+			String seedString = Utils.getOption('S', args);
+			long seed = seedString.length() == 0 ? 1 : Long.parseLong(seedString);
+
+			ModifiedInstancesShort insts = new ModifiedInstancesShort(new File(testFileName));
+			insts.setClass(insts.attribute("class"));
+			insts.cleanUpValuesAndSetWeight(0);
+			int numInstances = insts.numInstances();
+			double[] w = new double[insts.numAttributes()];
+			Random random = new Random(seed);
+			for (int j = 0; j < w.length; j++)
+				w[j] = random.nextGaussian();
+
+			double[] single = new double[numInstances];
+			double[] singleNormalized = new double[numInstances];
+			double[] built = null, builtNormalized = null, reused = null, reusedNormalized = null;
+			InstanceMatrix matrix = new InstanceMatrix(insts);
+			// warm up all of them before timing them
+			for (int i = 0; i < numInstances; i++) {
+				single[i] = innerProduct(w, insts.instance(i));
+				singleNormalized[i] = innerProductNormalizeCur(w, insts.instance(i));
+			}
+			new InstanceMatrix(insts).dot(w);
+			new InstanceMatrix(insts).dotNormalized(w);
+			matrix.dot(w);
+			matrix.dotNormalized(w);
+
+			long start = System.nanoTime();
+			for (int k = 0; k < repetitions; k++)
+				for (int i = 0; i < numInstances; i++)
+					single[i] = innerProduct(w, insts.instance(i));
+			long singleTime = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int k = 0; k < repetitions; k++)
+				built = new InstanceMatrix(insts).dot(w);
+			long builtTime = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int k = 0; k < repetitions; k++)
+				reused = matrix.dot(w);
+			long reusedTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int k = 0; k < repetitions; k++)
+				for (int i = 0; i < numInstances; i++)
+					singleNormalized[i] = innerProductNormalizeCur(w, insts.instance(i));
+			long singleNormalizedTime = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int k = 0; k < repetitions; k++)
+				builtNormalized = new InstanceMatrix(insts).dotNormalized(w);
+			long builtNormalizedTime = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int k = 0; k < repetitions; k++)
+				reusedNormalized = matrix.dotNormalized(w);
+			long reusedNormalizedTime = System.nanoTime() - start;
+
+			int differ = countDifferences(single, built) + countDifferences(single, reused)
+					+ countDifferences(singleNormalized, builtNormalized)
+					+ countDifferences(singleNormalized, reusedNormalized);
+			double total = (double) numInstances * repetitions;
+			System.out.println(matrix.m_Attributes.length + " features, " + numInstances + " instances, " + repetitions
+					+ " repetitions");
+			System.out.println("dot:           per instance " + rate(total, singleTime) + ", matrix per call "
+					+ rate(total, builtTime) + ", matrix reused " + rate(total, reusedTime));
+			System.out.println("dotNormalized: per instance " + rate(total, singleNormalizedTime) + ", matrix per call "
+					+ rate(total, builtNormalizedTime) + ", matrix reused " + rate(total, reusedNormalizedTime));
+			System.out.println(differ == 0 ? "Same scores for all instances." : differ + " scores differ!");
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.err.println(e.getMessage());
+		}
+	}
+}
@@ -5,6 +5,7 @@
 package reconcile.weka.classifiers.functions;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
@@ -12,8 +13,14 @@ import java.io.PrintStream;
 import java.io.Reader;
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import reconcile.scorers.BCubedScore;
 import reconcile.scorers.LeanDocument;
@@ -23,6 +30,7 @@ import reconcile.weka.classifiers.Evaluation;
 import reconcile.weka.core.AttributeShort;
 import reconcile.weka.core.Instance;
 import reconcile.weka.core.InstanceShort;
+import reconcile.weka.core.InstanceShortBuffer;
 import reconcile.weka.core.Instances;
 import reconcile.weka.core.InstancesShort;
 import reconcile.weka.core.ModifiedInstancesShort;
@@ -112,6 +120,12 @@ public class PerceptronMargin extends Classifier implements OptionHandler{
 	private static float epsilon = (float)0;
 
 	private static float margin = (float)1;
+
+	/** The number of threads used for training (iterative parameter mixing if more than one) */
+	private int m_NumThreads = 1;
+
+	/** Whether the shard weight vectors are mixed in proportion to their number of mistakes */
+	private boolean m_ErrorWeightedMixing = false;
 	/**
 	 * Returns a string describing this classifier
 	 * 
@@ -154,6 +168,11 @@ public class PerceptronMargin extends Classifier implements OptionHandler{
 				+ m_StandardUpdate + ")", "U", 0, "-U"));
 		newVector.addElement(new Option("\tWhether or not to use new negative weight update.\n"
 				+ "\t(default " + m_StandardUpdate + ")", "W", 0, "-W"));
+		newVector.addElement(new Option("\tThe number of threads used for training; with more than one\n"
+				+ "\tthread the documents are split into shards whose weight vectors\n"
+				+ "\tare mixed after each iteration.\n" + "\t(default 1)", "R", 1, "-R <int>"));
+		newVector.addElement(new Option("\tMix the shard weight vectors in proportion to their mistakes\n"
+				+ "\tinstead of uniformly.", "X", 0, "-X"));
 
 		return newVector.elements();
 	}
@@ -221,6 +240,14 @@ public class PerceptronMargin extends Classifier implements OptionHandler{
 			m_MaxK = 10000;
 		}
 
+		String threadsString = Utils.getOption('R', options);
+		if(threadsString.length() != 0){
+			m_NumThreads = Integer.parseInt(threadsString);
+		} else{
+			m_NumThreads = 1;
+		}
+		m_ErrorWeightedMixing = Utils.getFlag('X', options);
+
 		m_StandardUpdate = !Utils.getFlag('U', options);
 		m_StandardWeight = !Utils.getFlag('W', options);
 		m_EvaluateOnly = Utils.getFlag('E', options);
@@ -233,7 +260,7 @@ public class PerceptronMargin extends Classifier implements OptionHandler{
 	 */
 	public String[] getOptions() {
 
-		String[] options = new String[8];
+		String[] options = new String[23];
 		int current = 0;
 
 		options[current++] = "-I";
@@ -252,6 +279,10 @@ public class PerceptronMargin extends Classifier implements OptionHandler{
 		options[current++] = "" + m_SaveFilename;
 		options[current++] = "-L";
 		options[current++] = "" + m_InitFilename;
+		options[current++] = "-R";
+		options[current++] = "" + m_NumThreads;
+		if(m_ErrorWeightedMixing)
+			options[current++] = "-X";
 		while(current < options.length){
 			options[current++] = "";
 		}
@@ -470,18 +501,196 @@ public class PerceptronMargin extends Classifier implements OptionHandler{
 			System.err.println("Loaded weight vector");
 		}
 		//Compute the perceptron weights
-		double delta = m_delta;
 		int numIterations = m_NumIterations;
 		double maxAcc = 0, maxBCubbed = 0;
 		int maxAccIter = 0, maxBCubbedIter = 0;
-		for(int iter = 0; iter < numIterations; iter++){
-			//System.err.println("Train "+insts[0].instance(0));
-			int positiveUpdates = 0, negativeUpdates = 0;
-			int excluded = 0;
-			for(int d = 0; d < insts.length; d++){
+		int numShards = Math.min(m_NumThreads, insts.length);
+		Shard sequential = new Shard(w, totalW, insts, 0, insts.length);
+		Shard[] shards = null;
+		ExecutorService pool = null;
+		if(numShards > 1){
+			shards = new Shard[numShards];
+			for(int s = 0; s < numShards; s++){
+				shards[s] = new Shard(new double[vecLen], new double[vecLen], insts, s * insts.length / numShards,
+						(s + 1) * insts.length / numShards);
+			}
+			pool = Executors.newFixedThreadPool(numShards);
+		}
+		try{
+			for(int iter = 0; iter < numIterations; iter++){
+				//System.err.println("Train "+insts[0].instance(0));
+				int positiveUpdates = 0, negativeUpdates = 0;
+				int excluded = 0;
+				if(shards == null){
+					sequential.run();
+					positiveUpdates = sequential.positiveUpdates;
+					negativeUpdates = sequential.negativeUpdates;
+					excluded = sequential.excluded;
+					totalUpdates = sequential.totalUpdates;
+				} else{
+					trainMixed(pool, shards, w, totalW);
+					for(Shard shard : shards){
+						positiveUpdates += shard.positiveUpdates;
+						negativeUpdates += shard.negativeUpdates;
+						excluded += shard.excluded;
+						totalUpdates += shard.epochUpdates;
+					}
+				}
+				averageW = divideArray(totalW, totalUpdates);
+				if(m_FullOutput)
+					System.out.print("After iter " + iter + ": ");
+				else
+					System.out.print(iter + "\t");
+				int updts = positiveUpdates + negativeUpdates;
+				if(m_FullOutput)
+					System.out.print("Number of updates is " + positiveUpdates + "|" + negativeUpdates + "="
+							+ updts + ". ");
+				else
+					System.out.print(positiveUpdates + "," + negativeUpdates + "("+excluded+")=" + updts + ";");
+				evaluateClassifier(insts, averageW, truth);
+
+				//System.out.println("After iter "+iter+" w is "+printWeightVector(w));
+				if(testInsts != null){
+					double metrics[] = evaluateClassifier(testInsts, averageW, testTruth);
+					if(maxAcc < metrics[0]){
+						maxAcc = metrics[0];
+						maxAccIter = iter;
+					}
+					if(maxBCubbed < metrics[1]){
+						maxBCubbed = metrics[1];
+						maxBCubbedIter = iter;
+					}
+				}
+				if(!m_FullOutput)
+					System.out.println();
+				totalPositive+=positiveUpdates;
+				totalNegative+=negativeUpdates;
+			}
+		} finally{
+			if(pool != null)
+				pool.shutdownNow();
+		}
+		//totalW = divideArray(totalW, totalUpdates);
+		if(m_FullOutput){
+			System.out.println("Max f1 " + nf.format(maxAcc) + " at iteration " + maxAccIter);
+			System.out.println("Max B-cubed  " + nf.format(maxBCubbed) + " at iteration "
+					+ maxBCubbedIter);
+
+
+			System.out.println("The final w is " + printWeightVector(averageW));
+			System.out.print("Final on test data: ");
+
+
+			evaluateClassifier(insts, averageW, truth);
+		}
+		double[] finalW = divideArray(w, totalPositive+totalNegative);
+
+		double tn = twoNorm(averageW);
+		System.out.println("The final w is " + printWeightVector(averageW,insts[0])+"; |w|="+tn);
+		System.out.println("Total updates (pos/neg): "+totalPositive+"-"+totalNegative);
+		//System.out.println("Maximum feature weights: pos="+totalPositive/(double)totalUpdates+" neg="+totalNegative/(double)totalUpdates);
+
+//		System.out.print("Final on test data: ");
+//		tn = tn/4;
+//		double increment = tn/20.0;
+//		for(double th=0; th<=tn; th+=increment){
+//		THRESHOLD=-th;
+//		System.out.print("Threshold="+THRESHOLD+":");
+//		evaluateClassifier(insts, averageW, truth, false);
+//		evaluateClassifier(testInsts, averageW, null, false);
+
+//		if(m_TrueTest!=null){
+//		System.out.print("\nTrue test:");
+//		VectorComparator.evaluateClassifier(testInsts, m_TrueTest, false, true);
+
+//		}
+//		System.out.println();
+//		}
+		System.out.println();
+		THRESHOLD=0;
+		if(testInsts!=null)
+			for(int i=0; i<testInsts.length; i++)
+				setPredClass(w, testInsts[i]);
+		averageW = unnormalizeWeightVector(averageW,insts[0]);
+		averageW = normalizeVector(averageW);
+
+		return averageW;
+	}
+
+	/**
+	 * Runs one epoch on every shard in parallel, each starting from the current (mixed) weight vector, and then mixes
+	 * the shard weight vectors back into w (iterative parameter mixing). The shards are fixed contiguous ranges of the
+	 * documents and are mixed in order, so the result does not depend on the thread scheduling. The pool is the one
+	 * buildClassifier starts for the whole training run.
+	 */
+	private void trainMixed(ExecutorService pool, Shard[] shards, double[] w, double[] totalW) throws Exception {
+		for(Shard shard : shards){
+			System.arraycopy(w, 0, shard.w, 0, w.length);
+			Arrays.fill(shard.totalW, 0);
+		}
+		try{
+			List<Future<?>> results = new ArrayList<Future<?>>();
+			for(Shard shard : shards){
+				results.add(pool.submit(shard));
+			}
+			for(Future<?> result : results){
+				result.get();
+			}
+		} catch(ExecutionException e){
+			if(e.getCause() instanceof Exception)
+				throw (Exception)e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+
+		int mistakes = 0;
+		for(Shard shard : shards){
+			mistakes += shard.positiveUpdates + shard.negativeUpdates;
+		}
+		Arrays.fill(w, 0);
+		for(Shard shard : shards){
+			double mu = m_ErrorWeightedMixing && mistakes > 0 ? (shard.positiveUpdates + shard.negativeUpdates)
+					/ (double)mistakes : 1.0 / shards.length;
+			for(int i = 0; i < w.length; i++)
+				w[i] += mu * shard.w[i];
+			addToArray(totalW, shard.totalW);
+		}
+	}
+
+	/**
+	 * A range of the training documents with its own weight vector and running sum of weight vectors (for averaging).
+	 * Sequential training uses a single shard over all documents.
+	 */
+	private class Shard implements Runnable{
+		private double[] w, totalW;
+		private ModifiedInstancesShort[] docs;
+		private int from, to;
+		/** Updates (including non-mistakes) over all epochs, and in the last epoch */
+		private int totalUpdates = 0, epochUpdates = 0;
+		private int positiveUpdates, negativeUpdates, excluded;
+		private SparseWeightVector weights;
+
+		public Shard(double[] w, double[] totalW, ModifiedInstancesShort[] docs, int from, int to){
+			this.w = w;
+			this.totalW = totalW;
+			this.docs = docs;
+			this.from = from;
+			this.to = to;
+			weights = new SparseWeightVector(w);
+			weights.addSum(totalW);
+		}
+
+		/**
+		 * One perceptron epoch over the documents of the shard
+		 */
+		public void run(){
+			positiveUpdates = negativeUpdates = excluded = 0;
+			int start = totalUpdates;
+			double delta = m_delta;
+
+			for(int d = from; d < to; d++){
 				//if(d%10==0)
 				//  System.out.print(d+"...");
-				ModifiedInstancesShort doc = insts[d];
+				ModifiedInstancesShort doc = docs[d];
 				//LeanDocument cDoc = apply(w,doc);
 				UnionFind clusterPtrs = apply(w, doc);
 				for(int i = 0; i < doc.numInstances(); i++){
@@ -489,14 +698,14 @@ public class PerceptronMargin extends Classifier implements OptionHandler{
 					boolean changed = false;
 					//System.err.println(inst.classValue()+":"+doc.m_Positive);
 					boolean positive = inst.classValue() == doc.m_Positive;
-					short id1 = inst.value(doc.m_ID1);
-					short id2 = inst.value(doc.m_ID2);
+					int id1 = inst.intValue(doc.m_ID1);
+					int id2 = inst.intValue(doc.m_ID2);
 					if(m_StandardUpdate){
 						//Just the traditional perceptron update
 						float exWeight = inst.weight();
 						if(!positive)
 							exWeight = -exWeight;
-						double product = innerProduct(w, inst);
+						double product = weights.dot(inst);
 						boolean posPrediction =  product + exWeight > margin;
 						boolean negPrediction = -product - exWeight > margin;
 						if(positive){
@@ -509,11 +718,11 @@ public class PerceptronMargin extends Classifier implements OptionHandler{
 								 * positiveUpdates++; } totalUpdates++; addToArray(totalW, w); } }
 								 * else{
 								 */
-								addWeight(w, inst, m_PosWeight * delta);
+								weights.add(inst, m_PosWeight * delta);
 								positiveUpdates++;
 
 								totalUpdates++;
-								addToArray(totalW, w);
+								weights.tick();
 								inst.setWeight(inst.weight()+epsilon);
 
 							}else
@@ -522,10 +731,10 @@ public class PerceptronMargin extends Classifier implements OptionHandler{
 						} else{
 							if(!negPrediction){
 								changed = true;
-								subtractWeight(w, inst, delta);
+								weights.subtract(inst, delta);
 								negativeUpdates++;
 								totalUpdates++;
-								addToArray(totalW, w);
+								weights.tick();
 
 								inst.setWeight(inst.weight()+epsilon);
 							}else
@@ -549,22 +758,22 @@ public class PerceptronMargin extends Classifier implements OptionHandler{
                   addToArray(totalW, w);
                 }*/
 
-								addWeight(w, inst, m_PosWeight*delta);
+								weights.add(inst, m_PosWeight*delta);
 								clusterPtrs = apply(divideArray(w, totalUpdates), doc);
 								positiveUpdates++;
 
 								totalUpdates++;
-								addToArray(totalW, w);
+								weights.tick();
 							}
 						} else{
 							if(clusterPtrs.find(id1) == clusterPtrs.find(id2)){
 								if(inst.value(doc.m_Prediction) == doc.m_Positive){
 									//Update the weight vector to correct the mistake
 									if(m_StandardWeight){
-										subtractWeight(w, inst, delta);
+										weights.subtract(inst, delta);
 										negativeUpdates++;
 										totalUpdates++;
-										addToArray(totalW, w);
+										weights.tick();
 										clusterPtrs = apply(divideArray(w, totalUpdates), doc);
 										changed = true;
 									} else{
@@ -572,20 +781,20 @@ public class PerceptronMargin extends Classifier implements OptionHandler{
 										if(m_NegUpdate1){
 											int updated = 0;
 											do{
-												subtractWeight(w, inst, delta);
+												weights.subtract(inst, delta);
 												clusterPtrs = apply(divideArray(w, totalUpdates), doc);
 												negativeUpdates++;
 												totalUpdates++;
-												addToArray(totalW, w);
+												weights.tick();
 												changed = true;
 												updated++;
 											} while(updated < numItems && inst.value(doc.m_Prediction) == doc.m_Positive);
 										} else{
-											subtractWeight(w, inst, numItems * delta / m_NegWeight);
+											weights.subtract(inst, numItems * delta / m_NegWeight);
 											clusterPtrs = apply(divideArray(w, totalUpdates), doc);
 											negativeUpdates++;
 											totalUpdates++;
-											addToArray(totalW, w);
+											weights.tick();
 											changed = true;
 										}
 									}
@@ -596,85 +805,13 @@ public class PerceptronMargin extends Classifier implements OptionHandler{
 
 					if(!changed){
 						totalUpdates++;
-						addToArray(totalW, w);
+						weights.tick();
 					}
 				}
 			}
-			averageW = divideArray(totalW, totalUpdates);
-			if(m_FullOutput)
-				System.out.print("After iter " + iter + ": ");
-			else
-				System.out.print(iter + "\t");
-			int updts = positiveUpdates + negativeUpdates;
-			if(m_FullOutput)
-				System.out.print("Number of updates is " + positiveUpdates + "|" + negativeUpdates + "="
-						+ updts + ". ");
-			else
-				System.out.print(positiveUpdates + "," + negativeUpdates + "("+excluded+")=" + updts + ";");
-			evaluateClassifier(insts, averageW, truth);
-
-			//System.out.println("After iter "+iter+" w is "+printWeightVector(w));
-			if(testInsts != null){
-				double metrics[] = evaluateClassifier(testInsts, averageW, testTruth);
-				if(maxAcc < metrics[0]){
-					maxAcc = metrics[0];
-					maxAccIter = iter;
-				}
-				if(maxBCubbed < metrics[1]){
-					maxBCubbed = metrics[1];
-					maxBCubbedIter = iter;
-				}
-			}
-			if(!m_FullOutput)
-				System.out.println();
-			totalPositive+=positiveUpdates;
-			totalNegative+=negativeUpdates;
-		}
-		//totalW = divideArray(totalW, totalUpdates);
-		if(m_FullOutput){
-			System.out.println("Max f1 " + nf.format(maxAcc) + " at iteration " + maxAccIter);
-			System.out.println("Max B-cubed  " + nf.format(maxBCubbed) + " at iteration "
-					+ maxBCubbedIter);
-
-
-			System.out.println("The final w is " + printWeightVector(averageW));
-			System.out.print("Final on test data: ");
-
-
-			evaluateClassifier(insts, averageW, truth);
+			weights.flush();
+			epochUpdates = totalUpdates - start;
 		}
-		double[] finalW = divideArray(w, totalPositive+totalNegative);
-
-		double tn = twoNorm(averageW);
-		System.out.println("The final w is " + printWeightVector(averageW,insts[0])+"; |w|="+tn);
-		System.out.println("Total updates (pos/neg): "+totalPositive+"-"+totalNegative);
-		//System.out.println("Maximum feature weights: pos="+totalPositive/(double)totalUpdates+" neg="+totalNegative/(double)totalUpdates);
-
-//		System.out.print("Final on test data: ");
-//		tn = tn/4;
-//		double increment = tn/20.0;
-//		for(double th=0; th<=tn; th+=increment){
-//		THRESHOLD=-th;
-//		System.out.print("Threshold="+THRESHOLD+":");
-//		evaluateClassifier(insts, averageW, truth, false);
-//		evaluateClassifier(testInsts, averageW, null, false);
-
-//		if(m_TrueTest!=null){
-//		System.out.print("\nTrue test:");
-//		VectorComparator.evaluateClassifier(testInsts, m_TrueTest, false, true);
-
-//		}
-//		System.out.println();
-//		}
-		System.out.println();
-		THRESHOLD=0;
-		if(testInsts!=null)
-			for(int i=0; i<testInsts.length; i++)
-				setPredClass(w, testInsts[i]);
-		averageW = unnormalizeWeightVector(averageW,insts[0]);
-		averageW = normalizeVector(averageW);
-
-		return averageW;
 	}
 
 	public static double twoNorm(double[] w){
@@ -2687,7 +2824,7 @@ public class PerceptronMargin extends Classifier implements OptionHandler{
 			PerceptronMargin classifier = new PerceptronMargin();
 			ModifiedInstancesShort[] data = null, trainData = null, testData = null;
 			ModifiedInstancesShort trainAll = null, tempTrain, test = null, template = null;
-			String trainFileName, testFileName, trueTestFileName, sourceClass, classIndexString, seedString, foldsString, objectInputFileName, objectOutputFileName, attributeRangeString;
+			String trainFileName, testFileName, trueTestFileName, bufferFileName, sourceClass, classIndexString, seedString, foldsString, objectInputFileName, objectOutputFileName, attributeRangeString;
 			boolean IRstatistics = false, noOutput = false, printClassifications = false, trainStatistics = true, printMargins = false, printComplexityStatistics = false, printGraph = false, classStatistics = false, printSource = false;
 			StringBuffer text = new StringBuffer();
 			BufferedReader trainReader = null, testReader = null, trueTestReader = null;
@@ -2699,6 +2836,7 @@ public class PerceptronMargin extends Classifier implements OptionHandler{
 			objectOutputFileName = Utils.getOption('d', options);
 			testFileName = Utils.getOption('T', options);
 			trueTestFileName = Utils.getOption('Q', options);
+			bufferFileName = Utils.getOption('B', options);
 			if(trainFileName.length() == 0){
 				if(objectInputFileName.length() == 0){
 					System.out.println(Evaluation.makeOptionString(classifier));
@@ -2759,6 +2897,10 @@ public class PerceptronMargin extends Classifier implements OptionHandler{
 			trainAll.setClass(trainAll.attribute("class"));
 			trainAll.setPositiveClass(trainAll.attribute("class").indexOfValue("+"));
 			//System.err.println(trainAll);
+			if(bufferFileName.length() != 0){
+				// keep the training instances in a memory-mapped file
+				trainAll.setBuffer(new InstanceShortBuffer(trainAll.numAttributes(), new File(bufferFileName)));
+			}
 			data = ModifiedInstancesShort.splitDocs(trainAll);
 			if(testReader!=null){
 				test = new ModifiedInstancesShort(testReader);
@@ -2877,8 +3019,8 @@ public class PerceptronMargin extends Classifier implements OptionHandler{
 		if(data == null || data.numInstances() == 0)
 			return null;
 		InstanceShort first = data.instance(0);
-		int id1 = (int)first.value(ID1);
-		int id2 = (int)first.value(ID2);
+		int id1 = first.intValue(ID1);
+		int id2 = first.intValue(ID2);
 		int len = (id1>id2?id1:id2) + 1;
 		ptrs = new UnionFind(len);
 		
@@ -2887,8 +3029,8 @@ public class PerceptronMargin extends Classifier implements OptionHandler{
 			// read all instances for a document
 			InstanceShort current = data.instance(i);
 			// System.out.println("Working on: "+current);
-			id1 = (int)current.value(ID1);
-			id2 = (int)current.value(ID2);
+			id1 = current.intValue(ID1);
+			id2 = current.intValue(ID2);
 
 			if(innerProduct(w, current) > THRESHOLD){
 				ptrs.union(id1, id2);
@@ -2943,8 +3085,8 @@ public class PerceptronMargin extends Classifier implements OptionHandler{
 
 		for(int k = 0; k < data.numInstances(); k++){
 			InstanceShort curPair = data.instance(k);
-			int curId1 = (int)curPair.value(ID1);
-			int curId2 = (int)curPair.value(ID2);
+			int curId1 = curPair.intValue(ID1);
+			int curId2 = curPair.intValue(ID2);
 			if(!result.contains(new Integer(curId1))){
 				//System.err.println("Add "+curId1+"-"+find(curId1,ptrs));
 				result.add(new Integer(curId1), new Integer(ptrs.find(curId1)));
@@ -3023,8 +3165,8 @@ public class PerceptronMargin extends Classifier implements OptionHandler{
 			return null;
 		InstanceShort first = data.instance(0);
 		
-		int id1 = (int)first.value(ID1);
-		int id2 = (int)first.value(ID2);
+		int id1 = first.intValue(ID1);
+		int id2 = first.intValue(ID2);
 		int len = (id1>id2?id1:id2) + 1;
 		ptrs = new UnionFind(len);
 
@@ -3036,8 +3178,8 @@ public class PerceptronMargin extends Classifier implements OptionHandler{
 			// read all instances for a document
 			InstanceShort current = data.instance(i);
 			// System.out.println("Working on: "+current);
-			id1 = (int)current.value(ID1);
-			id2 = (int)current.value(ID2);
+			id1 = current.intValue(ID1);
+			id2 = current.intValue(ID2);
 
 			if(current.value(Cl) == pos){
 				ptrs.union(id1, id2);
@@ -3046,8 +3188,8 @@ public class PerceptronMargin extends Classifier implements OptionHandler{
 		
 		for(int k = 0; k < data.numInstances(); k++){
 			InstanceShort curPair = data.instance(k);
-			int curId1 = (int)curPair.value(ID1);
-			int curId2 = (int)curPair.value(ID2);
+			int curId1 = curPair.intValue(ID1);
+			int curId2 = curPair.intValue(ID2);
 			if(!result.contains(new Integer(curId1))){
 				//System.err.println("Add "+curId1+"-"+find(curId1,ptrs));
 				result.add(new Integer(curId1), new Integer(ptrs.find(curId1)));
@@ -0,0 +1,127 @@
+package reconcile.weka.classifiers.functions;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+import reconcile.weka.core.AttributeShort;
+import reconcile.weka.core.ModifiedInstancesShort;
+import reconcile.weka.core.Utils;
+
+/**
+ * Times PerceptronMargin training with different numbers of threads (-R) on the same training file. For every thread
+ * count the classifier is trained once to warm up and then a number of times while timed; the weight vectors of the
+ * timed runs are checked to be identical, since the shards are mixed in a fixed order. The training output of
+ * PerceptronMargin is discarded while the benchmark runs.
+ *
+ * Valid options are:
+ * <p>
+ * -t file <br>
+ * The training file.
+ * <p>
+ * -I num <br>
+ * The number of perceptron iterations. (default 10)
+ * <p>
+ * -R list <br>
+ * The comma-separated thread counts to compare. (default 1,2,4)
+ * <p>
+ * -N num <br>
+ * The number of timed runs for each thread count. (default 3)
+ * <p>
+ * -X <br>
+ * Use error-weighted instead of uniform parameter mixing.
+ * <p>
+ *
+ * @author ves
+ */
+public class PerceptronMarginBenchmark {
+
+  /**
+   * Reads a training file and prepares it the way PerceptronMargin.main does.
+   */
+  static ModifiedInstancesShort[] readTrainingData(String fileName) throws Exception {
+    ModifiedInstancesShort train = new ModifiedInstancesShort(new File(fileName));
+    train.setClass(train.attribute("class"));
+    train.cleanUpValuesAndSetWeight(0);
+    AttributeShort predClass = train.classAttribute().copy("predicted_class");
+    train.insertAttributeAt(predClass, train.numAttributes());
+    int numDocs = train.getNumDocuments();
+    train = train.binarizeValues();
+    train.normalizeAttrValues();
+    train.setNumDocuments(numDocs);
+    train.setClass(train.attribute("class"));
+    train.setPositiveClass(train.attribute("class").indexOfValue("+"));
+    return ModifiedInstancesShort.splitDocs(train);
+  }
+
+  public static void main(String[] args) {
+    PrintStream out = System.out, err = System.err;
+    PrintStream discard = new PrintStream(new OutputStream() {
+      public void write(int b) {
+      }
+
+      public void write(byte[] b, int off, int len) {
+      }
+    });
+    try{
+      String trainFileName = Utils.getOption('t', args);
+      if(trainFileName.length() == 0)
+        throw new Exception("Usage: PerceptronMarginBenchmark -t train [-I iterations] [-R threads,...] [-N runs] [-X]");
+      String iterString = Utils.getOption('I', args);
+      int iterations = iterString.length() == 0?10:Integer.parseInt(iterString);
+      String threadsString = Utils.getOption('R', args);
+      String[] threads = (threadsString.length() == 0?"1,2,4":threadsString).split(",");
+      String runsString = Utils.getOption('N', args);
+      int runs = runsString.length() == 0?3:Integer.parseInt(runsString);
+      boolean errorWeighted = Utils.getFlag('X', args);
+
+      ModifiedInstancesShort[] data = readTrainingData(trainFileName);
+      int numInstances = 0;
+      for(int d = 0; d < data.length; d++)
+        numInstances += data[d].numInstances();
+      out.println(data.length + " documents, " + numInstances + " instances, " + iterations + " iterations, "
+          + runs + " runs");
+
+      double baseline = 0;
+      for(int t = 0; t < threads.length; t++){
+        String[] options = errorWeighted?new String[] { "-I", "" + iterations, "-R", threads[t].trim(), "-X" }
+            :new String[] { "-I", "" + iterations, "-R", threads[t].trim() };
+        PerceptronMargin classifier = new PerceptronMargin();
+        classifier.setOptions(options);
+
+        double[] first = null;
+        boolean same = true;
+        long time = 0;
+        System.setOut(discard);
+        System.setErr(discard);
+        try{
+          classifier.buildClassifier(data);
+          for(int r = 0; r < runs; r++){
+            long start = System.nanoTime();
+            double[] w = classifier.buildClassifier(data);
+            time += System.nanoTime() - start;
+            if(first == null)
+              first = w;
+            else
+              same &= Arrays.equals(first, w);
+          }
+        } finally{
+          System.setOut(out);
+          System.setErr(err);
+        }
+
+        double ms = time / 1e6 / runs;
+        if(t == 0)
+          baseline = ms;
+        out.println(threads[t].trim() + " thread(s): " + Utils.doubleToString(ms, 1) + " ms per run, speedup "
+            + Utils.doubleToString(baseline / ms, 2) + (same?"":", weight vectors differ between runs!"));
+      }
+    } catch(Exception e){
+      System.setOut(out);
+      System.setErr(err);
+      e.printStackTrace();
+      System.err.println(e.getMessage());
+    }
+  }
+}
@@ -371,8 +371,14 @@ public class PerceptronMarginGeneral extends Classifier implements OptionHandler
     double maxAcc = 0, maxAcc1 = 0;
     int maxAccIter = 0, maxAccIter1 = 0;
     boolean progress = true;
+    SparseWeightVector weights = new SparseWeightVector(w);
+    weights.addSum(totalW);
+    double[] iterW = null;
     for(int iter = 0; iter < numIterations && progress; iter++){
-      double[] iterW = new double[vecLen];
+      if(iterW != null)
+        weights.removeSum(iterW);
+      iterW = new double[vecLen];
+      weights.addSum(iterW);
       int positiveUpdates = 0, negativeUpdates = 0;
       int excludedPos = 0, excludedNeg=0;
       for(int i = 0; i < insts.numInstances(); i++){
@@ -381,19 +387,18 @@ public class PerceptronMarginGeneral extends Classifier implements OptionHandler
         boolean positive = inst.classValue() == insts.m_Positive;
         float exWeight = inst.weight();
         int cl = positive?1:-1;
-        double product = innerProduct(w, inst);
+        double product = weights.dot(inst);
         boolean correctPred = cl*(product+exWeight*epsilon)>margin;
         
         if(positive){
           if(!correctPred){
             changed = true;
 
-            addWeight(w, inst, m_PosWeight * delta);
+            weights.add(inst, m_PosWeight * delta);
             positiveUpdates++;
 
             totalUpdates++;
-            addToArray(totalW, w);
-            addToArray(iterW, w);
+            weights.tick();
             inst.setWeight(inst.weight() + epsilon);
 
           } else if(product <= margin)
@@ -401,11 +406,10 @@ public class PerceptronMarginGeneral extends Classifier implements OptionHandler
         } else{
           if(!correctPred){
             changed = true;
-            subtractWeight(w, inst, delta);
+            weights.subtract(inst, delta);
             negativeUpdates++;
             totalUpdates++;
-            addToArray(totalW, w);
-            addToArray(iterW, w);
+            weights.tick();
             inst.setWeight(inst.weight() - epsilon);
           } else if(-product <= margin)
             excludedNeg++;//System.err.println(id1+","+id2+":"+product+":"+exWeight);
@@ -413,10 +417,10 @@ public class PerceptronMarginGeneral extends Classifier implements OptionHandler
 
         if(!changed){
           totalUpdates++;
-          addToArray(totalW, w);
-          addToArray(iterW, w);
+          weights.tick();
         }
       }
+      weights.flush();
       double[] averageW = divideArray(totalW, totalUpdates);
       if(iter % outputFreq == 0){
         if(m_FullOutput)
@@ -2638,8 +2642,8 @@ public class PerceptronMarginGeneral extends Classifier implements OptionHandler
     if(data == null || data.numInstances() == 0)
       return null;
     InstanceShort first = data.instance(0);
-    int id1 = (int)first.value(ID1);
-    int id2 = (int)first.value(ID2);
+    int id1 = first.intValue(ID1);
+    int id2 = first.intValue(ID2);
     int len = id2 + 1;
     ptrs = new int[len];
     // initialize pointers so each item is in it's own set
@@ -2650,8 +2654,8 @@ public class PerceptronMarginGeneral extends Classifier implements OptionHandler
       // read all instances for a document
       InstanceShort current = data.instance(i);
       // System.out.println("Working on: "+current);
-      id1 = (int)current.value(ID1);
-      id2 = (int)current.value(ID2);
+      id1 = current.intValue(ID1);
+      id2 = current.intValue(ID2);
 
       if(innerProduct(w, current) > THRESHOLD){
         union(id1, id2, ptrs);
@@ -2682,8 +2686,8 @@ public class PerceptronMarginGeneral extends Classifier implements OptionHandler
 
     for(int k = 0; k < data.numInstances(); k++){
       InstanceShort curPair = data.instance(k);
-      int curId1 = (int)curPair.value(ID1);
-      int curId2 = (int)curPair.value(ID2);
+      int curId1 = curPair.intValue(ID1);
+      int curId2 = curPair.intValue(ID2);
       if(!result.contains(new Integer(curId1))){
         //System.err.println("Add "+curId1+"-"+find(curId1,ptrs));
         result.add(new Integer(curId1), new Integer(find(curId1, ptrs)));
@@ -2736,8 +2740,8 @@ public class PerceptronMarginGeneral extends Classifier implements OptionHandler
     if(data == null || data.numInstances() == 0)
       return null;
     InstanceShort first = data.instance(0);
-    int id1 = (int)first.value(ID1);
-    int id2 = (int)first.value(ID2);
+    int id1 = first.intValue(ID1);
+    int id2 = first.intValue(ID2);
     int len = id2 + 1;
     ptrs = new int[len];
     // initialize pointers so each item is in it's own set
@@ -2751,8 +2755,8 @@ public class PerceptronMarginGeneral extends Classifier implements OptionHandler
       // read all instances for a document
       InstanceShort current = data.instance(i);
       // System.out.println("Working on: "+current);
-      id1 = (int)current.value(ID1);
-      id2 = (int)current.value(ID2);
+      id1 = current.intValue(ID1);
+      id2 = current.intValue(ID2);
 
       if(current.value(Cl) == pos){
         union(id1, id2, ptrs);
@@ -2760,8 +2764,8 @@ public class PerceptronMarginGeneral extends Classifier implements OptionHandler
     }
     for(int k = 0; k < data.numInstances(); k++){
       InstanceShort curPair = data.instance(k);
-      int curId1 = (int)curPair.value(ID1);
-      int curId2 = (int)curPair.value(ID2);
+      int curId1 = curPair.intValue(ID1);
+      int curId2 = curPair.intValue(ID2);
       if(!result.contains(new Integer(curId1))){
         //System.err.println("Add "+curId1+"-"+find(curId1,ptrs));
         result.add(new Integer(curId1), new Integer(find(curId1, ptrs)));
@@ -23,12 +23,20 @@
 package reconcile.weka.classifiers.functions;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import reconcile.weka.classifiers.Classifier;
 import reconcile.weka.classifiers.Evaluation;
+import reconcile.weka.classifiers.functions.supportVector.CachedKernel;
 import reconcile.weka.classifiers.functions.supportVector.Kernel;
 import reconcile.weka.classifiers.functions.supportVector.NormalizedPolyKernel;
 import reconcile.weka.classifiers.functions.supportVector.PolyKernel;
@@ -217,6 +225,10 @@ public class SMO extends Classifier implements WeightedInstancesHandler {
     /** Stores the weight of the training instances */
     protected double m_sumOfWeights = 0;
 
+    /** The threads that evaluate the kernel during training (null if
+	single-threaded) */
+    protected transient ExecutorService m_pool = null;
+
     /**
      * Fits logistic regression model to SVM outputs analogue
      * to John Platt's method.  
@@ -404,46 +416,19 @@ public class SMO extends Classifier implements WeightedInstancesHandler {
       }
       
       // Loop to find all the support vectors
-      int numChanged = 0;
-      boolean examineAll = true;
-      while ((numChanged > 0) || examineAll) {
-	numChanged = 0;
-	if (examineAll) {
-	  for (int i = 0; i < m_alpha.length; i++) {
-	    if (examineExample(i)) {
-	      numChanged++;
-	    }
-	  }
-	} else {
-	  
-	  // This code implements Modification 1 from Keerthi et al.'s paper
-	  for (int i = 0; i < m_alpha.length; i++) {
-	    if ((m_alpha[i] > 0) &&  
-		(m_alpha[i] < m_C * m_data.instance(i).weight())) {
-	      if (examineExample(i)) {
-		numChanged++;
-	      }
-	      
-	      // Is optimality on unbound vectors obtained?
-	      if (m_bUp > m_bLow - 2 * m_tol) {
-		numChanged = 0;
-		break;
-	      }
-	    }
-	  }
-	  
-	  //This is the code for Modification 2 from Keerthi et al.'s paper
-	  /*boolean innerLoopSuccess = true; 
-	    numChanged = 0;
-	    while ((m_bUp < m_bLow - 2 * m_tol) && (innerLoopSuccess == true)) {
-	    innerLoopSuccess = takeStep(m_iUp, m_iLow, m_errors[m_iLow]);
-	    }*/
+      if (m_numThreads > 1) {
+	m_pool = Executors.newFixedThreadPool(m_numThreads);
+      }
+      try {
+	if ((m_pool != null) && (m_cacheSize == 0) &&
+	    (m_kernel instanceof CachedKernel)) {
+	  ((CachedKernel)m_kernel).computeKernelMatrix(m_pool);
 	}
-	
-	if (examineAll) {
-	  examineAll = false;
-	} else if (numChanged == 0) {
-	  examineAll = true;
+	findSupportVectors();
+      } finally {
+	if (m_pool != null) {
+	  m_pool.shutdown();
+	  m_pool = null;
 	}
       }
       
@@ -503,6 +488,57 @@ public class SMO extends Classifier implements WeightedInstancesHandler {
 
     }
     
+    /**
+     * Optimizes the Lagrange multipliers: the main loop of SMO.
+     *
+     * @exception Exception if something goes wrong
+     */
+    protected void findSupportVectors() throws Exception {
+
+      int numChanged = 0;
+      boolean examineAll = true;
+      while ((numChanged > 0) || examineAll) {
+	numChanged = 0;
+	if (examineAll) {
+	  for (int i = 0; i < m_alpha.length; i++) {
+	    if (examineExample(i)) {
+	      numChanged++;
+	    }
+	  }
+	} else {
+	  
+	  // This code implements Modification 1 from Keerthi et al.'s paper
+	  for (int i = 0; i < m_alpha.length; i++) {
+	    if ((m_alpha[i] > 0) &&  
+		(m_alpha[i] < m_C * m_data.instance(i).weight())) {
+	      if (examineExample(i)) {
+		numChanged++;
+	      }
+	      
+	      // Is optimality on unbound vectors obtained?
+	      if (m_bUp > m_bLow - 2 * m_tol) {
+		numChanged = 0;
+		break;
+	      }
+	    }
+	  }
+	  
+	  //This is the code for Modification 2 from Keerthi et al.'s paper
+	  /*boolean innerLoopSuccess = true; 
+	    numChanged = 0;
+	    while ((m_bUp < m_bLow - 2 * m_tol) && (innerLoopSuccess == true)) {
+	    innerLoopSuccess = takeStep(m_iUp, m_iLow, m_errors[m_iLow]);
+	    }*/
+	}
+	
+	if (examineAll) {
+	  examineAll = false;
+	} else if (numChanged == 0) {
+	  examineAll = true;
+	}
+      }
+    }
+    
     /**
      * Computes SVM output for given instance.
      *
@@ -542,6 +578,9 @@ public class SMO extends Classifier implements WeightedInstancesHandler {
 	    }
 	  }
 	}
+      } else if ((m_pool != null) && 
+		 (m_supportVectors.numElements() >= MIN_PARALLEL)) {
+	result = parallelOutput(index, inst);
       } else {
 	for (int i = m_supportVectors.getNext(-1); i != -1; 
 	     i = m_supportVectors.getNext(i)) {
@@ -899,11 +938,15 @@ public class SMO extends Classifier implements WeightedInstancesHandler {
       }
       
       // Update error cache using new Lagrange multipliers
-      for (int j = m_I0.getNext(-1); j != -1; j = m_I0.getNext(j)) {
-	if ((j != i1) && (j != i2)) {
-	  m_errors[j] += 
-	    y1 * (a1 - alph1) * m_kernel.eval(i1, j, m_data.instance(i1)) + 
-	    y2 * (a2 - alph2) * m_kernel.eval(i2, j, m_data.instance(i2));
+      if ((m_pool != null) && (m_I0.numElements() >= MIN_PARALLEL)) {
+	updateErrors(i1, i2, y1 * (a1 - alph1), y2 * (a2 - alph2));
+      } else {
+	for (int j = m_I0.getNext(-1); j != -1; j = m_I0.getNext(j)) {
+	  if ((j != i1) && (j != i2)) {
+	    m_errors[j] += 
+	      y1 * (a1 - alph1) * m_kernel.eval(i1, j, m_data.instance(i1)) + 
+	      y2 * (a2 - alph2) * m_kernel.eval(i2, j, m_data.instance(i2));
+	  }
 	}
       }
       
@@ -956,6 +999,115 @@ public class SMO extends Classifier implements WeightedInstancesHandler {
       return true;
     }
   
+    /**
+     * Computes the SVM output of a non-linear machine on several threads:
+     * the kernel evaluations are done in parallel, the terms are added up
+     * in the same order as in SVMOutput(), so the result is the same.
+     *
+     * @param index the instance for which output is to be computed
+     * @param inst the instance
+     * @return the output of the SVM for the given instance (without m_b)
+     * @exception Exception if something goes wrong
+     */
+    protected double parallelOutput(final int index, final Instance inst) 
+      throws Exception {
+
+      final int[] svs = elements(m_supportVectors);
+      final double[] terms = new double[svs.length];
+      parallelFor(svs.length, new RangeTask() {
+	  public void run(int from, int to) throws Exception {
+	    for (int k = from; k < to; k++) {
+	      int i = svs[k];
+	      terms[k] = m_class[i] * m_alpha[i] * m_kernel.eval(index, i, inst);
+	    }
+	  }
+	});
+      double result = 0;
+      for (int k = 0; k < terms.length; k++) {
+	result += terms[k];
+      }
+      return result;
+    }
+
+    /**
+     * Updates the error cache for the unbound instances after the
+     * multipliers of i1 and i2 have changed, on several threads. Each
+     * error is updated exactly as in takeStep().
+     *
+     * @param i1 index of the first instance
+     * @param i2 index of the second instance
+     * @param c1 the change of the multiplier of i1 times its class
+     * @param c2 the change of the multiplier of i2 times its class
+     * @exception Exception if something goes wrong
+     */
+    protected void updateErrors(final int i1, final int i2, 
+				final double c1, final double c2) 
+      throws Exception {
+
+      final int[] unbound = elements(m_I0);
+      parallelFor(unbound.length, new RangeTask() {
+	  public void run(int from, int to) throws Exception {
+	    Instance inst1 = m_data.instance(i1);
+	    Instance inst2 = m_data.instance(i2);
+	    for (int k = from; k < to; k++) {
+	      int j = unbound[k];
+	      if ((j != i1) && (j != i2)) {
+		m_errors[j] += 
+		  c1 * m_kernel.eval(i1, j, inst1) + 
+		  c2 * m_kernel.eval(i2, j, inst2);
+	      }
+	    }
+	  }
+	});
+    }
+
+    /**
+     * Runs the task on consecutive parts of 0..n-1 on the threads of 
+     * m_pool and waits for all of them to finish.
+     *
+     * @param n the number of items
+     * @param task the task
+     * @exception Exception if the task fails
+     */
+    protected void parallelFor(int n, final RangeTask task) throws Exception {
+
+      int numParts = Math.min(m_numThreads, n);
+      List<Future<Object>> results = new ArrayList<Future<Object>>();
+      for (int p = 0; p < numParts; p++) {
+	final int from = (int) ((long) n * p / numParts);
+	final int to = (int) ((long) n * (p + 1) / numParts);
+	results.add(m_pool.submit(new Callable<Object>() {
+	    public Object call() throws Exception {
+	      task.run(from, to);
+	      return null;
+	    }
+	  }));
+      }
+      for (int p = 0; p < results.size(); p++) {
+	try {
+	  results.get(p).get();
+	} catch (ExecutionException e) {
+	  if (e.getCause() instanceof Exception) {
+	    throw (Exception) e.getCause();
+	  }
+	  throw new RuntimeException(e.getCause());
+	}
+      }
+    }
+
+    /**
+     * Returns the elements of a set in increasing order.
+     */
+    protected int[] elements(SMOset set) {
+
+      int[] result = new int[set.numElements()];
+      int k = 0;
+      for (int i = set.getNext(-1); i != -1; i = set.getNext(i)) {
+	result[k++] = i;
+      }
+      return result;
+    }
+
     /**
      * Quick and dirty check whether the quadratic programming problem is solved.
      */
@@ -1034,6 +1186,22 @@ public class SMO extends Classifier implements WeightedInstancesHandler {
   /** The size of the cache (a prime number) */
   protected int m_cacheSize = 250007;
 
+  /** The number of threads that evaluate the kernel during training */
+  protected int m_numThreads = 1;
+
+  /** The smallest number of kernel evaluations that are split between
+      threads */
+  protected static final int MIN_PARALLEL = 1000;
+
+  /**
+   * A loop over a range of indices, run by BinarySMO.parallelFor().
+   */
+  protected abstract static class RangeTask {
+
+    /** Runs the loop for the indices from..to-1 */
+    public abstract void run(int from, int to) throws Exception;
+  }
+
   /** The filter used to make attributes numeric. */
   protected NominalToBinary m_NominalToBinary;
 
@@ -1486,7 +1654,7 @@ public class SMO extends Classifier implements WeightedInstancesHandler {
    */
   public Enumeration listOptions() {
 
-    Vector newVector = new Vector(13);
+    Vector newVector = new Vector(14);
 
     newVector.addElement(new Option("\tThe complexity constant C. (default 1)",
 				    "C", 1, "-C <double>"));
@@ -1525,6 +1693,9 @@ public class SMO extends Classifier implements WeightedInstancesHandler {
     newVector.addElement(new Option("\tThe random number seed. " +
 				    "(default 1)",
 				    "W", 1, "-W <double>"));
+    newVector.addElement(new Option("\tThe number of threads that evaluate\n" +
+				    "\tthe kernel during training. (default 1)",
+				    "num-threads", 1, "-num-threads <int>"));
 
     return newVector.elements();
   }
@@ -1570,7 +1741,12 @@ public class SMO extends Classifier implements WeightedInstancesHandler {
    * for logistic models. (default -1, use training data)
    *
    * -W num <br>
-   * Random number seed. (default 1)
+   * Random number seed. (default 1)<p>
+   *
+   * -num-threads num <br>
+   * The number of threads that evaluate the kernel during training.
+   * The resulting model doesn't depend on the number of threads.
+   * (default 1)
    *
    * @param options the list of options as an array of strings
    * @exception Exception if an option is not supported 
@@ -1647,6 +1823,12 @@ public class SMO extends Classifier implements WeightedInstancesHandler {
     } else {
       m_randomSeed = 1;
     }
+    String threadsString = Utils.getOption("num-threads", options);
+    if (threadsString.length() != 0) {
+      m_numThreads = Integer.parseInt(threadsString);
+    } else {
+      m_numThreads = 1;
+    }
   }
 
   /**
@@ -1656,7 +1838,7 @@ public class SMO extends Classifier implements WeightedInstancesHandler {
    */
   public String [] getOptions() {
 
-    String [] options = new String [21];
+    String [] options = new String [23];
     int current = 0;
 
     options[current++] = "-C"; options[current++] = "" + m_C;
@@ -1680,6 +1862,7 @@ public class SMO extends Classifier implements WeightedInstancesHandler {
     }
     options[current++] = "-V"; options[current++] = "" + m_numFolds;
     options[current++] = "-W"; options[current++] = "" + m_randomSeed;    
+    options[current++] = "-num-threads"; options[current++] = "" + m_numThreads;
 
     while (current < options.length) {
       options[current++] = "";
@@ -2078,6 +2261,35 @@ public class SMO extends Classifier implements WeightedInstancesHandler {
     
     m_randomSeed = newrandomSeed;
   }
+     
+  /**
+   * Returns the tip text for this property
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String numThreadsTipText() {
+    return "The number of threads that evaluate the kernel during training.";
+  }
+  
+  /**
+   * Get the value of numThreads.
+   *
+   * @return Value of numThreads.
+   */
+  public int getNumThreads() {
+    
+    return m_numThreads;
+  }
+  
+  /**
+   * Set the value of numThreads.
+   *
+   * @param newnumThreads Value to assign to numThreads.
+   */
+  public void setNumThreads(int newnumThreads) {
+    
+    m_numThreads = newnumThreads;
+  }
   
   /**
    * Prints out the classifier.
@@ -0,0 +1,191 @@
+package reconcile.weka.classifiers.functions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import reconcile.weka.core.AttributeShort;
+import reconcile.weka.core.InstanceShort;
+
+/**
+ * A perceptron weight vector with sparse updates and lazily maintained running sums (for averaging).
+ *
+ * Which attributes are features (and which of them are nominal) is worked out once, from the first instance seen, so
+ * collecting the non-zero feature values of an instance does not compare attribute names; they are collected into a
+ * scratch buffer on every call, and adding an instance to the weight vector or taking the inner product with it then
+ * only touches the instance's non-zero features. Nothing is kept per instance. The running sums
+ * (e.g., the sum of the weight vector after every training example, used for the averaged perceptron) are kept with a
+ * timestamp per attribute: when an attribute's weight changes, the sum is brought up to date by adding the old weight
+ * times the number of ticks since the attribute was last touched. flush() brings the whole sum up to date before it is
+ * read.
+ *
+ * The weights are the same as with the dense addWeight/subtractWeight updates. The sums are the same up to rounding,
+ * since k additions of the same weight become one multiplication.
+ */
+public class SparseWeightVector {
+
+	private double[] m_W;
+
+	/** Which attributes are features, and which of those are nominal */
+	private boolean[] m_Feature, m_Nominal;
+
+	/** The non-zero feature values of the instance being added or multiplied */
+	private int[] m_Indices;
+
+	private double[] m_Values;
+
+	private int m_Size;
+
+	private ArrayList<double[]> m_Sums = new ArrayList<double[]>();
+
+	private ArrayList<int[]> m_Stamps = new ArrayList<int[]>();
+
+	private int m_Time = 0;
+
+	/**
+	 * @param w
+	 *          the weight vector, updated in place
+	 */
+	public SparseWeightVector(double[] w) {
+		m_W = w;
+	}
+
+	public double[] getWeights() {
+		return m_W;
+	}
+
+	/**
+	 * Starts keeping sum up to date with the weight vector after every tick. sum is updated in place; it has to be
+	 * flushed before it is read.
+	 */
+	public void addSum(double[] sum) {
+		m_Sums.add(sum);
+		int[] stamp = new int[m_W.length];
+		Arrays.fill(stamp, m_Time);
+		m_Stamps.add(stamp);
+	}
+
+	/**
+	 * Stops updating sum (after bringing it up to date).
+	 */
+	public void removeSum(double[] sum) {
+		for(int s = 0; s < m_Sums.size(); s++){
+			if(m_Sums.get(s) == sum){
+				flush(s);
+				m_Sums.remove(s);
+				m_Stamps.remove(s);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Adds the current weight vector to all the sums (lazily).
+	 */
+	public void tick() {
+		m_Time++;
+	}
+
+	/**
+	 * Brings all sums up to date.
+	 */
+	public void flush() {
+		for(int s = 0; s < m_Sums.size(); s++)
+			flush(s);
+	}
+
+	private void flush(int s) {
+		double[] sum = m_Sums.get(s);
+		int[] stamp = m_Stamps.get(s);
+		for(int j = 0; j < m_W.length; j++){
+			if(stamp[j] != m_Time){
+				sum[j] += m_W[j] * (m_Time - stamp[j]);
+				stamp[j] = m_Time;
+			}
+		}
+	}
+
+	/**
+	 * w = w + delta * inst
+	 */
+	public void add(InstanceShort inst, double delta) {
+		sparse(inst);
+		touch();
+		for(int k = 0; k < m_Size; k++){
+			int j = m_Indices[k];
+			m_W[j] = m_W[j] + delta * m_Values[k];
+		}
+	}
+
+	/**
+	 * w = w - delta * inst
+	 */
+	public void subtract(InstanceShort inst, double delta) {
+		sparse(inst);
+		touch();
+		for(int k = 0; k < m_Size; k++){
+			int j = m_Indices[k];
+			m_W[j] = m_W[j] - delta * m_Values[k];
+		}
+	}
+
+	/**
+	 * The inner product of the weight vector with the features of inst.
+	 */
+	public double dot(InstanceShort inst) {
+		if(m_W.length != inst.numAttributes())
+			throw new RuntimeException("Wrong number of attributes");
+		sparse(inst);
+		double result = 0;
+		for(int k = 0; k < m_Size; k++)
+			result += m_Values[k] * m_W[m_Indices[k]];
+		return result;
+	}
+
+	/*
+	 * Brings the sums up to date for the attributes in the scratch buffer before their weights change
+	 */
+	private void touch() {
+		for(int s = 0; s < m_Sums.size(); s++){
+			double[] sum = m_Sums.get(s);
+			int[] stamp = m_Stamps.get(s);
+			for(int k = 0; k < m_Size; k++){
+				int j = m_Indices[k];
+				if(stamp[j] != m_Time){
+					sum[j] += m_W[j] * (m_Time - stamp[j]);
+					stamp[j] = m_Time;
+				}
+			}
+		}
+	}
+
+	/*
+	 * Collects the non-zero feature values of inst into the scratch buffer
+	 */
+	private void sparse(InstanceShort inst) {
+		int numAtts = inst.numAttributes();
+		if(m_Feature == null || m_Feature.length != numAtts){
+			m_Feature = new boolean[numAtts];
+			m_Nominal = new boolean[numAtts];
+			for(int j = 0; j < numAtts; j++){
+				AttributeShort att = inst.attribute(j);
+				m_Feature[j] = att.isFeature();
+				m_Nominal[j] = att.isNominal();
+			}
+			m_Indices = new int[numAtts];
+			m_Values = new double[numAtts];
+		}
+		int n = 0;
+		for(int j = 0; j < numAtts; j++){
+			if(m_Feature[j]){
+				double v = m_Nominal[j] ? inst.value(j) : inst.attribute(j).getOriginalValue(new Short(inst.value(j)));
+				// NaN (missing) values are kept as well, so that they propagate as in the dense updates
+				if(v != 0){
+					m_Indices[n] = j;
+					m_Values[n] = v;
+					n++;
+				}
+			}
+		}
+		m_Size = n;
+	}
+}
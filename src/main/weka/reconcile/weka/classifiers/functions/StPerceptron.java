@@ -385,7 +385,7 @@ public class StPerceptron extends Classifier implements OptionHandler{
         continue;
       InstanceShort inst = doc.instance(0);
       //short id1 = inst.value(doc.m_ID1);
-      int docLen = inst.value(doc.m_ID2);
+      int docLen = inst.intValue(doc.m_ID2);
       boolean[] labeled = new boolean[docLen];
       for(int j=0;j<docLen;j++)
         if(random.nextDouble()<dataFraction){
@@ -397,8 +397,8 @@ public class StPerceptron extends Classifier implements OptionHandler{
         }
       for(int j=0;j<doc.numInstances();j++){
         inst = doc.instance(j);
-        int id1 = inst.value(doc.m_ID1);
-        int id2 = inst.value(doc.m_ID2);
+        int id1 = inst.intValue(doc.m_ID1);
+        int id2 = inst.intValue(doc.m_ID2);
         if(!labeled[id1-1] || !labeled[id2-1])
           inst.setClassMissing();
       }
@@ -502,8 +502,8 @@ public class StPerceptron extends Classifier implements OptionHandler{
           if(unlabeled)
             continue;
           boolean positive = inst.classValue() == doc.m_Positive;
-          short id1 = inst.value(doc.m_ID1);
-          short id2 = inst.value(doc.m_ID2);
+          int id1 = inst.intValue(doc.m_ID1);
+          int id2 = inst.intValue(doc.m_ID2);
           if(m_StandardUpdate){
             //Just the traditional perceptron update
             if(!unlabeled){
@@ -2795,8 +2795,8 @@ public class StPerceptron extends Classifier implements OptionHandler{
     if(data == null || data.numInstances() == 0)
       return null;
     InstanceShort first = data.instance(0);
-    int id1 = (int)first.value(ID1);
-    int id2 = (int)first.value(ID2);
+    int id1 = first.intValue(ID1);
+    int id2 = first.intValue(ID2);
     int len = id1 + 1;
     ptrs = new int[len];
     // initialize pointers so each item is in it's own set
@@ -2807,8 +2807,8 @@ public class StPerceptron extends Classifier implements OptionHandler{
       // read all instances for a document
       InstanceShort current = data.instance(i);
       // System.out.println("Working on: "+current);
-      id1 = (int)current.value(ID1);
-      id2 = (int)current.value(ID2);
+      id1 = current.intValue(ID1);
+      id2 = current.intValue(ID2);
 
       if(innerProduct(w, current) > THRESHOLD){
         union(id1, id2, ptrs);
@@ -2839,8 +2839,8 @@ public class StPerceptron extends Classifier implements OptionHandler{
 
     for(int k = 0; k < data.numInstances(); k++){
       InstanceShort curPair = data.instance(k);
-      int curId1 = (int)curPair.value(ID1);
-      int curId2 = (int)curPair.value(ID2);
+      int curId1 = curPair.intValue(ID1);
+      int curId2 = curPair.intValue(ID2);
       if(!result.contains(new Integer(curId1))){
         //System.err.println("Add "+curId1+"-"+find(curId1,ptrs));
         result.add(new Integer(curId1), new Integer(find(curId1, ptrs)));
@@ -2893,8 +2893,8 @@ public class StPerceptron extends Classifier implements OptionHandler{
     if(data == null || data.numInstances() == 0)
       return null;
     InstanceShort first = data.instance(0);
-    int id1 = (int)first.value(ID1);
-    int id2 = (int)first.value(ID2);
+    int id1 = first.intValue(ID1);
+    int id2 = first.intValue(ID2);
     int len = id1 + 1;
     ptrs = new int[len];
     // initialize pointers so each item is in it's own set
@@ -2908,8 +2908,8 @@ public class StPerceptron extends Classifier implements OptionHandler{
       // read all instances for a document
       InstanceShort current = data.instance(i);
       // System.out.println("Working on: "+current);
-      id1 = (int)current.value(ID1);
-      id2 = (int)current.value(ID2);
+      id1 = current.intValue(ID1);
+      id2 = current.intValue(ID2);
 
       if(current.value(Cl) == pos){
         union(id1, id2, ptrs);
@@ -2917,8 +2917,8 @@ public class StPerceptron extends Classifier implements OptionHandler{
     }
     for(int k = 0; k < data.numInstances(); k++){
       InstanceShort curPair = data.instance(k);
-      int curId1 = (int)curPair.value(ID1);
-      int curId2 = (int)curPair.value(ID2);
+      int curId1 = curPair.intValue(ID1);
+      int curId2 = curPair.intValue(ID2);
       if(!result.contains(new Integer(curId1))){
         //System.err.println("Add "+curId1+"-"+find(curId1,ptrs));
         result.add(new Integer(curId1), new Integer(find(curId1, ptrs)));
@@ -18,9 +18,7 @@ import java.util.Enumeration;
 import java.util.Vector;
 import java.util.zip.GZIPInputStream;
 
-import reconcile.scorers.BCubedScore;
 import reconcile.scorers.LeanDocument;
-import reconcile.scorers.MUCScore;
 import reconcile.weka.classifiers.Classifier;
 import reconcile.weka.classifiers.CostMatrix;
 import reconcile.weka.classifiers.Evaluation;
@@ -264,14 +262,6 @@ public class StPerceptronDocUpdate extends Classifier implements OptionHandler{
     nf.setMaximumFractionDigits(4);
     nf.setMinimumFractionDigits(4);
 
-    if(truth == null){
-      truth = new LeanDocument[insts.length];
-      for(int i = 0; i < truth.length; i++){
-        truth[i] = makeDocument(insts[i]);
-        //System.err.println(truth[i]);
-      }
-    }
-
     int total = 0;
     int totalInst = 0, totalPred = 0;
     int totalPrecision = 0, totalNumNPsPrecision = 0;
@@ -281,18 +271,18 @@ public class StPerceptronDocUpdate extends Classifier implements OptionHandler{
     int numDocuments = insts.length;
     for(int d = 0; d < insts.length; d++){
       ModifiedInstancesShort doc = insts[d];
-      LeanDocument tr = truth[d];
       int[] ptrs = apply(w, doc);
       int[] pred = positiveIdentification(ptrs, doc);
-      LeanDocument cDoc = makeDocument(doc, ptrs);
+      IncrementalCorefScore score = new IncrementalCorefScore(doc);
+      score.setClusters(ptrs);
       total += pred[0];
       totalPred += pred[1];
       totalInst += pred[2];
       double recall;
       int numNPsRecall = 0, numNPsPrecision = 0;
-      if(tr.numNounPhrases() > 1){
-        recall = BCubedScore.bCubedScore(tr, cDoc);
-        numNPsRecall = tr.numNounPhrases();
+      if(score.numNounPhrases() > 1){
+        recall = score.bCubedRecall();
+        numNPsRecall = score.numNounPhrases();
       } else{
         recall = 0;
       }
@@ -301,9 +291,9 @@ public class StPerceptronDocUpdate extends Classifier implements OptionHandler{
       recall = numNPsRecall == 0?0:recall / numNPsRecall;
 
       double precision;
-      if(cDoc.numNounPhrases() > 1){
-        precision = BCubedScore.bCubedScore(cDoc, tr);
-        numNPsPrecision = cDoc.numNounPhrases();
+      if(score.numNounPhrases() > 1){
+        precision = score.bCubedPrecision();
+        numNPsPrecision = score.numNounPhrases();
       } else{
         precision = 0;
       }
@@ -312,9 +302,9 @@ public class StPerceptronDocUpdate extends Classifier implements OptionHandler{
       precision = numNPsPrecision == 0?0:precision / numNPsPrecision;
       
       int[] mucRecall = new int[2], mucPrecision = new int[2];
-      if(tr.numNounPhrases()>0){
-        mucRecall = MUCScore.mucScore(tr, cDoc);
-        mucPrecision = MUCScore.mucScore(cDoc, tr);
+      if(score.numNounPhrases()>0){
+        mucRecall = score.mucRecall();
+        mucPrecision = score.mucPrecision();
       }else
         numDocuments--;
       mucTotalRecallNum += mucRecall[0];
@@ -461,8 +451,8 @@ public class StPerceptronDocUpdate extends Classifier implements OptionHandler{
           InstanceShort inst = doc.instance(i);
           boolean changed = false;
           boolean positive = inst.classValue() == doc.m_Positive;
-          short id1 = inst.value(doc.m_ID1);
-          short id2 = inst.value(doc.m_ID2);
+          int id1 = inst.intValue(doc.m_ID1);
+          int id2 = inst.intValue(doc.m_ID2);
           if(m_StandardUpdate){
             //Just the traditional perceptron update
             boolean posPrediction = innerProduct(w, inst) > THRESHOLD;
@@ -2716,8 +2706,8 @@ public class StPerceptronDocUpdate extends Classifier implements OptionHandler{
     if(data == null || data.numInstances() == 0)
       return null;
     InstanceShort first = data.instance(0);
-    int id1 = (int)first.value(ID1);
-    int id2 = (int)first.value(ID2);
+    int id1 = first.intValue(ID1);
+    int id2 = first.intValue(ID2);
     int len = id2 + 1;
     ptrs = new int[len];
     // initialize pointers so each item is in it's own set
@@ -2728,8 +2718,8 @@ public class StPerceptronDocUpdate extends Classifier implements OptionHandler{
       // read all instances for a document
       InstanceShort current = data.instance(i);
       // System.out.println("Working on: "+current);
-      id1 = (int)current.value(ID1);
-      id2 = (int)current.value(ID2);
+      id1 = current.intValue(ID1);
+      id2 = current.intValue(ID2);
 
       if(innerProduct(w, current) > THRESHOLD){
         union(id1, id2, ptrs);
@@ -2760,8 +2750,8 @@ public class StPerceptronDocUpdate extends Classifier implements OptionHandler{
 
     for(int k = 0; k < data.numInstances(); k++){
       InstanceShort curPair = data.instance(k);
-      int curId1 = (int)curPair.value(ID1);
-      int curId2 = (int)curPair.value(ID2);
+      int curId1 = curPair.intValue(ID1);
+      int curId2 = curPair.intValue(ID2);
       if(!result.contains(new Integer(curId1))){
         //System.err.println("Add "+curId1+"-"+find(curId1,ptrs));
         result.add(new Integer(curId1), new Integer(find(curId1, ptrs)));
@@ -2814,8 +2804,8 @@ public class StPerceptronDocUpdate extends Classifier implements OptionHandler{
     if(data == null || data.numInstances() == 0)
       return null;
     InstanceShort first = data.instance(0);
-    int id1 = (int)first.value(ID1);
-    int id2 = (int)first.value(ID2);
+    int id1 = first.intValue(ID1);
+    int id2 = first.intValue(ID2);
     int len = id2 + 1;
     ptrs = new int[len];
     // initialize pointers so each item is in it's own set
@@ -2829,8 +2819,8 @@ public class StPerceptronDocUpdate extends Classifier implements OptionHandler{
       // read all instances for a document
       InstanceShort current = data.instance(i);
       // System.out.println("Working on: "+current);
-      id1 = (int)current.value(ID1);
-      id2 = (int)current.value(ID2);
+      id1 = current.intValue(ID1);
+      id2 = current.intValue(ID2);
 
       if(current.value(Cl) == pos){
         union(id1, id2, ptrs);
@@ -2838,8 +2828,8 @@ public class StPerceptronDocUpdate extends Classifier implements OptionHandler{
     }
     for(int k = 0; k < data.numInstances(); k++){
       InstanceShort curPair = data.instance(k);
-      int curId1 = (int)curPair.value(ID1);
-      int curId2 = (int)curPair.value(ID2);
+      int curId1 = curPair.intValue(ID1);
+      int curId2 = curPair.intValue(ID2);
       if(!result.contains(new Integer(curId1))){
         //System.err.println("Add "+curId1+"-"+find(curId1,ptrs));
         result.add(new Integer(curId1), new Integer(find(curId1, ptrs)));
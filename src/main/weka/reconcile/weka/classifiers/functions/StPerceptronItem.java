@@ -17,7 +17,6 @@ import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.Vector;
 import java.util.zip.GZIPInputStream;
@@ -379,15 +378,17 @@ public class StPerceptronItem extends Classifier implements OptionHandler{
     InstanceShort[][][] index = new InstanceShort[insts.length][][];
     HashSet[] items = new HashSet[insts.length];
     LeanDocument[] truth = new LeanDocument[insts.length];
+    IncrementalCorefScore[] scores = new IncrementalCorefScore[insts.length];
     for(int i=0; i<insts.length; i++){
       ModifiedInstancesShort doc = insts[i];
       items[i]=new HashSet();
       truth[i] = makeDocument(doc);
+      scores[i] = new IncrementalCorefScore(doc);
       for(int j=0; j<doc.numInstances(); j++){
         InstanceShort inst = doc.instance(j);
         
-        short id1 = inst.value(doc.m_ID1);
-        short id2 = inst.value(doc.m_ID2);
+        int id1 = inst.intValue(doc.m_ID1);
+        int id2 = inst.intValue(doc.m_ID2);
         items[i].add(new Integer(id1));
         items[i].add(new Integer(id2));
         if(index[i]==null){
@@ -444,8 +445,9 @@ public class StPerceptronItem extends Classifier implements OptionHandler{
       for(int d = 0; d < insts.length; d++){
         System.err.print(d+"..");
         ModifiedInstancesShort doc = insts[d];
-        LeanDocument cDoc = makeDocument(doc, apply(w, doc));
-        LeanDocument tDoc = truth[d];
+        IncrementalCorefScore score = scores[d];
+        apply(w, doc);
+        score.setPredictedLinks(doc);
         //System.err.print(tDoc);
         HashSet docItems = items[d];
         Iterator itemIter = (new TreeSet(docItems)).iterator();
@@ -455,16 +457,16 @@ public class StPerceptronItem extends Classifier implements OptionHandler{
           double[] thisPosW = new double[vecLen];
           int posUpdates = 0, negUpdates = 0;
           //System.err.print("Workin on item "+item);
-          TreeMap resCluster = cDoc.getElChain(item);
-          TreeMap goldCluster = tDoc.getElChain(item);
+          TreeSet resCluster = score.getCluster(item.intValue());
+          TreeSet goldCluster = score.getGoldCluster(item.intValue());
           //Go over the two clusters and make the corrections
           //First, correct the false negatives
-          HashSet intersection = new HashSet(goldCluster.keySet());
-          intersection.retainAll(resCluster.keySet());
-          HashSet gMinusR = new HashSet(goldCluster.keySet());
-          gMinusR.removeAll(resCluster.keySet());
-          HashSet rMinusG = new HashSet(resCluster.keySet());
-          rMinusG.removeAll(goldCluster.keySet());
+          HashSet intersection = new HashSet(goldCluster);
+          intersection.retainAll(resCluster);
+          HashSet gMinusR = new HashSet(goldCluster);
+          gMinusR.removeAll(resCluster);
+          HashSet rMinusG = new HashSet(resCluster);
+          rMinusG.removeAll(goldCluster);
           //System.err.println("Item "+item.intValue()+"Predicted cl "+resCluster.size()+". True " + goldCluster.size()+" . Intersection "+intersection.size());
           Iterator falseNegIter = gMinusR.iterator();
           while(falseNegIter.hasNext()){
@@ -499,7 +501,8 @@ public class StPerceptronItem extends Classifier implements OptionHandler{
            // if(posUpdates>0)
            //   addToArray(w,thisPosW);//divideArray(thisPosW,posUpdates));
             //System.err.println(printWeightVector(w));
-            cDoc = makeDocument(doc, apply(w, doc));
+            apply(w, doc);
+            score.setPredictedLinks(doc);
             trueUpdates++;
           }
           addToArray(totalW,w);
@@ -2654,8 +2657,8 @@ public class StPerceptronItem extends Classifier implements OptionHandler{
     if(data == null || data.numInstances() == 0)
       return null;
     InstanceShort first = data.instance(0);
-    int id1 = (int)first.value(ID1);
-    int id2 = (int)first.value(ID2);
+    int id1 = first.intValue(ID1);
+    int id2 = first.intValue(ID2);
     int len = id2 + 1;
     ptrs = new int[len];
     // initialize pointers so each item is in it's own set
@@ -2666,8 +2669,8 @@ public class StPerceptronItem extends Classifier implements OptionHandler{
       // read all instances for a document
       InstanceShort current = data.instance(i);
       // System.out.println("Working on: "+current);
-      id1 = (int)current.value(ID1);
-      id2 = (int)current.value(ID2);
+      id1 = current.intValue(ID1);
+      id2 = current.intValue(ID2);
 
       if(innerProduct(w, current) > THRESHOLD){
         union(id1, id2, ptrs);
@@ -2698,8 +2701,8 @@ public class StPerceptronItem extends Classifier implements OptionHandler{
 
     for(int k = 0; k < data.numInstances(); k++){
       InstanceShort curPair = data.instance(k);
-      int curId1 = (int)curPair.value(ID1);
-      int curId2 = (int)curPair.value(ID2);
+      int curId1 = curPair.intValue(ID1);
+      int curId2 = curPair.intValue(ID2);
       if(!result.contains(new Integer(curId1))){
         //System.err.println("Add "+curId1+"-"+find(curId1,ptrs));
         result.add(new Integer(curId1), new Integer(find(curId1, ptrs)));
@@ -2752,8 +2755,8 @@ public class StPerceptronItem extends Classifier implements OptionHandler{
     if(data == null || data.numInstances() == 0)
       return null;
     InstanceShort first = data.instance(0);
-    int id1 = (int)first.value(ID1);
-    int id2 = (int)first.value(ID2);
+    int id1 = first.intValue(ID1);
+    int id2 = first.intValue(ID2);
     int len = id2 + 1;
     ptrs = new int[len];
     // initialize pointers so each item is in it's own set
@@ -2767,8 +2770,8 @@ public class StPerceptronItem extends Classifier implements OptionHandler{
       // read all instances for a document
       InstanceShort current = data.instance(i);
       // System.out.println("Working on: "+current);
-      id1 = (int)current.value(ID1);
-      id2 = (int)current.value(ID2);
+      id1 = current.intValue(ID1);
+      id2 = current.intValue(ID2);
 
       if(current.value(Cl) == pos){
         union(id1, id2, ptrs);
@@ -2776,8 +2779,8 @@ public class StPerceptronItem extends Classifier implements OptionHandler{
     }
     for(int k = 0; k < data.numInstances(); k++){
       InstanceShort curPair = data.instance(k);
-      int curId1 = (int)curPair.value(ID1);
-      int curId2 = (int)curPair.value(ID2);
+      int curId1 = curPair.intValue(ID1);
+      int curId2 = curPair.intValue(ID2);
       if(!result.contains(new Integer(curId1))){
         //System.err.println("Add "+curId1+"-"+find(curId1,ptrs));
         result.add(new Integer(curId1), new Integer(find(curId1, ptrs)));
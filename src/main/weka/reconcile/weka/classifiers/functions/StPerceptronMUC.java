@@ -17,13 +17,11 @@ import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.Vector;
 import java.util.zip.GZIPInputStream;
 
-import reconcile.scorers.BCubedScore;
 import reconcile.scorers.LeanDocument;
-import reconcile.scorers.MUCScore;
 import reconcile.weka.classifiers.Classifier;
 import reconcile.weka.classifiers.CostMatrix;
 import reconcile.weka.classifiers.Evaluation;
@@ -270,14 +268,6 @@ public class StPerceptronMUC extends Classifier implements OptionHandler{
     nf.setMaximumFractionDigits(4);
     nf.setMinimumFractionDigits(4);
 
-    if(truth == null){
-      truth = new LeanDocument[insts.length];
-      for(int i = 0; i < truth.length; i++){
-        truth[i] = makeDocument(insts[i]);
-        //System.err.println(truth[i]);
-      }
-    }
-
     int total = 0;
     int totalInst = 0, totalPred = 0;
     int totalPrecision = 0, totalNumNPsPrecision = 0;
@@ -287,18 +277,18 @@ public class StPerceptronMUC extends Classifier implements OptionHandler{
     int numDocuments = insts.length;
     for(int d = 0; d < insts.length; d++){
       ModifiedInstancesShort doc = insts[d];
-      LeanDocument tr = truth[d];
       int[] ptrs = apply(w, doc);
       int[] pred = positiveIdentification(ptrs, doc);
-      LeanDocument cDoc = makeDocument(doc, ptrs);
+      IncrementalCorefScore score = new IncrementalCorefScore(doc);
+      score.setClusters(ptrs);
       total += pred[0];
       totalPred += pred[1];
       totalInst += pred[2];
       double recall;
       int numNPsRecall = 0, numNPsPrecision = 0;
-      if(tr.numNounPhrases() > 1){
-        recall = BCubedScore.bCubedScore(tr, cDoc);
-        numNPsRecall = tr.numNounPhrases();
+      if(score.numNounPhrases() > 1){
+        recall = score.bCubedRecall();
+        numNPsRecall = score.numNounPhrases();
       } else{
         recall = 0;
       }
@@ -307,9 +297,9 @@ public class StPerceptronMUC extends Classifier implements OptionHandler{
       recall = numNPsRecall == 0?0:recall / numNPsRecall;
 
       double precision;
-      if(cDoc.numNounPhrases() > 1){
-        precision = BCubedScore.bCubedScore(cDoc, tr);
-        numNPsPrecision = cDoc.numNounPhrases();
+      if(score.numNounPhrases() > 1){
+        precision = score.bCubedPrecision();
+        numNPsPrecision = score.numNounPhrases();
       } else{
         precision = 0;
       }
@@ -318,9 +308,9 @@ public class StPerceptronMUC extends Classifier implements OptionHandler{
       precision = numNPsPrecision == 0?0:precision / numNPsPrecision;
       
       int[] mucRecall = new int[2], mucPrecision = new int[2];
-      if(tr.numNounPhrases()>0){
-        mucRecall = MUCScore.mucScore(tr, cDoc);
-        mucPrecision = MUCScore.mucScore(cDoc, tr);
+      if(score.numNounPhrases()>0){
+        mucRecall = score.mucRecall();
+        mucPrecision = score.mucPrecision();
       }else
         numDocuments--;
       mucTotalRecallNum += mucRecall[0];
@@ -421,8 +411,10 @@ public class StPerceptronMUC extends Classifier implements OptionHandler{
     nf.setMinimumFractionDigits(4);
 
     LeanDocument[] truth = new LeanDocument[insts.length];
+    IncrementalCorefScore[] scores = new IncrementalCorefScore[insts.length];
     for(int i = 0; i < truth.length; i++){
       truth[i] = makeDocument(insts[i]);
+      scores[i] = new IncrementalCorefScore(insts[i]);
       //System.err.println(truth[i]);
     }
 
@@ -465,21 +457,21 @@ public class StPerceptronMUC extends Classifier implements OptionHandler{
         LeanDocument tr = truth[d];
         if(m_Debug)
           System.out.println("Gold standard "+tr);
-        LeanDocument cDoc = applyAndSetUpMUC(doc, tr, w, muc);
+        IncrementalCorefScore docScore = scores[d];
+        applyAndScore(doc, docScore, w, muc);
         
         for(int i = 0; i < doc.numInstances(); i++){
           InstanceShort inst = doc.instance(i);
           boolean changed = false;
           boolean positive = inst.classValue() == doc.m_Positive;
-          short id1 = inst.value(doc.m_ID1);
-          short id2 = inst.value(doc.m_ID2);
+          int id1 = inst.intValue(doc.m_ID1);
+          int id2 = inst.intValue(doc.m_ID2);
           if(positive){
             //The gold standard says that this instance should be positive
-            if(cDoc.getClusterNum(new Integer(id1)).intValue() != cDoc.getClusterNum(new Integer(id2)).intValue()){
+            if(!docScore.sameCluster(id1, id2)){
               //if(inst.value(doc.m_Prediction) == doc.m_Positive){
               if(m_Debug)
-                System.err.print(cDoc.getClusterNum(new Integer(id1)) + "-" + cDoc.getClusterNum(new Integer(id2))
-                    + " ");
+                System.err.print(docScore.find(id1) + "-" + docScore.find(id2) + " ");
               int[] recall=muc[0],precision = muc[1];
               int nom = recall[0], denom=recall[1];
               double rCor = ((double)nom+1)/((double)denom);
@@ -498,10 +490,10 @@ public class StPerceptronMUC extends Classifier implements OptionHandler{
                 System.err.println(iter + ": " + id1 + "," + id2 + "\tpos: " + correction);
               addWeight(w, inst, correction);
               positiveUpdates++;
-              cDoc = applyAndSetUpMUC(doc, tr, w, muc);
+              applyAndScore(doc, docScore, w, muc);
             }
           } else{
-            if(cDoc.getClusterNum(new Integer(id1)).intValue() == cDoc.getClusterNum(new Integer(id2)).intValue()){
+            if(docScore.sameCluster(id1, id2)){
               if(inst.value(doc.m_Prediction) == doc.m_Positive){
                 int[] recall=muc[0],precision = muc[1];
                 int nom = precision[0], denom=precision[1];
@@ -516,14 +508,12 @@ public class StPerceptronMUC extends Classifier implements OptionHandler{
                   r =0;
                 else
                   r = ((double)recall[0])/((double)recall[1]);
-                TreeMap goldItems1 = tr.getElChain(new Integer(id1));
-                TreeMap goldItems2 = tr.getElChain(new Integer(id2));
-                int trId1 = tr.getClusterNum(new Integer(id1)).intValue();
-                int trId2 = tr.getClusterNum(new Integer(id2)).intValue();
-                TreeMap items = cDoc.getElChain(new Integer(id1));
-                HashSet outside = new HashSet(items.keySet());
-                outside.removeAll(goldItems1.keySet());
-                outside.removeAll(goldItems2.keySet());
+                TreeSet goldItems1 = docScore.getGoldCluster(id1);
+                TreeSet goldItems2 = docScore.getGoldCluster(id2);
+                TreeSet items = docScore.getCluster(id1);
+                HashSet outside = new HashSet(items);
+                outside.removeAll(goldItems1);
+                outside.removeAll(goldItems2);
 
                 int numItemsGold1 = goldItems1.size(), numItemsGold2 = goldItems2.size();
                 int numItems = items.size();
@@ -531,10 +521,10 @@ public class StPerceptronMUC extends Classifier implements OptionHandler{
 
                 //Count the number of crossing links out of gold standard
                 // cluster 1
-                Iterator cl1Iter = goldItems1.keySet().iterator();
+                Iterator cl1Iter = goldItems1.iterator();
                 while(cl1Iter.hasNext()){
                   Integer el1 = (Integer)cl1Iter.next();
-                  Iterator cl2Iter = goldItems2.keySet().iterator();
+                  Iterator cl2Iter = goldItems2.iterator();
                   while(cl2Iter.hasNext()){
                     Integer el2 = (Integer)cl2Iter.next();
                     InstanceShort curItem = getItem(doc, el1.intValue(), el2.intValue());
@@ -547,7 +537,7 @@ public class StPerceptronMUC extends Classifier implements OptionHandler{
                 Iterator outIterator = outside.iterator();
                 while(outIterator.hasNext()){
                   Integer el = (Integer)outIterator.next();
-                  Iterator clIter1 = goldItems1.keySet().iterator();
+                  Iterator clIter1 = goldItems1.iterator();
                   while(clIter1.hasNext()){
                     Integer el1 = (Integer)clIter1.next();
                     InstanceShort curItem = getItem(doc, el.intValue(), el1.intValue());
@@ -555,7 +545,7 @@ public class StPerceptronMUC extends Classifier implements OptionHandler{
                       numCrossing1++;
                     }
                   }
-                  Iterator clIter2 = goldItems2.keySet().iterator();
+                  Iterator clIter2 = goldItems2.iterator();
                   while(clIter2.hasNext()){
                     Integer el2 = (Integer)clIter2.next();
                     InstanceShort curItem = getItem(doc, el.intValue(), el2.intValue());
@@ -570,7 +560,7 @@ public class StPerceptronMUC extends Classifier implements OptionHandler{
                   System.err.println(iter + ": " + id1 + "," + id2 + "\tneg: " + correction);
                 subtractWeight(w, inst, correction);
                 negativeUpdates++;
-                cDoc = applyAndSetUpMUC(doc, tr, w, muc);
+                applyAndScore(doc, docScore, w, muc);
               }
             }
           }
@@ -653,8 +643,8 @@ public class StPerceptronMUC extends Classifier implements OptionHandler{
     int base = ((bigger-2)*(bigger-1))/2;
     int offset = base+smaller;
     InstanceShort result = doc.instance(doc.numInstances()-offset);
-    short id1new = result.value(doc.m_ID1);
-    short id2new = result.value(doc.m_ID2);
+    int id1new = result.intValue(doc.m_ID1);
+    int id2new = result.intValue(doc.m_ID2);
     if(smaller!=id1new || bigger!=id2new)
       throw new RuntimeException("Id mismatch "+smaller+" vs. "+id1new+" and "+bigger+" vs. "+id2new);
     return result;
@@ -2763,15 +2753,21 @@ public class StPerceptronMUC extends Classifier implements OptionHandler{
     System.out.println();
   }
   
-  public static LeanDocument applyAndSetUpMUC(ModifiedInstancesShort doc, LeanDocument truth, double w[], int muc[][]){
-    int[] clusterPtrs = apply(w, doc);
-    LeanDocument cDoc = makeDocument(doc, clusterPtrs);
-    
-    muc[1] = MUCScore.mucScore(cDoc, truth);
-    muc[0] = MUCScore.mucScore(truth, cDoc);
-    if(m_Debug)
-      System.err.println(cDoc);
-    return cDoc;
+  /**
+   * Classifies the pairs of the document with the weight vector w (the same way apply() does), updates the clusters of
+   * score to the new decisions and sets muc to the MUC recall and precision of the result. Only the clusters whose
+   * pairs changed are rebuilt, so no document has to be built and scored afterwards.
+   */
+  public static void applyAndScore(ModifiedInstancesShort doc, IncrementalCorefScore score, double w[], int muc[][]){
+    boolean[] links = new boolean[doc.numInstances()];
+    for(int i = 0; i < links.length; i++){
+      InstanceShort current = doc.instance(i);
+      links[i] = innerProduct(w, current) > THRESHOLD;
+      current.setValue(doc.m_Prediction, links[i] ? doc.m_Positive : doc.m_Negative);
+    }
+    score.setLinks(links);
+    muc[1] = score.mucPrecision();
+    muc[0] = score.mucRecall();
   }
 
   public static int[] apply(double[] w, ModifiedInstancesShort data) {
@@ -2785,8 +2781,8 @@ public class StPerceptronMUC extends Classifier implements OptionHandler{
     if(data == null || data.numInstances() == 0)
       return null;
     InstanceShort first = data.instance(0);
-    int id1 = (int)first.value(ID1);
-    int id2 = (int)first.value(ID2);
+    int id1 = first.intValue(ID1);
+    int id2 = first.intValue(ID2);
     int len = id2 + 1;
     ptrs = new int[len];
     // initialize pointers so each item is in it's own set
@@ -2797,8 +2793,8 @@ public class StPerceptronMUC extends Classifier implements OptionHandler{
       // read all instances for a document
       InstanceShort current = data.instance(i);
       // System.out.println("Working on: "+current);
-      id1 = (int)current.value(ID1);
-      id2 = (int)current.value(ID2);
+      id1 = current.intValue(ID1);
+      id2 = current.intValue(ID2);
 
       if(innerProduct(w, current) > THRESHOLD){
         union(id1, id2, ptrs);
@@ -2829,8 +2825,8 @@ public class StPerceptronMUC extends Classifier implements OptionHandler{
 
     for(int k = 0; k < data.numInstances(); k++){
       InstanceShort curPair = data.instance(k);
-      int curId1 = (int)curPair.value(ID1);
-      int curId2 = (int)curPair.value(ID2);
+      int curId1 = curPair.intValue(ID1);
+      int curId2 = curPair.intValue(ID2);
       if(!result.contains(new Integer(curId1))){
         //System.err.println("Add "+curId1+"-"+find(curId1,ptrs));
         result.add(new Integer(curId1), new Integer(find(curId1, ptrs)));
@@ -2883,8 +2879,8 @@ public class StPerceptronMUC extends Classifier implements OptionHandler{
     if(data == null || data.numInstances() == 0)
       return null;
     InstanceShort first = data.instance(0);
-    int id1 = (int)first.value(ID1);
-    int id2 = (int)first.value(ID2);
+    int id1 = first.intValue(ID1);
+    int id2 = first.intValue(ID2);
     int len = id2 + 1;
     ptrs = new int[len];
     // initialize pointers so each item is in it's own set
@@ -2898,8 +2894,8 @@ public class StPerceptronMUC extends Classifier implements OptionHandler{
       // read all instances for a document
       InstanceShort current = data.instance(i);
       // System.out.println("Working on: "+current);
-      id1 = (int)current.value(ID1);
-      id2 = (int)current.value(ID2);
+      id1 = current.intValue(ID1);
+      id2 = current.intValue(ID2);
 
       if(current.value(Cl) == pos){
         union(id1, id2, ptrs);
@@ -2907,8 +2903,8 @@ public class StPerceptronMUC extends Classifier implements OptionHandler{
     }
     for(int k = 0; k < data.numInstances(); k++){
       InstanceShort curPair = data.instance(k);
-      int curId1 = (int)curPair.value(ID1);
-      int curId2 = (int)curPair.value(ID2);
+      int curId1 = curPair.intValue(ID1);
+      int curId2 = curPair.intValue(ID2);
       if(!result.contains(new Integer(curId1))){
         //System.err.println("Add "+curId1+"-"+find(curId1,ptrs));
         result.add(new Integer(curId1), new Integer(find(curId1, ptrs)));
@@ -433,6 +433,7 @@ public class StVotedPerceptron extends Classifier implements OptionHandler{
     }
     //The weight vector, w
     double[] w = new double[vecLen];
+    SparseWeightVector weights = new SparseWeightVector(w);
     int totalUpdates = 0;
     //Compute the perceptron weights
     double delta = m_delta;
@@ -452,15 +453,15 @@ public class StVotedPerceptron extends Classifier implements OptionHandler{
           InstanceShort inst = doc.instance(i);
           boolean changed = false;
           boolean positive = inst.classValue() == doc.m_Positive;
-          short id1 = inst.value(doc.m_ID1);
-          short id2 = inst.value(doc.m_ID2);
+          int id1 = inst.intValue(doc.m_ID1);
+          int id2 = inst.intValue(doc.m_ID2);
           if(m_StandardUpdate){
             //Just the traditional perceptron update
-            boolean posPrediction = innerProduct(w, inst) > THRESHOLD;
+            boolean posPrediction = weights.dot(inst) > THRESHOLD;
             if(positive){
               if(!posPrediction){
                 changed = true;
-                addWeight(w, inst, m_PosWeight * delta);
+                weights.add(inst, m_PosWeight * delta);
                 positiveUpdates++;
         	    m_Additions[m_K] = w;
         	    m_Weights[m_K]++;
@@ -471,7 +472,7 @@ public class StVotedPerceptron extends Classifier implements OptionHandler{
             } else{
               if(posPrediction){
                 changed = true;
-                subtractWeight(w, inst, delta);
+                weights.subtract(inst, delta);
                 negativeUpdates++;
         	    if(m_K==m_MaxK) break out;
         	    m_Additions[m_K] = w;
@@ -497,7 +498,7 @@ public class StVotedPerceptron extends Classifier implements OptionHandler{
                   addToArray(totalW, w);
                 }*/
                 
-                addWeight(w, inst, m_PosWeight*delta);
+                weights.add(inst, m_PosWeight*delta);
                 clusterPtrs = apply(divideArray(w, totalUpdates), doc);
                 positiveUpdates++;
 
@@ -508,7 +509,7 @@ public class StVotedPerceptron extends Classifier implements OptionHandler{
                 if(inst.value(doc.m_Prediction) == doc.m_Positive){
                   //Update the weight vector to correct the mistake
                   if(m_StandardWeight){
-                    subtractWeight(w, inst, delta);
+                    weights.subtract(inst, delta);
                     negativeUpdates++;
                     totalUpdates++;
                     clusterPtrs = apply(divideArray(w, totalUpdates), doc);
@@ -518,7 +519,7 @@ public class StVotedPerceptron extends Classifier implements OptionHandler{
                     if(m_NegUpdate1){
                       int updated = 0;
                       do{
-                        subtractWeight(w, inst, delta);
+                        weights.subtract(inst, delta);
                         clusterPtrs = apply(divideArray(w, totalUpdates), doc);
                         negativeUpdates++;
                         totalUpdates++;
@@ -526,7 +527,7 @@ public class StVotedPerceptron extends Classifier implements OptionHandler{
                         updated++;
                       } while(updated < numItems && inst.value(doc.m_Prediction) == doc.m_Positive);
                     } else{
-                      subtractWeight(w, inst, numItems * delta / m_NegWeight);
+                      weights.subtract(inst, numItems * delta / m_NegWeight);
                       clusterPtrs = apply(divideArray(w, totalUpdates), doc);
                       negativeUpdates++;
                       totalUpdates++;
@@ -2609,8 +2610,8 @@ public class StVotedPerceptron extends Classifier implements OptionHandler{
     if(data == null || data.numInstances() == 0)
       return null;
     InstanceShort first = data.instance(0);
-    int id1 = (int)first.value(ID1);
-    int id2 = (int)first.value(ID2);
+    int id1 = first.intValue(ID1);
+    int id2 = first.intValue(ID2);
     int len = id2 + 1;
     ptrs = new int[len];
     // initialize pointers so each item is in it's own set
@@ -2621,8 +2622,8 @@ public class StVotedPerceptron extends Classifier implements OptionHandler{
       // read all instances for a document
       InstanceShort current = data.instance(i);
       // System.out.println("Working on: "+current);
-      id1 = (int)current.value(ID1);
-      id2 = (int)current.value(ID2);
+      id1 = current.intValue(ID1);
+      id2 = current.intValue(ID2);
       //System.err.println(current);
       if(prediction(current) > THRESHOLD){
         union(id1, id2, ptrs);
@@ -2645,8 +2646,8 @@ public class StVotedPerceptron extends Classifier implements OptionHandler{
     if(data == null || data.numInstances() == 0)
       return null;
     InstanceShort first = data.instance(0);
-    int id1 = (int)first.value(ID1);
-    int id2 = (int)first.value(ID2);
+    int id1 = first.intValue(ID1);
+    int id2 = first.intValue(ID2);
     int len = id2 + 1;
     ptrs = new int[len];
     // initialize pointers so each item is in it's own set
@@ -2657,8 +2658,8 @@ public class StVotedPerceptron extends Classifier implements OptionHandler{
       // read all instances for a document
       InstanceShort current = data.instance(i);
       // System.out.println("Working on: "+current);
-      id1 = (int)current.value(ID1);
-      id2 = (int)current.value(ID2);
+      id1 = current.intValue(ID1);
+      id2 = current.intValue(ID2);
 
       if(innerProduct(w, current) > THRESHOLD){
         union(id1, id2, ptrs);
@@ -2689,8 +2690,8 @@ public class StVotedPerceptron extends Classifier implements OptionHandler{
 
     for(int k = 0; k < data.numInstances(); k++){
       InstanceShort curPair = data.instance(k);
-      int curId1 = (int)curPair.value(ID1);
-      int curId2 = (int)curPair.value(ID2);
+      int curId1 = curPair.intValue(ID1);
+      int curId2 = curPair.intValue(ID2);
       if(!result.contains(new Integer(curId1))){
         //System.err.println("Add "+curId1+"-"+find(curId1,ptrs));
         result.add(new Integer(curId1), new Integer(find(curId1, ptrs)));
@@ -2743,8 +2744,8 @@ public class StVotedPerceptron extends Classifier implements OptionHandler{
     if(data == null || data.numInstances() == 0)
       return null;
     InstanceShort first = data.instance(0);
-    int id1 = (int)first.value(ID1);
-    int id2 = (int)first.value(ID2);
+    int id1 = first.intValue(ID1);
+    int id2 = first.intValue(ID2);
     int len = id2 + 1;
     ptrs = new int[len];
     // initialize pointers so each item is in it's own set
@@ -2758,8 +2759,8 @@ public class StVotedPerceptron extends Classifier implements OptionHandler{
       // read all instances for a document
       InstanceShort current = data.instance(i);
       // System.out.println("Working on: "+current);
-      id1 = (int)current.value(ID1);
-      id2 = (int)current.value(ID2);
+      id1 = current.intValue(ID1);
+      id2 = current.intValue(ID2);
 
       if(current.value(Cl) == pos){
         union(id1, id2, ptrs);
@@ -2767,8 +2768,8 @@ public class StVotedPerceptron extends Classifier implements OptionHandler{
     }
     for(int k = 0; k < data.numInstances(); k++){
       InstanceShort curPair = data.instance(k);
-      int curId1 = (int)curPair.value(ID1);
-      int curId2 = (int)curPair.value(ID2);
+      int curId1 = curPair.intValue(ID1);
+      int curId2 = curPair.intValue(ID2);
       if(!result.contains(new Integer(curId1))){
         //System.err.println("Add "+curId1+"-"+find(curId1,ptrs));
         result.add(new Integer(curId1), new Integer(find(curId1, ptrs)));
@@ -0,0 +1,669 @@
+package reconcile.weka.classifiers.functions;
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StreamTokenizer;
+import java.util.ArrayList;
+
+import reconcile.weka.core.AttributeShort;
+import reconcile.weka.core.InstancesShort;
+import reconcile.weka.core.Utils;
+
+/**
+ * Logistic regression or a linear SVM trained by stochastic gradient descent (plain or AdaGrad) while the training
+ * files are read, one instance at a time. Only the header of a file and the current instance are in memory, so the
+ * training data can be of any size; every pass over the data reads the files again.
+ *
+ * By default the model is a weight vector in the format PerceptronMargin writes (one weight per attribute, in attribute
+ * order), and it is applied the same way as by WeightVectorApplier.getDistance(): the instance is the vector of its
+ * feature values (AttributeShort.isFeature(); the index of the value for nominal attributes, the value itself for
+ * numeric ones), divided by its two-norm, and the score is its inner product with the weights. There is no bias term.
+ * The weights are divided by the scale PerceptronM uses in its Platt scaling, so that PerceptronM's output is the
+ * probability of the logistic model.
+ *
+ * With -H the features are hashed into 2^bits weights instead: each value of a nominal feature (by attribute name and
+ * value) and each numeric feature (by attribute name) is mapped to a weight and a sign, and the instance (a one for the
+ * value of a nominal feature, the value of a numeric one, divided by the two-norm of those) is added to the weights
+ * it is mapped to. The model doesn't depend on the order of the attributes or of the nominal values, and the training
+ * files don't need to have the same attributes, but it can only be applied by Scorer (LinearSGD), not by
+ * WeightVectorApplier.
+ *
+ * Missing values (and missing features of a hashed model) add nothing to the inner product, both in training and in
+ * Scorer. The regularization is applied to all weights on every step with plain SGD, and to the weights of the
+ * features of the current instance with AdaGrad.
+ *
+ * Valid options are:
+ * <p>
+ * -t file <br>
+ * A training file; can be given several times (without -H the files must have the same attributes).
+ * <p>
+ * -F file <br>
+ * The file to save the model to.
+ * <p>
+ * -L log|hinge <br>
+ * The loss function. (default log)
+ * <p>
+ * -I num <br>
+ * The number of passes over the training files. (default 5)
+ * <p>
+ * -E num <br>
+ * The initial learning rate. (default 0.1)
+ * <p>
+ * -R num <br>
+ * The L2 regularization constant. (default 0.0001)
+ * <p>
+ * -P num <br>
+ * The weight of the positive instances. (default 1)
+ * <p>
+ * -A <br>
+ * Use AdaGrad (a learning rate for each weight) instead of a decaying global learning rate.
+ * <p>
+ * -H bits <br>
+ * Hash the features into 2^bits weights. (default: one weight per attribute)
+ * <p>
+ *
+ * @author ves
+ */
+public class StreamingSGD {
+
+	public static final int LOG_LOSS = 0;
+
+	public static final int HINGE_LOSS = 1;
+
+	/** The scale of PerceptronM's Platt scaling (-SCALE_A) */
+	public static final double SCORE_SCALE = 10;
+
+	/** The first word of the file of a hashed model, followed by the number of bits */
+	public static final String HASHED = "hashed";
+
+	/** The largest number of bits of a hashed feature space */
+	public static final int MAX_HASH_BITS = 26;
+
+	private int m_Loss = LOG_LOSS;
+
+	private int m_NumPasses = 5;
+
+	private double m_Eta = 0.1;
+
+	private double m_Lambda = 1e-4;
+
+	private double m_PosWeight = 1;
+
+	private boolean m_AdaGrad = false;
+
+	/** The number of bits of the hashed feature space, or 0 for one weight per feature */
+	private int m_HashBits = 0;
+
+	/** The weights during training, times m_Scale */
+	private double[] m_Weights = null;
+
+	/** Plain SGD: the factor of all weights, so that the regularization doesn't have to touch each of them */
+	private double m_Scale = 1;
+
+	/** AdaGrad: the sum of the squared gradients of each weight */
+	private double[] m_SumSquares = null;
+
+	/** The number of updates so far */
+	private long m_T = 0;
+
+	/** The encoder of the first training file */
+	private Encoder m_First = null;
+
+	/** The model in the format of the model file (see weights()), once trained or read */
+	private double[] m_Model = null;
+
+	public void setOptions(String[] options) throws Exception {
+		String lossString = Utils.getOption('L', options);
+		if (lossString.length() != 0) {
+			if (lossString.equalsIgnoreCase("log"))
+				m_Loss = LOG_LOSS;
+			else if (lossString.equalsIgnoreCase("hinge"))
+				m_Loss = HINGE_LOSS;
+			else
+				throw new Exception("Unknown loss " + lossString);
+		}
+		String passesString = Utils.getOption('I', options);
+		if (passesString.length() != 0)
+			m_NumPasses = Integer.parseInt(passesString);
+		String etaString = Utils.getOption('E', options);
+		if (etaString.length() != 0)
+			m_Eta = Double.parseDouble(etaString);
+		String lambdaString = Utils.getOption('R', options);
+		if (lambdaString.length() != 0)
+			m_Lambda = Double.parseDouble(lambdaString);
+		String posWeightString = Utils.getOption('P', options);
+		if (posWeightString.length() != 0)
+			m_PosWeight = Double.parseDouble(posWeightString);
+		m_AdaGrad = Utils.getFlag('A', options);
+		String bitsString = Utils.getOption('H', options);
+		if (bitsString.length() != 0) {
+			m_HashBits = Integer.parseInt(bitsString);
+			if (m_HashBits < 1 || m_HashBits > MAX_HASH_BITS)
+				throw new Exception("The number of bits has to be between 1 and " + MAX_HASH_BITS);
+		}
+	}
+
+	/**
+	 * Trains on the files, making the given number of passes over them, and returns the model (see weights()).
+	 */
+	public double[] train(String[] files) throws IOException {
+		for (int pass = 0; pass < m_NumPasses; pass++) {
+			for (int f = 0; f < files.length; f++) {
+				BufferedReader reader = new BufferedReader(new FileReader(files[f]));
+				try {
+					InstancesShort header = new InstancesShort(reader, 0);
+					Encoder encoder;
+					if (m_First == null) {
+						encoder = m_First = new Encoder(header, m_HashBits);
+						m_Weights = new double[m_HashBits > 0 ? 1 << m_HashBits : encoder.m_Features.length];
+						if (m_AdaGrad)
+							m_SumSquares = new double[m_Weights.length];
+					} else if (m_HashBits > 0) {
+						encoder = new Encoder(header, m_HashBits);
+					} else if (m_First.m_Header.equalHeaders(header)) {
+						encoder = m_First;
+					} else {
+						throw new IOException("The attributes of " + files[f] + " differ from those of " + files[0]);
+					}
+					StreamTokenizer tokenizer = new StreamTokenizer(reader);
+					initTokenizer(tokenizer);
+					int[] indices = new int[encoder.maxSize()];
+					double[] values = new double[indices.length];
+					while (encoder.read(tokenizer)) {
+						if (encoder.m_Label == 0)
+							continue;
+						int n = encoder.encode(indices, values);
+						if (n > 0)
+							update(indices, values, n, encoder.m_Label);
+					}
+				} finally {
+					reader.close();
+				}
+			}
+		}
+		m_Model = weights();
+		return m_Model;
+	}
+
+	/*
+	 * One step on the (normalized and possibly hashed) instance with label y (+1 or -1)
+	 */
+	private void update(int[] indices, double[] values, int n, int y) {
+		double margin = 0;
+		for (int k = 0; k < n; k++)
+			margin += m_Weights[indices[k]] * values[k];
+		margin *= m_Scale * y;
+
+		double dloss;
+		if (m_Loss == LOG_LOSS)
+			dloss = -y / (1 + Math.exp(margin));
+		else
+			dloss = margin < 1 ? -y : 0;
+		if (y > 0)
+			dloss *= m_PosWeight;
+
+		m_T++;
+		if (m_AdaGrad) {
+			for (int k = 0; k < n; k++) {
+				int j = indices[k];
+				double g = dloss * values[k] + m_Lambda * m_Weights[j];
+				m_SumSquares[j] += g * g;
+				if (m_SumSquares[j] > 0)
+					m_Weights[j] -= m_Eta * g / Math.sqrt(m_SumSquares[j]);
+			}
+		} else {
+			// w = (1 - eta * lambda) * w - eta * dloss * x, with the first part kept in m_Scale
+			double eta = m_Eta / (1 + m_Eta * m_Lambda * m_T);
+			m_Scale *= 1 - eta * m_Lambda;
+			for (int k = 0; k < n; k++)
+				m_Weights[indices[k]] -= eta * dloss * values[k] / m_Scale;
+			if (m_Scale < 1e-9) {
+				for (int j = 0; j < m_Weights.length; j++)
+					m_Weights[j] *= m_Scale;
+				m_Scale = 1;
+			}
+		}
+	}
+
+	/**
+	 * The model. Without hashing it is the weight vector in the format of PerceptronMargin: one weight per attribute
+	 * (0 for the attributes that are not features), without predicted_class. With hashing it is one weight per hashed
+	 * feature.
+	 */
+	public double[] weights() {
+		if (m_HashBits > 0) {
+			double[] result = new double[m_Weights.length];
+			for (int j = 0; j < result.length; j++)
+				result[j] = m_Weights[j] * m_Scale / SCORE_SCALE;
+			return result;
+		}
+		double[] result = new double[m_First.numWeights()];
+		for (int f = 0; f < m_First.m_Features.length; f++)
+			result[m_First.weightIndex(m_First.m_Features[f])] = m_Weights[f] * m_Scale / SCORE_SCALE;
+		return result;
+	}
+
+	/**
+	 * Writes the model to a file: one weight per line, after a line with HASHED and the number of bits for a hashed
+	 * model.
+	 */
+	public void writeModel(String fileName) throws IOException {
+		PrintStream out = new PrintStream(new FileOutputStream(fileName));
+		try {
+			if (m_HashBits > 0)
+				out.println(HASHED + " " + m_HashBits);
+			for (int y = 0; y < m_Model.length; y++)
+				out.println(m_Model[y]);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads a model written by writeModel() (or PerceptronMargin).
+	 */
+	public static StreamingSGD readModel(String fileName) throws IOException {
+		StreamingSGD result = new StreamingSGD();
+		ArrayList<Double> weights = new ArrayList<Double>();
+		BufferedReader in = new BufferedReader(new FileReader(fileName));
+		try {
+			String line = in.readLine();
+			if (line != null && line.startsWith(HASHED)) {
+				try {
+					result.m_HashBits = Integer.parseInt(line.substring(HASHED.length()).trim());
+				} catch (NumberFormatException e) {
+					throw new IOException("Bad model file " + fileName + ": " + line);
+				}
+				if (result.m_HashBits < 1 || result.m_HashBits > MAX_HASH_BITS)
+					throw new IOException("Bad model file " + fileName + ": " + line);
+				line = in.readLine();
+			}
+			for (; line != null; line = in.readLine())
+				weights.add(Double.valueOf(line));
+		} finally {
+			in.close();
+		}
+		if (result.m_HashBits > 0 && weights.size() != 1 << result.m_HashBits)
+			throw new IOException("Model " + fileName + " has " + weights.size() + " weights instead of "
+					+ (1 << result.m_HashBits));
+		result.m_Model = new double[weights.size()];
+		for (int y = 0; y < result.m_Model.length; y++)
+			result.m_Model[y] = weights.get(y).doubleValue();
+		return result;
+	}
+
+	/**
+	 * Scores the instances of an ARFF file with the model, one at a time, encoding them the same way as in training.
+	 * The score is the inner product with the model (as by WeightVectorApplier.getDistance()).
+	 */
+	public Scorer scorer(Reader reader) throws IOException {
+		return new Scorer(reader);
+	}
+
+	/**
+	 * Reads the instances of an ARFF file one at a time and scores them.
+	 */
+	public class Scorer {
+
+		private StreamTokenizer m_Tokenizer;
+
+		private Encoder m_Encoder;
+
+		/** The model, indexed the way the encoder numbers the features */
+		private double[] m_W;
+
+		private int[] m_Indices;
+
+		private double[] m_Values;
+
+		private double m_Score;
+
+		Scorer(Reader reader) throws IOException {
+			if (m_Model == null)
+				throw new IllegalStateException("No model");
+			InstancesShort header = new InstancesShort(reader, 0);
+			m_Encoder = new Encoder(header, m_HashBits);
+			if (m_HashBits > 0) {
+				m_W = m_Model;
+			} else {
+				int num = m_Encoder.numWeights();
+				if (m_Model.length != num && m_Model.length != num + 1)
+					throw new IOException("Weight vector is wrong length " + m_Model.length + " vs " + num);
+				m_W = new double[m_Encoder.m_Features.length];
+				for (int f = 0; f < m_W.length; f++)
+					m_W[f] = m_Model[m_Encoder.weightIndex(m_Encoder.m_Features[f])];
+			}
+			m_Tokenizer = new StreamTokenizer(reader);
+			initTokenizer(m_Tokenizer);
+			m_Indices = new int[m_Encoder.maxSize()];
+			m_Values = new double[m_Indices.length];
+		}
+
+		/**
+		 * Reads and scores the next instance. Returns false at the end of the file.
+		 */
+		public boolean next() throws IOException {
+			if (!m_Encoder.read(m_Tokenizer))
+				return false;
+			int n = m_Encoder.encode(m_Indices, m_Values);
+			double score = 0;
+			for (int k = 0; k < n; k++)
+				score += m_W[m_Indices[k]] * m_Values[k];
+			// an instance without features has the score 0/0 = NaN, as in WeightVectorApplier
+			m_Score = n > 0 ? score : Double.NaN;
+			return true;
+		}
+
+		public double score() {
+			return m_Score;
+		}
+
+		/** The value of DocNo, or -1 if there is no such attribute */
+		public int docNo() {
+			return m_Encoder.m_Ids[0];
+		}
+
+		/** The value of ID1, or -1 if there is no such attribute */
+		public int id1() {
+			return m_Encoder.m_Ids[1];
+		}
+
+		/** The value of ID2, or -1 if there is no such attribute */
+		public int id2() {
+			return m_Encoder.m_Ids[2];
+		}
+	}
+
+	private static void initTokenizer(StreamTokenizer tokenizer) {
+		tokenizer.resetSyntax();
+		tokenizer.whitespaceChars(0, ' ');
+		tokenizer.wordChars(' ' + 1, '\u00FF');
+		tokenizer.whitespaceChars(',', ',');
+		tokenizer.commentChar('%');
+		tokenizer.quoteChar('"');
+		tokenizer.quoteChar('\'');
+		tokenizer.ordinaryChar('{');
+		tokenizer.ordinaryChar('}');
+		tokenizer.eolIsSignificant(true);
+	}
+
+	/**
+	 * Reads the instances of one file and turns them into the vectors the model works on.
+	 */
+	private static class Encoder {
+
+		InstancesShort m_Header;
+
+		/** The attribute indices of the features, in order */
+		int[] m_Features;
+
+		/** Which features are nominal */
+		boolean[] m_Nominal;
+
+		int m_ClassIndex;
+
+		String m_Positive = "+";
+
+		/** The attribute indices of DocNo, ID1 and ID2 (-1 if missing) */
+		int[] m_IdIndices = new int[3];
+
+		/**
+		 * Hashing: the weight of each value of a nominal feature, or the weight of a numeric feature; ~weight if the
+		 * value is added with a negative sign. Null without hashing.
+		 */
+		int[][] m_Buckets = null;
+
+		/** The current instance: the value of each feature (NaN if missing), its label and its ids */
+		double[] m_X;
+
+		int m_Label;
+
+		int[] m_Ids = new int[3];
+
+		Encoder(InstancesShort header, int hashBits) throws IOException {
+			m_Header = header;
+			AttributeShort classAtt = header.attribute("class");
+			if (classAtt == null)
+				throw new IOException("No class attribute");
+			m_ClassIndex = classAtt.index();
+			String[] ids = { "DocNo", "ID1", "ID2" };
+			for (int i = 0; i < ids.length; i++) {
+				AttributeShort att = header.attribute(ids[i]);
+				m_IdIndices[i] = att == null ? -1 : att.index();
+			}
+			int num = 0;
+			int[] features = new int[header.numAttributes()];
+			for (int j = 0; j < header.numAttributes(); j++)
+				if (header.attribute(j).isFeature())
+					features[num++] = j;
+			m_Features = new int[num];
+			System.arraycopy(features, 0, m_Features, 0, num);
+			m_Nominal = new boolean[num];
+			for (int f = 0; f < num; f++)
+				m_Nominal[f] = header.attribute(m_Features[f]).isNominal();
+			m_X = new double[num];
+
+			if (hashBits > 0) {
+				m_Buckets = new int[num][];
+				for (int f = 0; f < num; f++) {
+					AttributeShort att = header.attribute(m_Features[f]);
+					if (m_Nominal[f]) {
+						m_Buckets[f] = new int[att.numValues()];
+						for (int v = 0; v < att.numValues(); v++)
+							m_Buckets[f][v] = bucket(att.name() + "=" + att.value(v), hashBits);
+					} else {
+						m_Buckets[f] = new int[] { bucket(att.name(), hashBits) };
+					}
+				}
+			}
+		}
+
+		/*
+		 * The hashed weight of a feature, ~weight for a negative sign. String.hashCode() is the same on every JVM, and
+		 * the bits are mixed (as in the MurmurHash3 finalizer) before they are split into the weight and the sign.
+		 */
+		private static int bucket(String feature, int hashBits) {
+			int h = feature.hashCode();
+			h ^= h >>> 16;
+			h *= 0x85ebca6b;
+			h ^= h >>> 13;
+			h *= 0xc2b2ae35;
+			h ^= h >>> 16;
+			int bucket = h & ((1 << hashBits) - 1);
+			return h < 0 ? ~bucket : bucket;
+		}
+
+		/** The number of entries encode() can return */
+		int maxSize() {
+			return m_Features.length;
+		}
+
+		/** The number of weights of an unhashed model: one per attribute, without predicted_class */
+		int numWeights() {
+			AttributeShort predClass = m_Header.attribute("predicted_class");
+			return m_Header.numAttributes() - (predClass == null ? 0 : 1);
+		}
+
+		/** The index of the weight of an attribute in an unhashed model */
+		int weightIndex(int j) {
+			AttributeShort predClass = m_Header.attribute("predicted_class");
+			return predClass != null && j > predClass.index() ? j - 1 : j;
+		}
+
+		/**
+		 * The current instance as a sparse vector of two-norm one: the indices of the features (or of the hashed
+		 * weights) and their values. Missing values are left out. Returns the number of entries, 0 if the instance
+		 * has no feature values.
+		 */
+		int encode(int[] indices, double[] values) {
+			int n = 0;
+			double norm = 0;
+			for (int f = 0; f < m_X.length; f++) {
+				double x = m_X[f];
+				if (Double.isNaN(x))
+					continue;
+				if (m_Buckets == null) {
+					if (x == 0)
+						continue;
+					indices[n] = f;
+					values[n] = x;
+				} else {
+					int b;
+					if (m_Nominal[f]) {
+						// one-hot: the value itself is hashed
+						b = m_Buckets[f][(int)x];
+						x = 1;
+					} else {
+						if (x == 0)
+							continue;
+						b = m_Buckets[f][0];
+					}
+					indices[n] = b < 0 ? ~b : b;
+					values[n] = b < 0 ? -x : x;
+				}
+				norm += x * x;
+				n++;
+			}
+			norm = Math.sqrt(norm);
+			for (int k = 0; k < n; k++)
+				values[k] /= norm;
+			return n;
+		}
+
+		/**
+		 * Reads the next instance (dense or sparse). Values that are not in a sparse instance are 0, missing feature
+		 * values are NaN, and the label is 1 for positive, -1 for negative and 0 if the class is missing. Returns
+		 * false at the end of the file.
+		 */
+		boolean read(StreamTokenizer tokenizer) throws IOException {
+			do {
+				tokenizer.nextToken();
+			} while (tokenizer.ttype == StreamTokenizer.TT_EOL);
+			if (tokenizer.ttype == StreamTokenizer.TT_EOF)
+				return false;
+			for (int f = 0; f < m_X.length; f++)
+				m_X[f] = 0;
+			m_Label = 0;
+			for (int i = 0; i < m_Ids.length; i++)
+				m_Ids[i] = m_IdIndices[i] < 0 ? -1 : 0;
+			int numAttributes = m_Header.numAttributes();
+			if (tokenizer.ttype == '{') {
+				while (true) {
+					tokenizer.nextToken();
+					if (tokenizer.ttype == '}')
+						break;
+					int index;
+					try {
+						index = Integer.parseInt(tokenizer.sval);
+					} catch (NumberFormatException e) {
+						throw error(tokenizer, "index number expected");
+					}
+					if (index < 0 || index >= numAttributes)
+						throw error(tokenizer, "index out of bounds");
+					tokenizer.nextToken();
+					setValue(tokenizer, index);
+				}
+				tokenizer.nextToken();
+			} else {
+				for (int j = 0; j < numAttributes; j++) {
+					if (j > 0)
+						tokenizer.nextToken();
+					setValue(tokenizer, j);
+				}
+				tokenizer.nextToken();
+			}
+			if (tokenizer.ttype != StreamTokenizer.TT_EOL && tokenizer.ttype != StreamTokenizer.TT_EOF)
+				throw error(tokenizer, "end of line expected");
+			return true;
+		}
+
+		private void setValue(StreamTokenizer tokenizer, int j) throws IOException {
+			if (tokenizer.ttype == StreamTokenizer.TT_EOL || tokenizer.ttype == StreamTokenizer.TT_EOF)
+				throw error(tokenizer, "premature end of line");
+			String value = tokenizer.sval;
+			if (j == m_ClassIndex) {
+				if (!value.equals("?"))
+					m_Label = value.equals(m_Positive) ? 1 : -1;
+				return;
+			}
+			for (int i = 0; i < m_IdIndices.length; i++) {
+				if (j == m_IdIndices[i] && !value.equals("?")) {
+					try {
+						m_Ids[i] = (int)Double.parseDouble(value);
+					} catch (NumberFormatException e) {
+						throw error(tokenizer, "number expected");
+					}
+				}
+			}
+			int f = featureIndex(j);
+			if (f < 0)
+				return;
+			if (value.equals("?")) {
+				m_X[f] = Double.NaN;
+				return;
+			}
+			AttributeShort att = m_Header.attribute(j);
+			if (att.isNominal()) {
+				int index = att.indexOfValue(value);
+				if (index == -1)
+					throw error(tokenizer, "nominal value not declared in header");
+				m_X[f] = index;
+			} else {
+				try {
+					m_X[f] = Double.parseDouble(value);
+				} catch (NumberFormatException e) {
+					throw error(tokenizer, "number expected");
+				}
+			}
+		}
+
+		private int featureIndex(int j) {
+			// the features are sorted
+			int lo = 0, hi = m_Features.length - 1;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				if (m_Features[mid] < j)
+					lo = mid + 1;
+				else if (m_Features[mid] > j)
+					hi = mid - 1;
+				else
+					return mid;
+			}
+			return -1;
+		}
+	}
+
+	private static IOException error(StreamTokenizer tokenizer, String msg) {
+		return new IOException(msg + ", read " + tokenizer.toString());
+	}
+
+	/**
+	 * Main method.
+	 *
+	 * @param options the options for the learner
+	 * @return the model
+	 */
+	public static double[] main(String[] options) {
+		try {
+			ArrayList<String> files = new ArrayList<String>();
+			String file;
+			while ((file = Utils.getOption('t', options)).length() != 0)
+				files.add(file);
+			if (files.size() == 0)
+				throw new Exception("No training file given");
+			String saveFilename = Utils.getOption('F', options);
+			StreamingSGD learner = new StreamingSGD();
+			learner.setOptions(options);
+			double[] w = learner.train(files.toArray(new String[files.size()]));
+			if (saveFilename.length() != 0)
+				learner.writeModel(saveFilename);
+			return w;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -376,8 +376,8 @@ public class VectorComparator {
 			return null;
 		InstanceShort first = data.instance(0);
 		//System.err.println(first);
-		int id1 = (int) first.value(ID1);
-		int id2 = (int) first.value(ID2);
+		int id1 = first.intValue(ID1);
+		int id2 = first.intValue(ID2);
 		int len = id1>id2?id1+1:id2+1;
 		ptrs = new int[len];
 		// initialize pointers so each item is in it's own set
@@ -388,8 +388,8 @@ public class VectorComparator {
 			// read all instances for a document
 			InstanceShort current = data.instance(i);
 			// System.out.println("Working on: "+current);
-			id1 = (int) current.value(ID1);
-			id2 = (int) current.value(ID2);
+			id1 = current.intValue(ID1);
+			id2 = current.intValue(ID2);
 
 			if (innerProduct(w, current) > THRESHOLD) {
 				union(id1, id2, ptrs);
@@ -409,8 +409,8 @@ public class VectorComparator {
 
 		for (int k = 0; k < data.numInstances(); k++) {
 			InstanceShort curPair = data.instance(k);
-			int curId1 = (int) curPair.value(ID1);
-			int curId2 = (int) curPair.value(ID2);
+			int curId1 = curPair.intValue(ID1);
+			int curId2 = curPair.intValue(ID2);
 			if (!result.contains(new Integer(curId1))) {
 				// System.err.println("Add "+curId1+"-"+find(curId1,ptrs));
 				result.add(new Integer(curId1), new Integer(find(curId1, ptrs)));
@@ -483,8 +483,8 @@ public class VectorComparator {
 		if (data == null || data.numInstances() == 0)
 			return null;
 		InstanceShort first = data.instance(0);
-		int id1 = (int) first.value(ID1);
-		int id2 = (int) first.value(ID2);
+		int id1 = first.intValue(ID1);
+		int id2 = first.intValue(ID2);
 		int len = id1>id2 ?id1 + 1:id2+1;
 		ptrs = new int[len];
 		// initialize pointers so each item is in it's own set
@@ -499,8 +499,8 @@ public class VectorComparator {
 			// read all instances for a document
 			InstanceShort current = data.instance(i);
 			// System.out.println("Working on: "+current);
-			id1 = (int) current.value(ID1);
-			id2 = (int) current.value(ID2);
+			id1 = current.intValue(ID1);
+			id2 = current.intValue(ID2);
 
 			if (current.value(Cl) == pos) {
 				union(id1, id2, ptrs);
@@ -509,8 +509,8 @@ public class VectorComparator {
 		}
 		for (int k = 0; k < data.numInstances(); k++) {
 			InstanceShort curPair = data.instance(k);
-			int curId1 = (int) curPair.value(ID1);
-			int curId2 = (int) curPair.value(ID2);
+			int curId1 = curPair.intValue(ID1);
+			int curId2 = curPair.intValue(ID2);
 			if (!result.contains(new Integer(curId1))) {
 				// System.err.println("Add "+curId1+"-"+find(curId1,ptrs));
 				result.add(new Integer(curId1), new Integer(find(curId1, ptrs)));
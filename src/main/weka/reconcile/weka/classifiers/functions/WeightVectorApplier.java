@@ -263,22 +263,23 @@ public class WeightVectorApplier {
 			return null;
 		InstanceShort first = data.instance(0);
 		//System.err.println(first);
-		int id1 = first.value(ID1);
-		int id2 = first.value(ID2);
+		int id1 = first.intValue(ID1);
+		int id2 = first.intValue(ID2);
 		int len = id1>id2?id1+1:id2+1;
 		ptrs = new int[len];
 		// initialize pointers so each item is in it's own set
 		for (int j = 0; j < len; j++)
 			ptrs[j] = j;
 
+		double[] scores = new InstanceMatrix(data).dot(w);
 		for (int i = 0; i < data.numInstances(); i++) {
 			// read all instances for a document
 			InstanceShort current = data.instance(i);
 			// System.out.println("Working on: "+current);
-			id1 = current.value(ID1);
-			id2 = current.value(ID2);
+			id1 = current.intValue(ID1);
+			id2 = current.intValue(ID2);
 
-			if (innerProduct(w, current) > THRESHOLD) {
+			if (scores[i] > THRESHOLD) {
 				union(id1, id2, ptrs);
 				current.setValue(data.m_Prediction, data.m_Positive);
 			} else {
@@ -289,14 +290,10 @@ public class WeightVectorApplier {
 	}
 	
 	public static double[] getDistance(double[] w, ModifiedInstancesShort data) {
-
-		double[] result = new double[data.numInstances()];
-		for (int i = 0; i < data.numInstances(); i++) {
-			// read all instances for a document
-			InstanceShort current = data.instance(i);
-			result[i]=innerProductNormalizeCur(w, current);
-		}
-		return result;
+		if (data.numInstances() == 0)
+			return new double[0];
+		// score all the instances at once rather than one InstanceShort at a time
+		return new InstanceMatrix(data).dotNormalized(w);
 	}
 
 	private static LeanDocument makeDocument(ModifiedInstancesShort data,
@@ -307,8 +304,8 @@ public class WeightVectorApplier {
 
 		for (int k = 0; k < data.numInstances(); k++) {
 			InstanceShort curPair = data.instance(k);
-			int curId1 = curPair.value(ID1);
-			int curId2 = curPair.value(ID2);
+			int curId1 = curPair.intValue(ID1);
+			int curId2 = curPair.intValue(ID2);
 			if (!result.contains(new Integer(curId1))) {
 				// System.err.println("Add "+curId1+"-"+find(curId1,ptrs));
 				result.add(new Integer(curId1), new Integer(find(curId1, ptrs)));
@@ -319,45 +316,6 @@ public class WeightVectorApplier {
 		return result;
 	}
 
-	private static double innerProduct(double[] w, InstanceShort i) {
-		if (w.length != i.numAttributes())
-			throw new RuntimeException("Wrong number of attributes wv:"+w.length+" vs "+i.numAttributes());
-		double result = 0;
-		for (int j = 0; j < i.numAttributes(); j++) {
-			if (i.attribute(j).isFeature()) {
-				if (i.attribute(j).isNominal())
-					result += i.value(j) * w[j];
-				else
-					result += i.attribute(j).getOriginalValue(new Short(i.value(j)))
-							* w[j];
-			}
-		}
-		// System.err.println("VAL="+result);
-		return result;
-	}
-	
-	private static double innerProductNormalizeCur(double[] w, InstanceShort i) {
-		if (w.length != i.numAttributes())
-			throw new RuntimeException("Wrong number of attributes wv:"+w.length+" vs "+i.numAttributes());
-		double result = 0;
-		double twoNorm = 0;
-		for (int j = 0; j < i.numAttributes(); j++) {
-			if (i.attribute(j).isFeature()) {
-				if (i.attribute(j).isNominal()){
-					result += i.value(j) * w[j];
-					twoNorm += i.value(j)*i.value(j);
-				}else{
-					result += i.attribute(j).getOriginalValue(new Short(i.value(j)))
-							* w[j];
-					twoNorm += i.attribute(j).getOriginalValue(new Short(i.value(j)))
-							*i.attribute(j).getOriginalValue(new Short(i.value(j)));
-				}
-			}
-		}
-		// System.err.println("VAL="+result);
-		return result/Math.sqrt(twoNorm);
-	}
-
 	private static int find(int i, int[] ptrs) {
 		// find the set number for the element
 		int ind = i;
@@ -401,8 +359,8 @@ public class WeightVectorApplier {
 		if (data == null || data.numInstances() == 0)
 			return null;
 		InstanceShort first = data.instance(0);
-		int id1 = first.value(ID1);
-		int id2 = first.value(ID2);
+		int id1 = first.intValue(ID1);
+		int id2 = first.intValue(ID2);
 		int len = id1 + 1;
 		ptrs = new int[len];
 		// initialize pointers so each item is in it's own set
@@ -416,8 +374,8 @@ public class WeightVectorApplier {
 			// read all instances for a document
 			InstanceShort current = data.instance(i);
 			// System.out.println("Working on: "+current);
-			id1 = current.value(ID1);
-			id2 = current.value(ID2);
+			id1 = current.intValue(ID1);
+			id2 = current.intValue(ID2);
 
 			if (current.value(Cl) == pos) {
 				union(id1, id2, ptrs);
@@ -425,8 +383,8 @@ public class WeightVectorApplier {
 		}
 		for (int k = 0; k < data.numInstances(); k++) {
 			InstanceShort curPair = data.instance(k);
-			int curId1 = curPair.value(ID1);
-			int curId2 = curPair.value(ID2);
+			int curId1 = curPair.intValue(ID1);
+			int curId2 = curPair.intValue(ID2);
 			if (!result.contains(new Integer(curId1))) {
 				// System.err.println("Add "+curId1+"-"+find(curId1,ptrs));
 				result.add(new Integer(curId1), new Integer(find(curId1, ptrs)));
@@ -16,6 +16,16 @@
 
 package reconcile.weka.classifiers.functions.supportVector;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import reconcile.weka.core.Instance;
 import reconcile.weka.core.Instances;
 
@@ -23,6 +33,10 @@ import reconcile.weka.core.Instances;
  * Base class for RBFKernel and PolyKernel that implements a simple LRU.
  * (least-recently-used) cache if the cache size is set to a value > 0.
  * Otherwise it uses a full cache.
+ *
+ * eval() can be called from several threads at once: the LRU cache is
+ * divided into stripes with a lock each, and kernels are evaluated outside
+ * the locks.
  * 
  * @author Eibe Frank (eibe@cs.waikato.ac.nz)
  * @author Shane Legg (shane@intelligenesis.net) (sparse vector code)
@@ -35,10 +49,16 @@ import reconcile.weka.core.Instances;
 public abstract class CachedKernel extends Kernel {
     
   /** Counts the number of kernel evaluations. */
-  private int m_kernelEvals = 0;
+  private AtomicInteger m_kernelEvals = new AtomicInteger();
 
   /** Counts the number of kernel cache hits. */
-  private int m_cacheHits = 0;
+  private AtomicInteger m_cacheHits = new AtomicInteger();
+
+  /** The number of lock stripes of the LRU cache */
+  private static final int NUM_STRIPES = 64;
+
+  /** The locks of the stripes; an entry is in stripe (key % m_cacheSize) % NUM_STRIPES */
+  private transient Object[] m_locks;
 
   /** The size of the cache (a prime number) */
   private int m_cacheSize;
@@ -48,7 +68,7 @@ public abstract class CachedKernel extends Kernel {
   protected long[] m_keys;
 
   /** The kernel matrix if full cache is used (i.e. size is set to 0) */
-  private double[][] m_kernelMatrix;
+  private volatile double[][] m_kernelMatrix;
 
   /** The number of instance in the dataset */
   private int m_numInsts;
@@ -69,11 +89,33 @@ public abstract class CachedKernel extends Kernel {
       // Use LRU cache
       m_storage = new double[m_cacheSize * m_cacheSlots];
       m_keys = new long[m_cacheSize * m_cacheSlots];
+      createLocks();
     } 
 
     m_numInsts = m_data.numInstances();
   }
 
+  /**
+   * Creates the locks of the stripes of the LRU cache.
+   */
+  private void createLocks() {
+    m_locks = new Object[NUM_STRIPES];
+    for (int i = 0; i < NUM_STRIPES; i++)
+      m_locks[i] = new Object();
+  }
+
+  /**
+   * Recreates the locks of the stripes, which aren't serialized, after
+   * the kernel has been deserialized.
+   */
+  private void readObject(ObjectInputStream in) 
+    throws IOException, ClassNotFoundException {
+
+    in.defaultReadObject();
+    if (m_cacheSize > 0)
+      createLocks();
+  }
+
   /**
    * This method is overridden in subclasses to implement specific kernels.
    * 
@@ -104,18 +146,12 @@ public abstract class CachedKernel extends Kernel {
 
       // Use full cache?
       if (m_cacheSize == 0) {
-	if (m_kernelMatrix == null) {
-	  m_kernelMatrix = new double[m_data.numInstances()][];
-	  for(int i = 0; i < m_data.numInstances(); i++) {
-	    m_kernelMatrix[i] = new double[i + 1];
-	    for(int j = 0; j <= i; j++) {
-	      m_kernelEvals++;
-	      m_kernelMatrix[i][j] = evaluate(i, j, m_data.instance(i));
-	    }
-	  }
+	double[][] matrix = m_kernelMatrix;
+	if (matrix == null) {
+	  matrix = computeKernelMatrix(null);
 	} 
-	m_cacheHits++;
-	result = (id1 > id2) ? m_kernelMatrix[id1][id2] : m_kernelMatrix[id2][id1];
+	m_cacheHits.incrementAndGet();
+	result = (id1 > id2) ? matrix[id1][id2] : matrix[id2][id1];
 	return result;
       }
 
@@ -125,55 +161,112 @@ public abstract class CachedKernel extends Kernel {
       } else {
 	key = (id2 + ((long) id1 * m_numInsts));
       }
-      location = (int) (key % m_cacheSize) * m_cacheSlots;
-      int loc = location;
-      for (int i = 0; i < m_cacheSlots; i++) {
-	long thiskey = m_keys[loc];
-	if (thiskey == 0)
-	  break; // empty slot, so break out of loop early
-	if (thiskey == (key + 1)) {
-	  m_cacheHits++;
-	  // move entry to front of cache (LRU) by swapping
-	  // only if it's not already at the front of cache
-	  if (i > 0) {
-	    double tmps = m_storage[loc];
-	    m_storage[loc] = m_storage[location];
-	    m_keys[loc] = m_keys[location];
-	    m_storage[location] = tmps;
-	    m_keys[location] = thiskey;
-	    return tmps;
-	  } else
-	    return m_storage[loc];
+      int entry = (int) (key % m_cacheSize);
+      location = entry * m_cacheSlots;
+      synchronized (m_locks[entry % NUM_STRIPES]) {
+	int loc = location;
+	for (int i = 0; i < m_cacheSlots; i++) {
+	  long thiskey = m_keys[loc];
+	  if (thiskey == 0)
+	    break; // empty slot, so break out of loop early
+	  if (thiskey == (key + 1)) {
+	    m_cacheHits.incrementAndGet();
+	    // move entry to front of cache (LRU) by swapping
+	    // only if it's not already at the front of cache
+	    if (i > 0) {
+	      double tmps = m_storage[loc];
+	      m_storage[loc] = m_storage[location];
+	      m_keys[loc] = m_keys[location];
+	      m_storage[location] = tmps;
+	      m_keys[location] = thiskey;
+	      return tmps;
+	    } else
+	      return m_storage[loc];
+	  }
+	  loc++;
 	}
-	loc++;
       }
     }
 
     result = evaluate(id1, id2, inst1);
 
-    m_kernelEvals++;
+    m_kernelEvals.incrementAndGet();
 
     // store result in cache
     if (key != -1) {
-      // move all cache slots forward one array index
-      // to make room for the new entry
-      System.arraycopy(m_keys, location, m_keys, location + 1,
-		       m_cacheSlots - 1);
-      System.arraycopy(m_storage, location, m_storage, location + 1,
-		       m_cacheSlots - 1);
-      m_storage[location] = result;
-      m_keys[location] = (key + 1);
+      synchronized (m_locks[(location / m_cacheSlots) % NUM_STRIPES]) {
+	// another thread may have stored the entry in the meantime
+	for (int loc = location; loc < location + m_cacheSlots; loc++) {
+	  if (m_keys[loc] == (key + 1))
+	    return result;
+	}
+	// move all cache slots forward one array index
+	// to make room for the new entry
+	for (int loc = location + m_cacheSlots - 1; loc > location; loc--) {
+	  m_keys[loc] = m_keys[loc - 1];
+	  m_storage[loc] = m_storage[loc - 1];
+	}
+	m_storage[location] = result;
+	m_keys[location] = (key + 1);
+      }
     }
     return result;
   }
 
+  /**
+   * Computes the full kernel matrix (used if the cache size is 0), unless it
+   * has been computed already. The rows are computed by the given threads,
+   * or by the calling thread if pool is null.
+   *
+   * @param pool the threads to use, or null
+   * @return the lower triangle of the kernel matrix
+   * @throws Exception if a kernel evaluation fails
+   */
+  public synchronized double[][] computeKernelMatrix(ExecutorService pool)
+    throws Exception {
+
+    if (m_kernelMatrix != null)
+      return m_kernelMatrix;
+    final double[][] matrix = new double[m_data.numInstances()][];
+    List<Future<Object>> results = new ArrayList<Future<Object>>();
+    for (int i = 0; i < m_data.numInstances(); i++) {
+      final int row = i;
+      Callable<Object> task = new Callable<Object>() {
+	public Object call() throws Exception {
+	  double[] values = new double[row + 1];
+	  Instance inst = m_data.instance(row);
+	  for (int j = 0; j <= row; j++)
+	    values[j] = evaluate(row, j, inst);
+	  m_kernelEvals.addAndGet(row + 1);
+	  matrix[row] = values;
+	  return null;
+	}
+      };
+      if (pool == null)
+	task.call();
+      else
+	results.add(pool.submit(task));
+    }
+    for (int i = 0; i < results.size(); i++) {
+      try {
+	results.get(i).get();
+      } catch (ExecutionException e) {
+	if (e.getCause() instanceof Exception)
+	  throw (Exception) e.getCause();
+	throw new RuntimeException(e.getCause());
+      }
+    }
+    m_kernelMatrix = matrix;
+    return matrix;
+  }
+
   /**
    * Returns the number of time Eval has been called.
    * 
    * @return the number of kernel evaluation.
    */
   public int numEvals() {
-    return m_kernelEvals;
+    return m_kernelEvals.get();
   }
 
   /**
@@ -182,7 +275,7 @@ public abstract class CachedKernel extends Kernel {
    * @return the number of cache hits.
    */
   public int numCacheHits() {
-    return m_cacheHits;
+    return m_cacheHits.get();
   }
 
   /**
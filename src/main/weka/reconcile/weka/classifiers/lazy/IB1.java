@@ -23,12 +23,17 @@
 package reconcile.weka.classifiers.lazy;
 
 import java.util.Enumeration;
+import java.util.Vector;
 
 import reconcile.weka.classifiers.Classifier;
 import reconcile.weka.classifiers.Evaluation;
 import reconcile.weka.classifiers.UpdateableClassifier;
+import reconcile.weka.classifiers.lazy.neighboursearch.NearestNeighbourSearch;
+import reconcile.weka.classifiers.lazy.neighboursearch.NeighbourDistance;
 import reconcile.weka.core.Instance;
 import reconcile.weka.core.Instances;
+import reconcile.weka.core.Option;
+import reconcile.weka.core.SelectedTag;
 import reconcile.weka.core.UnsupportedAttributeTypeException;
 import reconcile.weka.core.Utils;
 
@@ -44,6 +49,13 @@ import reconcile.weka.core.Utils;
  * Aha, D., and D. Kibler (1991) "Instance-based learning algorithms",
  * <i>Machine Learning</i>, vol.6, pp. 37-66.<p>
  *
+ * Valid options are:<p>
+ *
+ * -search linear|kdtree|balltree <br>
+ * The nearest neighbour search: a scan of all the training instances,
+ * a KD-tree or a ball tree. They find the same neighbour.
+ * (default linear) <p>
+ *
  * @author Stuart Inglis (singlis@cs.waikato.ac.nz)
  * @author Len Trigg (trigg@cs.waikato.ac.nz)
  * @author Eibe Frank (eibe@cs.waikato.ac.nz)
@@ -60,6 +72,46 @@ public class IB1 extends Classifier implements UpdateableClassifier {
   /** The maximum values for numeric attributes. */
   private double [] m_MaxArray;
 
+  /** The nearest neighbour search (one of the TAGS_SEARCH) */
+  private int m_SearchType = NearestNeighbourSearch.LINEAR;
+
+  /** The search over the training instances */
+  private NearestNeighbourSearch m_Search;
+
+  /*
+   * The distance of IB1, for the nearest neighbour search.
+   */
+  private class Distance implements NeighbourDistance {
+
+    public double distance(Instance first, Instance second) {
+
+      return IB1.this.distance(first, second);
+    }
+
+    public double difference(int index, double val1, double val2) {
+
+      return IB1.this.difference(index, val1, val2);
+    }
+
+    public double distanceFromSquares(double sumOfSquares) {
+
+      return sumOfSquares;
+    }
+
+    public boolean isMetric() {
+
+      return true;
+    }
+
+    /**
+     * The distance is the squared Euclidean distance.
+     */
+    public double metric(double distance) {
+
+      return Math.sqrt(distance);
+    }
+  }
+
   /**
    * Returns a string describing classifier
    * @return a description suitable for
@@ -84,6 +136,7 @@ public class IB1 extends Classifier implements UpdateableClassifier {
    */
   public void buildClassifier(Instances instances) throws Exception {
     
+    m_Search = null;
     if (instances.classAttribute().isNumeric()) {
        throw new Exception("IB1: Class is numeric!");
     }
@@ -103,6 +156,9 @@ public class IB1 extends Classifier implements UpdateableClassifier {
     while (enu.hasMoreElements()) {
       updateMinMax((Instance) enu.nextElement());
     }
+
+    m_Search = NearestNeighbourSearch.forType(m_SearchType);
+    m_Search.setInstances(m_Train, new Distance());
   }
 
   /**
@@ -120,6 +176,7 @@ public class IB1 extends Classifier implements UpdateableClassifier {
       return;
     }
     m_Train.add(instance);
+    m_Search.addLast();
     updateMinMax(instance);
   }
 
@@ -136,17 +193,17 @@ public class IB1 extends Classifier implements UpdateableClassifier {
       throw new Exception("No training instances!");
     }
 
-    double distance, minDistance = Double.MAX_VALUE, classValue = 0;
+    double classValue = 0;
     updateMinMax(instance);
-    Enumeration enu = m_Train.enumerateInstances();
-    while (enu.hasMoreElements()) {
-      Instance trainInstance = (Instance) enu.nextElement();
-      if (!trainInstance.classIsMissing()) {
-	distance = distance(instance, trainInstance);
-	if (distance < minDistance) {
-	  minDistance = distance;
-	  classValue = trainInstance.classValue();
-	}
+    // the nearest instances come in the order of the training instances
+    int [] nearest = m_Search.kNearestNeighbours(instance, 1);
+    double [] distances = m_Search.getDistances();
+    for (int i = 0; i < nearest.length; i++) {
+      Instance trainInstance = m_Train.instance(nearest[i]);
+      if (!trainInstance.classIsMissing()
+	  && (distances[i] < Double.MAX_VALUE)) {
+	classValue = trainInstance.classValue();
+	break;
       }
     }
 
@@ -163,6 +220,107 @@ public class IB1 extends Classifier implements UpdateableClassifier {
     return ("IB1 classifier");
   }
 
+  /**
+   * Returns an enumeration describing the available options.
+   *
+   * @return an enumeration of all the available options.
+   */
+  public Enumeration listOptions() {
+
+    Vector newVector = new Vector(2);
+
+    newVector.addElement(new Option(
+	      "\tThe nearest neighbour search: linear (a scan of all the\n"
+	      +"\ttraining instances), kdtree or balltree. (Default = linear)",
+	      "search", 1, "-search <linear|kdtree|balltree>"));
+
+    Enumeration enu = super.listOptions();
+    while (enu.hasMoreElements()) {
+      newVector.addElement(enu.nextElement());
+    }
+    return newVector.elements();
+  }
+
+  /**
+   * Parses a given list of options. Valid options are:<p>
+   *
+   * -search linear|kdtree|balltree <br>
+   * The nearest neighbour search. (default linear) <p>
+   *
+   * @param options the list of options as an array of strings
+   * @exception Exception if an option is not supported
+   */
+  public void setOptions(String[] options) throws Exception {
+
+    String searchString = Utils.getOption("search", options);
+    if (searchString.length() != 0) {
+      setNearestNeighbourSearch(new SelectedTag(NearestNeighbourSearch
+						.typeOf(searchString),
+						NearestNeighbourSearch
+						.TAGS_SEARCH));
+    } else {
+      setNearestNeighbourSearch(new SelectedTag(NearestNeighbourSearch.LINEAR,
+						NearestNeighbourSearch
+						.TAGS_SEARCH));
+    }
+    super.setOptions(options);
+  }
+
+  /**
+   * Gets the current settings of IB1.
+   *
+   * @return an array of strings suitable for passing to setOptions()
+   */
+  public String [] getOptions() {
+
+    String [] superOptions = super.getOptions();
+    String [] options = new String [superOptions.length + 2];
+
+    int current = 0;
+    options[current++] = "-search";
+    options[current++] = getNearestNeighbourSearch().getSelectedTag()
+      .getReadable();
+
+    System.arraycopy(superOptions, 0, options, current,
+		     superOptions.length);
+    return options;
+  }
+
+  /**
+   * Returns the tip text for this property
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String nearestNeighbourSearchTipText() {
+
+    return "How the nearest neighbour is found: by a scan of all the "
+      + "training instances, a KD-tree or a ball tree. They find the same "
+      + "neighbour; the trees are faster with many instances and few "
+      + "attributes.";
+  }
+
+  /**
+   * Gets the nearest neighbour search.
+   *
+   * @return the search, one of the TAGS_SEARCH
+   */
+  public SelectedTag getNearestNeighbourSearch() {
+
+    return new SelectedTag(m_SearchType, NearestNeighbourSearch.TAGS_SEARCH);
+  }
+
+  /**
+   * Sets the nearest neighbour search.
+   *
+   * @param newSearch the search, one of the TAGS_SEARCH
+   */
+  public void setNearestNeighbourSearch(SelectedTag newSearch) {
+
+    if (newSearch.getTags() == NearestNeighbourSearch.TAGS_SEARCH) {
+      m_SearchType = newSearch.getSelectedTag().getID();
+    }
+  }
+
   /**
    * Calculates the distance between two instances
    *
@@ -178,37 +336,53 @@ public class IB1 extends Classifier implements UpdateableClassifier {
       if (i == m_Train.classIndex()) {
 	continue;
       }
-      if (m_Train.attribute(i).isNominal()) {
+      diff = difference(i, first.value(i), second.value(i));
+      distance += diff * diff;
+    }
+    
+    return distance;
+  }
 
-	// If attribute is nominal
-	if (first.isMissing(i) || second.isMissing(i) ||
-	    ((int)first.value(i) != (int)second.value(i))) {
-	  distance += 1;
-	}
+  /**
+   * Computes the difference between two given attribute
+   * values.
+   *
+   * @param i the attribute's index
+   * @param val1 the first value
+   * @param val2 the second value
+   * @return the difference
+   */
+  private double difference(int i, double val1, double val2) {
+
+    if (m_Train.attribute(i).isNominal()) {
+
+      // If attribute is nominal
+      if (Instance.isMissingValue(val1) || Instance.isMissingValue(val2) ||
+	  ((int)val1 != (int)val2)) {
+	return 1;
+      }
+      return 0;
+    }
+
+    // If attribute is numeric
+    double diff;
+    if (Instance.isMissingValue(val1) || Instance.isMissingValue(val2)) {
+      if (Instance.isMissingValue(val1) && Instance.isMissingValue(val2)) {
+	diff = 1;
       } else {
-	
-	// If attribute is numeric
-	if (first.isMissing(i) || second.isMissing(i)){
-	  if (first.isMissing(i) && second.isMissing(i)) {
-	    diff = 1;
-	  } else {
-	    if (second.isMissing(i)) {
-	      diff = norm(first.value(i), i);
-	    } else {
-	      diff = norm(second.value(i), i);
-	    }
-	    if (diff < 0.5) {
-	      diff = 1.0 - diff;
-	    }
-	  }
+	if (Instance.isMissingValue(val2)) {
+	  diff = norm(val1, i);
 	} else {
-	  diff = norm(first.value(i), i) - norm(second.value(i), i);
+	  diff = norm(val2, i);
+	}
+	if (diff < 0.5) {
+	  diff = 1.0 - diff;
 	}
-	distance += diff * diff;
       }
+    } else {
+      diff = norm(val1, i) - norm(val2, i);
     }
-    
-    return distance;
+    return diff;
   }
     
   /**
@@ -235,22 +409,29 @@ public class IB1 extends Classifier implements UpdateableClassifier {
    */
   private void updateMinMax(Instance instance) {
     
+    boolean changed = false;
     for (int j = 0;j < m_Train.numAttributes(); j++) {
       if ((m_Train.attribute(j).isNumeric()) && (!instance.isMissing(j))) {
 	if (Double.isNaN(m_MinArray[j])) {
 	  m_MinArray[j] = instance.value(j);
 	  m_MaxArray[j] = instance.value(j);
+	  changed = true;
 	} else {
 	  if (instance.value(j) < m_MinArray[j]) {
 	    m_MinArray[j] = instance.value(j);
+	    changed = true;
 	  } else {
 	    if (instance.value(j) > m_MaxArray[j]) {
 	      m_MaxArray[j] = instance.value(j);
+	      changed = true;
 	    }
 	  }
 	}
       }
     }
+    if (changed && (m_Search != null)) {
+      m_Search.distanceChanged();
+    }
   }
 
   /**
@@ -28,6 +28,8 @@ import java.util.Vector;
 import reconcile.weka.classifiers.Classifier;
 import reconcile.weka.classifiers.Evaluation;
 import reconcile.weka.classifiers.UpdateableClassifier;
+import reconcile.weka.classifiers.lazy.neighboursearch.NearestNeighbourSearch;
+import reconcile.weka.classifiers.lazy.neighboursearch.NeighbourDistance;
 import reconcile.weka.core.Attribute;
 import reconcile.weka.core.Instance;
 import reconcile.weka.core.Instances;
@@ -78,6 +80,11 @@ import reconcile.weka.core.WeightedInstancesHandler;
  * -N <br>
  * Turns off normalization. <p>
  *
+ * -search linear|kdtree|balltree <br>
+ * The nearest neighbour search: a scan of all the training instances,
+ * a KD-tree or a ball tree. They find the same neighbours.
+ * (default linear) <p>
+ *
  * @author Stuart Inglis (singlis@cs.waikato.ac.nz)
  * @author Len Trigg (trigg@cs.waikato.ac.nz)
  * @author Eibe Frank (eibe@cs.waikato.ac.nz)
@@ -281,6 +288,41 @@ public class IBk extends Classifier implements
     }
   }
 
+  /*
+   * The distance of IBk, for the nearest neighbour search.
+   */
+  protected class Distance implements NeighbourDistance {
+
+    public double distance(Instance first, Instance second) {
+
+      return IBk.this.distance(first, second);
+    }
+
+    public double difference(int index, double val1, double val2) {
+
+      return IBk.this.difference(index, val1, val2);
+    }
+
+    public double distanceFromSquares(double sumOfSquares) {
+
+      return Math.sqrt(sumOfSquares / m_NumAttributesUsed);
+    }
+
+    /**
+     * The distance is a metric if the attributes are normalized: a
+     * missing value is then at most 1 from any value.
+     */
+    public boolean isMetric() {
+
+      return !m_DontNormalize;
+    }
+
+    public double metric(double distance) {
+
+      return distance;
+    }
+  }
+
   /** The training instances used for classification. */
   protected Instances m_Train;
 
@@ -346,6 +388,12 @@ public class IBk extends Classifier implements
 
   /** The number of attributes the contribute to a prediction */
   protected double m_NumAttributesUsed;
+
+  /** The nearest neighbour search (one of the TAGS_SEARCH) */
+  protected int m_SearchType = NearestNeighbourSearch.LINEAR;
+
+  /** The search over the training instances */
+  protected NearestNeighbourSearch m_Search;
 								   
   /**
    * IBk classifier. Simple instance-based learner that uses the class
@@ -595,6 +643,41 @@ public class IBk extends Classifier implements
     
     m_DontNormalize = v;
   }
+
+  /**
+   * Returns the tip text for this property
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String nearestNeighbourSearchTipText() {
+
+    return "How the nearest neighbours are found: by a scan of all the "
+      + "training instances, a KD-tree or a ball tree. They find the same "
+      + "neighbours; the trees are faster with many instances and few "
+      + "attributes.";
+  }
+
+  /**
+   * Gets the nearest neighbour search.
+   *
+   * @return the search, one of the TAGS_SEARCH
+   */
+  public SelectedTag getNearestNeighbourSearch() {
+
+    return new SelectedTag(m_SearchType, NearestNeighbourSearch.TAGS_SEARCH);
+  }
+
+  /**
+   * Sets the nearest neighbour search.
+   *
+   * @param newSearch the search, one of the TAGS_SEARCH
+   */
+  public void setNearestNeighbourSearch(SelectedTag newSearch) {
+
+    if (newSearch.getTags() == NearestNeighbourSearch.TAGS_SEARCH) {
+      m_SearchType = newSearch.getSelectedTag().getID();
+    }
+  }
   
   /**
    * Generates the classifier.
@@ -618,6 +701,8 @@ public class IBk extends Classifier implements
       throw new Error("This should never be reached");
     }
 
+    m_Search = null;
+
     // Throw away training instances with missing class
     m_Train = new Instances(instances, 0, instances.numInstances());
     m_Train.deleteWithMissingClass();
@@ -655,6 +740,10 @@ public class IBk extends Classifier implements
       }
     }
 
+    m_Search = NearestNeighbourSearch.forType(m_SearchType);
+    m_Search.setSkipTarget(true);
+    m_Search.setInstances(m_Train, new Distance());
+
     // Invalidate any currently cross-validation selected k
     m_kNNValid = false;
   }
@@ -678,9 +767,11 @@ public class IBk extends Classifier implements
       updateMinMax(instance);
     }
     m_Train.add(instance);
+    m_Search.addLast();
     m_kNNValid = false;
     if ((m_WindowSize > 0) && (m_Train.numInstances() > m_WindowSize)) {
       while (m_Train.numInstances() > m_WindowSize) {
+	m_Search.removeFirst();
 	m_Train.delete(0);
       }
     }
@@ -702,6 +793,7 @@ public class IBk extends Classifier implements
     if ((m_WindowSize > 0) && (m_Train.numInstances() > m_WindowSize)) {
       m_kNNValid = false;
       while (m_Train.numInstances() > m_WindowSize) {
+	m_Search.removeFirst();
 	m_Train.delete(0);
       }
     }
@@ -726,7 +818,7 @@ public class IBk extends Classifier implements
    */
   public Enumeration listOptions() {
 
-    Vector newVector = new Vector(8);
+    Vector newVector = new Vector(9);
 
     newVector.addElement(new Option(
 	      "\tWeight neighbours by the inverse of their distance\n"
@@ -756,6 +848,10 @@ public class IBk extends Classifier implements
     newVector.addElement(new Option(
 	      "\tDon't normalize the data.\n",
 	      "N", 0, "-N"));
+    newVector.addElement(new Option(
+	      "\tThe nearest neighbour search: linear (a scan of all the\n"
+	      +"\ttraining instances), kdtree or balltree. (Default = linear)",
+	      "search", 1, "-search <linear|kdtree|balltree>"));
     return newVector.elements();
   }
 
@@ -788,6 +884,12 @@ public class IBk extends Classifier implements
    * When k is selected by cross-validation for numeric class attributes,
    * minimize mean-squared error. (default mean absolute error) <p>
    *
+   * -N <br>
+   * Turns off normalization. <p>
+   *
+   * -search linear|kdtree|balltree <br>
+   * The nearest neighbour search. (default linear) <p>
+   *
    * @param options the list of options as an array of strings
    * @exception Exception if an option is not supported
    */
@@ -815,6 +917,17 @@ public class IBk extends Classifier implements
     setCrossValidate(Utils.getFlag('X', options));
     setMeanSquared(Utils.getFlag('E', options));
     setNoNormalization(Utils.getFlag('N', options));
+    String searchString = Utils.getOption("search", options);
+    if (searchString.length() != 0) {
+      setNearestNeighbourSearch(new SelectedTag(NearestNeighbourSearch
+						.typeOf(searchString),
+						NearestNeighbourSearch
+						.TAGS_SEARCH));
+    } else {
+      setNearestNeighbourSearch(new SelectedTag(NearestNeighbourSearch.LINEAR,
+						NearestNeighbourSearch
+						.TAGS_SEARCH));
+    }
 
     Utils.checkForRemainingOptions(options);
   }
@@ -826,7 +939,7 @@ public class IBk extends Classifier implements
    */
   public String [] getOptions() {
 
-    String [] options = new String [11];
+    String [] options = new String [13];
     int current = 0;
     options[current++] = "-K"; options[current++] = "" + getKNN();
     options[current++] = "-W"; options[current++] = "" + m_WindowSize;
@@ -844,6 +957,9 @@ public class IBk extends Classifier implements
     if (m_DontNormalize) {
       options[current++] = "-N";
     }
+    options[current++] = "-search";
+    options[current++] = getNearestNeighbourSearch().getSelectedTag()
+      .getReadable();
     while (current < options.length) {
       options[current++] = "";
     }
@@ -896,6 +1012,7 @@ public class IBk extends Classifier implements
     m_CrossValidate = false;
     m_MeanSquared = false;
     m_DontNormalize = false;
+    m_SearchType = NearestNeighbourSearch.LINEAR;
   }
 
   /**
@@ -1019,22 +1136,29 @@ public class IBk extends Classifier implements
    */
   protected void updateMinMax(Instance instance) {  
 
+    boolean changed = false;
     for (int j = 0;j < m_Train.numAttributes(); j++) {
       if (!instance.isMissing(j)) {
 	if (Double.isNaN(m_Min[j])) {
 	  m_Min[j] = instance.value(j);
 	  m_Max[j] = instance.value(j);
+	  changed = true;
 	} else {
 	  if (instance.value(j) < m_Min[j]) {
 	    m_Min[j] = instance.value(j);
+	    changed = true;
 	  } else {
 	    if (instance.value(j) > m_Max[j]) {
 	      m_Max[j] = instance.value(j);
+	      changed = true;
 	    }
 	  }
 	}
       }
     }
+    if (changed && (m_Search != null)) {
+      m_Search.distanceChanged();
+    }
   }
     
   /**
@@ -1045,21 +1169,15 @@ public class IBk extends Classifier implements
    */
   protected NeighborList findNeighbors(Instance instance) {
 
-    double distance;
     NeighborList neighborlist = new NeighborList(m_kNN);
-    Enumeration enu = m_Train.enumerateInstances();
-    int i = 0;
-
-    while (enu.hasMoreElements()) {
-      Instance trainInstance = (Instance) enu.nextElement();
-      if (instance != trainInstance) { // for hold-one-out cross-validation
-	distance = distance(instance, trainInstance);
-	if (neighborlist.isEmpty() || (i < m_kNN) || 
-	    (distance <= neighborlist.m_Last.m_Distance)) {
-	  neighborlist.insertSorted(distance, trainInstance);
-	}
-	i++;
-      }
+    // the search skips the instance itself, for hold-one-out
+    // cross-validation, and gives the neighbours in the order of the
+    // training instances, so they are inserted as a scan would insert
+    // them
+    int [] neighbors = m_Search.kNearestNeighbours(instance, m_kNN);
+    double [] distances = m_Search.getDistances();
+    for (int i = 0; i < neighbors.length; i++) {
+      neighborlist.insertSorted(distances[i], m_Train.instance(neighbors[i]));
     }
 
     return neighborlist;
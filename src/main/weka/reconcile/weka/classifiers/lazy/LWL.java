@@ -28,10 +28,13 @@ import java.util.Vector;
 import reconcile.weka.classifiers.Evaluation;
 import reconcile.weka.classifiers.SingleClassifierEnhancer;
 import reconcile.weka.classifiers.UpdateableClassifier;
+import reconcile.weka.classifiers.lazy.neighboursearch.NearestNeighbourSearch;
+import reconcile.weka.classifiers.lazy.neighboursearch.NeighbourDistance;
 import reconcile.weka.core.Attribute;
 import reconcile.weka.core.Instance;
 import reconcile.weka.core.Instances;
 import reconcile.weka.core.Option;
+import reconcile.weka.core.SelectedTag;
 import reconcile.weka.core.UnsupportedAttributeTypeException;
 import reconcile.weka.core.Utils;
 import reconcile.weka.core.WeightedInstancesHandler;
@@ -74,6 +77,13 @@ import reconcile.weka.core.WeightedInstancesHandler;
  * Specify the full class name of a base classifier (which needs
  * to be a WeightedInstancesHandler).<p>
  *
+ * -search linear|kdtree|balltree <br>
+ * The nearest neighbour search. A tree only helps with a bandwidth
+ * of k neighbours and the linear, Epanechnikov, tricube or constant
+ * kernel, which weight no instance beyond the bandwidth: it then
+ * finds the weighted instances without computing the distance to
+ * every training instance. (default linear) <p>
+ *
  * @author Len Trigg (trigg@cs.waikato.ac.nz)
  * @author Eibe Frank (eibe@cs.waikato.ac.nz)
  * @author Ashraf M. Kibriya (amk14@waikato.ac.nz)
@@ -113,6 +123,47 @@ public class LWL extends SingleClassifierEnhancer
   protected static final int GAUSS        = 4;
   protected static final int CONSTANT     = 5;
 
+  /** The nearest neighbour search (one of the TAGS_SEARCH) */
+  protected int m_SearchType = NearestNeighbourSearch.LINEAR;
+
+  /** The search over the training instances */
+  protected NearestNeighbourSearch m_Search;
+
+  /*
+   * The distance of LWL, for the nearest neighbour search.
+   */
+  protected class Distance implements NeighbourDistance {
+
+    public double distance(Instance first, Instance second) {
+
+      return euclideanDistance(first, second, Math.sqrt(Double.MAX_VALUE));
+    }
+
+    public double difference(int index, double val1, double val2) {
+
+      return LWL.this.difference(index, val1, val2);
+    }
+
+    public double distanceFromSquares(double sumOfSquares) {
+
+      return Math.sqrt(sumOfSquares);
+    }
+
+    /**
+     * The test instance is included in the ranges of the attributes,
+     * so a missing value is at most the range from any value.
+     */
+    public boolean isMetric() {
+
+      return true;
+    }
+
+    public double metric(double distance) {
+
+      return distance;
+    }
+  }
+
   /**
    * Returns a string describing classifier
    * @return a description suitable for
@@ -155,7 +206,7 @@ public class LWL extends SingleClassifierEnhancer
   @Override
   public Enumeration listOptions() {
     
-    Vector newVector = new Vector(3);
+    Vector newVector = new Vector(4);
     newVector.addElement(new Option("\tDo not normalize numeric attributes' "
                                     +"values in distance calculation.\n"
                                     +"\t(default DO normalization)",
@@ -169,6 +220,12 @@ public class LWL extends SingleClassifierEnhancer
 				    +"\t2=Tricube, 3=Inverse, 4=Gaussian.\n"
 				    +"\t(default 0 = Linear)",
 				    "U", 1,"-U <number of weighting method>"));
+    newVector.addElement(new Option("\tThe nearest neighbour search: linear"
+				    +" (a scan of all the training\n"
+				    +"\tinstances), kdtree or balltree."
+				    +" (default linear)",
+				    "search", 1,
+				    "-search <linear|kdtree|balltree>"));
     
     Enumeration enu = super.listOptions();
     while (enu.hasMoreElements()) {
@@ -201,6 +258,9 @@ public class LWL extends SingleClassifierEnhancer
    * Specify the full class name of a base classifier (which needs
    * to be a WeightedInstancesHandler).<p>
    *
+   * -search linear|kdtree|balltree <br>
+   * The nearest neighbour search. (default linear) <p>
+   *
    * @param options the list of options as an array of strings
    * @exception Exception if an option is not supported
    */
@@ -221,6 +281,17 @@ public class LWL extends SingleClassifierEnhancer
       setWeightingKernel(LINEAR);
     }
     setDontNormalize(Utils.getFlag('N', options));
+    String searchString = Utils.getOption("search", options);
+    if (searchString.length() != 0) {
+      setNearestNeighbourSearch(new SelectedTag(NearestNeighbourSearch
+						.typeOf(searchString),
+						NearestNeighbourSearch
+						.TAGS_SEARCH));
+    } else {
+      setNearestNeighbourSearch(new SelectedTag(NearestNeighbourSearch.LINEAR,
+						NearestNeighbourSearch
+						.TAGS_SEARCH));
+    }
     super.setOptions(options);
   }
 
@@ -233,7 +304,7 @@ public class LWL extends SingleClassifierEnhancer
   public String [] getOptions() {
 
     String [] superOptions = super.getOptions();
-    String [] options = new String [superOptions.length + 5];
+    String [] options = new String [superOptions.length + 7];
 
     int current = 0;
 
@@ -246,6 +317,9 @@ public class LWL extends SingleClassifierEnhancer
     }
     else
       options[current++] = "";
+    options[current++] = "-search";
+    options[current++] = getNearestNeighbourSearch().getSelectedTag()
+      .getReadable();
 
     System.arraycopy(superOptions, 0, options, current,
                      superOptions.length);
@@ -366,6 +440,40 @@ public class LWL extends SingleClassifierEnhancer
       m_NoAttribNorm = normalize;
   }
 
+  /**
+   * Returns the tip text for this property
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String nearestNeighbourSearchTipText() {
+    return "How the neighbours are found: by a scan of all the training "+
+	   "instances, a KD-tree or a ball tree. The trees only help with a "+
+	   "bandwidth of k neighbours and a kernel that is 0 beyond it "+
+	   "(linear, Epanechnikov, tricube or constant).";
+  }
+
+  /**
+   * Gets the nearest neighbour search.
+   *
+   * @return the search, one of the TAGS_SEARCH
+   */
+  public SelectedTag getNearestNeighbourSearch() {
+
+    return new SelectedTag(m_SearchType, NearestNeighbourSearch.TAGS_SEARCH);
+  }
+
+  /**
+   * Sets the nearest neighbour search.
+   *
+   * @param newSearch the search, one of the TAGS_SEARCH
+   */
+  public void setNearestNeighbourSearch(SelectedTag newSearch) {
+
+    if (newSearch.getTags() == NearestNeighbourSearch.TAGS_SEARCH) {
+      m_SearchType = newSearch.getSelectedTag().getID();
+    }
+  }
+
   /**
    * Gets an attributes minimum observed value
    *
@@ -411,6 +519,8 @@ public class LWL extends SingleClassifierEnhancer
                                                   "attributes!");
     }
 
+    m_Search = null;
+
     // Throw away training instances with missing class
     m_Train = new Instances(instances, 0, instances.numInstances());
     m_Train.deleteWithMissingClass();
@@ -424,6 +534,9 @@ public class LWL extends SingleClassifierEnhancer
     for (int i = 0; i < m_Train.numInstances(); i++) {
       updateMinMax(m_Train.instance(i));
     }
+
+    m_Search = NearestNeighbourSearch.forType(m_SearchType);
+    m_Search.setInstances(m_Train, new Distance());
   }
 
   /**
@@ -441,6 +554,7 @@ public class LWL extends SingleClassifierEnhancer
     if (!instance.classIsMissing()) {
       updateMinMax(instance);
       m_Train.add(instance);
+      m_Search.addLast();
     }
   }
   
@@ -460,6 +574,24 @@ public class LWL extends SingleClassifierEnhancer
 
     updateMinMax(instance);
 
+    // A kernel that is 0 beyond the bandwidth of k neighbours only
+    // weights the instances within about the bandwidth, which a tree
+    // finds without computing the distance to every training instance
+    if ((m_SearchType != NearestNeighbourSearch.LINEAR) && !m_UseAllK
+	&& (m_kNN < m_Train.numInstances() - 1)
+	&& (m_WeightKernel != INVERSE) && (m_WeightKernel != GAUSS)) {
+      m_Search.kNearestNeighbours(instance, m_kNN);
+      double [] nearest = m_Search.getDistances();
+      double bandwidth = nearest[Utils.maxIndex(nearest)];
+      if (bandwidth > 0) {
+	// the linear kernel weights instances up to 1.0001 bandwidths away
+	int [] indices = m_Search.inRange(instance, 1.0002 * bandwidth);
+	double [] distance = m_Search.getDistances();
+	return weightedDistribution(instance, indices, distance,
+				    Utils.stableSort(distance), bandwidth);
+      }
+    }
+
     //Get the distances to each training instance
     double [] distance = new double [m_Train.numInstances()];
     MyHeap h;
@@ -523,6 +655,28 @@ public class LWL extends SingleClassifierEnhancer
                             "instance!");
       }
     }
+
+    return weightedDistribution(instance, null, distance, sortKey, bandwidth);
+  }
+
+  /**
+   * Weights the training instances by the kernel, builds the base
+   * classifier on them and returns its prediction for the test
+   * instance.
+   *
+   * @param instance the instance to be classified
+   * @param indices the indices of the training instances the distances
+   * are of, or null if they are of all the training instances
+   * @param distance the distances to the test instance (changed into
+   * the weights)
+   * @param sortKey the order of the distances
+   * @param bandwidth the bandwidth of the kernel
+   * @return predicted class probability distribution
+   * @exception Exception if distribution can't be computed successfully
+   */
+  protected double [] weightedDistribution(Instance instance, int [] indices,
+					   double [] distance, int [] sortKey,
+					   double bandwidth) throws Exception {
     
     // Rescale the distances by the bandwidth
     for (int i = 0; i < distance.length; i++) {
@@ -578,7 +732,10 @@ public class LWL extends SingleClassifierEnhancer
       if (weight < 1e-20) {
 	break;
       }
-      Instance newInst = (Instance) m_Train.instance(sortKey[i]).copy();
+      Instance newInst = (Instance) m_Train.instance((indices == null) 
+						     ? sortKey[i]
+						     : indices[sortKey[i]])
+	.copy();
       sumOfWeights += newInst.weight();
       newSumOfWeights += newInst.weight() * weight;
       newInst.setWeight((float)(newInst.weight() * weight));
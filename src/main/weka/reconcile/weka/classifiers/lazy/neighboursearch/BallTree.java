@@ -0,0 +1,393 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    BallTree.java
+ *
+ */
+
+package reconcile.weka.classifiers.lazy.neighboursearch;
+
+import java.io.Serializable;
+
+import reconcile.weka.core.Instance;
+
+/**
+ * Finds the nearest neighbours with a ball tree. Each node is a ball
+ * around one of the instances, its pivot, whose radius is the largest
+ * metric between the pivot and an instance in the node; a node is
+ * split by the two instances furthest apart (roughly), each instance
+ * going to the nearer one. Unlike a KD-tree it uses every attribute,
+ * nominal ones included, but it needs the triangle inequality.<p>
+ *
+ * A node is skipped if the metric to its pivot minus its radius is
+ * more than the metric of the kth nearest neighbour found so far,
+ * with a margin for rounding errors, so the tree finds the same
+ * neighbours as a linear scan. If the distance isn't a metric the
+ * tree is a single leaf, which is a linear scan.<p>
+ *
+ * The radii depend on the distance: when it changes (e.g. a new
+ * instance widens the range of an attribute) they are computed again
+ * before the next search, which takes about as long as a few linear
+ * scans.
+ *
+ * @author ves
+ * @version $Revision: 1.1 $
+ */
+public class BallTree extends NearestNeighbourSearch {
+
+  /** The margin for rounding errors, relative to the metrics compared */
+  protected static final double SLACK = 1e-9;
+
+  /** The largest number of instances in a leaf when the tree is built */
+  protected int m_MaxLeafSize = 40;
+
+  /** The root of the tree */
+  protected Node m_Root;
+
+  /** True if the radii have to be computed again */
+  protected boolean m_RadiiStale = false;
+
+  /**
+   * A node of the tree: an inner node or a leaf with the indices of
+   * its instances.
+   */
+  protected class Node implements Serializable {
+
+    /** The centre of the ball */
+    protected Instance m_Pivot;
+
+    /** The largest metric between the pivot and an instance below */
+    protected double m_Radius = 0;
+
+    /** The children, null for a leaf */
+    protected Node m_Left;
+
+    protected Node m_Right;
+
+    /** The instances of a leaf */
+    protected int [] m_Indices;
+
+    protected int m_NumIndices;
+  }
+
+  /**
+   * Builds the tree.
+   */
+  protected void build() {
+
+    int [] indices = new int [m_Instances.numInstances()];
+    for (int i = 0; i < indices.length; i++) {
+      indices[i] = i;
+    }
+    m_Root = makeLeaf(indices, 0, indices.length,
+		      (indices.length == 0) ? null : m_Instances.instance(0));
+    m_RadiiStale = false;
+  }
+
+  /**
+   * Tells the search that the distance has changed: the radii are
+   * computed again before the next search.
+   */
+  public void distanceChanged() {
+
+    m_RadiiStale = true;
+  }
+
+  /**
+   * Calculates the metric between two instances.
+   *
+   * @param first the first instance
+   * @param second the second instance
+   * @return the metric
+   */
+  protected double metric(Instance first, Instance second) {
+
+    return m_Distance.metric(m_Distance.distance(first, second));
+  }
+
+  /**
+   * Makes a leaf of some instances, and splits it if it is too big.
+   *
+   * @param indices the indices of the instances
+   * @param from the first index
+   * @param to one more than the last index
+   * @param pivot the centre of the leaf
+   * @return the node
+   */
+  protected Node makeLeaf(int [] indices, int from, int to, Instance pivot) {
+
+    Node node = new Node();
+    node.m_Pivot = pivot;
+    node.m_NumIndices = to - from;
+    node.m_Indices = new int [Math.max(node.m_NumIndices, 1)];
+    System.arraycopy(indices, from, node.m_Indices, 0, node.m_NumIndices);
+    for (int i = 0; i < node.m_NumIndices; i++) {
+      double metric = metric(pivot, m_Instances.instance(node.m_Indices[i]));
+      if (metric > node.m_Radius) {
+	node.m_Radius = metric;
+      }
+    }
+    if (node.m_NumIndices > m_MaxLeafSize) {
+      split(node);
+    }
+    return node;
+  }
+
+  /**
+   * Splits a leaf: the instance furthest from the pivot and the one
+   * furthest from it become the pivots of the children. The leaf is
+   * left as it is if the distance isn't a metric or all its instances
+   * go to the same child.
+   *
+   * @param node the leaf
+   * @return true if the leaf was split
+   */
+  protected boolean split(Node node) {
+
+    if (!m_Distance.isMetric() || (node.m_NumIndices < 2)) {
+      return false;
+    }
+    Instance first = furthest(node, node.m_Pivot);
+    Instance second = furthest(node, first);
+
+    int [] indices = new int [node.m_NumIndices];
+    int numLeft = 0, numRight = indices.length;
+    for (int i = 0; i < node.m_NumIndices; i++) {
+      int index = node.m_Indices[i];
+      Instance instance = m_Instances.instance(index);
+      if (metric(first, instance) <= metric(second, instance)) {
+	indices[numLeft++] = index;
+      } else {
+	indices[--numRight] = index;
+      }
+    }
+    if ((numLeft == 0) || (numLeft == indices.length)) {
+      return false;
+    }
+    // keep the right instances in the order of the dataset
+    for (int i = numRight, j = indices.length - 1; i < j; i++, j--) {
+      int help = indices[i];
+      indices[i] = indices[j];
+      indices[j] = help;
+    }
+    node.m_Left = makeLeaf(indices, 0, numLeft, first);
+    node.m_Right = makeLeaf(indices, numLeft, indices.length, second);
+    node.m_Indices = null;
+    node.m_NumIndices = 0;
+    return true;
+  }
+
+  /**
+   * Finds the instance of a leaf furthest from an instance.
+   *
+   * @param node the leaf
+   * @param from the instance
+   * @return the instance furthest from it
+   */
+  protected Instance furthest(Node node, Instance from) {
+
+    Instance result = m_Instances.instance(node.m_Indices[0]);
+    double max = -1;
+    for (int i = 0; i < node.m_NumIndices; i++) {
+      Instance instance = m_Instances.instance(node.m_Indices[i]);
+      double metric = metric(from, instance);
+      if (metric > max) {
+	max = metric;
+	result = instance;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Adds the last instance of the dataset to the search: to the leaf
+   * with the nearest pivot at each level, which is split when it gets
+   * too big.
+   */
+  public void addLast() {
+
+    int index = m_Instances.numInstances() - 1;
+    Instance instance = m_Instances.instance(index);
+    if (m_Root.m_Pivot == null) {
+      m_Root.m_Pivot = instance;
+    }
+    Node node = descend(m_Root, instance);
+    if (node.m_NumIndices == node.m_Indices.length) {
+      if ((node.m_NumIndices >= 2 * m_MaxLeafSize) && split(node)) {
+	node = descend(node, instance);
+      }
+      if (node.m_NumIndices == node.m_Indices.length) {
+	int [] indices = new int [2 * node.m_Indices.length];
+	System.arraycopy(node.m_Indices, 0, indices, 0, node.m_NumIndices);
+	node.m_Indices = indices;
+      }
+    }
+    node.m_Indices[node.m_NumIndices++] = index;
+  }
+
+  /**
+   * Finds the leaf below a node whose pivots are nearest to an
+   * instance, and extends the balls on the way to the instance.
+   *
+   * @param node the node
+   * @param instance the instance
+   * @return the leaf
+   */
+  protected Node descend(Node node, Instance instance) {
+
+    double metric = metric(node.m_Pivot, instance);
+    while (true) {
+      if (metric > node.m_Radius) {
+	node.m_Radius = metric;
+      }
+      if (node.m_Left == null) {
+	return node;
+      }
+      double left = metric(node.m_Left.m_Pivot, instance);
+      double right = metric(node.m_Right.m_Pivot, instance);
+      if (left <= right) {
+	node = node.m_Left;
+	metric = left;
+      } else {
+	node = node.m_Right;
+	metric = right;
+      }
+    }
+  }
+
+  /**
+   * Removes the first instance of the dataset from the search. The
+   * radii of the nodes it was in aren't shrunk.
+   */
+  public void removeFirst() {
+
+    removeFirst(m_Root);
+  }
+
+  /**
+   * Removes the first instance from the leaves below a node and
+   * shifts the other indices down.
+   *
+   * @param node the node
+   */
+  protected void removeFirst(Node node) {
+
+    if (node.m_Left != null) {
+      removeFirst(node.m_Left);
+      removeFirst(node.m_Right);
+      return;
+    }
+    int num = 0;
+    for (int i = 0; i < node.m_NumIndices; i++) {
+      if (node.m_Indices[i] != 0) {
+	node.m_Indices[num++] = node.m_Indices[i] - 1;
+      }
+    }
+    node.m_NumIndices = num;
+  }
+
+  /**
+   * Computes the radii of a node and the nodes below it again.
+   *
+   * @param node the node
+   */
+  protected void computeRadii(Node node) {
+
+    node.m_Radius = 0;
+    extendRadius(node, node);
+    if (node.m_Left != null) {
+      computeRadii(node.m_Left);
+      computeRadii(node.m_Right);
+    }
+  }
+
+  /**
+   * Extends the radius of a node to the instances below another.
+   *
+   * @param node the node whose radius is extended
+   * @param below the node below it
+   */
+  protected void extendRadius(Node node, Node below) {
+
+    if (below.m_Left != null) {
+      extendRadius(node, below.m_Left);
+      extendRadius(node, below.m_Right);
+      return;
+    }
+    for (int i = 0; i < below.m_NumIndices; i++) {
+      double metric = metric(node.m_Pivot,
+			     m_Instances.instance(below.m_Indices[i]));
+      if (metric > node.m_Radius) {
+	node.m_Radius = metric;
+      }
+    }
+  }
+
+  /**
+   * Gives the instances of the leaves whose balls are near enough to
+   * the collector, nearest ball first.
+   *
+   * @param target the target
+   * @param neighbours the collector
+   */
+  protected void search(Instance target, Neighbours neighbours) {
+
+    if (m_Root.m_Pivot == null) {
+      return;
+    }
+    if (m_RadiiStale) {
+      computeRadii(m_Root);
+      m_RadiiStale = false;
+    }
+    search(m_Root, metric(target, m_Root.m_Pivot), target, neighbours);
+  }
+
+  /**
+   * Searches below a node.
+   *
+   * @param node the node
+   * @param metric the metric between the target and the node's pivot
+   * @param target the target
+   * @param neighbours the collector
+   */
+  protected void search(Node node, double metric, Instance target,
+			Neighbours neighbours) {
+
+    double radius = m_Distance.metric(neighbours.radius());
+    if (m_Distance.isMetric() && (metric - node.m_Radius
+				  > radius + SLACK * (metric + node.m_Radius
+						      + radius))) {
+      return;
+    }
+    if (node.m_Left == null) {
+      for (int i = 0; i < node.m_NumIndices; i++) {
+	int index = node.m_Indices[i];
+	neighbours.add(index, distance(target, m_Instances.instance(index)));
+      }
+      return;
+    }
+    double left = metric(target, node.m_Left.m_Pivot);
+    double right = metric(target, node.m_Right.m_Pivot);
+    if (left - node.m_Left.m_Radius <= right - node.m_Right.m_Radius) {
+      search(node.m_Left, left, target, neighbours);
+      search(node.m_Right, right, target, neighbours);
+    } else {
+      search(node.m_Right, right, target, neighbours);
+      search(node.m_Left, left, target, neighbours);
+    }
+  }
+}
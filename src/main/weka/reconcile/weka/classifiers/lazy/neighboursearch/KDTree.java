@@ -0,0 +1,419 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    KDTree.java
+ *
+ */
+
+package reconcile.weka.classifiers.lazy.neighboursearch;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import reconcile.weka.core.Instance;
+
+/**
+ * Finds the nearest neighbours with a KD-tree over the numeric
+ * attributes. Each node splits its instances at the median of the
+ * attribute whose values spread most, and keeps the smallest and
+ * largest value of every numeric attribute in it (and whether any
+ * value is missing), in the units of the data, so that the tree stays
+ * valid when the normalization of the distance changes.<p>
+ *
+ * A node is skipped if the distance to its box is more than the
+ * distance of the kth nearest neighbour found so far. The distance to
+ * the box adds up the differences to the nearest end of the box the
+ * same way as the distance adds up the differences to an instance,
+ * and it is never more than the distance to any instance in the node,
+ * not even by a rounding error, so the tree finds the same neighbours
+ * as a linear scan. Nominal attributes don't bound the distance: the
+ * tree only helps if most of the distance comes from numeric
+ * attributes, and there are few of them.
+ *
+ * @author ves
+ * @version $Revision: 1.1 $
+ */
+public class KDTree extends NearestNeighbourSearch {
+
+  /** The largest number of instances in a leaf when the tree is built */
+  protected int m_MaxLeafSize = 40;
+
+  /** The attributes split on: the numeric ones but the class */
+  protected int [] m_Dims;
+
+  /** The root of the tree */
+  protected Node m_Root;
+
+  /**
+   * A node of the tree: an inner node or a leaf with the indices of
+   * its instances.
+   */
+  protected class Node implements Serializable {
+
+    /**
+     * The smallest and largest known value of each attribute split on
+     * (the smallest is more than the largest if none is known)
+     */
+    protected double [] m_Lo;
+
+    protected double [] m_Hi;
+
+    /** True for the attributes with a missing value in the node */
+    protected boolean [] m_Missing;
+
+    /** The attribute split on (index into m_Dims), or -1 for a leaf */
+    protected int m_Split = -1;
+
+    /** Known values up to this go left, the others right */
+    protected double m_SplitValue;
+
+    protected Node m_Left;
+
+    protected Node m_Right;
+
+    /** The instances of a leaf */
+    protected int [] m_Indices;
+
+    protected int m_NumIndices;
+
+    /**
+     * Creates an empty leaf.
+     */
+    public Node() {
+
+      m_Lo = new double [m_Dims.length];
+      m_Hi = new double [m_Dims.length];
+      m_Missing = new boolean [m_Dims.length];
+      Arrays.fill(m_Lo, Double.POSITIVE_INFINITY);
+      Arrays.fill(m_Hi, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Extends the box of the node to an instance.
+     *
+     * @param instance the instance
+     */
+    public void include(Instance instance) {
+
+      for (int d = 0; d < m_Dims.length; d++) {
+	double value = instance.value(m_Dims[d]);
+	if (Instance.isMissingValue(value)) {
+	  m_Missing[d] = true;
+	} else {
+	  if (value < m_Lo[d]) {
+	    m_Lo[d] = value;
+	  }
+	  if (value > m_Hi[d]) {
+	    m_Hi[d] = value;
+	  }
+	}
+      }
+    }
+  }
+
+  /**
+   * Builds the tree.
+   */
+  protected void build() {
+
+    int numDims = 0;
+    int [] dims = new int [m_Instances.numAttributes()];
+    for (int j = 0; j < m_Instances.numAttributes(); j++) {
+      if ((j != m_Instances.classIndex())
+	  && m_Instances.attribute(j).isNumeric()) {
+	dims[numDims++] = j;
+      }
+    }
+    m_Dims = new int [numDims];
+    System.arraycopy(dims, 0, m_Dims, 0, numDims);
+
+    int [] indices = new int [m_Instances.numInstances()];
+    for (int i = 0; i < indices.length; i++) {
+      indices[i] = i;
+    }
+    m_Root = makeLeaf(indices, 0, indices.length);
+  }
+
+  /**
+   * Makes a leaf of some instances, and splits it if it is too big.
+   *
+   * @param indices the indices of the instances
+   * @param from the first index
+   * @param to one more than the last index
+   * @return the node
+   */
+  protected Node makeLeaf(int [] indices, int from, int to) {
+
+    Node node = new Node();
+    node.m_NumIndices = to - from;
+    node.m_Indices = new int [Math.max(node.m_NumIndices, 1)];
+    System.arraycopy(indices, from, node.m_Indices, 0, node.m_NumIndices);
+    for (int i = 0; i < node.m_NumIndices; i++) {
+      node.include(m_Instances.instance(node.m_Indices[i]));
+    }
+    if (node.m_NumIndices > m_MaxLeafSize) {
+      split(node);
+    }
+    return node;
+  }
+
+  /**
+   * Splits a leaf at the median of the attribute whose values spread
+   * most. The leaf is left as it is if no attribute spreads.
+   *
+   * @param node the leaf
+   * @return true if the leaf was split
+   */
+  protected boolean split(Node node) {
+
+    // the box of the instances in the leaf now (the node's box may be
+    // bigger if instances were removed)
+    Node box = new Node();
+    for (int i = 0; i < node.m_NumIndices; i++) {
+      box.include(m_Instances.instance(node.m_Indices[i]));
+    }
+    int split = -1;
+    double width = 0;
+    for (int d = 0; d < m_Dims.length; d++) {
+      if (box.m_Lo[d] < box.m_Hi[d]) {
+	double w = Math.abs(m_Distance.difference(m_Dims[d], box.m_Hi[d],
+						  box.m_Lo[d]));
+	if (w > width) {
+	  split = d;
+	  width = w;
+	}
+      }
+    }
+    if (split < 0) {
+      return false;
+    }
+
+    int att = m_Dims[split];
+    double [] values = new double [node.m_NumIndices];
+    int numKnown = 0;
+    for (int i = 0; i < node.m_NumIndices; i++) {
+      double value = m_Instances.instance(node.m_Indices[i]).value(att);
+      if (!Instance.isMissingValue(value)) {
+	values[numKnown++] = value;
+      }
+    }
+    Arrays.sort(values, 0, numKnown);
+    int median = numKnown / 2;
+    while ((median > 0) && (values[median] == values[numKnown - 1])) {
+      median--;
+    }
+    double splitValue = values[median];
+
+    int [] indices = new int [node.m_NumIndices];
+    int numLeft = 0, numRight = indices.length;
+    for (int i = 0; i < node.m_NumIndices; i++) {
+      int index = node.m_Indices[i];
+      double value = m_Instances.instance(index).value(att);
+      if (!Instance.isMissingValue(value) && (value <= splitValue)) {
+	indices[numLeft++] = index;
+      } else {
+	indices[--numRight] = index;
+      }
+    }
+    // keep the right instances in the order of the dataset
+    for (int i = numRight, j = indices.length - 1; i < j; i++, j--) {
+      int help = indices[i];
+      indices[i] = indices[j];
+      indices[j] = help;
+    }
+    node.m_Split = split;
+    node.m_SplitValue = splitValue;
+    node.m_Left = makeLeaf(indices, 0, numLeft);
+    node.m_Right = makeLeaf(indices, numLeft, indices.length);
+    node.m_Indices = null;
+    node.m_NumIndices = 0;
+    return true;
+  }
+
+  /**
+   * Adds the last instance of the dataset to the search: to the leaf
+   * its values lead to, which is split when it gets too big.
+   */
+  public void addLast() {
+
+    int index = m_Instances.numInstances() - 1;
+    Instance instance = m_Instances.instance(index);
+    Node node = descend(m_Root, instance);
+    if (node.m_NumIndices == node.m_Indices.length) {
+      if ((node.m_NumIndices >= 2 * m_MaxLeafSize) && split(node)) {
+	node = descend(node, instance);
+      }
+      if (node.m_NumIndices == node.m_Indices.length) {
+	int [] indices = new int [2 * node.m_Indices.length];
+	System.arraycopy(node.m_Indices, 0, indices, 0, node.m_NumIndices);
+	node.m_Indices = indices;
+      }
+    }
+    node.m_Indices[node.m_NumIndices++] = index;
+  }
+
+  /**
+   * Finds the leaf below a node that an instance's values lead to,
+   * and extends the boxes on the way to the instance.
+   *
+   * @param node the node
+   * @param instance the instance
+   * @return the leaf
+   */
+  protected Node descend(Node node, Instance instance) {
+
+    while (true) {
+      node.include(instance);
+      if (node.m_Split < 0) {
+	return node;
+      }
+      double value = instance.value(m_Dims[node.m_Split]);
+      if (!Instance.isMissingValue(value) && (value <= node.m_SplitValue)) {
+	node = node.m_Left;
+      } else {
+	node = node.m_Right;
+      }
+    }
+  }
+
+  /**
+   * Removes the first instance of the dataset from the search. The
+   * boxes of the nodes it was in aren't shrunk.
+   */
+  public void removeFirst() {
+
+    removeFirst(m_Root);
+  }
+
+  /**
+   * Removes the first instance from the leaves below a node and
+   * shifts the other indices down.
+   *
+   * @param node the node
+   */
+  protected void removeFirst(Node node) {
+
+    if (node.m_Split >= 0) {
+      removeFirst(node.m_Left);
+      removeFirst(node.m_Right);
+      return;
+    }
+    int num = 0;
+    for (int i = 0; i < node.m_NumIndices; i++) {
+      if (node.m_Indices[i] != 0) {
+	node.m_Indices[num++] = node.m_Indices[i] - 1;
+      }
+    }
+    node.m_NumIndices = num;
+  }
+
+  /**
+   * Gives the instances of the leaves whose boxes are near enough to
+   * the collector, nearest box first.
+   *
+   * @param target the target
+   * @param neighbours the collector
+   */
+  protected void search(Instance target, Neighbours neighbours) {
+
+    double [] values = new double [m_Dims.length];
+    double [] missing = new double [m_Dims.length];
+    for (int d = 0; d < m_Dims.length; d++) {
+      values[d] = target.value(m_Dims[d]);
+      missing[d] = Math.abs(m_Distance.difference(m_Dims[d], values[d],
+						  Instance.missingValue()));
+    }
+    search(m_Root, bound(m_Root, values, missing), target, values, missing,
+	   neighbours);
+  }
+
+  /**
+   * Searches below a node.
+   *
+   * @param node the node
+   * @param bound the distance to the node's box
+   * @param target the target
+   * @param values the target's values of the attributes split on
+   * @param missing the difference between each of them and a missing value
+   * @param neighbours the collector
+   */
+  protected void search(Node node, double bound, Instance target,
+			double [] values, double [] missing,
+			Neighbours neighbours) {
+
+    if (bound > neighbours.radius()) {
+      return;
+    }
+    if (node.m_Split < 0) {
+      for (int i = 0; i < node.m_NumIndices; i++) {
+	int index = node.m_Indices[i];
+	neighbours.add(index, distance(target, m_Instances.instance(index)));
+      }
+      return;
+    }
+    double left = bound(node.m_Left, values, missing);
+    double right = bound(node.m_Right, values, missing);
+    if (left <= right) {
+      search(node.m_Left, left, target, values, missing, neighbours);
+      search(node.m_Right, right, target, values, missing, neighbours);
+    } else {
+      search(node.m_Right, right, target, values, missing, neighbours);
+      search(node.m_Left, left, target, values, missing, neighbours);
+    }
+  }
+
+  /**
+   * Calculates the distance between the target and a node's box: for
+   * each attribute split on, the difference between the target's
+   * value and the nearest end of the box, or a missing value if it is
+   * nearer. The other attributes add nothing.
+   *
+   * @param node the node
+   * @param values the target's values of the attributes split on
+   * @param missing the difference between each of them and a missing value
+   * @return the distance
+   */
+  protected double bound(Node node, double [] values, double [] missing) {
+
+    double sum = 0;
+    for (int d = 0; d < m_Dims.length; d++) {
+      double value = values[d];
+      if (Instance.isMissingValue(value)) {
+	continue;
+      }
+      double diff;
+      if (node.m_Lo[d] > node.m_Hi[d]) {
+	diff = missing[d];
+      } else {
+	if (value < node.m_Lo[d]) {
+	  diff = Math.abs(m_Distance.difference(m_Dims[d], value,
+						node.m_Lo[d]));
+	} else if (value > node.m_Hi[d]) {
+	  diff = Math.abs(m_Distance.difference(m_Dims[d], value,
+						node.m_Hi[d]));
+	} else {
+	  continue;
+	}
+	if (node.m_Missing[d] && (missing[d] < diff)) {
+	  diff = missing[d];
+	}
+      }
+      sum += diff * diff;
+    }
+    return m_Distance.distanceFromSquares(sum);
+  }
+}
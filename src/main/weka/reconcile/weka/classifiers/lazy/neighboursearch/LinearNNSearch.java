@@ -0,0 +1,66 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    LinearNNSearch.java
+ *
+ */
+
+package reconcile.weka.classifiers.lazy.neighboursearch;
+
+import reconcile.weka.core.Instance;
+
+/**
+ * Finds the nearest neighbours by computing the distance to every
+ * instance.
+ *
+ * @author ves
+ * @version $Revision: 1.1 $
+ */
+public class LinearNNSearch extends NearestNeighbourSearch {
+
+  /**
+   * Builds the search: there is nothing to build.
+   */
+  protected void build() {
+  }
+
+  /**
+   * Adds the last instance of the dataset to the search.
+   */
+  public void addLast() {
+  }
+
+  /**
+   * Removes the first instance of the dataset from the search.
+   */
+  public void removeFirst() {
+  }
+
+  /**
+   * Gives every instance to the collector.
+   *
+   * @param target the target
+   * @param neighbours the collector
+   */
+  protected void search(Instance target, Neighbours neighbours) {
+
+    int numInstances = m_Instances.numInstances();
+    for (int i = 0; i < numInstances; i++) {
+      neighbours.add(i, distance(target, m_Instances.instance(i)));
+    }
+  }
+}
@@ -0,0 +1,505 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    NearestNeighbourSearch.java
+ *
+ */
+
+package reconcile.weka.classifiers.lazy.neighboursearch;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.Random;
+
+import reconcile.weka.classifiers.lazy.IBk;
+import reconcile.weka.core.Attribute;
+import reconcile.weka.core.FastVector;
+import reconcile.weka.core.Instance;
+import reconcile.weka.core.Instances;
+import reconcile.weka.core.SelectedTag;
+import reconcile.weka.core.Tag;
+import reconcile.weka.core.Utils;
+
+/**
+ * Abstract class for finding the nearest neighbours of an instance
+ * among the instances of a dataset. A search returns every instance
+ * whose distance is at most the distance of the kth nearest one, so
+ * instances tied with the kth are all included, in the order of the
+ * dataset: the same instances a scan of the whole dataset finds, with
+ * the same distances, whichever search is used.<p>
+ *
+ * A search keeps the dataset it is given, and has to be told about
+ * the changes made to it (addLast() and removeFirst()), and about
+ * changes of the distance (distanceChanged(), e.g. when the ranges
+ * the attributes are normalized by grow).<p>
+ *
+ * @author ves
+ * @version $Revision: 1.1 $
+ */
+public abstract class NearestNeighbourSearch implements Serializable {
+
+  /** The searches */
+  public static final int LINEAR = 0;
+  public static final int KDTREE = 1;
+  public static final int BALLTREE = 2;
+  public static final Tag [] TAGS_SEARCH = {
+    new Tag(LINEAR, "linear"),
+    new Tag(KDTREE, "kdtree"),
+    new Tag(BALLTREE, "balltree")
+  };
+
+  /** The instances searched */
+  protected Instances m_Instances;
+
+  /** The distance the neighbours are found by */
+  protected NeighbourDistance m_Distance;
+
+  /** True if the target of a search is never its own neighbour */
+  protected boolean m_SkipTarget = false;
+
+  /** The distances of the neighbours found last */
+  protected double [] m_LastDistances;
+
+  /**
+   * Creates a search of the given type.
+   *
+   * @param type LINEAR, KDTREE or BALLTREE
+   * @return the search
+   */
+  public static NearestNeighbourSearch forType(int type) {
+
+    switch (type) {
+    case KDTREE:
+      return new KDTree();
+    case BALLTREE:
+      return new BallTree();
+    default:
+      return new LinearNNSearch();
+    }
+  }
+
+  /**
+   * Gets the type of a search from its name (as in TAGS_SEARCH).
+   *
+   * @param name the name of the search
+   * @return LINEAR, KDTREE or BALLTREE
+   * @exception Exception if there is no search of that name
+   */
+  public static int typeOf(String name) throws Exception {
+
+    for (int i = 0; i < TAGS_SEARCH.length; i++) {
+      if (TAGS_SEARCH[i].getReadable().equalsIgnoreCase(name)) {
+	return TAGS_SEARCH[i].getID();
+      }
+    }
+    throw new Exception("Unknown nearest neighbour search " + name);
+  }
+
+  /**
+   * Sets whether the target of a search is skipped if it is one of
+   * the instances searched (the same object), as in hold-one-out
+   * cross-validation.
+   *
+   * @param skip true if the target is skipped
+   */
+  public void setSkipTarget(boolean skip) {
+
+    m_SkipTarget = skip;
+  }
+
+  /**
+   * Sets the instances to search and builds the search.
+   *
+   * @param instances the instances
+   * @param distance the distance the neighbours are found by
+   */
+  public void setInstances(Instances instances, NeighbourDistance distance) {
+
+    m_Instances = instances;
+    m_Distance = distance;
+    build();
+  }
+
+  /**
+   * Builds the search for m_Instances.
+   */
+  protected abstract void build();
+
+  /**
+   * Adds the last instance of the dataset to the search. Called after
+   * an instance is added to the dataset.
+   */
+  public abstract void addLast();
+
+  /**
+   * Removes the first instance of the dataset from the search. Called
+   * before it is deleted from the dataset.
+   */
+  public abstract void removeFirst();
+
+  /**
+   * Tells the search that the distance has changed.
+   */
+  public void distanceChanged() {
+  }
+
+  /**
+   * Finds the neighbours of a target: gives every instance that can
+   * be one to the collector.
+   *
+   * @param target the target
+   * @param neighbours the collector
+   */
+  protected abstract void search(Instance target, Neighbours neighbours);
+
+  /**
+   * Finds the k nearest neighbours of a target, and all the instances
+   * as near as the kth.
+   *
+   * @param target the target
+   * @param k the number of neighbours
+   * @return the indices of the neighbours, in increasing order
+   */
+  public int [] kNearestNeighbours(Instance target, int k) {
+
+    Neighbours neighbours = new Neighbours(Math.max(k, 1),
+					   Double.POSITIVE_INFINITY);
+    search(target, neighbours);
+    return neighbours.result();
+  }
+
+  /**
+   * Finds the instances within a distance of a target.
+   *
+   * @param target the target
+   * @param radius the largest distance of the instances found
+   * @return the indices of the instances, in increasing order
+   */
+  public int [] inRange(Instance target, double radius) {
+
+    Neighbours neighbours = new Neighbours(0, radius);
+    search(target, neighbours);
+    return neighbours.result();
+  }
+
+  /**
+   * Gets the distances of the neighbours found last.
+   *
+   * @return the distances, in the order of the neighbours
+   */
+  public double [] getDistances() {
+
+    return m_LastDistances;
+  }
+
+  /**
+   * Calculates the distance between a target and an instance
+   * searched, or returns NaN if the instance is the target and it is
+   * skipped.
+   *
+   * @param target the target
+   * @param instance the instance
+   * @return the distance
+   */
+  protected double distance(Instance target, Instance instance) {
+
+    if (m_SkipTarget && (target == instance)) {
+      return Double.NaN;
+    }
+    return m_Distance.distance(target, instance);
+  }
+
+  /**
+   * Collects the neighbours found by a search. The k smallest
+   * distances seen are kept in a heap, whose top bounds the distance
+   * of the neighbours, and the instances within the bound when they
+   * were seen are the candidates.
+   */
+  protected class Neighbours {
+
+    /** The number of neighbours, or 0 for all within m_Radius */
+    protected int m_K;
+
+    /** The bound on the distance of the neighbours */
+    protected double m_Radius;
+
+    /** The largest of the k smallest distances on top */
+    protected double [] m_Heap;
+
+    protected int m_HeapSize = 0;
+
+    /** The candidates */
+    protected int [] m_Indices = new int [16];
+
+    protected double [] m_Candidates = new double [16];
+
+    protected int m_NumCandidates = 0;
+
+    /**
+     * Creates a collector.
+     *
+     * @param k the number of neighbours, or 0 for all within radius
+     * @param radius the bound on the distance of the neighbours
+     */
+    public Neighbours(int k, double radius) {
+
+      m_K = k;
+      m_Radius = radius;
+      m_Heap = new double [k];
+    }
+
+    /**
+     * Gets the bound on the distance of the neighbours: instances
+     * further than it aren't neighbours.
+     *
+     * @return the bound
+     */
+    public double radius() {
+
+      return m_Radius;
+    }
+
+    /**
+     * Adds an instance as a candidate if it is within the bound.
+     *
+     * @param index the index of the instance
+     * @param distance its distance to the target, NaN to skip it
+     */
+    public void add(int index, double distance) {
+
+      if (!(distance <= m_Radius)) {
+	return;
+      }
+      if (m_NumCandidates == m_Indices.length) {
+	int [] indices = new int [2 * m_Indices.length];
+	double [] candidates = new double [indices.length];
+	System.arraycopy(m_Indices, 0, indices, 0, m_NumCandidates);
+	System.arraycopy(m_Candidates, 0, candidates, 0, m_NumCandidates);
+	m_Indices = indices;
+	m_Candidates = candidates;
+      }
+      m_Indices[m_NumCandidates] = index;
+      m_Candidates[m_NumCandidates++] = distance;
+      if (m_K == 0) {
+	return;
+      }
+      int i;
+      if (m_HeapSize < m_K) {
+	i = m_HeapSize++;
+	while ((i > 0) && (m_Heap[(i - 1) / 2] < distance)) {
+	  m_Heap[i] = m_Heap[(i - 1) / 2];
+	  i = (i - 1) / 2;
+	}
+	m_Heap[i] = distance;
+      } else if (distance < m_Heap[0]) {
+	i = 0;
+	while (2 * i + 1 < m_HeapSize) {
+	  int child = 2 * i + 1;
+	  if ((child + 1 < m_HeapSize) && (m_Heap[child + 1] > m_Heap[child])) {
+	    child++;
+	  }
+	  if (m_Heap[child] <= distance) {
+	    break;
+	  }
+	  m_Heap[i] = m_Heap[child];
+	  i = child;
+	}
+	m_Heap[i] = distance;
+      }
+      if (m_HeapSize == m_K) {
+	m_Radius = m_Heap[0];
+      }
+    }
+
+    /**
+     * Gets the candidates within the final bound, in increasing order
+     * of their indices, and sets m_LastDistances to their distances.
+     *
+     * @return the indices of the neighbours
+     */
+    public int [] result() {
+
+      int [] indices = new int [m_NumCandidates];
+      int num = 0;
+      for (int i = 0; i < m_NumCandidates; i++) {
+	if (m_Candidates[i] <= m_Radius) {
+	  indices[num++] = i;
+	}
+      }
+      int [] keys = new int [num];
+      for (int i = 0; i < num; i++) {
+	keys[i] = m_Indices[indices[i]];
+      }
+      int [] order = Utils.sort(keys);
+      int [] result = new int [num];
+      double [] distances = new double [num];
+      for (int i = 0; i < num; i++) {
+	result[i] = keys[order[i]];
+	distances[i] = m_Candidates[indices[order[i]]];
+      }
+      m_LastDistances = distances;
+      return result;
+    }
+  }
+
+  /**
+   * Compares the searches on a dataset: builds IBk with each of them,
+   * checks that they predict the same for the query instances, and
+   * prints the time taken by a query.<p>
+   *
+   * Valid options are:<p>
+   *
+   * -t file <br>
+   * The dataset (the class is the last attribute). The query
+   * instances are drawn from it. (default a random dataset)<p>
+   *
+   * -N num <br>
+   * The number of instances of the random dataset. (default 100000)<p>
+   *
+   * -A num <br>
+   * The number of numeric attributes of the random dataset.
+   * (default 4)<p>
+   *
+   * -Q num <br>
+   * The number of query instances. (default 200)<p>
+   *
+   * -K num <br>
+   * The number of neighbours. (default 10)<p>
+   *
+   * -S num <br>
+   * The random number seed. (default 1)<p>
+   */
+  public static void main(String [] args) {
+
+    try {
+      String fileName = Utils.getOption('t', args);
+      String numString = Utils.getOption('N', args);
+      int numInstances = (numString.length() == 0) ? 100000
+	: Integer.parseInt(numString);
+      String attString = Utils.getOption('A', args);
+      int numAttributes = (attString.length() == 0) ? 4
+	: Integer.parseInt(attString);
+      String queryString = Utils.getOption('Q', args);
+      int numQueries = (queryString.length() == 0) ? 200
+	: Integer.parseInt(queryString);
+      String kString = Utils.getOption('K', args);
+      int k = (kString.length() == 0) ? 10 : Integer.parseInt(kString);
+      String seedString = Utils.getOption('S', args);
+      Random random = new Random((seedString.length() == 0) ? 1
+				 : Integer.parseInt(seedString));
+
+      Instances data;
+      if (fileName.length() != 0) {
+	data = new Instances(new File(fileName));
+	data.setClassIndex(data.numAttributes() - 1);
+	data.randomize(random);
+      } else {
+	data = randomData(numInstances + numQueries, numAttributes, random);
+      }
+      numQueries = Math.min(numQueries, data.numInstances() - 1);
+      Instances train = new Instances(data, 0,
+				      data.numInstances() - numQueries);
+      Instances queries = new Instances(data, train.numInstances(),
+					numQueries);
+      System.out.println(train.numInstances() + " instances, "
+			 + train.numAttributes() + " attributes, "
+			 + numQueries + " queries, k = " + k);
+
+      double [][] expected = null;
+      for (int s = 0; s < TAGS_SEARCH.length; s++) {
+	IBk ibk = new IBk(k);
+	ibk.setNearestNeighbourSearch(new SelectedTag(TAGS_SEARCH[s].getID(),
+						      TAGS_SEARCH));
+	long start = System.nanoTime();
+	ibk.buildClassifier(train);
+	long buildTime = System.nanoTime() - start;
+	double [][] predicted = new double [numQueries][];
+	start = System.nanoTime();
+	for (int i = 0; i < numQueries; i++) {
+	  predicted[i] = ibk.distributionForInstance(queries.instance(i));
+	}
+	long queryTime = System.nanoTime() - start;
+
+	int differ = 0;
+	if (expected == null) {
+	  expected = predicted;
+	} else {
+	  for (int i = 0; i < numQueries; i++) {
+	    for (int j = 0; j < predicted[i].length; j++) {
+	      if (Double.doubleToLongBits(predicted[i][j])
+		  != Double.doubleToLongBits(expected[i][j])) {
+		differ++;
+		break;
+	      }
+	    }
+	  }
+	}
+	System.out.println(TAGS_SEARCH[s].getReadable() + ": built in "
+			   + Utils.doubleToString(buildTime / 1e6, 1) + " ms, "
+			   + Utils.doubleToString(queryTime / 1e6 / numQueries,
+						  3) + " ms/query"
+			   + ((differ == 0) ? "" : ", " + differ
+			      + " queries with different predictions!"));
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+      System.err.println(e.getMessage());
+    }
+  }
+
+  /**
+   * Generates a random dataset: numeric attributes drawn from
+   * Gaussians around 20 random centres, and the centre's class.
+   *
+   * @param numInstances the number of instances
+   * @param numAttributes the number of numeric attributes
+   * @param random the random number generator
+   * @return the dataset
+   */
+  protected static Instances randomData(int numInstances, int numAttributes,
+					Random random) {
+
+    FastVector attributes = new FastVector(numAttributes + 1);
+    for (int j = 0; j < numAttributes; j++) {
+      attributes.addElement(new Attribute("a" + j));
+    }
+    FastVector classValues = new FastVector(2);
+    classValues.addElement("p");
+    classValues.addElement("n");
+    attributes.addElement(new Attribute("class", classValues));
+    Instances data = new Instances("random", attributes, numInstances);
+    data.setClassIndex(numAttributes);
+
+    int numCentres = 20;
+    double [][] centres = new double [numCentres][numAttributes];
+    for (int c = 0; c < numCentres; c++) {
+      for (int j = 0; j < numAttributes; j++) {
+	centres[c][j] = random.nextDouble() * 10;
+      }
+    }
+    for (int i = 0; i < numInstances; i++) {
+      int c = random.nextInt(numCentres);
+      float [] values = new float [numAttributes + 1];
+      for (int j = 0; j < numAttributes; j++) {
+	values[j] = (float) (centres[c][j] + random.nextGaussian());
+      }
+      values[numAttributes] = c % 2;
+      data.add(new Instance(1, values));
+    }
+    return data;
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    NeighbourDistance.java
+ *
+ */
+
+package reconcile.weka.classifiers.lazy.neighboursearch;
+
+import java.io.Serializable;
+
+import reconcile.weka.core.Instance;
+
+/**
+ * The distance a nearest neighbour search finds neighbours by. It is
+ * computed attribute by attribute: distance() adds up the squared
+ * differences of the attributes in the order of their indices and
+ * turns the sum into the distance with distanceFromSquares(). The
+ * searches rely on that to bound the distance to a group of instances
+ * without changing which instances are found.
+ *
+ * @author ves
+ * @version $Revision: 1.1 $
+ */
+public interface NeighbourDistance extends Serializable {
+
+  /**
+   * Calculates the distance between two instances.
+   *
+   * @param first the first instance (the target of a search)
+   * @param second the second instance
+   * @return the distance between the two instances
+   */
+  double distance(Instance first, Instance second);
+
+  /**
+   * Computes the difference between two values of an attribute, as
+   * distance() does. For a numeric attribute the absolute difference
+   * between a value and known values must not decrease as the known
+   * values get further from it.
+   *
+   * @param index the index of the attribute
+   * @param val1 the value of the first instance (may be missing)
+   * @param val2 the value of the second instance (may be missing)
+   * @return the difference
+   */
+  double difference(int index, double val1, double val2);
+
+  /**
+   * Turns a sum of squared differences into a distance, as distance()
+   * does. Must not decrease as the sum increases.
+   *
+   * @param sumOfSquares the sum of the squared differences
+   * @return the distance
+   */
+  double distanceFromSquares(double sumOfSquares);
+
+  /**
+   * Gets whether metric() satisfies the triangle inequality.
+   *
+   * @return true if it does
+   */
+  boolean isMetric();
+
+  /**
+   * Turns a distance into a metric, a function of the distance that
+   * doesn't decrease as the distance increases.
+   *
+   * @param distance the distance
+   * @return the metric
+   */
+  double metric(double distance);
+}
@@ -25,14 +25,16 @@ package reconcile.weka.classifiers.meta;
 import java.util.Enumeration;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.Callable;
 
 import reconcile.weka.classifiers.Evaluation;
-import reconcile.weka.classifiers.RandomizableIteratedSingleClassifierEnhancer;
+import reconcile.weka.classifiers.RandomizableParallelIteratedSingleClassifierEnhancer;
 import reconcile.weka.core.AdditionalMeasureProducer;
 import reconcile.weka.core.Instance;
 import reconcile.weka.core.Instances;
 import reconcile.weka.core.Option;
 import reconcile.weka.core.Randomizable;
+import reconcile.weka.core.SerializedObject;
 import reconcile.weka.core.Utils;
 import reconcile.weka.core.WeightedInstancesHandler;
 
@@ -61,6 +63,9 @@ import reconcile.weka.core.WeightedInstancesHandler;
  * -O <br>
  * Compute out of bag error. <p>
  *
+ * -num-threads num <br>
+ * Number of threads that build the bagged classifiers (default 1). <p>
+ *
  * Options after -- are passed to the designated classifier.<p>
  *
  * @author Eibe Frank (eibe@cs.waikato.ac.nz)
@@ -68,7 +73,7 @@ import reconcile.weka.core.WeightedInstancesHandler;
  * @author Richard Kirkby (rkirkby@cs.waikato.ac.nz)
  * @version $Revision: 1.1 $
  */
-public class Bagging extends RandomizableIteratedSingleClassifierEnhancer 
+public class Bagging extends RandomizableParallelIteratedSingleClassifierEnhancer 
   implements WeightedInstancesHandler, AdditionalMeasureProducer {
 
   /** The size of each bag sample, as a percentage of the training size */
@@ -155,6 +160,9 @@ public class Bagging extends RandomizableIteratedSingleClassifierEnhancer
    * -O <br>
    * Compute out of bag error. <p>
    *
+   * -num-threads num <br>
+   * Number of threads that build the bagged classifiers (default 1). <p>
+   *
    * Options after -- are passed to the designated classifier.<p>
    *
    * @param options the list of options as an array of strings
@@ -322,14 +330,32 @@ public class Bagging extends RandomizableIteratedSingleClassifierEnhancer
 					     Random random, 
 					     boolean[] sampled) {
 
+    return bag(data, resampleIndices(data, random, sampled));
+  }
+
+  /**
+   * Samples the instances of a dataset with replacement according to
+   * their weights, as resampleWithWeights() does (with the same random
+   * numbers), but returns the indices of the sampled instances instead
+   * of a new dataset.
+   *
+   * @param data the data to be sampled from
+   * @param random a random number generator
+   * @param sampled indicating which instance has been sampled (may be null)
+   * @return the index in data of each instance of the sample
+   * @exception IllegalArgumentException if the data contains negative weights.
+   */
+  protected static int[] resampleIndices(Instances data, Random random,
+					 boolean[] sampled) {
+
+    int[] indices = new int[data.numInstances()];
+    if (data.numInstances() == 0) {
+      return indices;
+    }
     double[] weights = new double[data.numInstances()];
     for (int i = 0; i < weights.length; i++) {
       weights[i] = data.instance(i).weight();
     }
-    Instances newData = new Instances(data, data.numInstances());
-    if (data.numInstances() == 0) {
-      return newData;
-    }
     double[] probabilities = new double[data.numInstances()];
     double sumProbs = 0, sumOfWeights = Utils.sum(weights);
     for (int i = 0; i < data.numInstances(); i++) {
@@ -349,13 +375,33 @@ public class Bagging extends RandomizableIteratedSingleClassifierEnhancer
       sumProbs += weights[l];
       while ((k < data.numInstances()) &&
 	     (probabilities[k] <= sumProbs)) { 
-	newData.add(data.instance(l));
-	sampled[l] = true;
-	newData.instance(k).setWeight(1);
+	indices[k] = l;
+	if (sampled != null) {
+	  sampled[l] = true;
+	}
 	k++;
       }
       l++;
     }
+    return indices;
+  }
+
+  /**
+   * Makes the dataset of a sample. Its instances are shallow copies of
+   * the sampled ones, with their weights set to one, so the attribute
+   * values are shared with the original data.
+   *
+   * @param data the data that was sampled
+   * @param indices the index in data of each instance of the sample
+   * @return the new dataset
+   */
+  protected static Instances bag(Instances data, int[] indices) {
+
+    Instances newData = new Instances(data, indices.length);
+    for (int k = 0; k < indices.length; k++) {
+      newData.add(data.instance(indices[k]));
+      newData.instance(k).setWeight(1);
+    }
     return newData;
   }
 
@@ -375,52 +421,110 @@ public class Bagging extends RandomizableIteratedSingleClassifierEnhancer
       throw new IllegalArgumentException("Bag size needs to be 100% if " +
 					 "out-of-bag error is to be calculated!");
     }
-    double outOfBagCount = 0.0;
-    double errorSum = 0.0;
 
-    int bagSize = data.numInstances() * m_BagSizePercent / 100;
+    final Instances trainData = data;
+    final int bagSize = data.numInstances() * m_BagSizePercent / 100;
+    final boolean subsample = !m_CalcOutOfBag
+      && (bagSize < data.numInstances());
+    final Random[] randoms = new Random[m_Classifiers.length];
+    final double[] outOfBagCounts = new double[m_Classifiers.length];
+    final double[] errorSums = new double[m_Classifiers.length];
+
+    // Draw the random numbers in the order of the bags, so that the
+    // bags don't depend on the number of threads: each bag gets a copy
+    // of the generator as it was when the bag was due, and the
+    // generator is moved past the numbers the bag uses.
     Random random = new Random(m_Seed);
     for (int j = 0; j < m_Classifiers.length; j++) {
-      Instances bagData = null;
-      boolean[] inBag = null;
-      // create the in-bag dataset
-      if (m_CalcOutOfBag) {
-	inBag = new boolean[data.numInstances()];
-	bagData = resampleWithWeights(data, random, inBag);
-      } else {
-	bagData = data.resampleWithWeights(random);
-	if (bagSize < data.numInstances()) {
-	  bagData.randomize(random);
-	  Instances newBagData = new Instances(bagData, 0, bagSize);
-	  bagData = newBagData;
+      randoms[j] = (Random) new SerializedObject(random).getObject();
+      for (int i = 0; i < data.numInstances(); i++) {
+	random.nextDouble();
+      }
+      if (subsample) {
+	for (int i = data.numInstances() - 1; i > 0; i--) {
+	  random.nextInt(i + 1);
 	}
       }
       if (m_Classifier instanceof Randomizable) {
 	((Randomizable) m_Classifiers[j]).setSeed(random.nextInt());
       }
-      // build the classifier
-      m_Classifiers[j].buildClassifier(bagData);
-      if (m_CalcOutOfBag) {
-	// calculate out of bag error
-	for (int i=0; i<inBag.length; i++) {  
-	  if (!inBag[i]) {
-	    Instance outOfBagInst = data.instance(i);
-	    outOfBagCount += outOfBagInst.weight();
-	    if (data.classAttribute().isNumeric()) {
-	      errorSum += outOfBagInst.weight() *
-		Math.abs(m_Classifiers[j].classifyInstance(outOfBagInst)
-			 - outOfBagInst.classValue());
-	    } else {
-	      if (m_Classifiers[j].classifyInstance(outOfBagInst)
-		  != outOfBagInst.classValue()) {
-		errorSum += outOfBagInst.weight();
-	      }
+    }
+
+    Callable[] tasks = new Callable[m_Classifiers.length];
+    for (int j = 0; j < m_Classifiers.length; j++) {
+      final int member = j;
+      tasks[j] = new Callable() {
+	  public Object call() throws Exception {
+	    buildMember(trainData, member, randoms[member], bagSize,
+			subsample, outOfBagCounts, errorSums);
+	    randoms[member] = null;
+	    return null;
+	  }
+	};
+    }
+    runTasks(tasks);
+
+    double outOfBagCount = 0.0;
+    double errorSum = 0.0;
+    for (int j = 0; j < m_Classifiers.length; j++) {
+      outOfBagCount += outOfBagCounts[j];
+      errorSum += errorSums[j];
+    }
+    m_OutOfBagError = errorSum / outOfBagCount;
+  }
+
+  /**
+   * Builds one of the bagged classifiers, and its part of the out of
+   * bag error if it is to be calculated.
+   *
+   * @param data the training data
+   * @param j the index of the classifier
+   * @param random the random number generator of the bag
+   * @param bagSize the size of the bag
+   * @param subsample whether the bag is a random subset of bagSize
+   * instances of the sample
+   * @param outOfBagCounts the weight of the out of bag instances of
+   * each classifier
+   * @param errorSums the out of bag error of each classifier
+   * @exception Exception if the classifier could not be built successfully
+   */
+  protected void buildMember(Instances data, int j, Random random,
+			     int bagSize, boolean subsample,
+			     double[] outOfBagCounts, double[] errorSums)
+    throws Exception {
+
+    boolean[] inBag = null;
+    if (m_CalcOutOfBag) {
+      inBag = new boolean[data.numInstances()];
+    }
+    // create the in-bag dataset
+    Instances bagData = bag(data, resampleIndices(data, random, inBag));
+    if (subsample) {
+      bagData.randomize(random);
+      Instances newBagData = new Instances(bagData, 0, bagSize);
+      bagData = newBagData;
+    }
+    // build the classifier
+    m_Classifiers[j].buildClassifier(bagData);
+    if (m_CalcOutOfBag) {
+      // calculate out of bag error
+      for (int i=0; i<inBag.length; i++) {  
+	if (!inBag[i]) {
+	  Instance outOfBagInst = data.instance(i);
+	  outOfBagCounts[j] += outOfBagInst.weight();
+	  if (data.classAttribute().isNumeric()) {
+	    errorSums[j] += outOfBagInst.weight() *
+	      Math.abs(m_Classifiers[j].classifyInstance(outOfBagInst)
+		       - outOfBagInst.classValue());
+	  } else {
+	    if (m_Classifiers[j].classifyInstance(outOfBagInst)
+		!= outOfBagInst.classValue()) {
+	      errorSums[j] += outOfBagInst.weight();
 	    }
 	  }
 	}
       }
     }
-    m_OutOfBagError = errorSum / outOfBagCount;
   }
 
   /**
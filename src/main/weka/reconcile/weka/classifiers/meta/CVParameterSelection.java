@@ -61,6 +61,9 @@ import reconcile.weka.core.Utils;
  * -X num <br>
  * Number of folds used for cross validation (default 10). <p>
  *
+ * -num-threads num <br>
+ * Number of folds built and tested at once (default 1). <p>
+ *
  * -S seed <br>
  * Random number seed (default 1).<p>
  *
@@ -209,6 +212,9 @@ public class CVParameterSelection extends RandomizableSingleClassifierEnhancer
   /** The number of folds used in cross-validation */
   protected int m_NumFolds = 10;
 
+  /** The number of folds built and tested at once */
+  protected int m_NumThreads = 1;
+
   /**
    * Create the options array to pass to the classifier. The parameter
    * values and positions are taken from m_ClassifierOptions and
@@ -294,16 +300,17 @@ public class CVParameterSelection extends RandomizableSingleClassifierEnhancer
 	System.err.println("");
       }
       ((OptionHandler)m_Classifier).setOptions(options);
+      Instances [] train = new Instances [m_NumFolds];
+      Instances [] test = new Instances [m_NumFolds];
       for (int j = 0; j < m_NumFolds; j++) {
 
         // We want to randomize the data the same way for every 
         // learning scheme.
-	Instances train = trainData.trainCV(m_NumFolds, j, new Random(1));
-	Instances test = trainData.testCV(m_NumFolds, j);
-	m_Classifier.buildClassifier(train);
-	evaluation.setPriors(train);
-	evaluation.evaluateModel(m_Classifier, test);
+	train[j] = trainData.trainCV(m_NumFolds, j, new Random(1));
+	test[j] = trainData.testCV(m_NumFolds, j);
       }
+      evaluation.setNumThreads(m_NumThreads);
+      evaluation.evaluateFolds(m_Classifier, train, test);
       double error = evaluation.errorRate();
       if (m_Debug) {
 	System.err.println("Cross-validated error rate: " 
@@ -337,11 +344,14 @@ public class CVParameterSelection extends RandomizableSingleClassifierEnhancer
    */
   public Enumeration listOptions() {
 
-    Vector newVector = new Vector(2);
+    Vector newVector = new Vector(3);
 
     newVector.addElement(new Option(
 	      "\tNumber of folds used for cross validation (default 10).",
 	      "X", 1, "-X <number of folds>"));
+    newVector.addElement(new Option(
+	      "\tNumber of folds built and tested at once (default 1).",
+	      "num-threads", 1, "-num-threads <num>"));
     newVector.addElement(new Option(
 	      "\tClassifier parameter options.\n"
 	      + "\teg: \"N 1 5 10\" Sets an optimisation parameter for the\n"
@@ -376,6 +386,9 @@ public class CVParameterSelection extends RandomizableSingleClassifierEnhancer
    * -X num <br>
    * Number of folds used for cross validation (default 10). <p>
    *
+   * -num-threads num <br>
+   * Number of folds built and tested at once (default 1). <p>
+   *
    * -S seed <br>
    * Random number seed (default 1).<p>
    *
@@ -402,6 +415,13 @@ public class CVParameterSelection extends RandomizableSingleClassifierEnhancer
       setNumFolds(10);
     }
 
+    String threads = Utils.getOption("num-threads", options);
+    if (threads.length() != 0) {
+      setNumThreads(Integer.parseInt(threads));
+    } else {
+      setNumThreads(1);
+    }
+
     String cvParam;
     m_CVParams = new FastVector();
     do {
@@ -435,13 +455,14 @@ public class CVParameterSelection extends RandomizableSingleClassifierEnhancer
     } else {
       superOptions = super.getOptions();
     }
-    String [] options = new String [superOptions.length + m_CVParams.size() * 2 + 2];
+    String [] options = new String [superOptions.length + m_CVParams.size() * 2 + 4];
 
     int current = 0;
     for (int i = 0; i < m_CVParams.size(); i++) {
       options[current++] = "-P"; options[current++] = "" + getCVParameter(i);
     }
     options[current++] = "-X"; options[current++] = "" + getNumFolds();
+    options[current++] = "-num-threads"; options[current++] = "" + getNumThreads();
 
     System.arraycopy(superOptions, 0, options, current, 
 		     superOptions.length);
@@ -624,6 +645,36 @@ public class CVParameterSelection extends RandomizableSingleClassifierEnhancer
     }
     m_NumFolds = numFolds;
   }
+
+  /**
+   * Returns the tip text for this property
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String numThreadsTipText() {
+    return "The number of folds built and tested at once. The selected "
+      + "parameters don't depend on it.";
+  }
+
+  /** 
+   * Gets the number of folds built and tested at once.
+   *
+   * @return the number of threads
+   */
+  public int getNumThreads() {
+
+    return m_NumThreads;
+  }
+
+  /**
+   * Sets the number of folds built and tested at once.
+   *
+   * @param numThreads the number of threads
+   */
+  public void setNumThreads(int numThreads) {
+
+    m_NumThreads = numThreads;
+  }
  
   /**
    *  Returns the type of graph this classifier
@@ -23,10 +23,11 @@
 package reconcile.weka.classifiers.meta;
 
 import java.util.Random;
+import java.util.concurrent.Callable;
 
 import reconcile.weka.classifiers.Classifier;
 import reconcile.weka.classifiers.Evaluation;
-import reconcile.weka.classifiers.RandomizableIteratedSingleClassifierEnhancer;
+import reconcile.weka.classifiers.RandomizableParallelIteratedSingleClassifierEnhancer;
 import reconcile.weka.core.Instance;
 import reconcile.weka.core.Instances;
 import reconcile.weka.core.Randomizable;
@@ -51,12 +52,15 @@ import reconcile.weka.core.WeightedInstancesHandler;
  * -S seed <br>
  * Random number seed for the randomization process (default 1). <p>
  *
+ * -num-threads num <br>
+ * Number of threads that build the committee members (default 1). <p>
+ *
  * Options after -- are passed to the designated classifier.<p>
  *
  * @author Eibe Frank (eibe@cs.waikato.ac.nz)
  * @version $Revision: 1.1 $
  */
-public class RandomCommittee extends RandomizableIteratedSingleClassifierEnhancer
+public class RandomCommittee extends RandomizableParallelIteratedSingleClassifierEnhancer
   implements WeightedInstancesHandler {
     
   /**
@@ -97,7 +101,7 @@ public class RandomCommittee extends RandomizableIteratedSingleClassifierEnhance
    * @exception Exception if the classifier could not be built successfully
    */
   @Override
-  public void buildClassifier(Instances data) throws Exception {
+  public void buildClassifier(final Instances data) throws Exception {
 
     if (data.numInstances() == 0) {
       throw new IllegalArgumentException("RandomTree: zero training instances or all " +
@@ -111,14 +115,22 @@ public class RandomCommittee extends RandomizableIteratedSingleClassifierEnhance
     m_Classifiers = Classifier.makeCopies(m_Classifier, m_NumIterations);
 
     Random random = data.getRandomNumberGenerator(m_Seed);
+    Callable[] tasks = new Callable[m_Classifiers.length];
     for (int j = 0; j < m_Classifiers.length; j++) {
 
       // Set the random number seed for the current classifier.
       ((Randomizable) m_Classifiers[j]).setSeed(random.nextInt());
       
       // Build the classifier.
-      m_Classifiers[j].buildClassifier(data);
+      final Classifier member = m_Classifiers[j];
+      tasks[j] = new Callable() {
+	  public Object call() throws Exception {
+	    member.buildClassifier(data);
+	    return null;
+	  }
+	};
     }
+    runTasks(tasks);
   }
 
   /**
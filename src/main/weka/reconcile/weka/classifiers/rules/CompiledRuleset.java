@@ -0,0 +1,208 @@
+package reconcile.weka.classifiers.rules;
+
+import java.io.File;
+import java.io.Serializable;
+
+import reconcile.weka.core.InstanceShort;
+import reconcile.weka.core.InstancesShort;
+import reconcile.weka.core.ModifiedInstancesShort;
+import reconcile.weka.core.Utils;
+
+/**
+ * A StRipShort ruleset compiled into a flat program (see StRipShort.compile()).
+ *
+ * The antecedents of all the rules are stored in parallel arrays, rule after rule, and m_RuleStart gives the first
+ * antecedent of each rule; a rule's score (its consequent times its accuracy) is in m_Score. Every antecedent is a
+ * range of values of an attribute: [v, v] for a nominal value v, [MIN, v] for "<= v" and [v, MAX] for ">= v", where
+ * MIN is one more than the code of missing values so that a missing value never passes. An instance is classified
+ * by running the tests of a rule until one fails, which jumps to the first test of the next rule, and returning the
+ * score of the first rule whose tests all pass: the same decisions as StRipShort.classifyInstance(), without the
+ * vectors of rules and antecedents and the virtual calls.
+ *
+ * @author ves
+ */
+public class CompiledRuleset implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /** The tests of the antecedents */
+  static final byte EQ = 0;
+
+  static final byte LE = 1;
+
+  static final byte GE = 2;
+
+  private int m_NumRules = 0;
+
+  private int m_NumAntds = 0;
+
+  /** The first antecedent of each rule; m_RuleStart[m_NumRules] is the number of antecedents */
+  private int[] m_RuleStart;
+
+  private double[] m_Score;
+
+  private int[] m_Attribute;
+
+  /** The range of values that passes each antecedent */
+  private short[] m_Low;
+
+  private short[] m_High;
+
+  CompiledRuleset(int numRules, int numAntds) {
+    m_RuleStart = new int[numRules + 1];
+    m_Score = new double[numRules];
+    m_Attribute = new int[numAntds];
+    m_Low = new short[numAntds];
+    m_High = new short[numAntds];
+  }
+
+  /**
+   * Starts a new rule; its antecedents are the ones added until the next rule.
+   */
+  void addRule(double score) {
+    m_Score[m_NumRules] = score;
+    m_NumRules++;
+    m_RuleStart[m_NumRules] = m_NumAntds;
+  }
+
+  void addAntd(int attIndex, byte test, short value) {
+    short min = (short)(InstanceShort.missingValue() + 1);
+    m_Attribute[m_NumAntds] = attIndex;
+    switch(test){
+    case EQ:
+      m_Low[m_NumAntds] = value;
+      m_High[m_NumAntds] = value;
+      break;
+    case LE:
+      m_Low[m_NumAntds] = min;
+      m_High[m_NumAntds] = value;
+      break;
+    default:
+      m_Low[m_NumAntds] = value < min?min:value;
+      m_High[m_NumAntds] = Short.MAX_VALUE;
+    }
+    m_NumAntds++;
+    m_RuleStart[m_NumRules] = m_NumAntds;
+  }
+
+  /**
+   * Returns the number of rules.
+   */
+  public int numRules() {
+    return m_NumRules;
+  }
+
+  /**
+   * Classifies an instance.
+   *
+   * @return the score of the first rule that covers the instance
+   * @exception RuntimeException if no rule covers the instance
+   */
+  public double classifyInstance(InstanceShort inst) {
+    int antd = 0;
+    for(int r = 0; r < m_NumRules; r++){
+      int end = m_RuleStart[r + 1];
+      while(antd < end){
+        short value = inst.value(m_Attribute[antd]);
+        if(value < m_Low[antd] || value > m_High[antd])
+          break;
+        antd++;
+      }
+      if(antd == end)
+        return m_Score[r];
+      antd = end;
+    }
+    throw new RuntimeException("No rule matches instance.");
+  }
+
+  /**
+   * Classifies all the instances of a dataset.
+   *
+   * @return the score of each instance
+   * @exception RuntimeException if no rule covers an instance
+   */
+  public double[] classify(InstancesShort data) {
+    double[] result = new double[data.numInstances()];
+    for(int i = 0; i < result.length; i++)
+      result[i] = classifyInstance(data.instance(i));
+    return result;
+  }
+
+  public String toString() {
+    StringBuffer text = new StringBuffer();
+    for(int r = 0; r < m_NumRules; r++){
+      text.append(r + ": " + m_Score[r] + " IF");
+      for(int a = m_RuleStart[r]; a < m_RuleStart[r + 1]; a++){
+        text.append(" " + m_Low[a] + " <= [" + m_Attribute[a] + "] <= " + m_High[a]);
+      }
+      text.append("\n");
+    }
+    return text.toString();
+  }
+
+  /**
+   * Compares the compiled ruleset with the rules on a test file: checks that the scores are the same for every
+   * instance and prints the number of instances classified per second by each.
+   *
+   * Valid options are:
+   * <p>
+   * -l file <br>
+   * The model file (as written by StRipShort -M).
+   * <p>
+   * -T file <br>
+   * The test file.
+   * <p>
+   * -I num <br>
+   * The number of times the test file is classified. (default 10)
+   * <p>
+   */
+  public static void main(String[] args) {
+    try{
+      String modelFileName = Utils.getOption('l', args);
+      String testFileName = Utils.getOption('T', args);
+      if(modelFileName.length() == 0 || testFileName.length() == 0)
+        throw new Exception("Usage: CompiledRuleset -l model -T test [-I repetitions]");
+      String repString = Utils.getOption('I', args);
+      int repetitions = repString.length() == 0?10:Integer.parseInt(repString);
+
+      ModifiedInstancesShort insts = new ModifiedInstancesShort(new File(testFileName));
+      insts.setClass(insts.attribute("class"));
+      insts.cleanUpValuesAndSetWeight(0);
+      StRipShort classifier = StRipShort.readClassifier(modelFileName, insts);
+      CompiledRuleset program = classifier.compile();
+      int numInstances = insts.numInstances();
+
+      double[] interpreted = new double[numInstances];
+      // warm up both before timing them
+      for(int i = 0; i < numInstances; i++)
+        interpreted[i] = classifier.classifyInstance(insts.instance(i));
+      program.classify(insts);
+      long start = System.nanoTime();
+      for(int k = 0; k < repetitions; k++)
+        for(int i = 0; i < numInstances; i++)
+          interpreted[i] = classifier.classifyInstance(insts.instance(i));
+      long interpretedTime = System.nanoTime() - start;
+
+      double[] compiled = null;
+      start = System.nanoTime();
+      for(int k = 0; k < repetitions; k++)
+        compiled = program.classify(insts);
+      long compiledTime = System.nanoTime() - start;
+
+      int differ = 0;
+      for(int i = 0; i < numInstances; i++){
+        if(Double.doubleToLongBits(interpreted[i]) != Double.doubleToLongBits(compiled[i])
+            || Double.doubleToLongBits(interpreted[i]) != Double.doubleToLongBits(program.classifyInstance(insts.instance(i))))
+          differ++;
+      }
+      double total = (double)numInstances * repetitions;
+      System.out.println(program.numRules() + " rules, " + numInstances + " instances, " + repetitions + " repetitions");
+      System.out.println("Rules:    " + Utils.doubleToString(total / (interpretedTime / 1e9), 2) + " instances/s");
+      System.out.println("Compiled: " + Utils.doubleToString(total / (compiledTime / 1e9), 2) + " instances/s");
+      System.out.println(differ == 0?"Same scores for all instances.":differ + " instances with different scores!");
+    } catch(Exception e){
+      e.printStackTrace();
+      System.err.println(e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,203 @@
+package reconcile.weka.classifiers.rules;
+
+import java.util.IdentityHashMap;
+
+import reconcile.weka.core.AttributeShort;
+import reconcile.weka.core.InstanceShort;
+import reconcile.weka.core.InstancesShort;
+
+/**
+ * The coverage of StRipShort's antecedents and rules on a dataset, as bitsets.
+ *
+ * A bitset is a long[] with one bit per instance, in the order of the dataset: bit i (bit i % 64 of word i / 64) is
+ * set if instance i satisfies the condition. The bitsets of the values of a nominal attribute are built in one pass
+ * over the data, so trying every value of an attribute reads the data once, and the coverage of a rule is the AND of
+ * the bitsets of its antecedents. Only the attribute used last is kept (its values and, if it is nominal, the bitset
+ * of each value), so the index takes a few bytes per instance no matter how many attributes there are.
+ *
+ * An index is only valid as long as the dataset keeps its instances, in the same order, and the values of their
+ * features; changing the non-feature attributes (covered, predicted_class, real_class) is fine. The coverage of a
+ * rule is cached by the rule, so a rule must not be changed while an index that has cached it is in use. The bitsets
+ * returned by the index are shared and must not be modified.
+ *
+ * @author ves
+ */
+public class CoverageIndex {
+
+  private InstancesShort m_Data;
+
+  private int m_NumInstances;
+
+  /** The attribute used last and its value for each instance */
+  private AttributeShort m_Attribute = null;
+
+  private short[] m_Values;
+
+  /** The bitset of each value of m_Attribute if it is nominal */
+  private long[][] m_ValueBits = null;
+
+  private long[] m_All = null;
+
+  /** The coverage of the rules, by rule */
+  private IdentityHashMap m_RuleCoverage = new IdentityHashMap();
+
+  public CoverageIndex(InstancesShort data) {
+    m_Data = data;
+    m_NumInstances = data.numInstances();
+  }
+
+  /**
+   * Returns the dataset of the index.
+   */
+  public InstancesShort getData() {
+    return m_Data;
+  }
+
+  /**
+   * Returns the number of instances (bits).
+   */
+  public int numInstances() {
+    return m_NumInstances;
+  }
+
+  /**
+   * Returns a bitset with the bits of all instances set.
+   */
+  public long[] all() {
+    if(m_All == null){
+      m_All = new long[words(m_NumInstances)];
+      for(int i = 0; i < m_NumInstances; i++){
+        set(m_All, i);
+      }
+    }
+    return m_All;
+  }
+
+  /**
+   * Returns the instances whose value of a nominal attribute is the given one (the instances with a missing value
+   * are not included).
+   */
+  public long[] equal(AttributeShort att, int value) {
+    if(m_ValueBits == null || m_Attribute != att){
+      short[] values = values(att);
+      long[][] bits = new long[att.numValues()][words(m_NumInstances)];
+      for(int i = 0; i < m_NumInstances; i++){
+        int v = values[i];
+        if(v >= 0 && v < bits.length){
+          set(bits[v], i);
+        }
+      }
+      m_ValueBits = bits;
+    }
+    if(value < 0 || value >= m_ValueBits.length){
+      return new long[words(m_NumInstances)];
+    }
+    return m_ValueBits[value];
+  }
+
+  /**
+   * Returns the instances whose value of an attribute is at most the split point (the instances with a missing
+   * value are not included).
+   */
+  public long[] lessOrEqual(AttributeShort att, short split) {
+    short[] values = values(att);
+    short missing = InstanceShort.missingValue();
+    long[] result = new long[words(m_NumInstances)];
+    for(int i = 0; i < m_NumInstances; i++){
+      if(values[i] != missing && values[i] <= split){
+        set(result, i);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the instances whose value of an attribute is at least the split point (the instances with a missing
+   * value are not included).
+   */
+  public long[] greaterOrEqual(AttributeShort att, short split) {
+    short[] values = values(att);
+    short missing = InstanceShort.missingValue();
+    long[] result = new long[words(m_NumInstances)];
+    for(int i = 0; i < m_NumInstances; i++){
+      if(values[i] != missing && values[i] >= split){
+        set(result, i);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the cached coverage of a rule, or null if it is not cached.
+   */
+  public long[] getRuleCoverage(Object rule) {
+    return (long[])m_RuleCoverage.get(rule);
+  }
+
+  /**
+   * Caches the coverage of a rule.
+   */
+  public void setRuleCoverage(Object rule, long[] coverage) {
+    m_RuleCoverage.put(rule, coverage);
+  }
+
+  private short[] values(AttributeShort att) {
+    if(m_Attribute != att){
+      if(m_Values == null){
+        m_Values = new short[m_NumInstances];
+      }
+      for(int i = 0; i < m_NumInstances; i++){
+        m_Values[i] = m_Data.instance(i).value(att);
+      }
+      m_Attribute = att;
+      m_ValueBits = null;
+    }
+    return m_Values;
+  }
+
+  /**
+   * Returns the number of words of a bitset of n bits.
+   */
+  public static int words(int n) {
+    return (n + 63) >>> 6;
+  }
+
+  /**
+   * Returns the intersection of two bitsets as a new bitset.
+   */
+  public static long[] and(long[] a, long[] b) {
+    long[] result = new long[a.length];
+    for(int w = 0; w < a.length; w++){
+      result[w] = a[w] & b[w];
+    }
+    return result;
+  }
+
+  /**
+   * Adds the bits of b to a.
+   */
+  public static void or(long[] a, long[] b) {
+    for(int w = 0; w < a.length; w++){
+      a[w] |= b[w];
+    }
+  }
+
+  public static boolean get(long[] bits, int i) {
+    return (bits[i >>> 6] & (1L << i)) != 0;
+  }
+
+  public static void set(long[] bits, int i) {
+    bits[i >>> 6] |= 1L << i;
+  }
+
+  /**
+   * Returns the number of bits set.
+   */
+  public static int cardinality(long[] bits) {
+    int result = 0;
+    for(int w = 0; w < bits.length; w++){
+      result += Long.bitCount(bits[w]);
+    }
+    return result;
+  }
+}
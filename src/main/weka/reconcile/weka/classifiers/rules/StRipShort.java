@@ -22,6 +22,7 @@
 package reconcile.weka.classifiers.rules;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.InputStream;
@@ -40,6 +41,7 @@ import reconcile.weka.core.AttributeShort;
 import reconcile.weka.core.Copyable;
 import reconcile.weka.core.FastVector;
 import reconcile.weka.core.InstanceShort;
+import reconcile.weka.core.InstanceShortBuffer;
 import reconcile.weka.core.InstancesShort;
 import reconcile.weka.core.ModifiedInstancesShort;
 import reconcile.weka.core.Option;
@@ -753,6 +755,9 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
 
     public abstract boolean covers(InstanceShort inst);
     
+    /* The instances covered by this antecedent, as a bitset */
+    public abstract long[] coverage(CoverageIndex index);
+    
     public abstract boolean match(InstanceShort inst);
 
     public abstract String toString();
@@ -1007,6 +1012,19 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
 
       return isCover;
     }
+
+    /**
+     * The instances of the index's data covered by this antecedent
+     * 
+     * @param index
+     *          the coverage index of the data
+     * @return the bitset of the covered instances
+     */
+    public long[] coverage(CoverageIndex index) {
+      if(value == LE) // First bag
+        return index.lessOrEqual(att, splitPoint);
+      return index.greaterOrEqual(att, splitPoint); // Second bag
+    }
     
     /**
      * Whether the instance is covered by this antecedent
@@ -1156,6 +1174,17 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
       return isCover;
     }
 
+    /**
+     * The instances of the index's data covered by this antecedent
+     * 
+     * @param index
+     *          the coverage index of the data
+     * @return the bitset of the covered instances
+     */
+    public long[] coverage(CoverageIndex index) {
+      return index.equal(att, value);
+    }
+
     /**
      * Prints this antecedent
      * 
@@ -1250,6 +1279,53 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
       return isCover;
     }
 
+    /**
+     * The instances of the index's data covered by this rule. The coverage is
+     * cached in the index, so the rule must not change while the index is in
+     * use.
+     * 
+     * @param index
+     *          the coverage index of the data
+     * @return the bitset of the covered instances
+     */
+    public long[] coverage(CoverageIndex index) {
+      long[] result = index.getRuleCoverage(this);
+      if(result == null){
+        result = coverage(index, 0, m_Antds.size());
+        index.setRuleCoverage(this, result);
+      }
+      return result;
+    }
+
+    /**
+     * The instances of the index's data covered by the antecedents between
+     * begin and end (exclusive)
+     */
+    private long[] coverage(CoverageIndex index, int begin, int end) {
+      long[] result = index.all();
+      for(int j = begin; j < end; j++){
+        Antd antd = (Antd)m_Antds.elementAt(j);
+        result = CoverageIndex.and(result, antd.coverage(index));
+      }
+      return result;
+    }
+
+    /**
+     * The instances of the index's data covered by the first end rules of the
+     * ruleset, skipping the rule at position skip
+     */
+    private long[] coverage(FastVector ruleset, CoverageIndex index, int end,
+        int skip) {
+      long[] result = new long[CoverageIndex.words(index.numInstances())];
+      for(int i = 0; i < end; i++){
+        if(i != skip){
+          RipperRule rule = (RipperRule)ruleset.elementAt(i);
+          CoverageIndex.or(result, rule.coverage(index));
+        }
+      }
+      return result;
+    }
+
     /**
      * Whether this rule has antecedents, i.e. whether it is a default rule
      * 
@@ -1305,15 +1381,34 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
      * @return data with the pred_class attribute modified
      */
     public InstancesShort apply(InstancesShort data, boolean useCovered) {
+      return apply(data, useCovered, new CoverageIndex(data));
+    }
+
+    /**
+     * Function to apply the rule and compute the pred_class attribute.
+     * 
+     * @param data
+     *          the data in question
+     * @param useCovered
+     *          if true, when the rule does not cover the instance, the instance
+     *          recieves the value of the "covered" attribute if false, the
+     *          instance recieves "-" if not covered by the rule
+     * @param index
+     *          the coverage index of the data
+     * @return data with the pred_class attribute modified
+     */
+    public InstancesShort apply(InstancesShort data, boolean useCovered,
+        CoverageIndex index) {
       AttributeShort predClass = m_PredictedClass;
       short positive = predClass.indexOfValue("+");
       // System.err.println("Applying to attr " + predClass);
       AttributeShort covered = m_Covered;
+      long[] ruleCoverage = coverage(index);
       int numCovered = 0, numNewCovered = 0, totalCovered = 0;
       for(int i = 0; i < data.numInstances(); i++){
         InstanceShort inst = data.instance(i);
         short cov = inst.value(covered);
-        if(covers(inst)){
+        if(CoverageIndex.get(ruleCoverage, i)){
           inst.setValue(predClass, "+");
           if(Float.isNaN(cov) || (int)cov != positive)
             numNewCovered += inst.weight();
@@ -1351,21 +1446,29 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
      * @return data with the pred_class attribute modified
      */
     public InstancesShort apply(InstancesShort data, int num) {
+      int end = num < m_Antds.size()?num + 1:m_Antds.size();
+      return apply(data, coverage(new CoverageIndex(data), 0, end));
+    }
+
+    /**
+     * Private function to compute the pred_class attribute given the instances
+     * covered by (a part of) the rule.
+     * 
+     * @param data
+     *          the data in question
+     * @param antdCoverage
+     *          the bitset of the instances covered by the antecedents applied
+     * @return data with the pred_class attribute modified
+     */
+    private InstancesShort apply(InstancesShort data, long[] antdCoverage) {
       AttributeShort predClass = m_PredictedClass;
       AttributeShort covered = m_Covered;
-      int end = num < m_Antds.size()?num + 1:m_Antds.size();
       for(int i = 0; i < data.numInstances(); i++){
         InstanceShort inst = data.instance(i);
         double cov = inst.value(covered);
         if(Double.isNaN(cov) || (int)cov != covered.indexOfValue("+")){
           // Not covered, so compute the predicted class
-          boolean isCovered = true;
-          for(int j = 0; j < end; j++){
-            Antd antd = (Antd)m_Antds.elementAt(j);
-            if(!antd.covers(inst)){
-              isCovered = false;
-            }
-          }
+          boolean isCovered = CoverageIndex.get(antdCoverage, i);
           if(isCovered)
             inst.setValue(predClass, "+");
           else
@@ -1396,19 +1499,14 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
       AttributeShort predClass = m_PredictedClass;
       AttributeShort covered = m_Covered;
       int endInd = end < m_Antds.size()?end + 1:m_Antds.size();
+      long[] antdCoverage = coverage(new CoverageIndex(data), begin, endInd);
       for(int i = 0; i < data.numInstances(); i++){
         InstanceShort inst = data.instance(i);
         double cov = inst.value(covered);
         if((Double.isNaN(cov) || (int)cov != covered.indexOfValue("+"))
             && (int)inst.value(predClass) == predClass.indexOfValue("+")){
           // Not covered, so compute the predicted class
-          boolean isCovered = true;
-          for(int j = begin; j < endInd; j++){
-            Antd antd = (Antd)m_Antds.elementAt(j);
-            if(!antd.covers(inst)){
-              isCovered = false;
-            }
-          }
+          boolean isCovered = CoverageIndex.get(antdCoverage, i);
           if(isCovered)
             inst.setValue(predClass, "+");
           else
@@ -1432,18 +1530,33 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
      */
     public InstancesShort applyWhileSkipping(FastVector ruleset,
         InstancesShort data, int index, int endPosition) {
+      return applyWhileSkipping(ruleset, data, index, endPosition,
+          new CoverageIndex(data));
+    }
+
+    /**
+     * Private function to apply all rules in a ruleset and compute the covered
+     * attribute.
+     * 
+     * @param ruleset
+     *          The ruleset.
+     * @param data
+     *          the data in question
+     * @param endPosition
+     *          The position of the first rule that is not to be applied.
+     * @param coverageIndex
+     *          the coverage index of the data
+     * @return data with the covered attribute modified
+     */
+    public InstancesShort applyWhileSkipping(FastVector ruleset,
+        InstancesShort data, int index, int endPosition,
+        CoverageIndex coverageIndex) {
       AttributeShort cover = m_Covered;
       int end = endPosition < ruleset.size()?endPosition:ruleset.size();
+      long[] rulesetCoverage = coverage(ruleset, coverageIndex, end, index);
       for(int j = 0; j < data.numInstances(); j++){
         InstanceShort inst = data.instance(j);
-        inst.setValue(cover, "-");
-        for(int i = 0; i < end; i++){
-          if(i != index){
-            RipperRule rule = (RipperRule)ruleset.elementAt(i);
-            if(rule.covers(inst))
-              inst.setValue(cover, "+");
-          }
-        }
+        inst.setValue(cover, CoverageIndex.get(rulesetCoverage, j)?"+":"-");
       }
       data = transitiveClosure(data, cover);
       return data;
@@ -1463,16 +1576,31 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
      */
     public InstancesShort apply(FastVector ruleset, InstancesShort data,
         int endPosition) {
+      return apply(ruleset, data, endPosition, new CoverageIndex(data));
+    }
+
+    /**
+     * Private function to apply all rules in a ruleset and compute the covered
+     * attribute.
+     * 
+     * @param ruleset
+     *          The ruleset.
+     * @param data
+     *          the data in question
+     * @param endPosition
+     *          The position of the first rule that is not to be applied.
+     * @param index
+     *          the coverage index of the data
+     * @return data with the covered attribute modified
+     */
+    public InstancesShort apply(FastVector ruleset, InstancesShort data,
+        int endPosition, CoverageIndex index) {
       AttributeShort cover = m_Covered;
       int end = endPosition < ruleset.size()?endPosition:ruleset.size();
+      long[] rulesetCoverage = coverage(ruleset, index, end, -1);
       for(int j = 0; j < data.numInstances(); j++){
         InstanceShort inst = data.instance(j);
-        inst.setValue(cover, "-");
-        for(int i = 0; i < end; i++){
-          RipperRule rule = (RipperRule)ruleset.elementAt(i);
-          if(rule.covers(inst))
-            inst.setValue(cover, "+");
-        }
+        inst.setValue(cover, CoverageIndex.get(rulesetCoverage, j)?"+":"-");
       }
       data = transitiveClosure(data, cover);
       return data;
@@ -1507,16 +1635,11 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
     public InstancesShort applyWhileSkipping(FastVector ruleset,
         InstancesShort data, int ruleNum) {
       AttributeShort cover = m_Covered;
+      long[] rulesetCoverage = coverage(ruleset, new CoverageIndex(data),
+          ruleset.size(), ruleNum);
       for(int j = 0; j < data.numInstances(); j++){
         InstanceShort inst = data.instance(j);
-        inst.setValue(cover, "-");
-        for(int i = 0; i < ruleset.size(); i++){
-          if(i != ruleNum){
-            RipperRule rule = (RipperRule)ruleset.elementAt(i);
-            if(rule.covers(inst))
-              inst.setValue(cover, "+");
-          }
-        }
+        inst.setValue(cover, CoverageIndex.get(rulesetCoverage, j)?"+":"-");
       }
       //data = transitiveClosure(data, cover);
       return data;
@@ -1545,25 +1668,41 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
      * @return true if the antecedent covers at least one positive instance
      */
     private boolean applyWithAntd(InstancesShort data, Antd ant) {
+      CoverageIndex index = new CoverageIndex(data);
+      return applyWithAntd(data, ant, index, coverage(index));
+    }
+
+    /**
+     * Private function to check the effect of adding an antecedent to the rule
+     * 
+     * @param data
+     *          the data in question
+     * @param antecedent
+     *          the new antecedent under consideration.
+     * @param index
+     *          the coverage index of the data
+     * @param ruleCoverage
+     *          the instances covered by the rule (without the antecedent)
+     * @return true if the antecedent covers at least one positive instance
+     */
+    private boolean applyWithAntd(InstancesShort data, Antd ant,
+        CoverageIndex index, long[] ruleCoverage) {
       if(m_Debug && ves_Debug)
         System.err.println("Ant " + ant);
       double covers = 0;
       AttributeShort realClass = m_RealClass;
       AttributeShort covered = m_Covered;
       short pos_index = covered.indexOfValue("+");
+      long[] antdCoverage = CoverageIndex.and(ruleCoverage, ant.coverage(index));
       for(int i = 0; i < data.numInstances(); i++){
         InstanceShort inst = data.instance(i);
         short val = inst.value(covered);
         if(val != pos_index){
-          if(!ant.covers(inst))
+          if(CoverageIndex.get(antdCoverage, i)){
+            inst.setValue(realClass, pos_index);
+            covers += inst.weight();
+          } else{
             inst.setValue(realClass, "-");
-          else{
-            if(covers(inst)){
-              inst.setValue(realClass, pos_index);
-              covers += inst.weight();
-            } else{
-              inst.setValue(realClass, "-");
-            }
           }
         } else{
           inst.setValue(realClass, pos_index);
@@ -1640,6 +1779,8 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
         Antd oneAntd = null;
         //InstancesShort coverData = null;
         Enumeration enumAttr = growData.enumerateAttributes();
+        CoverageIndex index = new CoverageIndex(growData);
+        long[] ruleCoverage = coverage(index);
 
         if(m_Debug){
           NumberFormat nf = NumberFormat.getInstance();
@@ -1666,7 +1807,8 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
              * returns the data covered by the antecedent
              */
             // Instances coveredData = computeInfoGain(growData, defAcRt, antd);
-            double infoGain = computeInfoGain(growData, defAcRt, antd);
+            double infoGain = computeInfoGain(growData, defAcRt, antd, index,
+                ruleCoverage);
             double cover = antd.getCover();
             if(Utils.gr(cover, 0)){
               // double infoGain = antd.getMaxInfoGain();
@@ -1708,8 +1850,8 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
         }
 
         m_Antds.addElement(oneAntd);
-        growData = getCoveredData(growData, oneAntd);// Grow data size is
-                                                     // shrinking
+        growData = getCoveredData(growData, oneAntd, index, ruleCoverage);// Grow
+                                                     // data size is shrinking
         defAcRt = oneAntd.getAccuRate();
         if(m_Debug){
           System.err.println("\nAdding anticedent " + oneAntd + " accuracy "
@@ -1957,15 +2099,18 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
      *          the default accuracy rate of data
      * @param antd
      *          the specific antecedent
-     * @param numConds
-     *          the number of antecedents in the rule so far
+     * @param index
+     *          the coverage index of the data
+     * @param ruleCoverage
+     *          the instances covered by the rule so far
      * @return the info gain for the antecedent
      */
-    private double computeInfoGain(InstancesShort instances, double defAcRt, Antd antd) {
+    private double computeInfoGain(InstancesShort instances, double defAcRt, Antd antd,
+        CoverageIndex index, long[] ruleCoverage) {
       if(antd.getAttr().isNominal())
-        return computeInfoGainNominal(instances, defAcRt, antd);
+        return computeInfoGainNominal(instances, defAcRt, antd, index, ruleCoverage);
       if(antd.getAttr().isNumeric())
-        return computeInfoGainNumeric(instances, defAcRt, antd);
+        return computeInfoGainNumeric(instances, defAcRt, antd, ruleCoverage);
       throw new RuntimeException("Anteceedent type not yet implemented");
       
     }
@@ -1978,11 +2123,14 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
      *          the default accuracy rate of data
      * @param antd
      *          the specific antecedent
-     * @param numConds
-     *          the number of antecedents in the rule so far
+     * @param index
+     *          the coverage index of the data
+     * @param ruleCoverage
+     *          the instances covered by the rule so far
      * @return the info gain for the antecedent
      */
-    private double computeInfoGainNominal(InstancesShort instances,double defAcRt, Antd antd) {
+    private double computeInfoGainNominal(InstancesShort instances,double defAcRt, Antd antd,
+        CoverageIndex index, long[] ruleCoverage) {
       InstancesShort data = instances;// , result[];
       double maxInfoGain = 0;
       AttributeShort currentClass = m_RealClass;
@@ -1999,7 +2147,7 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
         // result[v] = new ModifiedInstances(data, data.numInstances());
         // Try all possible values for the antecedent
         antd.setAttrValue((short)v);
-        boolean covers = applyWithAntd(data, antd);
+        boolean covers = applyWithAntd(data, antd, index, ruleCoverage);
         if(!covers){ // this antecedent doesn't cover any instances; skip
           coverage[v] = 0;
           continue;
@@ -2077,12 +2225,12 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
      * Window - Preferences - Java - Code Style - Code Templates
      */
     private class SmallInstance{
-      short docid = -1;
-      short id1 = -1;
-      short id2 = -1;
+      int docid = -1;
+      int id1 = -1;
+      int id2 = -1;
       boolean positive = false;
       boolean covered = false;
-      public SmallInstance(short doc, short np1, short np2, boolean pos, boolean cov){
+      public SmallInstance(int doc, int np1, int np2, boolean pos, boolean cov){
         this.docid = doc;
         this.id1 = np1;
         this.id2 = np2;
@@ -2100,11 +2248,12 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
      *          the default accuracy rate of data
      * @param antd
      *          the specific antecedent
-     * @param numConds
-     *          the number of antecedents in the rule so far
+     * @param ruleCoverage
+     *          the instances covered by the rule so far
      * @return the info gain for the antecedent
      */
-    private double computeInfoGainNumeric(InstancesShort instances, double defAcRt, Antd antd) {
+    private double computeInfoGainNumeric(InstancesShort instances, double defAcRt, Antd antd,
+        long[] ruleCoverage) {
       InstancesShort data = instances;
       double maxInfoGain = 0;
       AttributeShort currentClass = m_RealClass;
@@ -2121,16 +2270,16 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
       if(m_Debug)
         System.err.print("\t*Numeric antd " + antd + " with " + bag + " values. ");
 
-      short docid = -1;
-      short currentDoc = -1;
+      int docid = -1;
+      int currentDoc = -1;
       //First, split the instances into bags
       //while doing that, set up data structures for the documents
       for(int i = 0; i < data.numInstances(); i++){
         InstanceShort current = data.instance(i);
         // if this instance is not covered by a previous rule
-        docid = current.value(m_Docid);
-        short id1 = current.value(m_Id1);
-        short id2 = current.value(m_Id2);
+        docid = current.intValue(m_Docid);
+        int id1 = current.intValue(m_Id1);
+        int id2 = current.intValue(m_Id2);
         boolean pos = current.value(trueClass) == indexOfPositive;
         short cov = current.value(covered);
         boolean isCovered =  cov == indexOfPositive;
@@ -2138,7 +2287,7 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
         float weight = current.weight();
         SmallInstance cur = new SmallInstance(docid,id1,id2,pos,isCovered);
         short valNum = current.value(antd.getAttr());
-        if(!isCovered && covers(current)){//if the current instance is covered by the rule so far
+        if(!isCovered && CoverageIndex.get(ruleCoverage, i)){//if the current instance is covered by the rule so far
           if(splits[valNum]==null){
             splits[valNum]=new Vector();
           }
@@ -2202,8 +2351,8 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
           for(int j=0; j<insts.size(); j++){
             SmallInstance cur = (SmallInstance)insts.get(j);
             Vector[] clusters = docClusters[cur.docid];
-            short id1 = cur.id1;
-            short id2 = cur.id2;
+            int id1 = cur.id1;
+            int id2 = cur.id2;
             docid = cur.docid;
             Vector cl1 = clusters[id1];
             Vector cl2 = clusters[id2];
@@ -2287,10 +2436,10 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
       //while doing that, set up data structures for the documents
       for(int i = 0; i < data.numInstances(); i++){
         InstanceShort current = data.instance(i);
-        docid = current.value(m_Docid);
-        docid = current.value(m_Docid);
-        short id1 = current.value(m_Id1);
-        short id2 = current.value(m_Id2);
+        docid = current.intValue(m_Docid);
+        docid = current.intValue(m_Docid);
+        int id1 = current.intValue(m_Id1);
+        int id2 = current.intValue(m_Id2);
         short cov = current.value(covered);
         boolean isCovered =  cov == indexOfPositive;
 
@@ -2344,8 +2493,8 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
           for(int j=0; j<insts.size(); j++){
             SmallInstance cur = (SmallInstance)insts.get(j);
             Vector[] clusters = docClusters[cur.docid];
-            short id1 = cur.id1;
-            short id2 = cur.id2;
+            int id1 = cur.id1;
+            int id2 = cur.id2;
             docid = cur.docid;
             Vector cl1 = clusters[id1];
             Vector cl2 = clusters[id2];
@@ -2458,13 +2607,14 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
 
     }
 
-    private InstancesShort getCoveredData(InstancesShort data, Antd antd) {
+    private InstancesShort getCoveredData(InstancesShort data, Antd antd,
+        CoverageIndex index, long[] ruleCoverage) {
       AttributeShort realClass = m_RealClass;
       AttributeShort covered = m_Covered;
       short indexOfPositive = realClass.indexOfValue("+");
       InstancesShort result = new ModifiedInstancesShort(data, data.numInstances());
 
-      applyWithAntd(data, antd);
+      applyWithAntd(data, antd, index, ruleCoverage);
       data = transitiveClosure(data, realClass);
 
       for(int i = 0; i < data.numInstances(); i++){
@@ -2537,9 +2687,14 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
       }
 
       /* Calculate accuracy parameters for all the antecedents in this rule */
+      CoverageIndex index = new CoverageIndex(data);
+      long[] antdCoverage = index.all();
       for(int x = 0; x < size; x++){
         //this.apply(data, x - 1, x);
-        this.apply(data, x);
+        // the coverage of the antecedents 0..x, as in this.apply(data, x)
+        antdCoverage = CoverageIndex.and(antdCoverage,
+            ((Antd)m_Antds.elementAt(x)).coverage(index));
+        this.apply(data, antdCoverage);
         transitiveClosure(data, predictedClass);
 
         for(int y = 0; y < data.numInstances(); y++){
@@ -3432,7 +3587,7 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
       StRipShort classifier = new StRipShort();
       InstancesShort train = null, tempTrain, test = null, template = null;
       int seed = 1, folds = 10, classIndex = -1;
-      String trainFileName, testFileName, sourceClass, classIndexString, seedString, foldsString, objectInputFileName, objectOutputFileName, attributeRangeString;
+      String trainFileName, testFileName, bufferFileName, sourceClass, classIndexString, seedString, foldsString, objectInputFileName, objectOutputFileName, attributeRangeString;
       boolean IRstatistics = false, noOutput = false, printClassifications = false, trainStatistics = true, printMargins = false, printComplexityStatistics = false, printGraph = false, classStatistics = false, printSource = false;
       StringBuffer text = new StringBuffer();
       BufferedReader trainReader = null, testReader = null;
@@ -3450,6 +3605,7 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
       objectInputFileName = Utils.getOption('l', options);
       objectOutputFileName = Utils.getOption('d', options);
       testFileName = Utils.getOption('T', options);
+      bufferFileName = Utils.getOption('B', options);
       if(trainFileName.length() == 0){
         if(objectInputFileName.length() == 0){
           throw new Exception("No training file and no object "
@@ -3525,6 +3681,10 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
         train.setClassIndex(train.numAttributes() - 1);
       }
       train.cleanUpValues();
+      if(bufferFileName.length() != 0){
+        // keep the training instances in a memory-mapped file
+        train.setBuffer(new InstanceShortBuffer(train.numAttributes(), new File(bufferFileName)));
+      }
       //System.err.println(train);
       classifier.buildClassifier(train);
       System.out.println("Classifier built. "+classifier.m_RulesetStats.size()+" rules.");
@@ -3609,6 +3769,34 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
 	  }
 	  throw new RuntimeException("No rule matches instance.");
   }
+
+  /**
+   * Compiles the ruleset into a flat program that classifies instances the
+   * same way as classifyInstance().
+   * 
+   * @return the compiled ruleset
+   */
+  public CompiledRuleset compile() {
+    int numAntds = 0;
+    for(int i = 0; i < m_Ruleset.size(); i++)
+      numAntds += ((RipperRule)m_Ruleset.elementAt(i)).m_Antds.size();
+    CompiledRuleset result = new CompiledRuleset(m_Ruleset.size(), numAntds);
+    for(int i = 0; i < m_Ruleset.size(); i++){
+      RipperRule r = (RipperRule)m_Ruleset.elementAt(i);
+      result.addRule(r.getConsequent() * r.getAccuracy());
+      for(int j = 0; j < r.m_Antds.size(); j++){
+        Antd antd = (Antd)r.m_Antds.elementAt(j);
+        if(antd instanceof NumericAntd){
+          NumericAntd nantd = (NumericAntd)antd;
+          byte test = nantd.getValue() == NumericAntd.LE?CompiledRuleset.LE:CompiledRuleset.GE;
+          result.addAntd(antd.getAttr().index(), test, nantd.getSplitPoint());
+        } else
+          result.addAntd(antd.getAttr().index(), CompiledRuleset.EQ, antd.getValue());
+      }
+    }
+    return result;
+  }
+
   public static InstancesShort transitiveClosure(InstancesShort data,
       AttributeShort closureAttribute) {
     
@@ -3629,9 +3817,9 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
       // read all instances for a document
       InstanceShort current = result.instance(i);
       // System.out.println("Working on: "+current);
-      int currentDoc = (int)current.value(DOCID);
-      int id1 = (int)current.value(ID1);
-      int id2 = (int)current.value(ID2);
+      int currentDoc = current.intValue(DOCID);
+      int id1 = current.intValue(ID1);
+      int id2 = current.intValue(ID2);
       boolean cl = (int)current.value(CLASS) == positive;
       short cov;
       boolean notCovered;
@@ -3642,8 +3830,8 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
         // class value.
         for(int k = start; k < i; k++){
           InstanceShort curPair = result.instance(k);
-          int curId1 = (int)curPair.value(ID1);
-          int curId2 = (int)curPair.value(ID2);
+          int curId1 = curPair.intValue(ID1);
+          int curId2 = curPair.intValue(ID2);
           cov = curPair.value(covered);
           notCovered = cov != positive;
           notCovered = notCovered && otherClass;
@@ -3680,8 +3868,8 @@ public class StRipShort implements OptionHandler, AdditionalMeasureProducer,
     }
     for(int k = start; k < result.numInstances(); k++){
       InstanceShort curPair = result.instance(k);
-      int curId1 = (int)curPair.value(ID1);
-      int curId2 = (int)curPair.value(ID2);
+      int curId1 = curPair.intValue(ID1);
+      int curId2 = curPair.intValue(ID2);
       short cov = curPair.value(covered);
       boolean notCovered = cov != positive;
       notCovered = notCovered && otherClass;
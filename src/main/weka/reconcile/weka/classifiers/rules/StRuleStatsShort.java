@@ -334,12 +334,13 @@ public class StRuleStatsShort implements Serializable {
 		m_Distributions = new FastVector(size);
 		//InstancesShort data = m_Data;
 		((StRipShort.RipperRule)m_Ruleset.elementAt(0)).clear(data,false);
+		CoverageIndex coverage = new CoverageIndex(data);
 		for (int i = 0; i < size; i++) {
 			double[] stats = new double[6]; // 6 statistics parameters
 			double[] classCounts = new double[data.classAttribute().numValues()];
 			//Instances[] filtered = 
-			((StRipShort.RipperRule)m_Ruleset.elementAt(i)).apply(m_Ruleset, data, i);
-			computeSimpleStats(i, data, stats, classCounts);
+			((StRipShort.RipperRule)m_Ruleset.elementAt(i)).apply(m_Ruleset, data, i, coverage);
+			computeSimpleStats(i, data, stats, classCounts, coverage);
 			//m_Filtered.addElement(filtered);
 			m_SimpleStats.addElement(stats);
 			m_Distributions.addElement(classCounts);
@@ -373,10 +374,11 @@ public class StRuleStatsShort implements Serializable {
 			m_SimpleStats.addElement(prevRuleStats[i]);
 		}
 
+		CoverageIndex coverage = new CoverageIndex(data);
 		for (int j = index; j < size; j++) {
 			double[] stats = new double[6]; // 6 statistics parameters
-			((StRipShort.RipperRule)m_Ruleset.elementAt(j)).apply(m_Ruleset,data,j);
-			computeSimpleStats(j, data, stats, null);
+			((StRipShort.RipperRule)m_Ruleset.elementAt(j)).apply(m_Ruleset,data,j,coverage);
+			computeSimpleStats(j, data, stats, null, coverage);
 			m_SimpleStats.addElement(stats);
 		}
 	}
@@ -396,10 +398,12 @@ public class StRuleStatsShort implements Serializable {
 	 * @param dist
 	 *          the given array to hold class distributions, side-effected if
 	 *          null, the distribution is not necessary
+	 * @param coverage
+	 *          the coverage index of the dataset
 	 * @return the number of covered instances by the rule
 	 */
 	private int computeSimpleStats(int index, InstancesShort insts, double[] stats,
-			double[] dist) {
+			double[] dist, CoverageIndex coverage) {
 		StRipShort.RipperRule rule = (StRipShort.RipperRule) m_Ruleset.elementAt(index);
 		AttributeShort predClass = insts.attribute("predicted_class");
 		AttributeShort Covered = insts.attribute("covered");
@@ -411,7 +415,7 @@ public class StRuleStatsShort implements Serializable {
 
 		StRipShort.RipperRule ripperRule = (StRipShort.RipperRule) m_Ruleset.elementAt(index);
 		//ripperRule.clear(insts, false);
-		ripperRule.apply(insts, true);
+		ripperRule.apply(insts, true, coverage);
 		StRipShort.transitiveClosure(insts, predClass);
 		int previouslyCovered = 0;
 		for (int i = 0; i < insts.numInstances(); i++) {
@@ -465,8 +469,9 @@ public class StRuleStatsShort implements Serializable {
 		double[] stats = new double[6];
 		double[] classCounts = new double[data.classAttribute().numValues()];
 		// Instances[] filtered =
-		data = ((StRipShort.RipperRule)lastRule).apply(m_Ruleset,data,m_Ruleset.size()-1);
-		int cover = computeSimpleStats(m_Ruleset.size() - 1, data, stats, classCounts);
+		CoverageIndex coverage = new CoverageIndex(data);
+		data = ((StRipShort.RipperRule)lastRule).apply(m_Ruleset,data,m_Ruleset.size()-1,coverage);
+		int cover = computeSimpleStats(m_Ruleset.size() - 1, data, stats, classCounts, coverage);
 
 		// if (m_Filtered == null)
 		// m_Filtered = new FastVector();
@@ -683,16 +688,17 @@ public class StRuleStatsShort implements Serializable {
 				//.elementAt(index - 1))[1];
 		//InstancesShort data = m_Data;
 		// System.out.println("!!!without: " + data.sumOfWeights());
-		((StRipShort.RipperRule)m_Ruleset.elementAt(index)).apply(m_Ruleset,data,index);
+		CoverageIndex coverage = new CoverageIndex(data);
+		((StRipShort.RipperRule)m_Ruleset.elementAt(index)).apply(m_Ruleset,data,index,coverage);
 		for (int j = (index + 1); j < m_Ruleset.size(); j++) {
 			double[] stats = new double[6];
 			//Instances[] split = 
-			computeSimpleStats(j, data, stats, null);
+			computeSimpleStats(j, data, stats, null, coverage);
 			indexPlus.addElement(stats);
 			rulesetStat[0] += stats[0];
 			rulesetStat[2] += stats[2];
 			rulesetStat[4] += stats[4];
-			((StRipShort.RipperRule)m_Ruleset.elementAt(index)).applyWhileSkipping(m_Ruleset,data,index,j+1);
+			((StRipShort.RipperRule)m_Ruleset.elementAt(index)).applyWhileSkipping(m_Ruleset,data,index,j+1,coverage);
 		}
 		// Uncovered stats are those of the last rule
 		if (more > 0) {
@@ -893,21 +899,16 @@ public class StRuleStatsShort implements Serializable {
 	public static InstancesShort rmCoveredBySuccessives(InstancesShort data,
 			FastVector rules, int index) {
 		InstancesShort rt = new ModifiedInstancesShort(data, 0);
+		CoverageIndex coverage = new CoverageIndex(data);
+		long[] covered = new long[CoverageIndex.words(data.numInstances())];
+		for (int j = index + 1; j < rules.size(); j++) {
+			StRipShort.RipperRule rule = (StRipShort.RipperRule) rules.elementAt(j);
+			CoverageIndex.or(covered, rule.coverage(coverage));
+		}
 
 		for (int i = 0; i < data.numInstances(); i++) {
-			InstanceShort datum = data.instance(i);
-			boolean covered = false;
-
-			for (int j = index + 1; j < rules.size(); j++) {
-			  StRipShort.RipperRule rule = (StRipShort.RipperRule) rules.elementAt(j);
-				if (rule.covers(datum)) {
-					covered = true;
-					break;
-				}
-			}
-
-			if (!covered)
-				rt.add(datum);
+			if (!CoverageIndex.get(covered, i))
+				rt.add(data.instance(i));
 		}
 		return rt;
 	}
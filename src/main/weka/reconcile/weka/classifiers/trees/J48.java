@@ -86,6 +86,9 @@ import reconcile.weka.core.WeightedInstancesHandler;
  * -Q <br>
  * The seed for reduced-error pruning. <p>
  *
+ * -num-threads <br>
+ * The number of threads that evaluate the splits. (Default: 1) <p>
+ *
  * @author Eibe Frank (eibe@cs.waikato.ac.nz)
  * @version $Revision: 1.1 $
  */
@@ -130,6 +133,9 @@ public class J48 extends Classifier implements OptionHandler,
   /** Random number seed for reduced-error pruning. */
   private int m_Seed = 1;
 
+  /** Number of threads that evaluate the splits. */
+  private int m_numThreads = 1;
+
   /**
    * Returns a string describing classifier
    * @return a description suitable for
@@ -156,18 +162,22 @@ public class J48 extends Classifier implements OptionHandler,
     if (m_binarySplits)
       modSelection = new BinC45ModelSelection(m_minNumObj, instances);
     else
-      modSelection = new C45ModelSelection(m_minNumObj, instances);
+      modSelection = new C45ModelSelection(m_minNumObj, instances,
+					   m_numThreads);
     if (!m_reducedErrorPruning)
       m_root = new C45PruneableClassifierTree(modSelection, !m_unpruned, m_CF,
 					    m_subtreeRaising, !m_noCleanup);
     else
       m_root = new PruneableClassifierTree(modSelection, !m_unpruned, m_numFolds,
 					   !m_noCleanup, m_Seed);
-    m_root.buildClassifier(instances);
-    if (m_binarySplits) {
-      ((BinC45ModelSelection)modSelection).cleanup();
-    } else {
-      ((C45ModelSelection)modSelection).cleanup();
+    try {
+      m_root.buildClassifier(instances);
+    } finally {
+      if (m_binarySplits) {
+	((BinC45ModelSelection)modSelection).cleanup();
+      } else {
+	((C45ModelSelection)modSelection).cleanup();
+      }
     }
   }
 
@@ -279,11 +289,14 @@ public class J48 extends Classifier implements OptionHandler,
    * -Q <br>
    * The seed for reduced-error pruning. <p>
    *
+   * -num-threads <br>
+   * The number of threads that evaluate the splits. (Default: 1) <p>
+   *
    * @return an enumeration of all the available options.
    */
   public Enumeration listOptions() {
 
-    Vector newVector = new Vector(9);
+    Vector newVector = new Vector(11);
 
     newVector.
 	addElement(new Option("\tUse unpruned tree.",
@@ -319,6 +332,10 @@ public class J48 extends Classifier implements OptionHandler,
     newVector.
       addElement(new Option("\tSeed for random data shuffling (default 1).",
 			    "Q", 1, "-Q <seed>"));
+    newVector.
+      addElement(new Option("\tNumber of threads that evaluate the splits\n" +
+			    "\ton the attributes (default 1).",
+			    "num-threads", 1, "-num-threads <number of threads>"));
 
     return newVector.elements();
   }
@@ -389,6 +406,12 @@ public class J48 extends Classifier implements OptionHandler,
     } else {
       m_Seed = 1;
     }
+    String numThreadsString = Utils.getOption("num-threads", options);
+    if (numThreadsString.length() != 0) {
+      m_numThreads = Integer.parseInt(numThreadsString);
+    } else {
+      m_numThreads = 1;
+    }
   }
 
   /**
@@ -425,6 +448,7 @@ public class J48 extends Classifier implements OptionHandler,
     if (m_useLaplace) {
       options[current++] = "-A";
     }
+    options[current++] = "-num-threads"; options[current++] = "" + m_numThreads;
 
     while (current < options.length) {
       options[current++] = "";
@@ -462,6 +486,36 @@ public class J48 extends Classifier implements OptionHandler,
     m_Seed = newSeed;
   }
 
+  /**
+   * Returns the tip text for this property
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String numThreadsTipText() {
+    return "The number of threads that evaluate the splits on the attributes "
+      + "(the tree doesn't depend on it).";
+  }
+
+  /**
+   * Get the value of numThreads.
+   *
+   * @return Value of numThreads.
+   */
+  public int getNumThreads() {
+    
+    return m_numThreads;
+  }
+  
+  /**
+   * Set the value of numThreads.
+   *
+   * @param newNumThreads Value to assign to numThreads.
+   */
+  public void setNumThreads(int newNumThreads) {
+    
+    m_numThreads = newNumThreads;
+  }
+
   /**
    * Returns the tip text for this property
    * @return tip text for this property suitable for
@@ -57,6 +57,9 @@ import reconcile.weka.core.WeightedInstancesHandler;
  * -S seed <br>
  * Random number seed (default 1). <p>
  *
+ * -num-threads num <br>
+ * Number of threads that build the trees (default 1). <p>
+ *
  * @author Richard Kirkby (rkirkby@cs.waikato.ac.nz)
  * @version $Revision: 1.1 $
  */
@@ -73,6 +76,9 @@ public class RandomForest extends Classifier
   /** The random seed. */
   protected int m_randomSeed = 1;  
 
+  /** The number of threads that build the trees. */
+  protected int m_numThreads = 1;
+
   /** Final number of features that were considered in last build. */
   protected int m_KValue = 0;
 
@@ -178,6 +184,36 @@ public class RandomForest extends Classifier
     return m_randomSeed;
   }
 
+  /**
+   * Returns the tip text for this property
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String numThreadsTipText() {
+    return "The number of threads that build the trees and classify batches "
+      + "of instances. The forest doesn't depend on it.";
+  }
+
+  /**
+   * Set the number of threads.
+   *
+   * @param numThreads the number of threads
+   */
+  public void setNumThreads(int numThreads) {
+
+    m_numThreads = numThreads;
+  }
+  
+  /**
+   * Gets the number of threads.
+   *
+   * @return the number of threads
+   */
+  public int getNumThreads() {
+
+    return m_numThreads;
+  }
+
   /**
    * Gets the out of bag error that was calculated as the classifier was built.
    *
@@ -226,7 +262,7 @@ public class RandomForest extends Classifier
    */
   public Enumeration listOptions() {
     
-    Vector newVector = new Vector(3);
+    Vector newVector = new Vector(4);
 
     newVector.
       addElement(new Option("\tNumber of trees to build.",
@@ -238,6 +274,10 @@ public class RandomForest extends Classifier
       .addElement(new Option("\tSeed for random number generator.\n"
 			     + "\t(default 1)",
 			     "S", 1, "-S"));
+    newVector
+      .addElement(new Option("\tNumber of threads that build the trees.\n"
+			     + "\t(default 1)",
+			     "num-threads", 1, "-num-threads <num>"));
     return newVector.elements();
   }
 
@@ -256,6 +296,8 @@ public class RandomForest extends Classifier
     options[current++] = "" + getNumFeatures();
     options[current++] = "-S";
     options[current++] = "" + getSeed();
+    options[current++] = "-num-threads";
+    options[current++] = "" + getNumThreads();
     while (current < options.length) {
       options[current++] = "";
     }
@@ -287,6 +329,12 @@ public class RandomForest extends Classifier
     } else {
       setSeed(1);
     }
+    String numThreadsString = Utils.getOption("num-threads", options);
+    if (numThreadsString.length() != 0) {
+      setNumThreads(Integer.parseInt(numThreadsString));
+    } else {
+      setNumThreads(1);
+    }
     Utils.checkForRemainingOptions(options);
   }  
 
@@ -311,6 +359,7 @@ public class RandomForest extends Classifier
     m_bagger.setSeed(m_randomSeed);
     m_bagger.setNumIterations(m_numTrees);
     m_bagger.setCalcOutOfBag(true);
+    m_bagger.setNumThreads(m_numThreads);
     m_bagger.buildClassifier(data);
   }
 
@@ -325,6 +374,18 @@ public class RandomForest extends Classifier
     return m_bagger.distributionForInstance(instance);
   }
 
+  /**
+   * Returns the class probability distributions of all the instances
+   * of a dataset, classifying batches of them at the same time.
+   *
+   * @param data the instances to be classified
+   * @return the distribution the forest generates for each instance
+   */
+  public double[][] distributionsForInstances(Instances data) throws Exception {
+
+    return m_bagger.distributionsForInstances(data);
+  }
+
   /**
    * Outputs a description of this classifier.
    *
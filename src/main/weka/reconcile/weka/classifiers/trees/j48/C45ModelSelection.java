@@ -22,9 +22,17 @@
 
 package reconcile.weka.classifiers.trees.j48;
 
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.IdentityHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import reconcile.weka.core.Attribute;
+import reconcile.weka.core.Instance;
 import reconcile.weka.core.Instances;
 import reconcile.weka.core.Utils;
 
@@ -32,6 +40,15 @@ import reconcile.weka.core.Utils;
 /**
  * Class for selecting a C4.5-type split for a given dataset.
  *
+ * The numeric attributes are sorted once, for the data at the root
+ * of a tree (in the same way as the splits used to sort them at every
+ * node, so the root is the same as before), and the sort orders are
+ * passed on to the subsets of the data when a node is split (see
+ * split()), so they don't have to be sorted again. The splits on the
+ * attributes can be evaluated by several threads at once, and the
+ * split point is looked up in the sorted values of the attribute
+ * instead of scanning all the training data.
+ *
  * @author Eibe Frank (eibe@cs.waikato.ac.nz)
  * @version $Revision: 1.1 $y
  */
@@ -43,6 +60,29 @@ public class C45ModelSelection extends ModelSelection {
   /** All the training data */
   private Instances m_allData; // 
 
+  /** Number of threads that evaluate the splits on the attributes. */
+  private int m_numThreads = 1;
+
+  /** The threads (if there is more than one). */
+  private transient ExecutorService m_pool = null;
+
+  /** The data a split was selected for last and its sort orders. */
+  private transient Instances m_lastData = null;
+
+  private transient int [][] m_lastSorted = null;
+
+  /** The sort orders of the subsets of the data that haven't been
+      split yet, by subset. */
+  private transient IdentityHashMap m_sorted = null;
+
+  /** The distinct values of each numeric attribute in all the
+      training data, in ascending order (computed when needed). */
+  private transient float [][] m_allValues = null;
+
+  /** Minimum number of instances for which the attributes are
+      evaluated by several threads. */
+  private static final int MIN_PARALLEL_INSTANCES = 1000;
+
   /**
    * Initializes the split selection method with the given parameters.
    *
@@ -57,11 +97,34 @@ public class C45ModelSelection extends ModelSelection {
   }
 
   /**
-   * Sets reference to training data to null.
+   * Initializes the split selection method with the given parameters.
+   *
+   * @param minNoObj minimum number of instances that have to occur in at least two
+   * subsets induced by split
+   * @param allData FULL training dataset (necessary for
+   * selection of split points).
+   * @param numThreads number of threads that evaluate the splits on the
+   * attributes
+   */
+  public C45ModelSelection(int minNoObj, Instances allData, int numThreads) {
+    this(minNoObj, allData);
+    m_numThreads = numThreads;
+  }
+
+  /**
+   * Sets reference to training data to null, and stops the threads.
    */
   public void cleanup() {
 
     m_allData = null;
+    m_lastData = null;
+    m_lastSorted = null;
+    m_sorted = null;
+    m_allValues = null;
+    if (m_pool != null) {
+      m_pool.shutdown();
+      m_pool = null;
+    }
   }
 
   /**
@@ -84,6 +147,11 @@ public class C45ModelSelection extends ModelSelection {
     
     try{
 
+      // Get the sort orders if they were passed on from the parent.
+      int [][] sorted = null;
+      if (m_sorted != null)
+	sorted = (int [][])m_sorted.remove(data);
+
       // Check if all Instances belong to one class or if not
       // enough Instances to split.
       checkDistribution = new Distribution(data);
@@ -108,19 +176,20 @@ public class C45ModelSelection extends ModelSelection {
 	}
       } 
 
+      if (sorted == null)
+	sorted = sort(data);
       currentModel = new C45Split[data.numAttributes()];
       sumOfWeights = data.sumOfWeights();
 
+      // Get models for all attributes.
+      buildModels(data, sorted, currentModel, sumOfWeights);
+
       // For each attribute.
       for (i = 0; i < data.numAttributes(); i++){
 	
 	// Apart from class attribute.
 	if (i != (data).classIndex()){
 	  
-	  // Get models for current attribute.
-	  currentModel[i] = new C45Split(i,m_minNoObj,sumOfWeights);
-	  currentModel[i].buildClassifier(data);
-	  
 	  // Check if useful split for current attribute
 	  // exists and check for enumerated attributes with 
 	  // a lot of values.
@@ -171,8 +240,16 @@ public class C45ModelSelection extends ModelSelection {
 	  addInstWithUnknown(data,bestModel.attIndex());
       
       // Set the split point analogue to C45 if attribute numeric.
-      if (m_allData != null)
-	bestModel.setSplitPoint(m_allData);
+      if (m_allData != null) {
+	if (m_allData.attribute(bestModel.attIndex()).isNumeric())
+	  bestModel.setSplitPoint(m_allData, allValues(bestModel.attIndex()));
+	else
+	  bestModel.setSplitPoint(m_allData);
+      }
+
+      // Keep the sort orders for the subsets.
+      m_lastData = data;
+      m_lastSorted = sorted;
       return bestModel;
     }catch(Exception e){
       e.printStackTrace();
@@ -187,6 +264,233 @@ public class C45ModelSelection extends ModelSelection {
 
     return selectModel(train);
   }
+
+  /**
+   * Splits the given dataset with the model that was selected for it,
+   * and keeps the sort orders of the subsets.
+   *
+   * @exception Exception if something goes wrong
+   */
+  public final Instances [] split(ClassifierSplitModel model, Instances data) 
+       throws Exception {
+
+    Instances [] subsets = model.split(data);
+    if (data == m_lastData) {
+      partition(model, data, m_lastSorted, subsets);
+    }
+    m_lastData = null;
+    m_lastSorted = null;
+    return subsets;
+  }
+
+  /**
+   * Returns the distinct values of an attribute in all the training
+   * data, in ascending order.
+   */
+  private float [] allValues(int attIndex) {
+
+    if (m_allValues == null)
+      m_allValues = new float [m_allData.numAttributes()][];
+    if (m_allValues[attIndex] == null) {
+      float [] values = new float [m_allData.numInstances()];
+      int num = 0;
+      for (int i = 0; i < m_allData.numInstances(); i++) {
+	Instance instance = m_allData.instance(i);
+	if (!instance.isMissing(attIndex))
+	  values[num++] = (float)instance.value(attIndex);
+      }
+      Arrays.sort(values, 0, num);
+      int distinct = 0;
+      for (int i = 0; i < num; i++)
+	if ((distinct == 0) || (Float.floatToIntBits(values[i]) !=
+				Float.floatToIntBits(values[distinct - 1])))
+	  values[distinct++] = values[i];
+      m_allValues[attIndex] = new float [distinct];
+      System.arraycopy(values, 0, m_allValues[attIndex], 0, distinct);
+    }
+    return m_allValues[attIndex];
+  }
+
+  /**
+   * Builds the split on each attribute, with several threads if there
+   * are enough instances.
+   *
+   * @exception Exception if a split can't be built
+   */
+  private void buildModels(final Instances data, final int [][] sorted,
+			   final C45Split [] models, double sumOfWeights)
+       throws Exception {
+
+    for (int i = 0; i < data.numAttributes(); i++)
+      if (i != data.classIndex())
+	models[i] = new C45Split(i,m_minNoObj,sumOfWeights);
+
+    if (m_numThreads <= 1 || data.numInstances() < MIN_PARALLEL_INSTANCES) {
+      for (int i = 0; i < data.numAttributes(); i++)
+	if (models[i] != null)
+	  models[i].buildClassifier(data, sorted[i]);
+      return;
+    }
+    if (m_pool == null)
+      m_pool = Executors.newFixedThreadPool(m_numThreads);
+    Future [] futures = new Future[data.numAttributes()];
+    for (int i = 0; i < data.numAttributes(); i++) {
+      if (models[i] != null) {
+	final int att = i;
+	futures[i] = m_pool.submit(new Callable() {
+	    public Object call() throws Exception {
+	      models[att].buildClassifier(data, sorted[att]);
+	      return null;
+	    }
+	  });
+      }
+    }
+    for (int i = 0; i < futures.length; i++) {
+      if (futures[i] != null) {
+	try {
+	  futures[i].get();
+	} catch (ExecutionException e) {
+	  if (e.getCause() instanceof Exception)
+	    throw (Exception)e.getCause();
+	  throw e;
+	}
+      }
+    }
+  }
+
+  /**
+   * Sorts the data on each numeric attribute in turn, as the splits on
+   * the attributes do if they are built one after the other, and
+   * returns the order in which each split would have seen the
+   * instances, as indices into the data in its final order: for a
+   * numeric attribute, the instances with known values in ascending
+   * order of the values, for a nominal attribute, all the instances
+   * (null if the data isn't sorted at all).
+   */
+  private int [][] sort(Instances data) {
+
+    int numInstances = data.numInstances();
+    int [][] sorted = new int [data.numAttributes()][];
+    Instance [][] orders = new Instance [data.numAttributes()][];
+    Instance [] current = null;
+    boolean sortsNumeric = false;
+
+    for (int i = 0; i < data.numAttributes(); i++) {
+      if ((i != data.classIndex()) && data.attribute(i).isNumeric()) {
+	sortsNumeric = true;
+	data.sort(i);
+	int known = 0;
+	while ((known < numInstances) && !data.instance(known).isMissing(i))
+	  known++;
+	orders[i] = new Instance [known];
+	for (int k = 0; k < known; k++)
+	  orders[i][k] = data.instance(k);
+	current = null;
+      } else if (i != data.classIndex()) {
+	if (current == null) {
+	  current = new Instance [numInstances];
+	  for (int k = 0; k < numInstances; k++)
+	    current[k] = data.instance(k);
+	}
+	orders[i] = current;
+      }
+    }
+    if (!sortsNumeric)
+      return sorted;
+
+    // Turn the orders into indices into the data as it is now.
+    IdentityHashMap positions = new IdentityHashMap(2 * numInstances);
+    for (int k = 0; k < numInstances; k++)
+      positions.put(data.instance(k), new Integer(k));
+    for (int i = 0; i < data.numAttributes(); i++) {
+      if (orders[i] != null) {
+	if ((i > 0) && (orders[i] == orders[i - 1])) {
+	  sorted[i] = sorted[i - 1];
+	} else {
+	  sorted[i] = new int [orders[i].length];
+	  for (int k = 0; k < orders[i].length; k++)
+	    sorted[i][k] = ((Integer)positions.get(orders[i][k])).intValue();
+	}
+      }
+    }
+    return sorted;
+  }
+
+  /**
+   * Passes the sort orders of the numeric attributes on to the subsets
+   * the model splits the data into. The instances of a subset are the
+   * ones of the data in the same order, and an instance that goes to
+   * several subsets is in each of them (see
+   * ClassifierSplitModel.split()), so filtering the order of the data
+   * gives the order of a subset.
+   *
+   * @exception Exception if something goes wrong
+   */
+  private void partition(ClassifierSplitModel model, Instances data,
+			 int [][] sorted, Instances [] subsets)
+       throws Exception {
+
+    int numInstances = data.numInstances();
+    int numSubsets = subsets.length;
+    int [] subsetOf = new int [numInstances];
+    int [] position = new int [numInstances];
+    int [][] positions = null;
+    int [] counts = new int [numSubsets];
+
+    // Find the subset and the position in it of each instance.
+    for (int i = 0; i < numInstances; i++) {
+      Instance instance = data.instance(i);
+      int subset = model.whichSubset(instance);
+      subsetOf[i] = subset;
+      if (subset > -1) {
+	position[i] = counts[subset]++;
+      } else {
+	double [] weights = model.weights(instance);
+	if (positions == null)
+	  positions = new int [numInstances][];
+	positions[i] = new int [numSubsets];
+	for (int j = 0; j < numSubsets; j++)
+	  positions[i][j] = Utils.gr(weights[j],0) ? counts[j]++ : -1;
+      }
+    }
+    for (int j = 0; j < numSubsets; j++)
+      if (counts[j] != subsets[j].numInstances())
+	return;
+
+    int [][][] subsetSorted = new int [numSubsets][data.numAttributes()][];
+    for (int a = 0; a < data.numAttributes(); a++) {
+      if ((sorted[a] == null) || !data.attribute(a).isNumeric())
+	continue;
+      int [] known = new int [numSubsets];
+      for (int k = 0; k < sorted[a].length; k++) {
+	int i = sorted[a][k];
+	if (subsetOf[i] > -1) {
+	  known[subsetOf[i]]++;
+	} else {
+	  for (int j = 0; j < numSubsets; j++)
+	    if (positions[i][j] > -1)
+	      known[j]++;
+	}
+      }
+      for (int j = 0; j < numSubsets; j++)
+	subsetSorted[j][a] = new int [known[j]];
+      int [] next = new int [numSubsets];
+      for (int k = 0; k < sorted[a].length; k++) {
+	int i = sorted[a][k];
+	if (subsetOf[i] > -1) {
+	  subsetSorted[subsetOf[i]][a][next[subsetOf[i]]++] = position[i];
+	} else {
+	  for (int j = 0; j < numSubsets; j++)
+	    if (positions[i][j] > -1)
+	      subsetSorted[j][a][next[j]++] = positions[i][j];
+	}
+      }
+    }
+    if (m_sorted == null)
+      m_sorted = new IdentityHashMap();
+    for (int j = 0; j < numSubsets; j++)
+      m_sorted.put(subsets[j], subsetSorted[j]);
+  }
 }
 
 
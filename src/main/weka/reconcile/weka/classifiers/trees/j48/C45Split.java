@@ -91,6 +91,23 @@ public class C45Split extends ClassifierSplitModel{
   public void buildClassifier(Instances trainInstances) 
        throws Exception {
 
+    buildClassifier(trainInstances, null);
+  }
+
+  /**
+   * Creates a C4.5-type split on the given data. Assumes that none of
+   * the class values is missing. If sorted isn't null, it is the order
+   * in which the instances are used, as indices into the data: for a
+   * numeric attribute, the instances with known values of the
+   * attribute in ascending order of the values (the data isn't sorted
+   * then, and so isn't changed), for a nominal attribute, all the
+   * instances.
+   *
+   * @exception Exception if something goes wrong
+   */
+  public void buildClassifier(Instances trainInstances, int [] sorted) 
+       throws Exception {
+
     // Initialize the remaining instance variables.
     m_numSubsets = 0;
     m_splitPoint = Double.MAX_VALUE;
@@ -102,12 +119,13 @@ public class C45Split extends ClassifierSplitModel{
     if (trainInstances.attribute(m_attIndex).isNominal()) {
       m_complexityIndex = trainInstances.attribute(m_attIndex).numValues();
       m_index = m_complexityIndex;
-      handleEnumeratedAttribute(trainInstances);
+      handleEnumeratedAttribute(trainInstances, sorted);
     }else{
       m_complexityIndex = 2;
       m_index = 0;
-      trainInstances.sort(trainInstances.attribute(m_attIndex));
-      handleNumericAttribute(trainInstances);
+      if (sorted == null)
+	trainInstances.sort(trainInstances.attribute(m_attIndex));
+      handleNumericAttribute(trainInstances, sorted);
     }
   }    
 
@@ -163,11 +181,13 @@ public class C45Split extends ClassifierSplitModel{
   }
 
   /**
-   * Creates split on enumerated attribute.
+   * Creates split on enumerated attribute, with the instances in the
+   * given order (in the order of the data if it is null).
    *
    * @exception Exception if something goes wrong
    */
-  private void handleEnumeratedAttribute(Instances trainInstances)
+  private void handleEnumeratedAttribute(Instances trainInstances,
+					 int [] order)
        throws Exception {
     
     Instance instance;
@@ -176,11 +196,19 @@ public class C45Split extends ClassifierSplitModel{
 			      trainInstances.numClasses());
     
     // Only Instances with known values are relevant.
-    Enumeration enu = trainInstances.enumerateInstances();
-    while (enu.hasMoreElements()) {
-      instance = (Instance) enu.nextElement();
-      if (!instance.isMissing(m_attIndex))
-	m_distribution.add((int)instance.value(m_attIndex),instance);
+    if (order == null) {
+      Enumeration enu = trainInstances.enumerateInstances();
+      while (enu.hasMoreElements()) {
+	instance = (Instance) enu.nextElement();
+	if (!instance.isMissing(m_attIndex))
+	  m_distribution.add((int)instance.value(m_attIndex),instance);
+      }
+    } else {
+      for (int i = 0; i < order.length; i++) {
+	instance = trainInstances.instance(order[i]);
+	if (!instance.isMissing(m_attIndex))
+	  m_distribution.add((int)instance.value(m_attIndex),instance);
+      }
     }
     
     // Check if minimum number of Instances in at least two
@@ -196,11 +224,14 @@ public class C45Split extends ClassifierSplitModel{
   }
   
   /**
-   * Creates split on numeric attribute.
+   * Creates split on numeric attribute, with the instances in the
+   * given order (in the order of the data if it is null, which
+   * must then be sorted on the attribute).
    *
    * @exception Exception if something goes wrong
    */
-  private void handleNumericAttribute(Instances trainInstances)
+  private void handleNumericAttribute(Instances trainInstances,
+				      int [] sorted)
        throws Exception {
   
     int firstMiss;
@@ -217,14 +248,19 @@ public class C45Split extends ClassifierSplitModel{
     m_distribution = new Distribution(2,trainInstances.numClasses());
     
     // Only Instances with known values are relevant.
-    Enumeration enu = trainInstances.enumerateInstances();
-    i = 0;
-    while (enu.hasMoreElements()) {
-      instance = (Instance) enu.nextElement();
-      if (instance.isMissing(m_attIndex))
-	break;
-      m_distribution.add(1,instance);
-      i++;
+    if (sorted == null) {
+      Enumeration enu = trainInstances.enumerateInstances();
+      i = 0;
+      while (enu.hasMoreElements()) {
+	instance = (Instance) enu.nextElement();
+	if (instance.isMissing(m_attIndex))
+	  break;
+	m_distribution.add(1,instance);
+	i++;
+      }
+    } else {
+      for (i = 0; i < sorted.length; i++)
+	m_distribution.add(1,trainInstances.instance(sorted[i]));
     }
     firstMiss = i;
 	
@@ -247,12 +283,15 @@ public class C45Split extends ClassifierSplitModel{
     defaultEnt = infoGainCrit.oldEnt(m_distribution);
     while (next < firstMiss) {
 	  
-      if (trainInstances.instance(next-1).value(m_attIndex)+1e-5 < 
-	  trainInstances.instance(next).value(m_attIndex)) { 
+      if (value(trainInstances,sorted,next-1)+1e-5 < 
+	  value(trainInstances,sorted,next)) { 
 	
 	// Move class values for all Instances up to next 
 	// possible split point.
-	m_distribution.shiftRange(1,0,trainInstances,last,next);
+	if (sorted == null)
+	  m_distribution.shiftRange(1,0,trainInstances,last,next);
+	else
+	  m_distribution.shiftRange(1,0,trainInstances,sorted,last,next);
 	
 	// Check if enough Instances in each subset and compute
 	// values for criteria.
@@ -285,19 +324,24 @@ public class C45Split extends ClassifierSplitModel{
     // best split.
     m_numSubsets = 2;
     m_splitPoint = 
-      (trainInstances.instance(splitIndex+1).value(m_attIndex)+
-       trainInstances.instance(splitIndex).value(m_attIndex))/2;
+      (value(trainInstances,sorted,splitIndex+1)+
+       value(trainInstances,sorted,splitIndex))/2;
 
     // In case we have a numerical precision problem we need to choose the
     // smaller value
-    if (m_splitPoint == trainInstances.instance(splitIndex + 1).value(m_attIndex)) {
-      m_splitPoint = trainInstances.instance(splitIndex).value(m_attIndex);
+    if (m_splitPoint == value(trainInstances,sorted,splitIndex + 1)) {
+      m_splitPoint = value(trainInstances,sorted,splitIndex);
     }
 
     // Restore distributioN for best split.
     m_distribution = new Distribution(2,trainInstances.numClasses());
-    m_distribution.addRange(0,trainInstances,0,splitIndex+1);
-    m_distribution.addRange(1,trainInstances,splitIndex+1,firstMiss);
+    if (sorted == null) {
+      m_distribution.addRange(0,trainInstances,0,splitIndex+1);
+      m_distribution.addRange(1,trainInstances,splitIndex+1,firstMiss);
+    } else {
+      m_distribution.addRange(0,trainInstances,sorted,0,splitIndex+1);
+      m_distribution.addRange(1,trainInstances,sorted,splitIndex+1,firstMiss);
+    }
 
     // Compute modified gain ratio for best split.
     m_gainRatio = gainRatioCrit.
@@ -305,6 +349,18 @@ public class C45Split extends ClassifierSplitModel{
 		     m_infoGain);
   }
 
+  /**
+   * Returns the value of the split attribute of the i-th instance in
+   * the given order (in the order of the data if it is null).
+   */
+  private final double value(Instances trainInstances, int [] sorted,
+			     int i) {
+
+    if (sorted == null)
+      return trainInstances.instance(i).value(m_attIndex);
+    return trainInstances.instance(sorted[i]).value(m_attIndex);
+  }
+
   /**
    * Returns (C4.5-type) information gain for the generated split.
    */
@@ -405,6 +461,40 @@ public class C45Split extends ClassifierSplitModel{
     }
   }
   
+  /**
+   * Sets split point to greatest value in given data smaller or equal to
+   * old split point, as setSplitPoint(Instances) does, but with a binary
+   * search in the distinct values of the attribute in the data (in
+   * ascending order). The data is only scanned if the greatest value is
+   * within Utils.SMALL of the next smaller one, where the result
+   * depends on the order of the data.
+   */
+  public final void setSplitPoint(Instances allInstances, float [] values) {
+
+    if ((allInstances.attribute(m_attIndex).isNumeric()) &&
+	(m_numSubsets > 1)) {
+
+      // Find the last value that is smaller or equal to the split point.
+      int lo = 0, hi = values.length - 1, last = -1;
+      while (lo <= hi) {
+	int mid = (lo + hi) >>> 1;
+	if (Utils.smOrEq(values[mid],m_splitPoint)) {
+	  last = mid;
+	  lo = mid + 1;
+	} else {
+	  hi = mid - 1;
+	}
+      }
+      if (last == -1) {
+	m_splitPoint = -Double.MAX_VALUE;
+      } else if ((last == 0) || Utils.gr(values[last],values[last - 1])) {
+	m_splitPoint = values[last];
+      } else {
+	setSplitPoint(allInstances);
+      }
+    }
+  }
+
   /**
    * Returns the minsAndMaxs of the index.th subset.
    */
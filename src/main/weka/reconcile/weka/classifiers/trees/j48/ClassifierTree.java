@@ -133,7 +133,7 @@ public class ClassifierTree implements Drawable, Serializable {
     m_sons = null;
     m_localModel = m_toSelectModel.selectModel(data);
     if (m_localModel.numSubsets() > 1) {
-      localInstances = m_localModel.split(data);
+      localInstances = m_toSelectModel.split(m_localModel, data);
       data = null;
       m_sons = new ClassifierTree [m_localModel.numSubsets()];
       for (int i = 0; i < m_sons.length; i++) {
@@ -172,7 +172,7 @@ public class ClassifierTree implements Drawable, Serializable {
     m_localModel = m_toSelectModel.selectModel(train, test);
     m_test = new Distribution(test, m_localModel);
     if (m_localModel.numSubsets() > 1) {
-      localTrain = m_localModel.split(train);
+      localTrain = m_toSelectModel.split(m_localModel, train);
       localTest = m_localModel.split(test);
       train = test = null;
       m_sons = new ClassifierTree [m_localModel.numSubsets()];
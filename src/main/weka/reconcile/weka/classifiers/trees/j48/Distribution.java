@@ -318,6 +318,33 @@ public class Distribution implements Cloneable, Serializable {
     }
   }
 
+  /**
+   * Adds the instances in given range of the given order of the
+   * instances (source.instance(order[i]) is the i-th instance) to
+   * given bag.
+   *
+   * @exception Exception if something goes wrong
+   */
+  public final void addRange(int bagIndex,Instances source,int [] order,
+			     int startIndex, int lastPlusOne)
+       throws Exception {
+
+    double sumOfWeights = 0;
+    int classIndex;
+    Instance instance;
+    int i;
+
+    for (i = startIndex; i < lastPlusOne; i++) {
+      instance = (Instance) source.instance(order[i]);
+      classIndex = (int)instance.classValue();
+      sumOfWeights = sumOfWeights+instance.weight();
+      m_perClassPerBag[bagIndex][classIndex] += instance.weight();
+      m_perClass[classIndex] += instance.weight();
+    }
+    m_perBag[bagIndex] += sumOfWeights;
+    totaL += sumOfWeights;
+  }
+
   /**
    * Adds all instances in given range to given bag.
    *
@@ -705,6 +732,33 @@ public class Distribution implements Cloneable, Serializable {
     m_perBag[to] += weight;
   }
 
+  /**
+   * Shifts the instances in given range of the given order of the
+   * instances (source.instance(order[i]) is the i-th instance) from
+   * one bag to another one.
+   *
+   * @exception Exception if something goes wrong
+   */
+  public final void shiftRange(int from,int to,Instances source,int [] order,
+			       int startIndex,int lastPlusOne) 
+       throws Exception {
+    
+    int classIndex;
+    double weight;
+    Instance instance;
+    int i;
+
+    for (i = startIndex; i < lastPlusOne; i++) {
+      instance = (Instance) source.instance(order[i]);
+      classIndex = (int)instance.classValue();
+      weight = instance.weight();
+      m_perClassPerBag[from][classIndex] -= weight;
+      m_perClassPerBag[to][classIndex] += weight;
+      m_perBag[from] -= weight;
+      m_perBag[to] += weight;
+    }
+  }
+
   /**
    * Shifts all instances in given range from one bag to another one.
    *
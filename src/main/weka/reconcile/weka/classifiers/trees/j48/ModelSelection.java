@@ -52,4 +52,17 @@ public abstract class ModelSelection implements Serializable {
 
     throw new Exception("Model selection method not implemented");
   }
+
+  /**
+   * Splits the given dataset with the model that was selected for it.
+   * Model selection methods that keep information about the data of
+   * a node pass it on to the subsets here.
+   *
+   * @exception Exception if something goes wrong
+   */
+  public Instances [] split(ClassifierSplitModel model, Instances data) 
+       throws Exception {
+
+    return model.split(data);
+  }
 }
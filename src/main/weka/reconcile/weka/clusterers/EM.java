@@ -25,6 +25,12 @@ package  reconcile.weka.clusterers;
 import java.util.Enumeration;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import reconcile.weka.core.Instance;
 import reconcile.weka.core.Instances;
@@ -78,6 +84,10 @@ import reconcile.weka.filters.unsupervised.attribute.ReplaceMissingValues;
  * Set the minimum allowable standard deviation for normal density calculation.
  * <p>
  *
+ * -num-threads <num> <br>
+ * Number of threads for the E and M steps, the k means runs and the cross
+ * validation folds. <p>
+ *
  * @author Mark Hall (mhall@cs.waikato.ac.nz)
  * @author Eibe Frank (eibe@cs.waikato.ac.nz)
  * @version $Revision: 1.1 $
@@ -142,6 +152,9 @@ public class EM
  /** globally replace missing values */
   private ReplaceMissingValues m_replaceMissing;
 
+  /** number of threads to run with */
+  private int m_NumThreads;
+
   /**
    * Returns a string describing this clusterer
    * @return a description of the evaluator suitable for
@@ -175,11 +188,14 @@ public class EM
    *  Set the minimum allowable standard deviation for normal density 
    * calculation. <p>
    *
+   * -num-threads <num> <br>
+   * Number of threads to run with. <p>
+   *
    * @return an enumeration of all the available options.
    *
    **/
   public Enumeration listOptions () {
-    Vector newVector = new Vector(6);
+    Vector newVector = new Vector(7);
     newVector.addElement(new Option("\tnumber of clusters. If omitted or" 
 				    + "\n\t-1 specified, then cross " 
 				    + "validation is used to\n\tselect the " 
@@ -194,6 +210,10 @@ public class EM
 				    +"for normal density computation "
 				    +"\n\t(default 1e-6)"
 				    ,"M",1,"-M <num>"));
+    newVector.addElement(new Option("\tnumber of threads for the E and M "
+				    + "steps, the k means runs and the\n\t"
+				    + "cross validation folds.\n\t(default 1)"
+				    , "num-threads", 1, "-num-threads <num>"));
     return  newVector.elements();
   }
 
@@ -230,6 +250,11 @@ public class EM
     if (optionString.length() != 0) {
       setMinStdDev((new Double(optionString)).doubleValue());
     }
+
+    optionString = Utils.getOption("num-threads", options);
+    if (optionString.length() != 0) {
+      setNumThreads(Integer.parseInt(optionString));
+    }
   }
 
   /**
@@ -373,6 +398,35 @@ public class EM
   }
 
 
+  /**
+   * Returns the tip text for this property
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String numThreadsTipText() {
+    return "number of threads for the E and M steps, the k means runs and "
+      + "the cross validation folds. The clusters do not depend on it.";
+  }
+
+  /**
+   * Set the number of threads to run with
+   *
+   * @param n the number of threads
+   */
+  public void setNumThreads (int n) {
+    m_NumThreads = Math.max(1, n);
+  }
+
+  /**
+   * Get the number of threads to run with
+   *
+   * @return the number of threads
+   */
+  public int getNumThreads () {
+    return  m_NumThreads;
+  }
+
+
   /**
    * Set debug mode - verbose output
    *
@@ -399,7 +453,7 @@ public class EM
    * @return an array of strings suitable for passing to setOptions()
    */
   public String[] getOptions () {
-    String[] options = new String[9];
+    String[] options = new String[11];
     int current = 0;
 
     if (m_verbose) {
@@ -414,6 +468,8 @@ public class EM
     options[current++] = "" + m_rseed;
     options[current++] = "-M";
     options[current++] = ""+getMinStdDev();
+    options[current++] = "-num-threads";
+    options[current++] = "" + m_NumThreads;
 
     while (current < options.length) {
       options[current++] = "";
@@ -432,13 +488,11 @@ public class EM
     int i, j, k;
 
     // run k means 10 times and choose best solution
+    SimpleKMeans [] runs = kMeansRuns(inst, 10);
     SimpleKMeans bestK = null;
     double bestSqE = Double.MAX_VALUE;
-    for (i = 0; i < 10; i++) {
-      SimpleKMeans sk = new SimpleKMeans();
-      sk.setSeed(m_rr.nextInt());
-      sk.setNumClusters(m_num_clusters);
-      sk.buildClusterer(inst);
+    for (i = 0; i < runs.length; i++) {
+      SimpleKMeans sk = runs[i];
       if (sk.getSquaredError() < bestSqE) {
 	bestSqE = sk.getSquaredError();
 	bestK = sk;
@@ -505,6 +559,42 @@ public class EM
   }
 
 
+  /**
+   * Runs k means a number of times, each with the next seed from m_rr. 
+   * The runs are spread over m_NumThreads threads.
+   *
+   * @param inst the instances
+   * @param numRuns the number of runs
+   * @return the clusterers built
+   * @exception Exception if a clusterer can't be built
+   */
+  private SimpleKMeans [] kMeansRuns (final Instances inst, int numRuns)
+    throws Exception {
+
+    final SimpleKMeans [] runs = new SimpleKMeans [numRuns];
+    for (int i = 0; i < numRuns; i++) {
+      runs[i] = new SimpleKMeans();
+      runs[i].setSeed(m_rr.nextInt());
+      runs[i].setNumClusters(m_num_clusters);
+    }
+    final AtomicInteger next = new AtomicInteger();
+    Callable [] tasks = new Callable [threadsFor(numRuns)];
+    for (int t = 0; t < tasks.length; t++) {
+      tasks[t] = new Callable() {
+	  public Object call() throws Exception {
+	    int i;
+	    while ((i = next.getAndIncrement()) < runs.length) {
+	      runs[i].buildClusterer(inst);
+	    }
+	    return null;
+	  }
+	};
+    }
+    runTasks(tasks);
+    return runs;
+  }
+
+
   /**
    * calculate prior probabilites for the clusters
    *
@@ -572,80 +662,98 @@ public class EM
    * The M step of the EM algorithm.
    * @param inst the training instances
    */
-  private void M (Instances inst)
+  private void M (final Instances inst)
     throws Exception {
 
-    int i, j, l;
-
     new_estimators();
 
-    for (i = 0; i < m_num_clusters; i++) {
-      for (j = 0; j < m_num_attribs; j++) {
-        for (l = 0; l < inst.numInstances(); l++) {
-	  Instance in = inst.instance(l);
-          if (!in.isMissing(j)) {
-            if (inst.attribute(j).isNominal()) {
-              m_model[i][j].addValue(in.value(j), 
-				     in.weight() * m_weights[l][i]);
-            }
-            else {
-              m_modelNormal[i][j][0] += (in.value(j) * in.weight() *
-					 m_weights[l][i]);
-              m_modelNormal[i][j][2] += in.weight() * m_weights[l][i];
-              m_modelNormal[i][j][1] += (in.value(j) * 
-					 in.value(j) * in.weight() * m_weights[l][i]);
-            }
-          }
+    // each cluster and attribute is estimated on its own
+    final AtomicInteger next = new AtomicInteger();
+    Callable [] tasks = 
+      new Callable [threadsFor(m_num_clusters * m_num_attribs)];
+    for (int t = 0; t < tasks.length; t++) {
+      tasks[t] = new Callable() {
+	  public Object call() {
+	    int k;
+	    while ((k = next.getAndIncrement()) 
+		   < m_num_clusters * m_num_attribs) {
+	      M(inst, k / m_num_attribs, k % m_num_attribs);
+	    }
+	    return null;
+	  }
+	};
+    }
+    runTasks(tasks);
+  }
+
+  /**
+   * The M step of the EM algorithm for one cluster and attribute.
+   * @param inst the training instances
+   * @param i the cluster
+   * @param j the attribute
+   */
+  private void M (Instances inst, int i, int j) {
+
+    for (int l = 0; l < inst.numInstances(); l++) {
+      Instance in = inst.instance(l);
+      if (!in.isMissing(j)) {
+        if (inst.attribute(j).isNominal()) {
+          m_model[i][j].addValue(in.value(j), 
+                                 in.weight() * m_weights[l][i]);
+        }
+        else {
+          m_modelNormal[i][j][0] += (in.value(j) * in.weight() *
+                                     m_weights[l][i]);
+          m_modelNormal[i][j][2] += in.weight() * m_weights[l][i];
+          m_modelNormal[i][j][1] += (in.value(j) * 
+                                     in.value(j) * in.weight() * m_weights[l][i]);
         }
       }
     }
     
     // calcualte mean and std deviation for numeric attributes
-    for (j = 0; j < m_num_attribs; j++) {
-      if (!inst.attribute(j).isNominal()) {
-        for (i = 0; i < m_num_clusters; i++) {
-          if (m_modelNormal[i][j][2] <= 0) {
-            m_modelNormal[i][j][1] = Double.MAX_VALUE;
-	    //	    m_modelNormal[i][j][0] = 0;
-	    m_modelNormal[i][j][0] = m_minStdDev;
-          } else {
-	      
-	    // variance
-	    m_modelNormal[i][j][1] = (m_modelNormal[i][j][1] - 
-				      (m_modelNormal[i][j][0] * 
-				       m_modelNormal[i][j][0] / 
-				       m_modelNormal[i][j][2])) / 
-	      (m_modelNormal[i][j][2]);
-	    
-	    if (m_modelNormal[i][j][1] < 0) {
-	      m_modelNormal[i][j][1] = 0;
-	    }
-	    
-	    // std dev      
-	    double minStdD = (m_minStdDevPerAtt != null)
-	    ? m_minStdDevPerAtt[j]
-	    : m_minStdDev;
+    if (inst.attribute(j).isNominal()) {
+      return;
+    }
+    if (m_modelNormal[i][j][2] <= 0) {
+      m_modelNormal[i][j][1] = Double.MAX_VALUE;
+      //      m_modelNormal[i][j][0] = 0;
+      m_modelNormal[i][j][0] = m_minStdDev;
+    } else {
+      
+      // variance
+      m_modelNormal[i][j][1] = (m_modelNormal[i][j][1] - 
+				(m_modelNormal[i][j][0] * 
+				 m_modelNormal[i][j][0] / 
+				 m_modelNormal[i][j][2])) / 
+	(m_modelNormal[i][j][2]);
+      
+      if (m_modelNormal[i][j][1] < 0) {
+	m_modelNormal[i][j][1] = 0;
+      }
+      
+      // std dev      
+      double minStdD = (m_minStdDevPerAtt != null)
+	? m_minStdDevPerAtt[j]
+	: m_minStdDev;
 
-	    m_modelNormal[i][j][1] = Math.sqrt(m_modelNormal[i][j][1]);              
+      m_modelNormal[i][j][1] = Math.sqrt(m_modelNormal[i][j][1]);              
 
-	    if ((m_modelNormal[i][j][1] <= minStdD)) {
-	      m_modelNormal[i][j][1] = inst.attributeStats(j).numericStats.stdDev;
-	      if ((m_modelNormal[i][j][1] <= minStdD)) {
-		m_modelNormal[i][j][1] = minStdD;
-	      }
-	    }
-	    if ((m_modelNormal[i][j][1] <= 0)) {
-	      m_modelNormal[i][j][1] = m_minStdDev;
-	    }
-            if (Double.isInfinite(m_modelNormal[i][j][1])) {
-              m_modelNormal[i][j][1] = m_minStdDev;
-            }
-	    
-	    // mean
-	    m_modelNormal[i][j][0] /= m_modelNormal[i][j][2];
-	  }
-        }
+      if ((m_modelNormal[i][j][1] <= minStdD)) {
+	m_modelNormal[i][j][1] = inst.attributeStats(j).numericStats.stdDev;
+	if ((m_modelNormal[i][j][1] <= minStdD)) {
+	  m_modelNormal[i][j][1] = minStdD;
+	}
+      }
+      if ((m_modelNormal[i][j][1] <= 0)) {
+	m_modelNormal[i][j][1] = m_minStdDev;
+      }
+      if (Double.isInfinite(m_modelNormal[i][j][1])) {
+	m_modelNormal[i][j][1] = m_minStdDev;
       }
+      
+      // mean
+      m_modelNormal[i][j][0] /= m_modelNormal[i][j][2];
     }
   }
 
@@ -656,21 +764,43 @@ public class EM
    * @param inst the training instances
    * @return the average log likelihood
    */
-  private double E (Instances inst, boolean change_weights)
+  private double E (final Instances inst, final boolean change_weights)
     throws Exception {
 
     double loglk = 0.0, sOW = 0.0;
 
+    // the densities are computed in parallel, but added up in order
+    final double [] logDensities = new double [inst.numInstances()];
+    final AtomicInteger next = new AtomicInteger();
+    Callable [] tasks = new Callable [threadsFor(inst.numInstances())];
+    for (int t = 0; t < tasks.length; t++) {
+      tasks[t] = new Callable() {
+	  public Object call() {
+	    int l;
+	    while ((l = next.getAndIncrement()) < inst.numInstances()) {
+	      double [] a = logJointDensities(inst.instance(l));
+	      double max = a[Utils.maxIndex(a)];
+	      double sum = 0.0;
+	      for (int i = 0; i < a.length; i++) {
+		sum += Math.exp(a[i] - max);
+	      }
+	      logDensities[l] = max + Math.log(sum);
+	      if (change_weights) {
+		m_weights[l] = Utils.logs2probs(a);
+	      }
+	    }
+	    return null;
+	  }
+	};
+    }
+    runTasks(tasks);
+
     for (int l = 0; l < inst.numInstances(); l++) {
 
       Instance in = inst.instance(l);
 
-      loglk += in.weight() * logDensityForInstance(in);
+      loglk += in.weight() * logDensities[l];
       sOW += in.weight();
-
-      if (change_weights) {
-	m_weights[l] = distributionForInstance(in);
-      }
     }
     
     // reestimate priors
@@ -700,6 +830,7 @@ public class EM
     m_num_clusters = -1;
     m_initialNumClusters = -1;
     m_verbose = false;
+    m_NumThreads = 1;
   }
 
   /**
@@ -835,22 +966,36 @@ public class EM
       trainCopy = new Instances(m_theInstances);
       trainCopy.randomize(cvr);
       templl = 0.0;
+
+      // split the folds in order (they draw from cvr) and run them
+      Instances [] cvTrain = new Instances [numFolds];
+      Instances [] cvTest = new Instances [numFolds];
+      int numRun = numFolds;
+      for (i = 0; i < numFolds; i++) {
+	cvTrain[i] = trainCopy.trainCV(numFolds, i, cvr);
+	if (num_clusters > cvTrain[i].numInstances()) {
+	  numRun = i;
+	  break;
+	}
+	cvTest[i] = trainCopy.testCV(numFolds, i);
+      }
+      FoldResult [] results = runFolds(cvTrain, cvTest, numRun, 
+				       num_clusters, seed);
+
       for (i = 0; i < numFolds; i++) {
-	Instances cvTrain = trainCopy.trainCV(numFolds, i, cvr);
-	if (num_clusters > cvTrain.numInstances()) {
+	if (i == numRun) {
 	  break CLUSTER_SEARCH;
 	}
-	Instances cvTest = trainCopy.testCV(numFolds, i);
-	m_rr = new Random(seed);
-        for (int z=0; z<10; z++) m_rr.nextDouble();
-	m_num_clusters = num_clusters;
-	EM_Init(cvTrain);
-	try {
-	  iterate(cvTrain, false);
-	} catch (Exception ex) {
+	if (results[i].m_initFailure != null) {
+	  throw results[i].m_initFailure;
+	}
+	if (results[i].m_failure != null) {
 	  // catch any problems - i.e. empty clusters occuring
-	  ex.printStackTrace();
-          //          System.err.println("Restarting after CV training failure ("+num_clusters+" clusters");
+	  if (m_verbose) {
+	    System.out.println("Restarting after CV failure (" + num_clusters
+			       + " clusters, fold " + i + "): "
+			       + results[i].m_failure.getMessage());
+	  }
           seed++;
           restartCount++;
           ok = false;
@@ -859,22 +1004,7 @@ public class EM
           }
 	  break;
 	}
-        try {
-          tll = E(cvTest, false);
-        } catch (Exception ex) {
-          // catch any problems - i.e. empty clusters occuring
-          //          ex.printStackTrace();
-          ex.printStackTrace();
-          //          System.err.println("Restarting after CV testing failure ("+num_clusters+" clusters");
-          //          throw new Exception(ex); 
-          seed++;
-          restartCount++;
-          ok = false;
-          if (restartCount > 5) {
-            break CLUSTER_SEARCH;
-          }
-          break;
-        }
+	tll = results[i].m_logLikely;
 
 	if (m_verbose) {
 	  System.out.println("# clust: " + num_clusters + " Fold: " + i 
@@ -914,6 +1044,114 @@ public class EM
   }
 
 
+  /**
+   * The outcome of a cross validation fold.
+   */
+  private static class FoldResult {
+
+    /** the log likelihood of the test data */
+    double m_logLikely;
+
+    /** the exception thrown fitting or testing the model, if any */
+    Exception m_failure;
+
+    /** the exception thrown initialising the model, if any */
+    Exception m_initFailure;
+  }
+
+  /**
+   * Runs cross validation folds for a number of clusters. The folds are
+   * spread over m_NumThreads threads, each fitted by its own copy of
+   * this clusterer.
+   *
+   * @param cvTrain the training data of the folds
+   * @param cvTest the test data of the folds
+   * @param numRun the number of folds to run
+   * @param numClusters the number of clusters
+   * @param seed the seed to initialise each fold with
+   * @return the outcome of each fold
+   * @exception Exception if a thread fails
+   */
+  private FoldResult [] runFolds (final Instances [] cvTrain, 
+				  final Instances [] cvTest, final int numRun,
+				  final int numClusters, final int seed)
+    throws Exception {
+
+    final FoldResult [] results = new FoldResult [numRun];
+    final AtomicInteger next = new AtomicInteger();
+    Callable [] tasks = new Callable [threadsFor(numRun)];
+    final int foldThreads = (tasks.length > 1) ? 1 : m_NumThreads;
+    for (int t = 0; t < tasks.length; t++) {
+      tasks[t] = new Callable() {
+	  public Object call() {
+	    int i;
+	    while ((i = next.getAndIncrement()) < numRun) {
+	      results[i] = foldCopy(foldThreads)
+		.runFold(cvTrain[i], cvTest[i], numClusters, seed);
+	    }
+	    return null;
+	  }
+	};
+    }
+    runTasks(tasks);
+    return results;
+  }
+
+  /**
+   * Makes a copy of this clusterer, with the training data and settings,
+   * to run a cross validation fold with.
+   *
+   * @param numThreads the number of threads for the copy
+   * @return the copy
+   */
+  private EM foldCopy (int numThreads) {
+
+    EM copy = new EM();
+    copy.m_minStdDev = m_minStdDev;
+    copy.m_minStdDevPerAtt = m_minStdDevPerAtt;
+    copy.m_max_iterations = m_max_iterations;
+    copy.m_rseed = m_rseed;
+    copy.m_theInstances = m_theInstances;
+    copy.m_num_instances = m_num_instances;
+    copy.m_num_attribs = m_num_attribs;
+    copy.m_minValues = m_minValues;
+    copy.m_maxValues = m_maxValues;
+    copy.m_NumThreads = numThreads;
+    return copy;
+  }
+
+  /**
+   * Fits a model to the training data of a cross validation fold and 
+   * computes the log likelihood of its test data.
+   *
+   * @param cvTrain the training data
+   * @param cvTest the test data
+   * @param numClusters the number of clusters
+   * @param seed the seed to initialise with
+   * @return the outcome of the fold
+   */
+  private FoldResult runFold (Instances cvTrain, Instances cvTest,
+			      int numClusters, int seed) {
+
+    FoldResult result = new FoldResult();
+    m_rr = new Random(seed);
+    for (int z=0; z<10; z++) m_rr.nextDouble();
+    m_num_clusters = numClusters;
+    try {
+      EM_Init(cvTrain);
+    } catch (Exception ex) {
+      result.m_initFailure = ex;
+      return result;
+    }
+    try {
+      iterate(cvTrain, false);
+      result.m_logLikely = E(cvTest, false);
+    } catch (Exception ex) {
+      result.m_failure = ex;
+    }
+    return result;
+  }
+
   /**
    * Returns the number of clusters.
    *
@@ -1017,12 +1255,25 @@ public class EM
    */
   public double[] logDensityPerClusterForInstance(Instance inst) throws Exception {
 
+    m_replaceMissing.input(inst);
+    inst = m_replaceMissing.output();
+
+    return logDensityPerCluster(inst);
+  }
+
+  /**
+   * Computes the log of the conditional density (per cluster) for an
+   * instance without missing values. Only reads the model, so it can be
+   * called from several threads.
+   *
+   * @param inst the instance to compute the density for
+   * @return an array containing the estimated densities
+   */
+  private double[] logDensityPerCluster(Instance inst) {
+
     int i, j;
     double logprob;
     double[] wghts = new double[m_num_clusters];
-    
-    m_replaceMissing.input(inst);
-    inst = m_replaceMissing.output();
 
     for (i = 0; i < m_num_clusters; i++) {
       //      System.err.println("Cluster : "+i);
@@ -1050,6 +1301,72 @@ public class EM
     return  wghts;
   }
 
+  /**
+   * Computes the log of the joint density (per cluster) for an instance
+   * without missing values, in the same way as 
+   * logJointDensitiesForInstance.
+   *
+   * @param inst the instance to compute the densities for
+   * @return an array containing the log joint densities
+   * @exception IllegalArgumentException if a cluster is empty
+   */
+  private double[] logJointDensities(Instance inst) {
+
+    double[] weights = logDensityPerCluster(inst);
+    for (int i = 0; i < weights.length; i++) {
+      if (m_priors[i] > 0) {
+	weights[i] += Math.log(m_priors[i]);
+      } else {
+	throw new IllegalArgumentException("Cluster empty!");
+      }
+    }
+    return weights;
+  }
+
+  /**
+   * Gets the number of threads to process a number of items with.
+   *
+   * @param numItems the number of items
+   * @return the number of threads, at least 1
+   */
+  private int threadsFor(int numItems) {
+    return Math.max(1, Math.min(m_NumThreads, numItems));
+  }
+
+  /**
+   * Runs tasks on their own threads, or in the calling thread if there
+   * is only one.
+   *
+   * @param tasks the tasks
+   * @exception Exception the first exception thrown by a task
+   */
+  private static void runTasks(Callable [] tasks) throws Exception {
+
+    if (tasks.length == 1) {
+      tasks[0].call();
+      return;
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(tasks.length);
+    try {
+      Future [] futures = new Future [tasks.length];
+      for (int i = 0; i < tasks.length; i++) {
+	futures[i] = pool.submit(tasks[i]);
+      }
+      for (int i = 0; i < tasks.length; i++) {
+	try {
+	  futures[i].get();
+	} catch (ExecutionException e) {
+	  if (e.getCause() instanceof Exception) {
+	    throw (Exception)e.getCause();
+	  }
+	  throw e;
+	}
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
 
   /**
    * Perform the EM algorithm
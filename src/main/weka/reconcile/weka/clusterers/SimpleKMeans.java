@@ -25,6 +25,12 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import reconcile.weka.classifiers.rules.DecisionTable;
 import reconcile.weka.core.Attribute;
@@ -49,6 +55,12 @@ import reconcile.weka.filters.unsupervised.attribute.ReplaceMissingValues;
  * -S <seed> <br>
  * Specify random number seed. <p>
  *
+ * -kmeans-plus-plus <br>
+ * Choose the initial centroids with k-means++. <p>
+ *
+ * -num-threads <num> <br>
+ * Number of threads to cluster with. <p>
+ *
  * @author Mark Hall (mhall@cs.waikato.ac.nz)
  * @author Eibe Frank (eibe@cs.waikato.ac.nz)
  * @version $Revision: 1.1 $
@@ -113,6 +125,16 @@ public class SimpleKMeans extends Clusterer
 
   private double [] m_squaredErrors;
 
+  /**
+   * choose the initial centroids with k-means++ rather than at random
+   */
+  private boolean m_PlusPlus = false;
+
+  /**
+   * the number of threads to cluster with
+   */
+  private int m_NumThreads = 1;
+
   /**
    * Returns a string describing this clusterer
    * @return a description of the evaluator suitable for
@@ -161,18 +183,22 @@ public class SimpleKMeans extends Clusterer
     HashMap initC = new HashMap();
     DecisionTable.hashKey hk = null;
 
-    for (int j = instances.numInstances() - 1; j >= 0; j--) {
-      instIndex = RandomO.nextInt(j+1);
-      hk = new DecisionTable.hashKey(instances.instance(instIndex), 
-				     instances.numAttributes(), true);
-      if (!initC.containsKey(hk)) {
-	m_ClusterCentroids.add(instances.instance(instIndex));
-	initC.put(hk, null);
-      }
-      instances.swap(j, instIndex);
+    if (m_PlusPlus) {
+      plusPlusCentroids(instances, RandomO);
+    } else {
+      for (int j = instances.numInstances() - 1; j >= 0; j--) {
+	instIndex = RandomO.nextInt(j+1);
+	hk = new DecisionTable.hashKey(instances.instance(instIndex), 
+				       instances.numAttributes(), true);
+	if (!initC.containsKey(hk)) {
+	  m_ClusterCentroids.add(instances.instance(instIndex));
+	  initC.put(hk, null);
+	}
+	instances.swap(j, instIndex);
       
-      if (m_ClusterCentroids.numInstances() == m_NumClusters) {
-	break;
+	if (m_ClusterCentroids.numInstances() == m_NumClusters) {
+	  break;
+	}
       }
     }
 
@@ -184,13 +210,16 @@ public class SimpleKMeans extends Clusterer
     Instances [] tempI = new Instances[m_NumClusters];
     m_squaredErrors = new double [m_NumClusters];
     m_ClusterNominalCounts = new int [m_NumClusters][instances.numAttributes()][0];
+    int [] newAssignments = new int [instances.numInstances()];
+    double [] minDists = new double [instances.numInstances()];
     while (!converged) {
       emptyClusterCount = 0;
       m_Iterations++;
       converged = true;
+      assignClusters(instances, newAssignments, minDists);
       for (i = 0; i < instances.numInstances(); i++) {
-	Instance toCluster = instances.instance(i);
-	int newC = clusterProcessedInstance(toCluster, true);
+	int newC = newAssignments[i];
+	m_squaredErrors[newC] += minDists[i];
 	if (newC != clusterAssignments[i]) {
 	  converged = false;
 	}
@@ -205,18 +234,13 @@ public class SimpleKMeans extends Clusterer
       for (i = 0; i < instances.numInstances(); i++) {
 	tempI[clusterAssignments[i]].add(instances.instance(i));
       }
+      float [][] centroidVals = centroidValues(tempI);
       for (i = 0; i < m_NumClusters; i++) {
-        float [] vals = new float[instances.numAttributes()];
 	if (tempI[i].numInstances() == 0) {
 	  // empty cluster
 	  emptyClusterCount++;
 	} else {
-	  for (int j = 0; j < instances.numAttributes(); j++) {
-	    vals[j] = tempI[i].meanOrMode(j);
-	    m_ClusterNominalCounts[i][j] = 
-	      tempI[i].attributeStats(j).nominalCounts;
-	  }
-	  m_ClusterCentroids.add(new Instance((float)1.0, vals));
+	  m_ClusterCentroids.add(new Instance((float)1.0, centroidVals[i]));
 	}
       }
 
@@ -246,13 +270,197 @@ public class SimpleKMeans extends Clusterer
   }
 
   /**
-   * clusters an instance that has been through the filters
+   * Chooses the initial centroids with k-means++: the first one at random,
+   * and each of the others with a probability proportional to its squared
+   * distance to the closest centroid chosen so far. The distances are
+   * updated on m_NumThreads threads.
+   *
+   * @param instances the instances, after the filters
+   * @param random the random number generator
+   * @exception Exception if a thread fails
+   */
+  private void plusPlusCentroids(final Instances instances, Random random)
+    throws Exception {
+
+    final int numInstances = instances.numInstances();
+    final double [] minDists = new double [numInstances];
+    for (int i = 0; i < numInstances; i++) {
+      minDists[i] = Double.MAX_VALUE;
+    }
+    if (numInstances == 0) {
+      return;
+    }
+    m_ClusterCentroids.add(instances.instance(random.nextInt(numInstances)));
+    while (m_ClusterCentroids.numInstances() < m_NumClusters) {
+      final Instance latest = 
+	m_ClusterCentroids.instance(m_ClusterCentroids.numInstances() - 1);
+      final AtomicInteger next = new AtomicInteger();
+      Callable [] tasks = new Callable [threadsFor(numInstances)];
+      for (int t = 0; t < tasks.length; t++) {
+	tasks[t] = new Callable() {
+	    public Object call() {
+	      int i;
+	      while ((i = next.getAndIncrement()) < numInstances) {
+		double dist = distance(instances.instance(i), latest);
+		if (dist < minDists[i]) {
+		  minDists[i] = dist;
+		}
+	      }
+	      return null;
+	    }
+	  };
+      }
+      runTasks(tasks);
+
+      double total = 0;
+      for (int i = 0; i < numInstances; i++) {
+	total += minDists[i];
+      }
+      if (!(total > 0)) {
+	// every instance is a centroid already
+	break;
+      }
+      double target = random.nextDouble() * total;
+      int chosen = -1;
+      double sum = 0;
+      for (int i = 0; i < numInstances; i++) {
+	if (minDists[i] > 0) {
+	  chosen = i;
+	  sum += minDists[i];
+	  if (sum > target) {
+	    break;
+	  }
+	}
+      }
+      m_ClusterCentroids.add(instances.instance(chosen));
+    }
+  }
+
+  /**
+   * Assigns each instance to its closest centroid on m_NumThreads threads.
+   *
+   * @param instances the instances, after the filters
+   * @param assignments the array to store the cluster of each instance in
+   * @param minDists the array to store the squared distance of each 
+   * instance to its centroid in
+   * @exception Exception if a thread fails
+   */
+  private void assignClusters(final Instances instances, 
+			      final int [] assignments,
+			      final double [] minDists) throws Exception {
+
+    final AtomicInteger next = new AtomicInteger();
+    Callable [] tasks = new Callable [threadsFor(instances.numInstances())];
+    for (int t = 0; t < tasks.length; t++) {
+      tasks[t] = new Callable() {
+	  public Object call() {
+	    int i;
+	    while ((i = next.getAndIncrement()) < instances.numInstances()) {
+	      assignments[i] = 
+		closestCentroid(instances.instance(i), minDists, i);
+	    }
+	    return null;
+	  }
+	};
+    }
+    runTasks(tasks);
+  }
+
+  /**
+   * Computes the mean or mode of each attribute and the nominal counts 
+   * for the clusters on m_NumThreads threads. The counts are stored in
+   * m_ClusterNominalCounts.
+   *
+   * @param clusters the instances of each cluster
+   * @return the mean or mode of each attribute for each cluster (only
+   * filled in for clusters that aren't empty)
+   * @exception Exception if a thread fails
+   */
+  private float [][] centroidValues(final Instances [] clusters)
+    throws Exception {
+
+    final float [][] vals = new float [m_NumClusters][];
+    final AtomicInteger next = new AtomicInteger();
+    Callable [] tasks = new Callable [threadsFor(m_NumClusters)];
+    for (int t = 0; t < tasks.length; t++) {
+      tasks[t] = new Callable() {
+	  public Object call() {
+	    int i;
+	    while ((i = next.getAndIncrement()) < m_NumClusters) {
+	      vals[i] = new float [clusters[i].numAttributes()];
+	      if (clusters[i].numInstances() > 0) {
+		for (int j = 0; j < clusters[i].numAttributes(); j++) {
+		  vals[i][j] = clusters[i].meanOrMode(j);
+		  m_ClusterNominalCounts[i][j] = 
+		    clusters[i].attributeStats(j).nominalCounts;
+		}
+	      }
+	    }
+	    return null;
+	  }
+	};
+    }
+    runTasks(tasks);
+    return vals;
+  }
+
+  /**
+   * Gets the number of threads to process a number of items with.
+   *
+   * @param numItems the number of items
+   * @return the number of threads, at least 1
+   */
+  private int threadsFor(int numItems) {
+    return Math.max(1, Math.min(m_NumThreads, numItems));
+  }
+
+  /**
+   * Runs tasks on their own threads, or in the calling thread if there
+   * is only one.
+   *
+   * @param tasks the tasks
+   * @exception Exception the first exception thrown by a task
+   */
+  private static void runTasks(Callable [] tasks) throws Exception {
+
+    if (tasks.length == 1) {
+      tasks[0].call();
+      return;
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(tasks.length);
+    try {
+      Future [] futures = new Future [tasks.length];
+      for (int i = 0; i < tasks.length; i++) {
+	futures[i] = pool.submit(tasks[i]);
+      }
+      for (int i = 0; i < tasks.length; i++) {
+	try {
+	  futures[i].get();
+	} catch (ExecutionException e) {
+	  if (e.getCause() instanceof Exception) {
+	    throw (Exception)e.getCause();
+	  }
+	  throw e;
+	}
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Finds the closest centroid to an instance that has been through the 
+   * filters. Only reads the centroids, so it can be called from several
+   * threads.
    *
    * @param instance the instance to assign a cluster to
-   * @param updateErrors if true, update the within clusters sum of errors
+   * @param minDists the array to store the squared distance to the 
+   * centroid in
+   * @param index the index to store the distance at
    * @return a cluster number
    */
-  private int clusterProcessedInstance(Instance instance, boolean updateErrors) {
+  private int closestCentroid(Instance instance, double [] minDists, 
+			      int index) {
     double minDist = Integer.MAX_VALUE;
     int bestCluster = 0;
     for (int i = 0; i < m_NumClusters; i++) {
@@ -262,8 +470,22 @@ public class SimpleKMeans extends Clusterer
 	bestCluster = i;
       }
     }
+    minDists[index] = minDist;
+    return bestCluster;
+  }
+
+  /**
+   * clusters an instance that has been through the filters
+   *
+   * @param instance the instance to assign a cluster to
+   * @param updateErrors if true, update the within clusters sum of errors
+   * @return a cluster number
+   */
+  private int clusterProcessedInstance(Instance instance, boolean updateErrors) {
+    double [] minDist = new double [1];
+    int bestCluster = closestCentroid(instance, minDist, 0);
     if (updateErrors) {
-      m_squaredErrors[bestCluster] += minDist;
+      m_squaredErrors[bestCluster] += minDist[0];
     }
     return bestCluster;
   }
@@ -447,16 +669,29 @@ public class SimpleKMeans extends Clusterer
    * -S <seed> <br>
    * Specify random number seed. <p>
    *
+   * -kmeans-plus-plus <br>
+   * Choose the initial centroids with k-means++. <p>
+   *
+   * -num-threads <num> <br>
+   * Number of threads to cluster with. <p>
+   *
    * @return an enumeration of all the available options.
    *
    **/
   public Enumeration listOptions () {
-    Vector newVector = new Vector(2);
+    Vector newVector = new Vector(4);
 
      newVector.addElement(new Option("\tnumber of clusters. (default = 2)." 
 				    , "N", 1, "-N <num>"));
      newVector.addElement(new Option("\trandom number seed.\n (default 10)"
 				     , "S", 1, "-S <num>"));
+     newVector.addElement(new Option("\tchoose the initial centroids with "
+				     + "k-means++."
+				     , "kmeans-plus-plus", 0
+				     , "-kmeans-plus-plus"));
+     newVector.addElement(new Option("\tnumber of threads to cluster with."
+				     + "\n (default 1)"
+				     , "num-threads", 1, "-num-threads <num>"));
 
      return  newVector.elements();
   }
@@ -520,6 +755,63 @@ public class SimpleKMeans extends Clusterer
     return  m_Seed;
   }
 
+  /**
+   * Returns the tip text for this property
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String KMeansPlusPlusTipText() {
+    return "choose the initial centroids with k-means++: each one with a "
+      + "probability proportional to its squared distance to the closest "
+      + "centroid chosen so far";
+  }
+
+  /**
+   * Set whether the initial centroids are chosen with k-means++
+   *
+   * @param plusPlus true to use k-means++
+   */
+  public void setKMeansPlusPlus (boolean plusPlus) {
+    m_PlusPlus = plusPlus;
+  }
+
+  /**
+   * Get whether the initial centroids are chosen with k-means++
+   *
+   * @return true if k-means++ is used
+   */
+  public boolean getKMeansPlusPlus () {
+    return m_PlusPlus;
+  }
+
+  /**
+   * Returns the tip text for this property
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String numThreadsTipText() {
+    return "the number of threads to cluster with. The clusters do not "
+      + "depend on it";
+  }
+
+  /**
+   * Set the number of threads to cluster with
+   *
+   * @param n the number of threads
+   */
+  public void setNumThreads (int n) {
+    m_NumThreads = Math.max(1, n);
+  }
+
+  /**
+   * Get the number of threads to cluster with
+   *
+   * @return the number of threads
+   */
+  public int getNumThreads () {
+    return m_NumThreads;
+  }
+
   /**
    * Parses a given list of options.
    * @param options the list of options as an array of strings
@@ -540,6 +832,15 @@ public class SimpleKMeans extends Clusterer
     if (optionString.length() != 0) {
       setSeed(Integer.parseInt(optionString));
     }
+
+    setKMeansPlusPlus(Utils.getFlag("kmeans-plus-plus", options));
+
+    optionString = Utils.getOption("num-threads", options);
+    if (optionString.length() != 0) {
+      setNumThreads(Integer.parseInt(optionString));
+    } else {
+      setNumThreads(1);
+    }
   }
 
   /**
@@ -548,13 +849,18 @@ public class SimpleKMeans extends Clusterer
    * @return an array of strings suitable for passing to setOptions()
    */
   public String[] getOptions () {
-    String[] options = new String[4];
+    String[] options = new String[7];
     int current = 0;
     
     options[current++] = "-N";
     options[current++] = "" + getNumClusters();
     options[current++] = "-S";
     options[current++] = "" + getSeed();
+    if (getKMeansPlusPlus()) {
+      options[current++] = "-kmeans-plus-plus";
+    }
+    options[current++] = "-num-threads";
+    options[current++] = "" + getNumThreads();
     
     while (current < options.length) {
       options[current++] = "";
@@ -594,10 +594,19 @@ public class AttributeShort implements Copyable, Serializable {
   }
   
   public boolean notRestricted(){
-    if(m_Name.equalsIgnoreCase("DOCNUM")||m_Name.equalsIgnoreCase("ID1")||m_Name.equalsIgnoreCase("ID2"))
-      return false;
-    return true;
-    
+    return !isIdentifier();
+  }
+  
+  /**
+   * Tests if the attribute identifies a document or a noun phrase (DocNo,
+   * DOCNUM, ID1, ID2). The values of these attributes are the numbers
+   * themselves rather than indices into a table of values, and they can be
+   * larger than a short: use InstanceShort.intValue() and setIntValue() to
+   * access them.
+   */
+  public boolean isIdentifier(){
+    return m_Name.equalsIgnoreCase("DOCNUM")||m_Name.equalsIgnoreCase("DocNo")
+        ||m_Name.equalsIgnoreCase("ID1")||m_Name.equalsIgnoreCase("ID2");
   }
   public boolean isFeature(){
     if(m_Name.equalsIgnoreCase("DOCNUM")||m_Name.equalsIgnoreCase("ID1")||m_Name.equalsIgnoreCase("ID2"))
@@ -0,0 +1,156 @@
+package reconcile.weka.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An instance whose attribute values are a row of an InstanceShortBuffer.
+ *
+ * Copies of the instance (copy(), InstancesShort.add()) are views of the same row, just like copies of an InstanceShort
+ * share its array. Setting a value copies a shared row first, so changes don't affect other instances; an instance
+ * that has a row of its own is changed in place. The weight and the dataset are kept in the instance itself.
+ * Attributes can't be inserted or deleted in place: InstancesShort moves its instances to a new buffer when its
+ * attributes change. A serialized BufferedInstanceShort is read back as an ordinary InstanceShort.
+ *
+ * @author ves
+ */
+public class BufferedInstanceShort extends InstanceShort {
+
+  private static final long serialVersionUID = 1L;
+
+  private transient InstanceShortBuffer m_Buffer;
+
+  private transient int m_Row;
+
+  /** The segment of the row and the row's position in it, cached */
+  private transient ByteBuffer m_Segment;
+
+  private transient int m_Offset;
+
+  /** Whether other instances may be views of the same row */
+  private transient boolean m_Shared = false;
+
+  BufferedInstanceShort(InstanceShortBuffer buffer, int row, float weight) {
+    m_Weight = weight;
+    setRow(buffer, row);
+  }
+
+  private void setRow(InstanceShortBuffer buffer, int row) {
+    m_Buffer = buffer;
+    m_Row = row;
+    m_Segment = buffer.segment(row);
+    m_Offset = buffer.offset(row);
+  }
+
+  /**
+   * Returns the buffer that holds the instance's values.
+   */
+  public InstanceShortBuffer buffer() {
+    return m_Buffer;
+  }
+
+  /**
+   * Returns the instance's row in the buffer.
+   */
+  public int row() {
+    return m_Row;
+  }
+
+  public Object copy() {
+    BufferedInstanceShort result = new BufferedInstanceShort(m_Buffer, m_Row, m_Weight);
+    result.m_Dataset = m_Dataset;
+    result.m_WideValues = m_WideValues;
+    result.m_Shared = m_Shared = true;
+    return result;
+  }
+
+  public short value(int attIndex) {
+    return m_Segment.getShort(m_Offset + 2 * attIndex);
+  }
+
+  public float valueSparse(int indexOfIndex) {
+    return value(indexOfIndex);
+  }
+
+  public boolean isMissing(int attIndex) {
+    return value(attIndex) == MISSING_VALUE;
+  }
+
+  public boolean isMissingSparse(int indexOfIndex) {
+    return isMissing(indexOfIndex);
+  }
+
+  public int numAttributes() {
+    return m_Buffer.numAttributes();
+  }
+
+  public int numValues() {
+    return m_Buffer.numAttributes();
+  }
+
+  public void setValue(int attIndex, short value) {
+    if(attIndex < 0 || attIndex >= numAttributes()){
+      throw new ArrayIndexOutOfBoundsException(attIndex);
+    }
+    freshRow();
+    m_Segment.putShort(m_Offset + 2 * attIndex, value);
+  }
+
+  public void setValueSparse(int indexOfIndex, short value) {
+    setValue(indexOfIndex, value);
+  }
+
+  public void replaceMissingValues(short[] array) {
+    if((array == null) || (array.length != numAttributes())){
+      throw new IllegalArgumentException("Unequal number of attributes!");
+    }
+    freshRow();
+    for(int i = 0; i < array.length; i++){
+      if(isMissing(i)){
+        m_Segment.putShort(m_Offset + 2 * i, array[i]);
+      }
+    }
+  }
+
+  public short[] toShortArray() {
+    short[] result = new short[numAttributes()];
+    for(int i = 0; i < result.length; i++){
+      result[i] = m_Segment.getShort(m_Offset + 2 * i);
+    }
+    return result;
+  }
+
+  /**
+   * Returns a copy of the values: changes to the array are not written back to the buffer.
+   */
+  public short[] getValueArray() {
+    return toShortArray();
+  }
+
+  void forceDeleteAttributeAt(int position) {
+    throw new UnsupportedOperationException("Can't delete an attribute of a buffered instance");
+  }
+
+  void forceInsertAttributeAt(int position) {
+    throw new UnsupportedOperationException("Can't insert an attribute into a buffered instance");
+  }
+
+  /**
+   * Copies the row if it is shared, so that changes don't affect the copies of this instance.
+   */
+  private void freshRow() {
+    if(m_Shared){
+      setRow(m_Buffer, m_Buffer.copyRow(m_Row));
+      m_Shared = false;
+    }
+  }
+
+  /**
+   * Serializes the instance as an ordinary InstanceShort.
+   */
+  private Object writeReplace() {
+    InstanceShort result = new InstanceShort(m_Weight, toShortArray());
+    result.m_Dataset = m_Dataset;
+    result.m_WideValues = m_WideValues;
+    return result;
+  }
+}
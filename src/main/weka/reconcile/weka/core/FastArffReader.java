@@ -0,0 +1,717 @@
+package reconcile.weka.core;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.StreamTokenizer;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads ARFF files into InstancesShort and Instances without going through a StreamTokenizer.
+ *
+ * The header is read the usual way (readHeader() on the header text). The data section is memory mapped and parsed
+ * directly from the bytes: values are split at whitespace and commas, nominal values are looked up in a hash table over
+ * the encoded bytes of the values declared in the header, and numbers with at most 15 significant digits and no exponent
+ * are converted without creating a String (the result is exactly what Double.valueOf / Float.valueOf return). Large
+ * files are split into line-aligned chunks that are parsed on as many threads as the caller asks for; a file that fits
+ * in one chunk is parsed on the calling thread. The numeric values of InstancesShort are numbered within each chunk and
+ * then with AttributeShort.storeTemp() in file order (identifiers keep their values), so the resulting datasets are
+ * identical to the ones read through a Reader.
+ *
+ * Only dense instances with nominal and numeric attributes are handled. read() returns false for anything else
+ * (quoted values, sparse instances, string and date attributes, malformed lines, a charset that is not ASCII based),
+ * and the caller reads the file with the StreamTokenizer parser instead, which also produces the usual error messages.
+ *
+ * @author ves
+ */
+public class FastArffReader {
+
+  /** Chunks are no larger than this, so that they can be mapped */
+  private static final long MAX_CHUNK = 1L << 30;
+
+  /** Files are not split into chunks smaller than this */
+  private static final long MIN_CHUNK = 8L << 20;
+
+  private static final double[] DOUBLE_POWERS = new double[23];
+
+  private static final float[] FLOAT_POWERS = new float[11];
+
+  static{
+    double p = 1;
+    for(int i = 0; i < DOUBLE_POWERS.length; i++){
+      DOUBLE_POWERS[i] = p;
+      p *= 10;
+    }
+    float f = 1;
+    for(int i = 0; i < FLOAT_POWERS.length; i++){
+      FLOAT_POWERS[i] = f;
+      f *= 10;
+    }
+  }
+
+  /** Thrown when a file has to be read with the StreamTokenizer parser */
+  private static class UnsupportedException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+  }
+
+  private static final UnsupportedException UNSUPPORTED = new UnsupportedException();
+
+  private File m_File;
+
+  private Charset m_Charset = Charset.defaultCharset();
+
+  /** The header, up to and including the @data line, or null if no @data line was found */
+  private String m_Header = null;
+
+  /** The offset of the first byte after the @data line */
+  private long m_DataStart;
+
+  /** Which attributes are nominal, and their value tables */
+  private boolean[] m_Nominal;
+
+  private NominalTable[] m_Tables;
+
+  /** Which attributes are identifiers, which keep their values */
+  private boolean[] m_Identifier;
+
+  /** The numeric attributes whose values are numbered, that is the ones that are not identifiers */
+  private int[] m_Numeric;
+
+  /** Whether values are parsed for an Instances (floats) or an InstancesShort (shorts and doubles) */
+  private boolean m_Float;
+
+  /** The rows parsed from one chunk of the data section */
+  private static class Chunk {
+
+    ArrayList<InstanceShort> shortRows = new ArrayList<InstanceShort>();
+
+    /**
+     * the values of each numbered attribute of an InstancesShort. Until numberNumericValues() is done the rows hold
+     * indices into these.
+     */
+    ChunkValues[] numericValues;
+
+    ArrayList<float[]> floatRows = new ArrayList<float[]>();
+  }
+
+  /** The distinct values of one numeric attribute in one chunk, numbered in the order in which they first occur */
+  private static class ChunkValues {
+
+    ArrayList<Double> values = new ArrayList<Double>();
+
+    HashMap<Double, Short> indices = new HashMap<Double, Short>();
+
+    short index(double value) throws UnsupportedException {
+      Double key = new Double(value);
+      Short index = indices.get(key);
+      if(index == null){
+        if(values.size() == Short.MAX_VALUE)
+          throw UNSUPPORTED;
+        index = new Short((short)values.size());
+        indices.put(key, index);
+        values.add(key);
+      }
+      return index.shortValue();
+    }
+  }
+
+  public FastArffReader(File file) throws IOException {
+    m_File = file;
+    if(isAsciiBased(m_Charset))
+      readHeaderText();
+  }
+
+  /**
+   * Reads the file into an empty InstancesShort.
+   *
+   * @return false if the file has to be read with the StreamTokenizer parser
+   */
+  public boolean read(InstancesShort data, int numThreads) throws IOException {
+    if(m_Header == null)
+      return false;
+    StreamTokenizer tokenizer = new StreamTokenizer(new StringReader(m_Header));
+    InstancesShort.initTokenizer(tokenizer);
+    data.readHeader(tokenizer);
+
+    int numAtts = data.numAttributes();
+    m_Float = false;
+    m_Nominal = new boolean[numAtts];
+    m_Identifier = new boolean[numAtts];
+    m_Tables = new NominalTable[numAtts];
+    int numNumeric = 0;
+    for(int i = 0; i < numAtts; i++){
+      AttributeShort att = data.attribute(i);
+      if(att.isNominal()){
+        m_Nominal[i] = true;
+        String[] values = new String[att.numValues()];
+        short[] indices = new short[att.numValues()];
+        for(int v = 0; v < values.length; v++){
+          values[v] = att.value(v);
+          indices[v] = att.indexOfValue(values[v]);
+        }
+        m_Tables[i] = new NominalTable(values, indices, m_Charset);
+      } else if(att.isNumeric()){
+        m_Identifier[i] = att.isIdentifier();
+        if(!m_Identifier[i])
+          numNumeric++;
+      } else{
+        return false;
+      }
+    }
+    m_Numeric = new int[numNumeric];
+    for(int i = 0, n = 0; i < numAtts; i++)
+      if(!m_Nominal[i] && !m_Identifier[i])
+        m_Numeric[n++] = i;
+
+    long[] starts = chunkStarts(numThreads);
+    ExecutorService pool = createPool(numThreads, starts.length - 1);
+    try{
+      Chunk[] chunks;
+      try{
+        chunks = parseChunks(starts, numAtts, pool);
+      } catch(UnsupportedException e){
+        return false;
+      }
+      numberNumericValues(data, chunks, pool);
+      for(int c = 0; c < chunks.length; c++){
+        ArrayList<InstanceShort> rows = chunks[c].shortRows;
+        for(int r = 0; r < rows.size(); r++)
+          data.add(rows.get(r));
+        chunks[c] = null;
+      }
+    } finally{
+      if(pool != null)
+        pool.shutdownNow();
+    }
+    return true;
+  }
+
+  /**
+   * Reads the file into an empty Instances.
+   *
+   * @return false if the file has to be read with the StreamTokenizer parser
+   */
+  public boolean read(Instances data, int numThreads) throws IOException {
+    if(m_Header == null)
+      return false;
+    StreamTokenizer tokenizer = new StreamTokenizer(new StringReader(m_Header));
+    data.initTokenizer(tokenizer);
+    data.readHeader(tokenizer);
+
+    int numAtts = data.numAttributes();
+    m_Float = true;
+    m_Nominal = new boolean[numAtts];
+    m_Tables = new NominalTable[numAtts];
+    m_Identifier = new boolean[numAtts];
+    m_Numeric = new int[0];
+    for(int i = 0; i < numAtts; i++){
+      Attribute att = data.attribute(i);
+      if(att.isNominal()){
+        m_Nominal[i] = true;
+        String[] values = new String[att.numValues()];
+        short[] indices = new short[att.numValues()];
+        for(int v = 0; v < values.length; v++){
+          values[v] = att.value(v);
+          indices[v] = (short)att.indexOfValue(values[v]);
+        }
+        m_Tables[i] = new NominalTable(values, indices, m_Charset);
+      } else if(!att.isNumeric()){
+        return false;
+      }
+    }
+
+    long[] starts = chunkStarts(numThreads);
+    ExecutorService pool = createPool(numThreads, starts.length - 1);
+    try{
+      Chunk[] chunks;
+      try{
+        chunks = parseChunks(starts, numAtts, pool);
+      } catch(UnsupportedException e){
+        return false;
+      }
+      for(int c = 0; c < chunks.length; c++){
+        ArrayList<float[]> rows = chunks[c].floatRows;
+        for(int r = 0; r < rows.size(); r++)
+          data.add(new Instance(1, rows.get(r)));
+        chunks[c] = null;
+      }
+    } finally{
+      if(pool != null)
+        pool.shutdownNow();
+    }
+    return true;
+  }
+
+  /*
+   * The delimiters of ARFF tokens have to be encoded as single ASCII bytes
+   */
+  private static boolean isAsciiBased(Charset charset) {
+    String probe = "\t\n\r ,%?'\"{}@0123456789.-+abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+    try{
+      return Arrays.equals(probe.getBytes(charset.name()), probe.getBytes("US-ASCII"));
+    } catch(IOException e){
+      return false;
+    }
+  }
+
+  /*
+   * Finds the @data line and keeps the text up to the end of it
+   */
+  private void readHeaderText() throws IOException {
+    InputStream in = new BufferedInputStream(new FileInputStream(m_File), 1 << 16);
+    try{
+      ByteArrayOutputStream header = new ByteArrayOutputStream();
+      ByteArrayOutputStream line = new ByteArrayOutputStream();
+      long offset = 0;
+      int b;
+      do{
+        b = in.read();
+        if(b != -1){
+          line.write(b);
+          offset++;
+        }
+        if(b == '\n' || b == '\r' || b == -1){
+          byte[] bytes = line.toByteArray();
+          header.write(bytes, 0, bytes.length);
+          line.reset();
+          int data = dataKeyword(bytes);
+          if(data > 0){
+            m_DataStart = offset;
+            m_Header = new String(header.toByteArray(), m_Charset.name());
+            return;
+          } else if(data < 0){
+            // something follows @data on the same line
+            return;
+          }
+        }
+      } while(b != -1);
+    } finally{
+      in.close();
+    }
+  }
+
+  /*
+   * 1 if the first token of the line is @data and nothing else is on the line, -1 if it is @data followed by more
+   * tokens, 0 otherwise
+   */
+  private static int dataKeyword(byte[] line) {
+    int p = 0;
+    while(p < line.length && isWhitespace(line[p] & 0xff))
+      p++;
+    String keyword = InstancesShort.ARFF_DATA;
+    if(line.length - p < keyword.length())
+      return 0;
+    for(int i = 0; i < keyword.length(); i++)
+      if(Character.toLowerCase((char)line[p + i]) != Character.toLowerCase(keyword.charAt(i)))
+        return 0;
+    p += keyword.length();
+    if(p < line.length && !isDelimiter(line[p] & 0xff))
+      return 0;
+    while(p < line.length && isWhitespace(line[p] & 0xff))
+      p++;
+    return p == line.length || line[p] == '%' ? 1 : -1;
+  }
+
+  private static boolean isWhitespace(int b) {
+    return b <= ' ' || b == ',';
+  }
+
+  /*
+   * Characters that end a word for the StreamTokenizer set up by initTokenizer()
+   */
+  private static boolean isDelimiter(int b) {
+    return b <= ' ' || b == ',' || b == '%' || b == '\'' || b == '"' || b == '{' || b == '}';
+  }
+
+  /*
+   * Splits the data section into line-aligned chunks, one per thread for files of at least MIN_CHUNK bytes per thread.
+   * Returns the start of each chunk followed by the end of the file.
+   */
+  private long[] chunkStarts(int numThreads) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(m_File, "r");
+    try{
+      FileChannel channel = file.getChannel();
+      long length = channel.size();
+      long dataLength = length - m_DataStart;
+      if(dataLength <= 0)
+        return new long[] { length };
+
+      long numChunks = Math.max((dataLength + MAX_CHUNK - 1) / MAX_CHUNK, Math.min(numThreads, dataLength / MIN_CHUNK));
+      List<Long> starts = new ArrayList<Long>();
+      starts.add(new Long(m_DataStart));
+      for(long c = 1; c < numChunks; c++){
+        long start = nextLine(channel, m_DataStart + dataLength * c / numChunks);
+        if(start > starts.get(starts.size() - 1).longValue() && start < length)
+          starts.add(new Long(start));
+      }
+      starts.add(new Long(length));
+
+      long[] result = new long[starts.size()];
+      for(int c = 0; c < result.length; c++)
+        result[c] = starts.get(c).longValue();
+      return result;
+    } finally{
+      file.close();
+    }
+  }
+
+  /*
+   * A pool for parsing the chunks, or null if they are parsed on the calling thread
+   */
+  private static ExecutorService createPool(int numThreads, int numChunks) {
+    int size = Math.min(numThreads, numChunks);
+    return size > 1 ? Executors.newFixedThreadPool(size) : null;
+  }
+
+  /*
+   * Parses the chunks, in parallel if there is a pool
+   */
+  private Chunk[] parseChunks(long[] starts, final int numAtts, ExecutorService pool) throws IOException,
+      UnsupportedException {
+    RandomAccessFile file = new RandomAccessFile(m_File, "r");
+    try{
+      final FileChannel channel = file.getChannel();
+      final Chunk[] chunks = new Chunk[starts.length - 1];
+      List<Future<Chunk>> results = new ArrayList<Future<Chunk>>();
+      for(int c = 0; c < chunks.length; c++){
+        final long from = starts[c];
+        final long to = starts[c + 1];
+        if(to - from > Integer.MAX_VALUE)
+          throw UNSUPPORTED;
+        if(pool == null){
+          chunks[c] = parseChunk(channel.map(FileChannel.MapMode.READ_ONLY, from, to - from), numAtts);
+        } else{
+          results.add(pool.submit(new Callable<Chunk>() {
+
+            public Chunk call() throws Exception {
+              return parseChunk(channel.map(FileChannel.MapMode.READ_ONLY, from, to - from), numAtts);
+            }
+          }));
+        }
+      }
+      for(int c = 0; c < results.size(); c++)
+        chunks[c] = get(results.get(c));
+      return chunks;
+    } finally{
+      file.close();
+    }
+  }
+
+  /*
+   * The offset of the start of the first line that starts after pos
+   */
+  private static long nextLine(FileChannel channel, long pos) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+    while(true){
+      buf.clear();
+      int n = channel.read(buf, pos);
+      if(n <= 0)
+        return channel.size();
+      for(int i = 0; i < n; i++)
+        if(buf.get(i) == '\n')
+          return pos + i + 1;
+      pos += n;
+    }
+  }
+
+  private static <T> T get(Future<T> result) throws IOException, UnsupportedException {
+    try{
+      return result.get();
+    } catch(InterruptedException e){
+      throw new RuntimeException(e);
+    } catch(ExecutionException e){
+      Throwable cause = e.getCause();
+      if(cause instanceof UnsupportedException)
+        throw (UnsupportedException)cause;
+      if(cause instanceof IOException)
+        throw (IOException)cause;
+      if(cause instanceof RuntimeException)
+        throw (RuntimeException)cause;
+      throw new RuntimeException(cause);
+    }
+  }
+
+  private Chunk parseChunk(MappedByteBuffer buf, int numAtts) throws UnsupportedException {
+    Chunk chunk = new Chunk();
+    if(!m_Float){
+      chunk.numericValues = new ChunkValues[m_Numeric.length];
+      for(int f = 0; f < m_Numeric.length; f++)
+        chunk.numericValues[f] = new ChunkValues();
+    }
+    int[] tokStart = new int[numAtts];
+    int[] tokEnd = new int[numAtts];
+    int pos = 0, end = buf.limit();
+    while(pos < end){
+      // split a line into tokens
+      int n = 0;
+      while(pos < end){
+        int b = buf.get(pos) & 0xff;
+        if(b == '\n' || b == '\r'){
+          pos++;
+          break;
+        }
+        if(isWhitespace(b)){
+          pos++;
+        } else if(b == '%'){
+          while(pos < end && buf.get(pos) != '\n' && buf.get(pos) != '\r')
+            pos++;
+        } else if(b == '\'' || b == '"' || b == '{' || b == '}'){
+          throw UNSUPPORTED;
+        } else{
+          if(n == numAtts)
+            throw UNSUPPORTED;
+          tokStart[n] = pos;
+          while(pos < end && !isDelimiter(buf.get(pos) & 0xff))
+            pos++;
+          tokEnd[n] = pos;
+          n++;
+        }
+      }
+      if(n == 0)
+        continue;
+      if(n != numAtts)
+        throw UNSUPPORTED;
+
+      if(m_Float)
+        chunk.floatRows.add(floatRow(buf, tokStart, tokEnd));
+      else
+        shortRow(buf, tokStart, tokEnd, chunk);
+    }
+    return chunk;
+  }
+
+  private float[] floatRow(ByteBuffer buf, int[] tokStart, int[] tokEnd) throws UnsupportedException {
+    float[] row = new float[tokStart.length];
+    for(int i = 0; i < row.length; i++){
+      int s = tokStart[i], e = tokEnd[i];
+      if(e - s == 1 && buf.get(s) == '?'){
+        row[i] = Instance.missingValue();
+      } else if(m_Nominal[i]){
+        short index = m_Tables[i].get(buf, s, e);
+        if(index < 0)
+          throw UNSUPPORTED;
+        row[i] = index;
+      } else{
+        row[i] = (float)parseNumber(buf, s, e);
+      }
+    }
+    return row;
+  }
+
+  private void shortRow(ByteBuffer buf, int[] tokStart, int[] tokEnd, Chunk chunk) throws UnsupportedException {
+    short[] row = new short[tokStart.length];
+    int[] wide = null;
+    for(int i = 0, f = 0; i < row.length; i++){
+      int s = tokStart[i], e = tokEnd[i];
+      boolean missing = e - s == 1 && buf.get(s) == '?';
+      if(m_Nominal[i]){
+        if(missing){
+          row[i] = InstanceShort.missingValue();
+        } else{
+          row[i] = m_Tables[i].get(buf, s, e);
+          if(row[i] < 0)
+            throw UNSUPPORTED;
+        }
+      } else if(missing){
+        row[i] = InstanceShort.missingValue();
+        if(!m_Identifier[i])
+          f++;
+      } else if(m_Identifier[i]){
+        int value = (int)parseNumber(buf, s, e);
+        row[i] = InstanceShort.shortValue(value);
+        if(row[i] == InstanceShort.WIDE_VALUE)
+          wide = InstanceShort.putWide(wide, i, value);
+      } else{
+        // numbered within the chunk for now, and in file order by numberNumericValues()
+        row[i] = chunk.numericValues[f].index(parseNumber(buf, s, e));
+        f++;
+      }
+    }
+    InstanceShort inst = new InstanceShort(1, row);
+    inst.m_WideValues = wide;
+    chunk.shortRows.add(inst);
+  }
+
+  /*
+   * Replaces the chunk indices in the rows with the indices from AttributeShort.storeTemp(), storing the values of the
+   * chunks in file order. Each attribute numbers its values independently, so the attributes are done in parallel if
+   * there is a pool.
+   */
+  private void numberNumericValues(InstancesShort data, final Chunk[] chunks, ExecutorService pool)
+      throws IOException {
+    List<Future<Object>> results = new ArrayList<Future<Object>>();
+    for(int f = 0; f < m_Numeric.length; f++){
+      final int numeric = f;
+      final int index = m_Numeric[f];
+      final AttributeShort att = data.attribute(index);
+      Callable<Object> task = new Callable<Object>() {
+
+        public Object call() {
+          short missing = InstanceShort.missingValue();
+          for(int c = 0; c < chunks.length; c++){
+            ArrayList<Double> values = chunks[c].numericValues[numeric].values;
+            short[] map = new short[values.size()];
+            boolean same = true;
+            for(int v = 0; v < map.length; v++){
+              map[v] = att.storeTemp(values.get(v));
+              same &= map[v] == v;
+            }
+            chunks[c].numericValues[numeric] = null;
+            if(same)
+              continue;
+            ArrayList<InstanceShort> rows = chunks[c].shortRows;
+            for(int r = 0; r < rows.size(); r++){
+              short[] row = rows.get(r).m_AttValues;
+              if(row[index] != missing)
+                row[index] = map[row[index]];
+            }
+          }
+          return null;
+        }
+      };
+      if(pool == null){
+        try{
+          task.call();
+        } catch(Exception e){
+          throw new RuntimeException(e);
+        }
+      } else{
+        results.add(pool.submit(task));
+      }
+    }
+    try{
+      for(int f = 0; f < results.size(); f++)
+        get(results.get(f));
+    } catch(UnsupportedException e){
+      throw new RuntimeException(e);
+    }
+  }
+
+  /*
+   * Parses a number the way Double.valueOf() (or Float.valueOf() for Instances) does. Plain decimals with few enough
+   * digits are converted exactly with a single division; anything else goes through the String conversion.
+   */
+  private double parseNumber(ByteBuffer buf, int s, int e) throws UnsupportedException {
+    int p = s;
+    boolean negative = false;
+    byte first = buf.get(p);
+    if(first == '-' || first == '+'){
+      negative = first == '-';
+      p++;
+    }
+    long limit = m_Float ? (1L << 24) : (1L << 53);
+    int maxFraction = m_Float ? FLOAT_POWERS.length - 1 : DOUBLE_POWERS.length - 1;
+    long mantissa = 0;
+    int digits = 0, fraction = 0;
+    boolean dot = false, fast = p < e;
+    for(; p < e && fast; p++){
+      byte b = buf.get(p);
+      if(b >= '0' && b <= '9'){
+        mantissa = mantissa * 10 + (b - '0');
+        digits++;
+        if(dot)
+          fraction++;
+        fast = mantissa <= limit && fraction <= maxFraction;
+      } else if(b == '.' && !dot){
+        dot = true;
+      } else{
+        fast = false;
+      }
+    }
+    if(fast && digits > 0){
+      double value;
+      if(m_Float)
+        value = fraction == 0 ? (float)mantissa : (float)mantissa / FLOAT_POWERS[fraction];
+      else
+        value = fraction == 0 ? (double)mantissa : (double)mantissa / DOUBLE_POWERS[fraction];
+      return negative ? -value : value;
+    }
+
+    byte[] bytes = new byte[e - s];
+    for(int i = 0; i < bytes.length; i++)
+      bytes[i] = buf.get(s + i);
+    try{
+      String token = new String(bytes, m_Charset.name());
+      return m_Float ? Float.valueOf(token).floatValue() : Double.valueOf(token).doubleValue();
+    } catch(NumberFormatException ex){
+      throw UNSUPPORTED;
+    } catch(IOException ex){
+      throw UNSUPPORTED;
+    }
+  }
+
+  /**
+   * An open addressing hash table from the encoded bytes of nominal values to their indices.
+   */
+  private static class NominalTable {
+
+    private byte[][] m_Keys;
+
+    private short[] m_Values;
+
+    private int m_Mask;
+
+    NominalTable(String[] values, short[] indices, Charset charset) throws IOException {
+      int size = 4;
+      while(size < values.length * 2)
+        size <<= 1;
+      m_Keys = new byte[size][];
+      m_Values = new short[size];
+      m_Mask = size - 1;
+      for(int v = 0; v < values.length; v++){
+        byte[] key = values[v].getBytes(charset.name());
+        int slot = hash(ByteBuffer.wrap(key), 0, key.length) & m_Mask;
+        while(m_Keys[slot] != null && !Arrays.equals(m_Keys[slot], key))
+          slot = (slot + 1) & m_Mask;
+        if(m_Keys[slot] == null){
+          m_Keys[slot] = key;
+          m_Values[slot] = indices[v];
+        }
+      }
+    }
+
+    /**
+     * The index of the value in buf[s, e), or -1
+     */
+    short get(ByteBuffer buf, int s, int e) {
+      int slot = hash(buf, s, e) & m_Mask;
+      byte[] key;
+      while((key = m_Keys[slot]) != null){
+        if(key.length == e - s){
+          int i = 0;
+          while(i < key.length && key[i] == buf.get(s + i))
+            i++;
+          if(i == key.length)
+            return m_Values[slot];
+        }
+        slot = (slot + 1) & m_Mask;
+      }
+      return -1;
+    }
+
+    private static int hash(ByteBuffer buf, int s, int e) {
+      int h = 0x811c9dc5;
+      for(int i = s; i < e; i++)
+        h = (h ^ (buf.get(i) & 0xff)) * 0x01000193;
+      return h ^ (h >>> 16);
+    }
+  }
+}
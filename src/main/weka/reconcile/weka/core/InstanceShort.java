@@ -82,6 +82,20 @@ public class InstanceShort implements Copyable, Serializable {
   /** The instance's weight. */
   protected float m_Weight;
 
+  /**
+   * Stands for a value of an identifier attribute (see
+   * AttributeShort.isIdentifier()) that doesn't fit into a short.
+   * The value itself is kept in m_WideValues.
+   */
+  protected static final short WIDE_VALUE = Short.MAX_VALUE;
+
+  /**
+   * The identifier values that don't fit into a short, as pairs of
+   * attribute index and value. Null if there are none. The array is
+   * shared by copies of the instance and is never changed in place.
+   */
+  protected int[] m_WideValues;
+
   /**
    * Constructor that copies the attribute values and the weight from
    * the given instance. Reference to the dataset is set to null.
@@ -96,6 +110,7 @@ public class InstanceShort implements Copyable, Serializable {
     
     m_AttValues = instance.m_AttValues;
     m_Weight = instance.m_Weight;
+    m_WideValues = instance.m_WideValues;
     m_Dataset = null;
   }
 
@@ -445,7 +460,15 @@ public class InstanceShort implements Copyable, Serializable {
     for (int j = 0; j < inst.numAttributes(); j++, m++) {
       newVals[m] = inst.value(j);
     }
-    return new InstanceShort(1, newVals);
+    InstanceShort result = new InstanceShort(1, newVals);
+    result.m_WideValues = m_WideValues;
+    if (inst.m_WideValues != null) {
+      for (int i = 0; i < inst.m_WideValues.length; i += 2) {
+        result.m_WideValues = putWide(result.m_WideValues, 
+            numAttributes() + inst.m_WideValues[i], inst.m_WideValues[i + 1]);
+      }
+    }
+    return result;
   }
 
   /**
@@ -830,7 +853,7 @@ public class InstanceShort implements Copyable, Serializable {
   public String toString() {
 
     StringBuffer text = new StringBuffer();
-    for (int i = 0; i < m_AttValues.length; i++) {
+    for (int i = 0; i < numAttributes(); i++) {
       if (i > 0) text.append(",");
       text.append(toString(i));
     }
@@ -856,7 +879,7 @@ public class InstanceShort implements Copyable, Serializable {
      text.append("?");
    } else {
      if (m_Dataset == null) {
-       text.append(Utils.doubleToString(m_AttValues[attIndex],6));
+       text.append(Utils.doubleToString(value(attIndex),6));
      } else {
        switch (m_Dataset.attribute(attIndex).type()) {
        case AttributeShort.NOMINAL:
@@ -865,7 +888,11 @@ public class InstanceShort implements Copyable, Serializable {
          text.append(Utils.quote(stringValue(attIndex)));
          break;
        case AttributeShort.NUMERIC:
-	 text.append(Utils.doubleToString(m_Dataset.attribute(attIndex).getOriginalValue(new Short(value(attIndex))),6));
+	 if (m_Dataset.attribute(attIndex).isIdentifier()) {
+	   text.append(intValue(attIndex));
+	 } else {
+	   text.append(Utils.doubleToString(m_Dataset.attribute(attIndex).getOriginalValue(new Short(value(attIndex))),6));
+	 }
          break;
        default:
          throw new IllegalStateException("Unknown attribute type");
@@ -932,6 +959,143 @@ public class InstanceShort implements Copyable, Serializable {
     return value(att.index());
   }
 
+  /**
+   * Returns the value of an identifier attribute (see 
+   * AttributeShort.isIdentifier()), which may not fit into a short.
+   * For other attributes this is the same as value().
+   *
+   * @param attIndex the attribute's index
+   * @return the specified value as an int
+   */
+  public /*@pure@*/ int intValue(int attIndex) {
+
+    short value = value(attIndex);
+    if (value == WIDE_VALUE && m_WideValues != null) {
+      for (int i = 0; i < m_WideValues.length; i += 2) {
+	if (m_WideValues[i] == attIndex) {
+	  return m_WideValues[i + 1];
+	}
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Returns the value of an identifier attribute, which may not fit
+   * into a short. The given attribute has to belong to a dataset.
+   *
+   * @param att the attribute
+   * @return the specified value as an int
+   */
+  public /*@pure@*/ int intValue(AttributeShort att) {
+
+    return intValue(att.index());
+  }
+
+  /**
+   * Sets the value of an identifier attribute, which may not fit into
+   * a short. Values that don't are kept aside and stored as WIDE_VALUE.
+   * Performs a deep copy of the vector of attribute values before the
+   * value is set.
+   *
+   * @param attIndex the attribute's index
+   * @param value the new value
+   */
+  public void setIntValue(int attIndex, int value) {
+
+    short stored = shortValue(value);
+    setValue(attIndex, stored);
+    m_WideValues = removeWide(m_WideValues, attIndex);
+    if (stored == WIDE_VALUE) {
+      m_WideValues = putWide(m_WideValues, attIndex, value);
+    }
+  }
+
+  /**
+   * Sets the value of an identifier attribute, which may not fit into
+   * a short. The given attribute has to belong to a dataset.
+   *
+   * @param att the attribute
+   * @param value the new value
+   */
+  public final void setIntValue(AttributeShort att, int value) {
+
+    setIntValue(att.index(), value);
+  }
+
+  /**
+   * Returns how an identifier value is stored in the vector of 
+   * attribute values: as itself if it fits into a short, and as 
+   * WIDE_VALUE otherwise.
+   */
+  public static short shortValue(int value) {
+
+    return (value > MISSING_VALUE && value < WIDE_VALUE) ? (short)value : WIDE_VALUE;
+  }
+
+  /**
+   * Returns a copy of wide with the value of the given attribute added.
+   */
+  static int[] putWide(int[] wide, int attIndex, int value) {
+
+    int length = (wide == null) ? 0 : wide.length;
+    int[] result = new int[length + 2];
+    if (wide != null) {
+      System.arraycopy(wide, 0, result, 0, length);
+    }
+    result[length] = attIndex;
+    result[length + 1] = value;
+    return result;
+  }
+
+  /**
+   * Returns wide without the value of the given attribute (null if 
+   * nothing is left).
+   */
+  private static int[] removeWide(int[] wide, int attIndex) {
+
+    if (wide == null) {
+      return null;
+    }
+    int[] result = new int[wide.length];
+    int length = 0;
+    for (int i = 0; i < wide.length; i += 2) {
+      if (wide[i] != attIndex) {
+	result[length++] = wide[i];
+	result[length++] = wide[i + 1];
+      }
+    }
+    if (length == 0) {
+      return null;
+    }
+    int[] trimmed = new int[length];
+    System.arraycopy(result, 0, trimmed, 0, length);
+    return trimmed;
+  }
+
+  /**
+   * Returns wide with the attribute indices from position on moved by
+   * shift, and without the value at position if shift is negative.
+   */
+  private static int[] shiftWide(int[] wide, int position, int shift) {
+
+    if (wide == null) {
+      return null;
+    }
+    if (shift < 0) {
+      wide = removeWide(wide, position);
+      if (wide == null) {
+	return null;
+      }
+    }
+    int[] result = new int[wide.length];
+    for (int i = 0; i < wide.length; i += 2) {
+      result[i] = (wide[i] >= position) ? wide[i] + shift : wide[i];
+      result[i + 1] = wide[i + 1];
+    }
+    return result;
+  }
+
   /**
    * Returns the instance's weight.
    *
@@ -960,6 +1124,7 @@ public class InstanceShort implements Copyable, Serializable {
 		       m_AttValues.length - (position + 1));
     }
     m_AttValues = newValues;
+    m_WideValues = shiftWide(m_WideValues, position, -1);
   }
 
   /**
@@ -977,6 +1142,7 @@ public class InstanceShort implements Copyable, Serializable {
     System.arraycopy(m_AttValues, position, newValues, 
 		     position + 1, m_AttValues.length - position);
     m_AttValues = newValues;
+    m_WideValues = shiftWide(m_WideValues, position, 1);
   }
 
   /**
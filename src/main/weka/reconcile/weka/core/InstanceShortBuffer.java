@@ -0,0 +1,227 @@
+package reconcile.weka.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Attribute values of InstanceShorts stored outside the Java heap.
+ *
+ * The values are kept row by row (one row of numAttributes() shorts per instance) in fixed size segments, either
+ * direct ByteBuffers or regions of a memory-mapped file. The instances are BufferedInstanceShorts, which hold the
+ * position of their row instead of an array, so a dataset of n instances takes a few dozen bytes of heap per instance
+ * no matter how many attributes there are. With a file the operating system pages the rows in and out as they are
+ * used, so the data can be larger than the heap (and than physical memory).
+ *
+ * The buffer only grows: rows are never freed, and setting a value of a BufferedInstanceShort whose row is shared
+ * with copies of the instance copies the row to the end of the buffer (InstanceShort copies its array in the same
+ * situation). The row that was replaced stays in the buffer even when no instance uses it any more, so a dataset
+ * whose shared instances are changed over and over (say, on every iteration of a training loop) keeps growing its
+ * buffer. Moving the dataset into a new buffer, with setBuffer(buffer.newBuffer(numAttributes())), stores only the
+ * rows that are still in use; the old buffer is freed once nothing refers to it (close() it first if it is backed by
+ * a file).
+ *
+ * Rows can be read from several threads at once, and rows can be appended from several threads at once, so copies of
+ * an instance can be changed on different threads. Changing the values of one row from several threads at once is not
+ * safe.
+ *
+ * @author ves
+ */
+public class InstanceShortBuffer {
+
+  /** The size of the segments the buffer grows by */
+  private static final int SEGMENT_BYTES = 64 << 20;
+
+  private int m_NumAttributes;
+
+  private int m_RowBytes;
+
+  private int m_RowsPerSegment;
+
+  /** The backing file (null for direct buffers) */
+  private File m_File = null;
+
+  private RandomAccessFile m_RandomAccessFile = null;
+
+  /** Replaced when it grows, so readers that don't synchronize always see a filled array */
+  private volatile ByteBuffer[] m_Segments = new ByteBuffer[16];
+
+  private int m_NumRows = 0;
+
+  /**
+   * Creates a buffer in direct (off-heap) memory. Note that the JVM limits the amount of direct memory
+   * (-XX:MaxDirectMemorySize).
+   *
+   * @param numAttributes the number of attribute values of each instance
+   */
+  public InstanceShortBuffer(int numAttributes) {
+    setNumAttributes(numAttributes);
+  }
+
+  /**
+   * Creates a buffer backed by a memory-mapped file. The file is overwritten.
+   *
+   * @param numAttributes the number of attribute values of each instance
+   * @param file the backing file
+   * @exception IOException if the file can't be created
+   */
+  public InstanceShortBuffer(int numAttributes, File file) throws IOException {
+    setNumAttributes(numAttributes);
+    m_File = file;
+    m_RandomAccessFile = new RandomAccessFile(file, "rw");
+    m_RandomAccessFile.setLength(0);
+  }
+
+  private void setNumAttributes(int numAttributes) {
+    if(numAttributes < 1 || numAttributes > SEGMENT_BYTES / 2){
+      throw new IllegalArgumentException("Unsupported number of attributes: " + numAttributes);
+    }
+    m_NumAttributes = numAttributes;
+    m_RowBytes = 2 * numAttributes;
+    m_RowsPerSegment = SEGMENT_BYTES / m_RowBytes;
+  }
+
+  /**
+   * Creates an empty buffer of the same kind for a different number of attributes: in direct memory, or backed by a
+   * new temporary file next to this buffer's file, which is deleted when the JVM exits.
+   */
+  public InstanceShortBuffer newBuffer(int numAttributes) {
+    if(m_File == null){
+      return new InstanceShortBuffer(numAttributes);
+    }
+    try{
+      File file = File.createTempFile(m_File.getName(), ".buf", m_File.getAbsoluteFile().getParentFile());
+      file.deleteOnExit();
+      return new InstanceShortBuffer(numAttributes, file);
+    } catch(IOException e){
+      throw new RuntimeException("Can't create a buffer next to " + m_File + ": " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Returns the number of attribute values of each instance.
+   */
+  public int numAttributes() {
+    return m_NumAttributes;
+  }
+
+  /**
+   * Returns the number of rows stored so far.
+   */
+  public synchronized int numRows() {
+    return m_NumRows;
+  }
+
+  /**
+   * Returns the backing file, or null if the buffer is in direct memory.
+   */
+  public File getFile() {
+    return m_File;
+  }
+
+  /**
+   * Tests if an instance is a view of a row of this buffer.
+   */
+  public boolean contains(InstanceShort instance) {
+    return (instance instanceof BufferedInstanceShort) && ((BufferedInstanceShort)instance).buffer() == this;
+  }
+
+  /**
+   * Copies the values of an instance to a new row and returns a view of the row with the instance's weight and
+   * dataset.
+   *
+   * @exception IllegalArgumentException if the instance has the wrong number of attributes
+   */
+  public BufferedInstanceShort store(InstanceShort instance) {
+    if(instance.numAttributes() != m_NumAttributes){
+      throw new IllegalArgumentException("Instance has " + instance.numAttributes() + " attributes, buffer has "
+          + m_NumAttributes);
+    }
+    int row = appendRow();
+    ByteBuffer segment = segment(row);
+    int offset = offset(row);
+    for(int i = 0; i < m_NumAttributes; i++){
+      segment.putShort(offset + 2 * i, instance.value(i));
+    }
+    BufferedInstanceShort result = new BufferedInstanceShort(this, row, instance.weight());
+    result.setDataset(instance.dataset());
+    result.m_WideValues = instance.m_WideValues;
+    return result;
+  }
+
+  /**
+   * Copies a row to a new row and returns the index of the new row.
+   */
+  int copyRow(int row) {
+    int result = appendRow();
+    ByteBuffer from = segment(row), to = segment(result);
+    int fromOffset = offset(row), toOffset = offset(result);
+    for(int i = 0; i < m_NumAttributes; i++){
+      to.putShort(toOffset + 2 * i, from.getShort(fromOffset + 2 * i));
+    }
+    return result;
+  }
+
+  /**
+   * Releases the backing file. Rows stored in it can't be used afterwards.
+   */
+  public synchronized void close() throws IOException {
+    if(m_RandomAccessFile != null){
+      m_RandomAccessFile.close();
+      m_RandomAccessFile = null;
+    }
+  }
+
+  /**
+   * The segment that holds a row.
+   */
+  ByteBuffer segment(int row) {
+    return m_Segments[row / m_RowsPerSegment];
+  }
+
+  /**
+   * The position of a row in its segment, in bytes.
+   */
+  int offset(int row) {
+    return (row % m_RowsPerSegment) * m_RowBytes;
+  }
+
+  /**
+   * Reserves a new row. The caller then writes the row, which no other thread uses until the caller hands out a view
+   * of it.
+   */
+  private synchronized int appendRow() {
+    if(m_NumRows == Integer.MAX_VALUE){
+      throw new IllegalStateException("Buffer is full");
+    }
+    int row = m_NumRows;
+    int s = row / m_RowsPerSegment;
+    ByteBuffer[] segments = m_Segments;
+    if(s >= segments.length || segments[s] == null){
+      segments = new ByteBuffer[Math.max(segments.length, 2 * s)];
+      System.arraycopy(m_Segments, 0, segments, 0, m_Segments.length);
+      segments[s] = newSegment(s);
+      m_Segments = segments;
+    }
+    m_NumRows++;
+    return row;
+  }
+
+  private ByteBuffer newSegment(int s) {
+    int size = m_RowsPerSegment * m_RowBytes;
+    ByteBuffer result;
+    if(m_RandomAccessFile == null){
+      result = ByteBuffer.allocateDirect(size);
+    } else{
+      try{
+        result = m_RandomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, (long)s * size, size);
+      } catch(IOException e){
+        throw new RuntimeException("Can't extend " + m_File + ": " + e.getMessage(), e);
+      }
+    }
+    return result.order(ByteOrder.nativeOrder());
+  }
+}
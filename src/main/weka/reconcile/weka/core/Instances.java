@@ -23,6 +23,7 @@
 package reconcile.weka.core;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -136,6 +137,49 @@ public class Instances implements Serializable {
 		}
 		}
  
+  /**
+   * Reads an ARFF file, and assigns a weight of one to each
+   * instance. Lets the index of the class attribute be undefined
+   * (negative). The data section is parsed by FastArffReader, on
+   * the calling thread.
+   *
+   * @param file the ARFF file
+   * @exception IOException if the ARFF file is not read 
+   * successfully
+   */
+  public Instances(/*@non_null@*/File file) throws IOException {
+    this(file, 1);
+  }
+
+  /**
+   * Reads an ARFF file, parsing the data section on the given
+   * number of threads. Files that FastArffReader does not handle
+   * are read with the StreamTokenizer parser.
+   *
+   * @param file the ARFF file
+   * @param numThreads the number of threads used for parsing
+   * @exception IOException if the ARFF file is not read 
+   * successfully
+   */
+  public Instances(/*@non_null@*/File file, int numThreads) throws IOException {
+
+    m_Instances = new FastVector(1000);
+    if (!new FastArffReader(file).read(this, numThreads)) {
+      Reader reader = new BufferedReader(new FileReader(file));
+      try {
+        StreamTokenizer tokenizer = new StreamTokenizer(reader);
+        initTokenizer(tokenizer);
+        readHeader(tokenizer);
+        m_Instances = new FastVector(1000);
+        while (getInstance(tokenizer, true)) {};
+      } finally {
+        reader.close();
+      }
+    }
+    m_ClassIndex = -1;
+    compactify();
+  }
+
   /**
    * Reads the header of an ARFF file from a reader and 
    * reserves space for the given number of instances. Lets
@@ -25,9 +25,11 @@ package reconcile.weka.core;
 import java.io.BufferedReader;
 import java.io.DataInputStream;
 import java.io.EOFException;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.ObjectOutputStream;
 import java.io.Reader;
 import java.io.Serializable;
 import java.io.StreamTokenizer;
@@ -108,6 +110,9 @@ public class InstancesShort implements Serializable {
   /** The instances. */
   protected/* @spec_public non_null@ */FastVector m_Instances;
 
+  /** Whether m_Instances is shared with views of this dataset */
+  protected boolean m_SharedInstances = false;
+
   /** The class attribute's index */
   protected int m_ClassIndex;
 
@@ -127,6 +132,9 @@ public class InstancesShort implements Serializable {
 
   /** Remember binarized attributes */
   protected HashSet m_BinarizedAttributes = null;
+
+  /** Off-heap storage for the attribute values of the instances (null if the values are on the heap) */
+  protected transient InstanceShortBuffer m_Buffer = null;
   /**
    * Reads an ARFF file from a reader, and assigns a weight of one to each
    * instance. Lets the index of the class attribute be undefined (negative).
@@ -159,6 +167,51 @@ public class InstancesShort implements Serializable {
     }
   }
   
+  /**
+   * Reads an ARFF file, and assigns a weight of one to each instance. Lets the
+   * index of the class attribute be undefined (negative). The data section is
+   * parsed by FastArffReader, on the calling thread.
+   * 
+   * @param file
+   *          the ARFF file
+   * @exception IOException
+   *              if the ARFF file is not read successfully
+   */
+  public InstancesShort(/* @non_null@ */File file) throws IOException {
+    this(file, 1);
+  }
+
+  /**
+   * Reads an ARFF file, parsing the data section on the given number of
+   * threads. Files that FastArffReader does not handle are read with the
+   * StreamTokenizer parser.
+   * 
+   * @param file
+   *          the ARFF file
+   * @param numThreads
+   *          the number of threads used for parsing
+   * @exception IOException
+   *              if the ARFF file is not read successfully
+   */
+  public InstancesShort(/* @non_null@ */File file, int numThreads) throws IOException {
+
+    m_Instances = new FastVector(1000);
+    if(!new FastArffReader(file).read(this, numThreads)){
+      Reader reader = new BufferedReader(new FileReader(file));
+      try{
+        StreamTokenizer tokenizer = new StreamTokenizer(reader);
+        initTokenizer(tokenizer);
+        readHeader(tokenizer);
+        m_Instances = new FastVector(1000);
+        while(getInstance(tokenizer, true)){};
+      } finally{
+        reader.close();
+      }
+    }
+    m_ClassIndex = -1;
+    compactify();
+  }
+
   /**
    * Reads an Reads the header of an arff file
    * 
@@ -290,6 +343,7 @@ public class InstancesShort implements Serializable {
     m_RelationName = dataset.m_RelationName;
     m_Attributes = dataset.m_Attributes;
     m_Instances = new FastVector(capacity);
+    m_Buffer = dataset.m_Buffer;
     if(data_Debug){
       System.err.println("New ModifiedInstances " + numInstances() + " isnts "
           + m_NumDocuments + " docs.");
@@ -408,7 +462,13 @@ public class InstancesShort implements Serializable {
    */
   public void add(/* @non_null@ */InstanceShort instance) {
 
-    InstanceShort newInstance = (InstanceShort)instance.copy();
+    freshInstances();
+    InstanceShort newInstance;
+    if(m_Buffer != null && !m_Buffer.contains(instance)){
+      newInstance = m_Buffer.store(instance);
+    } else{
+      newInstance = (InstanceShort)instance.copy();
+    }
 
     newInstance.setDataset(this);
     m_Instances.addElement(newInstance);
@@ -613,7 +673,10 @@ public class InstancesShort implements Serializable {
         }else{
           newVal = inst.value(p)==v?(short)1:(short)0;
         }
-        newInst.setValue(j,newVal);
+        if(v < 0 && newVal == InstanceShort.WIDE_VALUE)
+          newInst.setIntValue(j, inst.intValue(p));
+        else
+          newInst.setValue(j,newVal);
         newInst.setWeight(inst.weight());
       }
       //System.err.println();
@@ -640,7 +703,10 @@ public class InstancesShort implements Serializable {
        }else{
          newVal = inst.value(p)==v?(short)1:(short)0;
        }
-       newInst.setValue(j,newVal);
+       if(v < 0 && newVal == InstanceShort.WIDE_VALUE)
+         newInst.setIntValue(j, inst.intValue(p));
+       else
+         newInst.setValue(j,newVal);
        newInst.setWeight(inst.weight());
      }
      return newInst;
@@ -707,6 +773,7 @@ public class InstancesShort implements Serializable {
    */
   public void compactify() {
 
+    freshInstances();
     m_Instances.trimToSize();
   }
 
@@ -715,6 +782,7 @@ public class InstancesShort implements Serializable {
    */
   public void delete() {
 
+    freshInstances();
     m_Instances = new FastVector();
   }
 
@@ -727,6 +795,7 @@ public class InstancesShort implements Serializable {
   //@ requires 0 <= index && index < numInstances();
   public void delete(int index) {
 
+    freshInstances();
     m_Instances.removeElementAt(index);
   }
 
@@ -760,9 +829,7 @@ public class InstancesShort implements Serializable {
       AttributeShort current = (AttributeShort)m_Attributes.elementAt(i);
       current.setIndex(current.index() - 1);
     }
-    for(int i = 0; i < numInstances(); i++){
-      instance(i).forceDeleteAttributeAt(position);
-    }
+    forceAttributeChange(position, false);
   }
 
   /**
@@ -795,6 +862,7 @@ public class InstancesShort implements Serializable {
   //@ requires 0 <= attIndex && attIndex < numAttributes();
   public void deleteWithMissing(int attIndex) {
 
+    freshInstances();
     FastVector newInstances = new FastVector(numInstances());
 
     for(int i = 0; i < numInstances(); i++){
@@ -930,14 +998,89 @@ public class InstancesShort implements Serializable {
       AttributeShort current = (AttributeShort)m_Attributes.elementAt(i);
       current.setIndex(current.index() + 1);
     }
-    for(int i = 0; i < numInstances(); i++){
-      instance(i).forceInsertAttributeAt(position);
-    }
+    forceAttributeChange(position, true);
     if(m_ClassIndex >= position){
       m_ClassIndex++;
     }
   }
 
+  /**
+   * Moves the attribute values of all instances into the given buffer, which
+   * then also receives the values of instances added later on (and of the
+   * instances of datasets created with this dataset's header). Instances that
+   * are already stored in the buffer are not copied. Without a buffer (null)
+   * the values are moved back onto the heap.
+   * 
+   * @param buffer
+   *          the buffer, or null
+   * @exception IllegalArgumentException
+   *              if the buffer has the wrong number of attributes
+   */
+  public void setBuffer(InstanceShortBuffer buffer) {
+
+    if(buffer != null && buffer.numAttributes() != numAttributes()){
+      throw new IllegalArgumentException("Buffer has " + buffer.numAttributes()
+          + " attributes, dataset has " + numAttributes());
+    }
+    freshInstances();
+    m_Buffer = buffer;
+    for(int i = 0; i < numInstances(); i++){
+      InstanceShort current = instance(i);
+      if(buffer != null){
+        if(!buffer.contains(current)){
+          m_Instances.setElementAt(buffer.store(current), i);
+        }
+      } else if(current instanceof BufferedInstanceShort){
+        m_Instances.setElementAt(heapCopy(current), i);
+      }
+    }
+  }
+
+  /**
+   * Returns the buffer that holds the attribute values of the instances, or
+   * null if they are on the heap.
+   */
+  public InstanceShortBuffer getBuffer() {
+
+    return m_Buffer;
+  }
+
+  /**
+   * Inserts or deletes a value of every instance. The rows of a buffer have a
+   * fixed length, so buffered instances are moved to a new buffer one by one.
+   */
+  private void forceAttributeChange(int position, boolean insert) {
+
+    InstanceShortBuffer buffer = m_Buffer == null ? null : m_Buffer
+        .newBuffer(numAttributes());
+    freshInstances();
+    m_Buffer = buffer;
+    for(int i = 0; i < numInstances(); i++){
+      InstanceShort current = instance(i);
+      if(current instanceof BufferedInstanceShort){
+        current = heapCopy(current);
+      }
+      if(insert){
+        current.forceInsertAttributeAt(position);
+      } else{
+        current.forceDeleteAttributeAt(position);
+      }
+      if(buffer != null){
+        current = buffer.store(current);
+      }
+      m_Instances.setElementAt(current, i);
+    }
+  }
+
+  private static InstanceShort heapCopy(InstanceShort instance) {
+
+    InstanceShort result = new InstanceShort(instance.weight(), instance
+        .toShortArray());
+    result.setDataset(instance.dataset());
+    result.m_WideValues = instance.m_WideValues;
+    return result;
+  }
+
   /**
    * Returns the instance at the given position.
    * 
@@ -2045,6 +2188,7 @@ public class InstancesShort implements Serializable {
         throws IOException {
 
       short[] instance = new short[numAttributes()];
+      int[] wide = null;
       short index;
 
       // Get values for all attributes.
@@ -2079,7 +2223,14 @@ public class InstancesShort implements Serializable {
             // Check if value is really a number.
             try{
               Double value = Double.valueOf(tokenizer.sval);
-              instance[i] = attribute(i).storeTemp(value);
+              if(attribute(i).isIdentifier()){
+                instance[i] = InstanceShort.shortValue(value.intValue());
+                if(instance[i] == InstanceShort.WIDE_VALUE){
+                  wide = InstanceShort.putWide(wide, i, value.intValue());
+                }
+              } else{
+                instance[i] = attribute(i).storeTemp(value);
+              }
             } catch(NumberFormatException e){
               errms(tokenizer, "number expected");
             }
@@ -2105,7 +2256,9 @@ public class InstancesShort implements Serializable {
       }
 
       // Add instance to dataset
-      add(new InstanceShort(1, instance));
+      InstanceShort inst = new InstanceShort(1, instance);
+      inst.m_WideValues = wide;
+      add(inst);
       return true;
     }
     
@@ -2121,6 +2274,7 @@ public class InstancesShort implements Serializable {
         throws IOException {
 
       short[] instance = new short[numAttributes()];
+      int[] wide = null;
       short index;
 
       // Get values for all attributes.
@@ -2153,7 +2307,14 @@ public class InstancesShort implements Serializable {
             // Check if value is really a number.
             try{
               Double value = Double.valueOf(tokenizer.sval);
-              instance[i] = attribute(i).storeTemp(value);
+              if(attribute(i).isIdentifier()){
+                instance[i] = InstanceShort.shortValue(value.intValue());
+                if(instance[i] == InstanceShort.WIDE_VALUE){
+                  wide = InstanceShort.putWide(wide, i, value.intValue());
+                }
+              } else{
+                instance[i] = attribute(i).storeTemp(value);
+              }
               attribute(i).storeCoresp(instance[i], value);
             } catch(NumberFormatException e){
               errms(tokenizer, "number expected");
@@ -2179,7 +2340,9 @@ public class InstancesShort implements Serializable {
         getLastToken(tokenizer, true);
       }
 
-      return new InstanceShort(1, instance);
+      InstanceShort inst = new InstanceShort(1, instance);
+      inst.m_WideValues = wide;
+      return inst;
     }
 
   /**
@@ -2427,6 +2590,27 @@ public class InstancesShort implements Serializable {
     m_Attributes = (FastVector)m_Attributes.copyElements();
   }
 
+  /**
+   * Copies the vector of instances before it is changed, if it is shared with
+   * views of this dataset (see ModifiedInstancesShort.splitDocs()).
+   */
+  protected void freshInstances() {
+
+    if(m_SharedInstances){
+      m_Instances = (FastVector)m_Instances.copy();
+      m_SharedInstances = false;
+    }
+  }
+
+  /**
+   * Gives views their own vector of instances before they are serialized.
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+
+    freshInstances();
+    out.defaultWriteObject();
+  }
+
   /**
    * Gets next token, skipping empty lines.
    * 
@@ -2658,6 +2842,7 @@ public class InstancesShort implements Serializable {
    */
   protected void stratStep(int numFolds) {
 
+    freshInstances();
     FastVector newVec = new FastVector(m_Instances.capacity());
     int start = 0, j;
 
@@ -2685,6 +2870,7 @@ public class InstancesShort implements Serializable {
   //@ requires 0 <= j && j < numInstances();
   public void swap(int i, int j) {
 
+    freshInstances();
     m_Instances.swap(i, j);
   }
 
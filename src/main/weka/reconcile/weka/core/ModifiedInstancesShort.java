@@ -4,6 +4,7 @@
  */
 package reconcile.weka.core;
 import java.io.DataInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.Enumeration;
@@ -28,6 +29,11 @@ public class ModifiedInstancesShort extends InstancesShort{
 	public AttributeShort m_Prediction;
 	public short m_Positive;
 	public short m_Negative;
+	
+	//a view (see view()) shares m_Instances with the dataset it was created
+	//from; these are its first instance and its size (-1 if not a view)
+	private int m_ViewFirst = 0;
+	private int m_ViewSize = -1;
 	/**
 	 * @param dataset
 	 */
@@ -62,6 +68,25 @@ public class ModifiedInstancesShort extends InstancesShort{
 		setUpSources();
 	}
 	
+	/**
+	 * @param file
+	 * @throws IOException
+	 */
+	public ModifiedInstancesShort(File file) throws IOException {
+		super(file);
+		setUpSources();
+	}
+	
+	/**
+	 * @param file
+	 * @param numThreads
+	 * @throws IOException
+	 */
+	public ModifiedInstancesShort(File file, int numThreads) throws IOException {
+		super(file, numThreads);
+		setUpSources();
+	}
+	
 	public ModifiedInstancesShort(String header) throws IOException {
 		super(header);
 	}
@@ -89,29 +114,94 @@ public class ModifiedInstancesShort extends InstancesShort{
 		super(name, attInfo, capacity);
 	}
 	
+	/**
+	 * Splits the data into documents. The instances of a document have to be
+	 * consecutive. The documents are views of the data (see view()), so no
+	 * instances are copied.
+	 */
 	public static ModifiedInstancesShort[] splitDocs(ModifiedInstancesShort all){
-	  ModifiedInstancesShort[] result = new ModifiedInstancesShort[all.getNumDocuments()];
-	  //System.err.println("docs "+all.getNumDocuments());
-	  //System.err.println(all.instance(0));
-	  int currentDoc = -1;
-	  int index = 0;
 	  AttributeShort docnum = all.attribute("DocNo");
-	  ModifiedInstancesShort cur = null;
-	  for(int i =0; i<all.numInstances(); i++){
-	    InstanceShort ins = all.instance(i);
-	    
-	    int  docNum = (int)ins.value(docnum);
-	    if(currentDoc!=docNum){
-	      //Set up a new document
-	     // System.err.println("Addin doc "+docNum+" position "+index);
-	      cur = new ModifiedInstancesShort(all,0);
-	      result[index++]= cur;
-	      currentDoc = docNum;
+	  //document numbers are not necessarily 0..n-1, so count the documents first
+	  int numDocs = 0;
+	  for(int i = 0; i < all.numInstances(); i++){
+	    if(i == 0 || all.instance(i).intValue(docnum) != all.instance(i - 1).intValue(docnum))
+	      numDocs++;
+	  }
+	  ModifiedInstancesShort[] result = new ModifiedInstancesShort[numDocs];
+	  int index = 0;
+	  int first = 0;
+	  for(int i = 1; i <= all.numInstances(); i++){
+	    if(i == all.numInstances() || all.instance(i).intValue(docnum) != all.instance(first).intValue(docnum)){
+	      result[index++] = all.view(first, i - first);
+	      first = i;
 	    }
-	    cur.add(ins);
 	  }
 	  return result;
 	}
+	
+	/**
+	 * Returns a dataset with the header of this one and the instances
+	 * first..first+size-1 of this one, without copying the instances: the view
+	 * and this dataset share the vector of instances until one of them is
+	 * changed, which makes it copy the vector (or its part of it) first.
+	 * Unlike add(), the view doesn't set the dataset of the instances.
+	 */
+	public ModifiedInstancesShort view(int first, int size) {
+	  if(first < 0 || size < 0 || first + size > numInstances())
+	    throw new IllegalArgumentException("Parameters first and/or size out of range");
+	  ModifiedInstancesShort result = new ModifiedInstancesShort(this, 0);
+	  result.m_Instances = m_Instances;
+	  result.m_ViewFirst = m_ViewFirst + first;
+	  result.m_ViewSize = size;
+	  m_SharedInstances = true;
+	  //the number of documents, as add() would have counted it
+	  AttributeShort docID = attribute("DocNo");
+	  for(int i = 0; i < size; i++){
+	    int docNum = docID == null ? 0 : result.instance(i).intValue(docID);
+	    result.m_NumDocuments = Math.max(result.m_NumDocuments, docNum + 1);
+	  }
+	  return result;
+	}
+	
+	/**
+	 * Gives a view its own vector of instances, and copies a shared vector
+	 * before it is changed.
+	 */
+	protected void freshInstances() {
+	  if(m_ViewSize >= 0){
+	    FastVector instances = new FastVector(m_ViewSize);
+	    for(int i = 0; i < m_ViewSize; i++)
+	      instances.addElement(m_Instances.elementAt(m_ViewFirst + i));
+	    m_Instances = instances;
+	    m_ViewFirst = 0;
+	    m_ViewSize = -1;
+	    m_SharedInstances = false;
+	  }else{
+	    super.freshInstances();
+	  }
+	}
+	
+	public int numInstances() {
+	  return m_ViewSize >= 0 ? m_ViewSize : m_Instances.size();
+	}
+	
+	public InstanceShort instance(int index) {
+	  if(m_ViewSize >= 0){
+	    if(index < 0 || index >= m_ViewSize)
+	      throw new ArrayIndexOutOfBoundsException(index);
+	    return (InstanceShort)m_Instances.elementAt(m_ViewFirst + index);
+	  }
+	  return (InstanceShort)m_Instances.elementAt(index);
+	}
+	
+	public InstanceShort firstInstance() {
+	  return instance(0);
+	}
+	
+	public InstanceShort lastInstance() {
+	  return instance(numInstances() - 1);
+	}
+	
 	/**
 	 * Set up the data so it is ready for the task. That involves three tasks:
 	 * 1) Set the weights to non sources to 0
@@ -147,8 +237,8 @@ public class ModifiedInstancesShort extends InstancesShort{
 			boolean isSource = (source==null)||(ins.value(source)==sourceInd);
 			if(!isSource)
 				ins.setWeight(0);
-			int docNum = (int)ins.value(m_DOCNO);
-			int id = (int)ins.value(m_ID2);
+			int docNum = ins.intValue(m_DOCNO);
+			int id = ins.intValue(m_ID2);
 			if(docNum!=curDoc){
 				numDocs++;
 				curDoc = docNum;
@@ -220,8 +310,17 @@ public class ModifiedInstancesShort extends InstancesShort{
 	 * @see weka.core.Instances#enumerateInstances()
 	 */
 	public Enumeration enumerateInstances() {
-		// TODO Auto-generated method stub
-		return super.enumerateInstances();
+		if(m_ViewSize < 0)
+			return super.enumerateInstances();
+		return new Enumeration() {
+			private int m_Next = 0;
+			public boolean hasMoreElements() {
+				return m_Next < m_ViewSize;
+			}
+			public Object nextElement() {
+				return instance(m_Next++);
+			}
+		};
 	}
 	/* (non-Javadoc)
 	 * @see weka.core.Instances#numAttributes()
@@ -249,23 +348,22 @@ public class ModifiedInstancesShort extends InstancesShort{
 	 */
 	public InstancesShort[] copyDocInstances(int numDocuments){
 		InstancesShort result[]=new InstancesShort[2];
-		result[0] = new ModifiedInstancesShort(this, numInstances());
-		result[1] = new ModifiedInstancesShort(this, numInstances());
 		AttributeShort docID = attribute("DocNo");
 		int documentNum = 0;
 		int curDoc = -1;
-		for(int i=0; i<numInstances();i++){
-			InstanceShort cur = instance(i);
-			int docNum = (int)cur.value(docID);
+		int split = numInstances();
+		for(int i=0; i<numInstances() && split==numInstances();i++){
+			int docNum = instance(i).intValue(docID);
 			if(docNum!=curDoc){
 				documentNum++;
 				curDoc = docNum;
 			}
 			if(documentNum>numDocuments)
-				result[1].add(cur);
-			else
-				result[0].add(cur);
+				split = i;
 		}
+		//the documents are consecutive, so both bags are views
+		result[0] = view(0, split);
+		result[1] = view(split, numInstances()-split);
 		return result;
 	}
 
@@ -275,10 +373,10 @@ public class ModifiedInstancesShort extends InstancesShort{
 	public String printDocOrder(){
 		String result = "";
 		AttributeShort docID = attribute("DocNo");
-		short curDoc = -1;
+		int curDoc = -1;
 		for(int i=0; i<numInstances();i++){
 			InstanceShort cur = instance(i);
-			short docNum = cur.value(docID);
+			int docNum = cur.intValue(docID);
 			if(docNum!=curDoc){
 			  result+=docNum+", ";
 			  curDoc = docNum;
@@ -293,12 +391,12 @@ public class ModifiedInstancesShort extends InstancesShort{
 	 */
 	public int addDoc(InstancesShort data, int startIndex){
 		AttributeShort docID = attribute("DocNo");
-		short curDoc = -1;
+		int curDoc = -1;
 		boolean done = false;
 		int index = 0;
 		for(int i=startIndex; i<data.numInstances() && !done; i++){
 			InstanceShort cur = data.instance(i);
-			short docNum = cur.value(docID);
+			int docNum = cur.intValue(docID);
 			if(docNum!=curDoc){
 				if(curDoc==-1){
 					curDoc=docNum;
@@ -321,15 +419,20 @@ public class ModifiedInstancesShort extends InstancesShort{
    * This is different from the add in the Instances class. Increases the
    * size of the dataset if it is not large enough. Does not
    * check if the instance is compatible with the dataset.
+   * If the dataset has a buffer, instances that aren't stored in it yet
+   * are copied into it.
    *
    * @param instance the instance to be added
    */
   public void add(/*@non_null@*/ InstanceShort instance) {
 		AttributeShort docID = attribute("DocNo");
-		short docNum = 0;
+		int docNum = 0;
 		if(docID!=null)
-		  docNum = instance.value(docID);
+		  docNum = instance.intValue(docID);
 		m_NumDocuments = m_NumDocuments >= docNum+1?m_NumDocuments:docNum+1;
+		freshInstances();
+		if(m_Buffer!=null && !m_Buffer.contains(instance))
+		  instance = m_Buffer.store(instance);
 		instance.setDataset(this);
 		m_Instances.addElement(instance);
 	}
@@ -363,6 +466,77 @@ public class ModifiedInstancesShort extends InstancesShort{
     throw new RuntimeException("Deleting instances");
   }
 	
+	/**
+	 * The heap in use after a few garbage collections.
+	 */
+	private static long usedHeap() {
+	  Runtime runtime = Runtime.getRuntime();
+	  for(int i = 0; i < 4; i++)
+	    System.gc();
+	  return runtime.totalMemory() - runtime.freeMemory();
+	}
+	
+	private static String megabytes(long bytes) {
+	  return Utils.doubleToString(bytes / 1048576.0, 2) + "MB";
+	}
+	
+	/**
+	 * Reports the heap retained by the documents splitDocs() and
+	 * copyDocInstances() return, and by the copies the two made before they
+	 * returned views. The copies are made with add(), as the old code did, so
+	 * they come after the views. The figures are only rough, since they are
+	 * differences of the used heap.
+	 *
+	 * Valid options are: -T file.
+	 */
+	public static void main(String[] args) {
+	  try{
+	    String fileName = Utils.getOption('T', args);
+	    if(fileName.length() == 0)
+	      throw new Exception("Usage: ModifiedInstancesShort -T file");
+	    ModifiedInstancesShort all = new ModifiedInstancesShort(new File(fileName));
+	    int numDocs = all.getNumDocuments();
+	    //every report mentions the data, so that it stays reachable until then
+	    
+	    long before = usedHeap();
+	    ModifiedInstancesShort[] docs = splitDocs(all);
+	    long size = usedHeap() - before;
+	    System.out.println("splitDocs, " + docs.length + " views of " + all.numInstances() + " instances: " + megabytes(size));
+	    docs = null;
+	    
+	    before = usedHeap();
+	    InstancesShort[] bags = all.copyDocInstances(numDocs / 2);
+	    size = usedHeap() - before;
+	    System.out.println("copyDocInstances, " + bags.length + " views of " + all.numInstances() + " instances: " + megabytes(size));
+	    
+	    before = usedHeap();
+	    ModifiedInstancesShort[] bagCopies = new ModifiedInstancesShort[bags.length];
+	    for(int b = 0; b < bags.length; b++){
+	      bagCopies[b] = new ModifiedInstancesShort(all, all.numInstances());
+	      for(int i = 0; i < bags[b].numInstances(); i++)
+	        bagCopies[b].add(bags[b].instance(i));
+	    }
+	    size = usedHeap() - before;
+	    System.out.println("copyDocInstances, " + bagCopies.length + " copies of " + all.numInstances() + " instances: " + megabytes(size));
+	    bags = null;
+	    bagCopies = null;
+	    
+	    before = usedHeap();
+	    docs = new ModifiedInstancesShort[numDocs];
+	    AttributeShort docnum = all.attribute("DocNo");
+	    int index = 0;
+	    for(int i = 0; i < all.numInstances(); i++){
+	      if(i == 0 || all.instance(i).value(docnum) != all.instance(i - 1).value(docnum))
+	        docs[index++] = new ModifiedInstancesShort(all, 0);
+	      docs[index - 1].add(all.instance(i));
+	    }
+	    size = usedHeap() - before;
+	    System.out.println("splitDocs, " + index + " copies of " + all.numInstances() + " instances: " + megabytes(size));
+	  }catch(Exception e){
+	    e.printStackTrace();
+	    System.err.println(e.getMessage());
+	  }
+	}
 
 }
 
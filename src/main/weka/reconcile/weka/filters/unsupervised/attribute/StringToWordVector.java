@@ -35,10 +35,17 @@ import java.io.Serializable;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.StringTokenizer;
 import java.util.TreeMap;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import reconcile.weka.core.Attribute;
 import reconcile.weka.core.FastVector;
@@ -58,7 +65,9 @@ import reconcile.weka.filters.UnsupervisedFilter;
  * Converts String attributes into a set of attributes representing word
  * occurrence information from the text contained in the strings. The set of
  * words (attributes) is determined by the first batch filtered (typically
- * training data).
+ * training data). Alternatively the words can be hashed into a fixed number
+ * of fields, in which case instances are converted as they come in unless
+ * statistics of the first batch are needed.
  *
  * @author Len Trigg (len@reeltwo.com)
  * @author Stuart Inglis (stuart@reeltwo.com)
@@ -131,8 +140,39 @@ public class StringToWordVector extends Filter
   
   /** True if tokens that are on a stoplist are to be ignored. */
   private boolean m_useStoplist;  
-  
-  
+
+  /** The largest number of bits words can be hashed to. */
+  private static final int MAX_HASH_BITS = 20;
+
+  /** The number of bits words are hashed to instead of being looked up
+      in a dictionary (0 to build a dictionary from the first batch). */
+  private int m_HashBits = 0;
+
+  /** True if a hashed word adds either +1 or -1 to its field, so that
+      colliding words tend to cancel out rather than add up. */
+  private boolean m_SignedHash;
+
+  /** The number of documents of the first batch a word has to appear in
+      to be hashed (1 to hash all the words). */
+  private int m_MinDocFrequency = 1;
+
+  /** The words that appear in at least m_MinDocFrequency documents of the
+      first batch, or null if all the words are hashed. */
+  private Hashtable m_Vocabulary;
+
+  /** The index of the first hashed field in the output format. */
+  private int m_FirstHashed;
+
+  /** The number of threads the words are hashed with. */
+  private int m_NumThreads = 1;
+
+  /** The number of instances hashed together on m_NumThreads threads. */
+  private static final int BLOCK_SIZE = 1024;
+
+  /** The instances waiting to be hashed once the first batch is done. */
+  private FastVector m_Block = new FastVector();
+
+
   /**
    * Returns an enumeration describing the available options
    *
@@ -191,7 +231,25 @@ public class StringToWordVector extends Filter
     newVector.addElement(new Option(
 				    "\tIgnore words that are in the stoplist.",
 				    "S", 0, "-S"));
-        
+    newVector.addElement(new Option(
+				    "\tHash the words into 2^n fields instead of\n"
+				    + "\tbuilding a dictionary from the first batch.\n"
+				    + "\t(default: 0, build a dictionary)",
+				    "hash-bits", 1, "-hash-bits <n>"));
+    newVector.addElement(new Option(
+				    "\tHashed words add +1 or -1 to their field, so\n"
+				    + "\tthat colliding words tend to cancel out.",
+				    "signed-hash", 0, "-signed-hash"));
+    newVector.addElement(new Option(
+				    "\tOnly hash the words that appear in at least n\n"
+				    + "\tdocuments of the first batch.\n"
+				    + "\t(default: 1)",
+				    "min-doc-freq", 1, "-min-doc-freq <n>"));
+    newVector.addElement(new Option(
+				    "\tNumber of threads to hash the words with.\n"
+				    + "\t(default: 1)",
+				    "num-threads", 1, "-num-threads <n>"));
+
 
     return newVector.elements();
   }
@@ -242,6 +300,20 @@ public class StringToWordVector extends Filter
    * are normalized to average length of the documents specified in input 
    * format. <p>
    *
+   * -hash-bits n <br>
+   * Hash the words into 2^n fields instead of building a dictionary from
+   * the first batch. (default: 0, build a dictionary) <p>
+   *
+   * -signed-hash <br>
+   * Hashed words add +1 or -1 to their field. <p>
+   *
+   * -min-doc-freq n <br>
+   * Only hash the words that appear in at least n documents of the first
+   * batch. (default: 1) <p>
+   *
+   * -num-threads n <br>
+   * Number of threads to hash the words with. (default: 1) <p>
+   *
    * @param options the list of options as an array of strings
    * @exception Exception if an option is not supported
    */
@@ -281,6 +353,28 @@ public class StringToWordVector extends Filter
     
     setUseStoplist(Utils.getFlag('S', options));
     
+    value = Utils.getOption("hash-bits", options);
+    if (value.length() != 0) {
+      setHashBits(Integer.parseInt(value));
+    } else {
+      setHashBits(0);
+    }
+
+    setSignedHash(Utils.getFlag("signed-hash", options));
+
+    value = Utils.getOption("min-doc-freq", options);
+    if (value.length() != 0) {
+      setMinDocFrequency(Integer.parseInt(value));
+    } else {
+      setMinDocFrequency(1);
+    }
+
+    value = Utils.getOption("num-threads", options);
+    if (value.length() != 0) {
+      setNumThreads(Integer.parseInt(value));
+    } else {
+      setNumThreads(1);
+    }
   }
 
   /**
@@ -290,7 +384,7 @@ public class StringToWordVector extends Filter
    */
   public String [] getOptions() {
 
-    String [] options = new String [16];
+    String [] options = new String [23];
     int current = 0;
 
     options[current++] = "-D"; 
@@ -332,6 +426,25 @@ public class StringToWordVector extends Filter
     if(this.getUseStoplist())
         options[current++] = "-S";
     
+    if (getHashBits() > 0) {
+      options[current++] = "-hash-bits";
+      options[current++] = "" + getHashBits();
+    }
+
+    if (getSignedHash()) {
+      options[current++] = "-signed-hash";
+    }
+
+    if (getMinDocFrequency() > 1) {
+      options[current++] = "-min-doc-freq";
+      options[current++] = "" + getMinDocFrequency();
+    }
+
+    if (getNumThreads() > 1) {
+      options[current++] = "-num-threads";
+      options[current++] = "" + getNumThreads();
+    }
+
     while (current < options.length) {
       options[current++] = "";
     }
@@ -378,6 +491,17 @@ public class StringToWordVector extends Filter
     throws Exception {
     super.setInputFormat(instanceInfo);
     m_FirstBatchDone = false;
+    m_Vocabulary = null;
+    m_Block = new FastVector();
+    if ((m_HashBits > 0) && !m_IDFTransform && !m_normalizeDocLength
+	&& (m_MinDocFrequency <= 1)) {
+      // Nothing has to be learned from the first batch, so its instances
+      // can be converted as they come in, in blocks if there are several
+      // threads.
+      determineHashedFormat();
+      m_FirstBatchDone = true;
+      return true;
+    }
     return false;
   }
 
@@ -399,7 +523,13 @@ public class StringToWordVector extends Filter
       resetQueue();
       m_NewBatch = false;
     }
-    if (m_FirstBatchDone) {
+    if (m_FirstBatchDone && (m_HashBits > 0)) {
+      m_Block.addElement(instance);
+      if (m_Block.size() >= ((m_NumThreads > 1) ? BLOCK_SIZE : 1)) {
+	convertBlock();
+      }
+      return (numPendingOutput() != 0);
+    } else if (m_FirstBatchDone) {
       convertInstance(instance);
       return true;
     } else {
@@ -422,6 +552,19 @@ public class StringToWordVector extends Filter
       throw new IllegalStateException("No input instance format defined");
     }
 
+    // Hash the words of the first batch, or of the instances that are
+    // still waiting
+    if (m_HashBits > 0) {
+      if (m_FirstBatchDone) {
+	convertBlock();
+      } else {
+	convertHashedBatch();
+      }
+      m_NewBatch = true;
+      m_FirstBatchDone = true;
+      return (numPendingOutput() != 0);
+    }
+
     // Determine the dictionary
     if (!m_FirstBatchDone) {
       determineDictionary();
@@ -519,7 +662,14 @@ public class StringToWordVector extends Filter
     return "Converts String attributes into a set of attributes representing "+
            "word occurrence information from the text contained in the "+
            "strings. The set of words (attributes) is determined by the first "+
-           "batch filtered (typically training data).";
+           "batch filtered (typically training data), or the words are "+
+           "hashed into a fixed number of fields. Hashed instances are "+
+           "output as they are input (in blocks of "+BLOCK_SIZE+" with several "+
+           "threads), except in the first batch when the IDF transform, "+
+           "length normalization or a minimum document frequency need "+
+           "statistics of the whole batch: then the first batch is kept "+
+           "until it is finished, and its words are hashed again for each "+
+           "pass over it rather than kept.";
   }  
   
   /**
@@ -843,6 +993,135 @@ public class StringToWordVector extends Filter
   public String useStoplistTipText() {
       return "Ignores all the words that are on the stoplist, if set to true.";
   } 
+
+  /**
+   * Gets the number of bits the words are hashed to.
+   *
+   * @return the number of bits, 0 if a dictionary is built instead.
+   */
+  public int getHashBits() {
+    return m_HashBits;
+  }
+
+  /**
+   * Sets the number of bits the words are hashed to. The words are hashed
+   * into 2^bits fields rather than looked up in a dictionary built from
+   * the first batch.
+   *
+   * @param bits the number of bits, 0 to build a dictionary.
+   * @exception IllegalArgumentException if bits is negative or too large
+   */
+  public void setHashBits(int bits) {
+    if ((bits < 0) || (bits > MAX_HASH_BITS)) {
+      throw new IllegalArgumentException("The number of hash bits has to be "
+					 + "between 0 and " + MAX_HASH_BITS
+					 + ".");
+    }
+    m_HashBits = bits;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String hashBitsTipText() {
+      return "If greater than 0 the words are hashed into 2^hashBits fields "+
+             "instead of being looked up in a dictionary built from the "+
+             "first batch. Instances are then converted as they are input "+
+             "unless the IDF transform, length normalization, pruning or "+
+             "several threads are asked for.";
+  }
+
+  /**
+   * Gets whether hashed words add +1 or -1 to their field.
+   *
+   * @return true if the hash is signed.
+   */
+  public boolean getSignedHash() {
+    return m_SignedHash;
+  }
+
+  /**
+   * Sets whether hashed words add +1 or -1 to their field.
+   *
+   * @param signedHash true if the hash is signed.
+   */
+  public void setSignedHash(boolean signedHash) {
+    m_SignedHash = signedHash;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String signedHashTipText() {
+      return "If set then a hashed word adds +1 or -1 to its field, so that "+
+             "colliding words tend to cancel out rather than add up.";
+  }
+
+  /**
+   * Gets the number of documents a word has to appear in to be hashed.
+   *
+   * @return the minimum document frequency.
+   */
+  public int getMinDocFrequency() {
+    return m_MinDocFrequency;
+  }
+
+  /**
+   * Sets the number of documents of the first batch a word has to
+   * appear in to be hashed.
+   *
+   * @param minDocFrequency the minimum document frequency.
+   */
+  public void setMinDocFrequency(int minDocFrequency) {
+    m_MinDocFrequency = Math.max(1, minDocFrequency);
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String minDocFrequencyTipText() {
+      return "Only the words appearing in at least this many documents of "+
+             "the first batch are hashed. Values above 1 take an extra pass "+
+             "over the first batch to count the exact vocabulary.";
+  }
+
+  /**
+   * Gets the number of threads the words are hashed with.
+   *
+   * @return the number of threads.
+   */
+  public int getNumThreads() {
+    return m_NumThreads;
+  }
+
+  /**
+   * Sets the number of threads the words are hashed with.
+   *
+   * @param numThreads the number of threads.
+   */
+  public void setNumThreads(int numThreads) {
+    m_NumThreads = Math.max(1, numThreads);
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String numThreadsTipText() {
+      return "The number of threads the words are hashed with, if they are "+
+             "hashed. The output does not depend on it.";
+  }
   
   private static void sortArray(int [] array) {
       
@@ -1088,12 +1367,16 @@ public class StringToWordVector extends Filter
   }
 
 
-  private void convertInstance(Instance instance) throws Exception {
-
-    // Convert the instance into a sorted set of indexes
-    TreeMap contained = new TreeMap();
+  /**
+   * Copies the attributes that aren't converted from an input instance
+   * into the values of an output instance.
+   *
+   * @param instance the input instance
+   * @param contained the values of the output instance by index
+   * @return the number of attributes copied
+   */
+  private int copyAttributes(Instance instance, TreeMap contained) {
 
-    // Copy all non-converted attributes from input to output
     int firstCopy = 0;
     for (int i = 0; i < getInputFormat().numAttributes(); i++) {
       if (!m_SelectedRange.isInRange(i)) { 
@@ -1127,6 +1410,17 @@ public class StringToWordVector extends Filter
 	firstCopy++;
       }     
     }
+    return firstCopy;
+  }
+
+
+  private void convertInstance(Instance instance) throws Exception {
+
+    // Convert the instance into a sorted set of indexes
+    TreeMap contained = new TreeMap();
+
+    // Copy all non-converted attributes from input to output
+    int firstCopy = copyAttributes(instance, contained);
     
     for (int j = 0; j < instance.numAttributes(); j++) { 
       //if ((getInputFormat().attribute(j).type() == Attribute.STRING) 
@@ -1259,39 +1553,7 @@ public class StringToWordVector extends Filter
     TreeMap contained = new TreeMap();
 
     // Copy all non-converted attributes from input to output
-    int firstCopy = 0;
-    for (int i = 0; i < getInputFormat().numAttributes(); i++) {
-      if (!m_SelectedRange.isInRange(i)) { 
-	if (getInputFormat().attribute(i).type() != Attribute.STRING) {
-	  // Add simple nominal and numeric attributes directly
-	  if (instance.value(i) != 0.0) {
-	    contained.put(new Integer(firstCopy), 
-			  new Double(instance.value(i)));
-	  } 
-	} else {
-	  if (instance.isMissing(i)) {
-	    contained.put(new Integer(firstCopy),
-			  new Double(Instance.missingValue()));
-	  } else {
-
-	    // If this is a string attribute, we have to first add
-	    // this value to the range of possible values, then add
-	    // its new internal index.
-	    if (outputFormatPeek().attribute(firstCopy).numValues() == 0) {
-	      // Note that the first string value in a
-	      // SparseInstance doesn't get printed.
-	      outputFormatPeek().attribute(firstCopy)
-		.addStringValue("Hack to defeat SparseInstance bug");
-	    }
-	    int newIndex = outputFormatPeek().attribute(firstCopy)
-	      .addStringValue(instance.stringValue(i));
-	    contained.put(new Integer(firstCopy), 
-			  new Double(newIndex));
-	  }
-	}
-	firstCopy++;
-      }     
-    }
+    int firstCopy = copyAttributes(instance, contained);
     
     for (int j = 0; j < instance.numAttributes(); j++) { 
       //if ((getInputFormat().attribute(j).type() == Attribute.STRING) 
@@ -1414,6 +1676,475 @@ public class StringToWordVector extends Filter
     return firstCopy;    
     //System.err.print("#"); System.err.flush();
   }
+
+  /**
+   * Sets the output format for hashed words: the attributes that aren't
+   * converted, followed by one numeric field per hash value.
+   */
+  private void determineHashedFormat() {
+
+    // Make sure we know which fields to convert
+    determineSelectedRange();
+
+    int numHashed = 1 << m_HashBits;
+    FastVector attributes = new FastVector(numHashed +
+					   getInputFormat().numAttributes());
+
+    // Add the non-converted attributes 
+    int classIndex = -1;
+    for (int i = 0; i < getInputFormat().numAttributes(); i++) {
+      if (!m_SelectedRange.isInRange(i)) { 
+        if (getInputFormat().classIndex() == i) {
+          classIndex = attributes.size();
+        }
+	attributes.addElement(getInputFormat().attribute(i).copy());
+      }     
+    }
+    m_FirstHashed = attributes.size();
+
+    // Add the hashed fields
+    for (int i = 0; i < numHashed; i++) {
+      attributes.addElement(new Attribute(m_Prefix + "hash" + i));
+    }
+
+    Instances outputFormat = new Instances(getInputFormat().relationName(), 
+                                           attributes, 0);
+    outputFormat.setClassIndex(classIndex);
+    setOutputFormat(outputFormat);
+  }
+
+  /**
+   * Gets the words of the converted attributes of an instance in the
+   * order they occur, lower cased and without the stopwords if so set.
+   *
+   * @param instance the instance
+   * @return the words
+   */
+  private FastVector tokenize(Instance instance) {
+
+    FastVector words = new FastVector();
+    for (int j = 0; j < instance.numAttributes(); j++) { 
+      if (m_SelectedRange.isInRange(j) && (instance.isMissing(j) == false)) {
+        Enumeration st;
+        if(this.m_onlyAlphabeticTokens==false)
+            st = new StringTokenizer(instance.stringValue(j), delimiters);
+        else
+            st = new AlphabeticStringTokenizer(instance.stringValue(j));
+
+        while (st.hasMoreElements()) {
+          String word = (String)st.nextElement();
+          if(this.m_lowerCaseTokens==true)
+              word = word.toLowerCase();
+          if(this.m_useStoplist==true)
+              if(reconcile.weka.core.Stopwords.isStopword(word))
+                  continue;
+          words.addElement(word);
+        }
+      }
+    }
+    return words;
+  }
+
+  /**
+   * Hashes a word, mixing the bits of its hash code so that the top bits
+   * (the field) and the lowest bit (the sign) can be used independently.
+   *
+   * @param word the word
+   * @return the hash
+   */
+  private static long hash(String word) {
+
+    long h = word.hashCode();
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  /**
+   * Hashes the words of an instance into its field values. Only reads
+   * the state of the filter, so it can be called from several threads.
+   *
+   * @param instance the instance
+   * @return the non-zero field values by output attribute index
+   */
+  private TreeMap hashWords(Instance instance) {
+
+    TreeMap contained = new TreeMap();
+    Hashtable seen = new Hashtable();
+    FastVector words = tokenize(instance);
+    for (int i = 0; i < words.size(); i++) {
+      String word = (String)words.elementAt(i);
+      if ((m_Vocabulary != null) && !m_Vocabulary.containsKey(word)) {
+	continue;
+      }
+      if (!m_OutputCounts) {
+	// Each word only counts once per document
+	if (seen.containsKey(word)) {
+	  continue;
+	}
+	seen.put(word, word);
+      }
+      long h = hash(word);
+      Integer index = new Integer(m_FirstHashed
+				  + (int)(h >>> (64 - m_HashBits)));
+      double sign = (m_SignedHash && ((h & 1) != 0)) ? -1 : 1;
+      Double value = (Double)contained.get(index);
+      if (value == null) {
+	contained.put(index, new Double(sign));
+      } else if (m_OutputCounts || m_SignedHash) {
+	contained.put(index, new Double(value.doubleValue() + sign));
+      }
+    }
+
+    // Colliding words of opposite sign may have cancelled out
+    Iterator it = contained.values().iterator();
+    while (it.hasNext()) {
+      if (((Double)it.next()).doubleValue() == 0) {
+	it.remove();
+      }
+    }
+    return contained;
+  }
+
+  /**
+   * Applies the TF and IDF transforms to hashed field values. The TF
+   * transform keeps the sign of signed values.
+   *
+   * @param contained the field values by output attribute index
+   */
+  private void transformHashed(TreeMap contained) {
+
+    if (!m_TFTransform && !m_IDFTransform) {
+      return;
+    }
+    Iterator it = contained.keySet().iterator();
+    while (it.hasNext()) {
+      Integer index = (Integer)it.next();
+      double val = ((Double)contained.get(index)).doubleValue();
+      if (m_TFTransform) {
+	val = (val < 0) ? -Math.log(1 - val) : Math.log(1 + val);
+      }
+      if (m_IDFTransform) {
+	// Fields no document of the first batch hashed to count as rarest
+	val = val * Math.log(numInstances / 
+			     (double)Math.max(1, docsCounts[index.intValue()]));
+      }
+      contained.put(index, new Double(val));
+    }
+  }
+
+  /**
+   * Gets the euclidean length of hashed field values.
+   *
+   * @param contained the field values by output attribute index
+   * @return the length
+   */
+  private static double hashedLength(TreeMap contained) {
+
+    double sumSq = 0;
+    Iterator it = contained.values().iterator();
+    while (it.hasNext()) {
+      double val = ((Double)it.next()).doubleValue();
+      sumSq += val * val;
+    }
+    return Math.sqrt(sumSq);
+  }
+
+  /**
+   * Scales hashed field values to a given length.
+   *
+   * @param contained the field values by output attribute index
+   * @param length the length to scale to
+   */
+  private static void normalizeHashed(TreeMap contained, double length) {
+
+    double docLength = hashedLength(contained);
+    if (docLength == 0) {
+      return;
+    }
+    Iterator it = contained.keySet().iterator();
+    while (it.hasNext()) {
+      Integer index = (Integer)it.next();
+      double val = ((Double)contained.get(index)).doubleValue();
+      contained.put(index, new Double(val / docLength * length));
+    }
+  }
+
+  /**
+   * Pushes the sparse output instance for an input instance and its
+   * hashed field values.
+   *
+   * @param instance the input instance
+   * @param hashed the field values by output attribute index
+   */
+  private void pushHashed(Instance instance, TreeMap hashed) {
+
+    TreeMap contained = new TreeMap();
+    copyAttributes(instance, contained);
+    contained.putAll(hashed);
+
+    // Convert the set to structures needed to create a sparse instance.
+    float [] values = new float [contained.size()];
+    int [] indices = new int [contained.size()];
+    Iterator it = contained.keySet().iterator();
+    for (int i = 0; it.hasNext(); i++) {
+      Integer index = (Integer)it.next();
+      Double value = (Double)contained.get(index);
+      values[i] = value.floatValue();
+      indices[i] = index.intValue();
+    }
+
+    Instance inst = new SparseInstance(instance.weight(), values, indices, 
+                                       outputFormatPeek().numAttributes());
+    inst.setDataset(outputFormatPeek());
+    push(inst);
+  }
+
+  /**
+   * Counts the documents of the first batch each word appears in and
+   * keeps the words that appear in at least m_MinDocFrequency of them.
+   *
+   * @exception Exception if a thread fails
+   */
+  private void determineVocabulary() throws Exception {
+
+    final Instances input = getInputFormat();
+    final AtomicInteger next = new AtomicInteger();
+    Callable [] tasks = new Callable [threadsFor(input.numInstances())];
+    for (int t = 0; t < tasks.length; t++) {
+      tasks[t] = new Callable() {
+	  public Object call() {
+	    Hashtable counts = new Hashtable();
+	    int i;
+	    while ((i = next.getAndIncrement()) < input.numInstances()) {
+	      Hashtable seen = new Hashtable();
+	      FastVector words = tokenize(input.instance(i));
+	      for (int j = 0; j < words.size(); j++) {
+		String word = (String)words.elementAt(j);
+		if (seen.put(word, word) == null) {
+		  int [] count = (int [])counts.get(word);
+		  if (count == null) {
+		    counts.put(word, new int [] {1});
+		  } else {
+		    count[0]++;
+		  }
+		}
+	      }
+	    }
+	    return counts;
+	  }
+	};
+    }
+    Object [] counts = runTasks(tasks);
+
+    // Add up the counts of the threads
+    Hashtable total = (Hashtable)counts[0];
+    for (int t = 1; t < counts.length; t++) {
+      Iterator it = ((Hashtable)counts[t]).entrySet().iterator();
+      while (it.hasNext()) {
+	Map.Entry entry = (Map.Entry)it.next();
+	int [] count = (int [])total.get(entry.getKey());
+	if (count == null) {
+	  total.put(entry.getKey(), entry.getValue());
+	} else {
+	  count[0] += ((int [])entry.getValue())[0];
+	}
+      }
+    }
+
+    m_Vocabulary = new Hashtable();
+    Iterator it = total.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry entry = (Map.Entry)it.next();
+      if (((int [])entry.getValue())[0] >= m_MinDocFrequency) {
+	m_Vocabulary.put(entry.getKey(), entry.getKey());
+      }
+    }
+  }
+
+  /**
+   * Converts the instances waiting in m_Block, once the first batch is
+   * done, and outputs them in their input order.
+   *
+   * @exception Exception if a thread fails
+   */
+  private void convertBlock() throws Exception {
+
+    if (m_Block.size() == 0) {
+      return;
+    }
+    if (m_normalizeDocLength && (avgDocLength < 0)) {
+      throw new Exception("Error. Average Doc Length not defined yet.");
+    }
+    Instance [] block = new Instance [m_Block.size()];
+    for (int i = 0; i < block.length; i++) {
+      block[i] = (Instance)m_Block.elementAt(i);
+    }
+    m_Block.removeAllElements();
+    TreeMap [] hashed = hashBlock(block, true, m_normalizeDocLength);
+    for (int i = 0; i < block.length; i++) {
+      pushHashed(block[i], hashed[i]);
+    }
+  }
+
+  /**
+   * Converts the first batch when the words are hashed and statistics of
+   * the whole batch are needed. The batch is gone through in blocks of
+   * BLOCK_SIZE instances whose words are hashed on m_NumThreads threads:
+   * once for the document frequencies (IDF transform), once for the
+   * average length (length normalization), and once for the output, in
+   * the input order. Only one block of hashed values is kept at a time.
+   *
+   * @exception Exception if a thread fails
+   */
+  private void convertHashedBatch() throws Exception {
+
+    Instances input = getInputFormat();
+    determineHashedFormat();
+    if (m_MinDocFrequency > 1) {
+      determineVocabulary();
+    }
+
+    numInstances = input.numInstances();
+    docsCounts = new int [outputFormatPeek().numAttributes()];
+    if (m_IDFTransform) {
+      for (int from = 0; from < numInstances; from += BLOCK_SIZE) {
+	TreeMap [] hashed = hashBlock(block(input, from), false, false);
+	for (int i = 0; i < hashed.length; i++) {
+	  Iterator it = hashed[i].keySet().iterator();
+	  while (it.hasNext()) {
+	    docsCounts[((Integer)it.next()).intValue()]++;
+	  }
+	}
+      }
+    }
+
+    if (m_normalizeDocLength) {
+      avgDocLength = 0;
+      for (int from = 0; from < numInstances; from += BLOCK_SIZE) {
+	TreeMap [] hashed = hashBlock(block(input, from), true, false);
+	for (int i = 0; i < hashed.length; i++) {
+	  avgDocLength += hashedLength(hashed[i]);
+	}
+      }
+      if (numInstances > 0) {
+	avgDocLength /= numInstances;
+      }
+    }
+
+    for (int from = 0; from < numInstances; from += BLOCK_SIZE) {
+      Instance [] block = block(input, from);
+      TreeMap [] hashed = hashBlock(block, true, m_normalizeDocLength);
+      for (int i = 0; i < block.length; i++) {
+	pushHashed(block[i], hashed[i]);
+      }
+    }
+    flushInput();
+  }
+
+  /**
+   * Gets the block of at most BLOCK_SIZE instances that starts at an index.
+   *
+   * @param input the instances
+   * @param from the index of the first instance of the block
+   * @return the instances of the block
+   */
+  private static Instance [] block(Instances input, int from) {
+
+    Instance [] block = new Instance [Math.min(BLOCK_SIZE, 
+					       input.numInstances() - from)];
+    for (int i = 0; i < block.length; i++) {
+      block[i] = input.instance(from + i);
+    }
+    return block;
+  }
+
+  /**
+   * Hashes the words of instances on up to m_NumThreads threads.
+   *
+   * @param block the instances
+   * @param transform true to apply the TF and IDF transforms
+   * @param normalize true to scale to the average length
+   * @return the field values of each instance by output attribute index
+   * @exception Exception if a thread fails
+   */
+  private TreeMap [] hashBlock(final Instance [] block, 
+			       final boolean transform, 
+			       final boolean normalize) throws Exception {
+
+    final TreeMap [] hashed = new TreeMap [block.length];
+    final AtomicInteger next = new AtomicInteger();
+    Callable [] tasks = new Callable [threadsFor(block.length)];
+    for (int t = 0; t < tasks.length; t++) {
+      tasks[t] = new Callable() {
+	  public Object call() {
+	    int i;
+	    while ((i = next.getAndIncrement()) < block.length) {
+	      hashed[i] = hashWords(block[i]);
+	      if (transform) {
+		transformHashed(hashed[i]);
+	      }
+	      if (normalize) {
+		normalizeHashed(hashed[i], avgDocLength);
+	      }
+	    }
+	    return null;
+	  }
+	};
+    }
+    runTasks(tasks);
+    return hashed;
+  }
+
+  /**
+   * Gets the number of threads to process a number of instances with.
+   *
+   * @param numInstances the number of instances
+   * @return the number of threads, at least 1
+   */
+  private int threadsFor(int numInstances) {
+    return Math.max(1, Math.min(m_NumThreads, numInstances));
+  }
+
+  /**
+   * Runs tasks on their own threads, or in the calling thread if there
+   * is only one.
+   *
+   * @param tasks the tasks
+   * @return the results of the tasks
+   * @exception Exception the first exception thrown by a task
+   */
+  private static Object [] runTasks(Callable [] tasks) throws Exception {
+
+    Object [] results = new Object [tasks.length];
+    if (tasks.length == 1) {
+      results[0] = tasks[0].call();
+      return results;
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(tasks.length);
+    try {
+      Future [] futures = new Future [tasks.length];
+      for (int i = 0; i < tasks.length; i++) {
+	futures[i] = pool.submit(tasks[i]);
+      }
+      for (int i = 0; i < tasks.length; i++) {
+	try {
+	  results[i] = futures[i].get();
+	} catch (ExecutionException e) {
+	  if (e.getCause() instanceof Exception) {
+	    throw (Exception)e.getCause();
+	  }
+	  throw e;
+	}
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    return results;
+  }
   
   
   /**
@@ -0,0 +1,138 @@
+package reconcile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs the pool against stub workers (bash and cat) instead of the real external tools.
+ */
+public class ExternalProcessPoolTest
+    extends TestCase {
+
+private ExternalProcessPool pool;
+
+@Override
+protected void tearDown()
+{
+  if (pool != null) {
+    pool.shutdown();
+  }
+}
+
+private static String run(ExternalProcessPool pool, String commandLine)
+    throws IOException
+{
+  ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+  PrintStream output = new PrintStream(bytes);
+  int status = pool.run(commandLine, output);
+  output.flush();
+  return status + ":" + bytes.toString();
+}
+
+public void testOutputAndStatus()
+    throws IOException
+{
+  pool = new ExternalProcessPool(new String[] { "bash" }, 1);
+  assertEquals("0:one\ntwo\n", run(pool, "echo one; echo two"));
+  assertEquals("3:", run(pool, "exit 3"));
+  // the shell survives the exit of the previous command
+  assertEquals("0:three\n", run(pool, "echo three"));
+}
+
+public void testRequestFraming()
+    throws IOException
+{
+  // cat echoes the request back, marker and all
+  pool = new ExternalProcessPool(new String[] { "cat" }, 2);
+  ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+  PrintStream output = new PrintStream(bytes);
+  assertEquals("42", pool.request("a\nb\n" + ExternalProcessPool.END_OF_RECORD + " 42", output));
+  output.flush();
+  assertEquals("a\nb\n", bytes.toString());
+}
+
+public void testCrashIsNotRetried()
+    throws IOException
+{
+  File counter = File.createTempFile("pool", ".count");
+  counter.deleteOnExit();
+  pool = new ExternalProcessPool(new String[] { "bash" }, 1);
+
+  // the request kills its worker after having had a side effect
+  try {
+    pool.request("echo x >> " + ExternalProcessPool.quote(counter.getPath()) + "; kill -9 $$\n", null);
+    fail("a crashed request has to fail");
+  }
+  catch (IOException e) {
+    // expected
+  }
+  assertEquals(2, counter.length());
+
+  // the worker is restarted for the next request
+  assertEquals("0:ok\n", run(pool, "echo ok"));
+}
+
+public void testTimeout()
+    throws IOException
+{
+  pool = new ExternalProcessPool(new String[] { "bash" }, 1);
+  pool.setTimeout(500);
+  long start = System.currentTimeMillis();
+  String result = run(pool, "sleep 30; echo late");
+  assertEquals("124:", result);
+  assertTrue(System.currentTimeMillis() - start < 10000);
+  assertEquals("0:ok\n", run(pool, "echo ok"));
+}
+
+public void testHungWorkerTimesOut()
+{
+  // a worker that never answers is killed by the pool itself
+  pool = new ExternalProcessPool(new String[] { "sleep", "30" }, 1);
+  pool.setTimeout(500);
+  try {
+    pool.request("hello", null);
+    fail("a hung request has to time out");
+  }
+  catch (IOException e) {
+    assertTrue(e.getMessage(), e.getMessage().indexOf("timed out") >= 0);
+  }
+}
+
+public void testUnpooled()
+    throws IOException
+{
+  // what runExternal does with the pool off
+  ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+  PrintStream output = new PrintStream(bytes);
+  ExternalProcessPool.runUnpooled("echo one; cat; echo two", output);
+  output.flush();
+  assertEquals("one\ntwo\n", bytes.toString());
+
+  String command = "echo partial; exit 3";
+  bytes.reset();
+  try {
+    ExternalProcessPool.runUnpooled(command, output);
+    fail("a non-zero exit status has to fail");
+  }
+  catch (IOException e) {
+    assertEquals("Command exited with status 3: " + command, e.getMessage());
+  }
+  output.flush();
+  assertEquals("partial\n", bytes.toString());
+}
+
+public void testQuoting()
+    throws IOException
+{
+  pool = new ExternalProcessPool(new String[] { "bash" }, 1);
+  String[] args = { "a b", "it's", "$HOME", "`date`;|&", "*" };
+  String line = ExternalProcessPool.commandLine("printf", "%s\\n", args[0], args[1], args[2], args[3], args[4]);
+  assertEquals("0:a b\nit's\n$HOME\n`date`;|&\n*\n", run(pool, line));
+  assertEquals("'perl' 'x.pl' '-v'", ExternalProcessPool.splitCommandLine("  perl x.pl\t-v "));
+  assertEquals("", ExternalProcessPool.splitCommandLine(" "));
+}
+}
@@ -0,0 +1,89 @@
+package reconcile.weka.clusterers;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import reconcile.weka.core.Attribute;
+import reconcile.weka.core.FastVector;
+import reconcile.weka.core.Instance;
+import reconcile.weka.core.Instances;
+
+/**
+ * Checks that the folds and restarts run in parallel reproduce the single-threaded model exactly.
+ */
+public class EMTest
+    extends TestCase {
+
+/**
+ * Three gaussian blobs over two numeric attributes plus a nominal attribute that mostly follows the blob, with a few
+ * missing values.
+ */
+private static Instances mixture(int numInstances, long seed)
+{
+  FastVector colours = new FastVector(3);
+  colours.addElement("red");
+  colours.addElement("green");
+  colours.addElement("blue");
+  FastVector atts = new FastVector(3);
+  atts.addElement(new Attribute("x"));
+  atts.addElement(new Attribute("y"));
+  atts.addElement(new Attribute("colour", colours));
+  Instances data = new Instances("mixture", atts, numInstances);
+
+  double[][] centres = { { 0, 0 }, { 5, 1 }, { 2, 6 } };
+  Random random = new Random(seed);
+  for (int i = 0; i < numInstances; i++) {
+    int c = random.nextInt(centres.length);
+    float[] values = new float[3];
+    values[0] = (float) (centres[c][0] + random.nextGaussian());
+    values[1] = (float) (centres[c][1] + random.nextGaussian());
+    values[2] = random.nextDouble() < 0.8 ? c : random.nextInt(centres.length);
+    if (random.nextDouble() < 0.02) {
+      values[random.nextInt(3)] = Instance.missingValue();
+    }
+    data.add(new Instance(1, values));
+  }
+  return data;
+}
+
+private static EM build(Instances data, int numClusters, int numThreads)
+    throws Exception
+{
+  EM em = new EM();
+  em.setSeed(7);
+  em.setNumClusters(numClusters);
+  em.setMaxIterations(50);
+  em.setNumThreads(numThreads);
+  em.buildClusterer(data);
+  return em;
+}
+
+private static void assertSameModel(Instances data, EM expected, EM actual)
+    throws Exception
+{
+  assertEquals(expected.numberOfClusters(), actual.numberOfClusters());
+  assertEquals(expected.toString(), actual.toString());
+  assertTrue(Arrays.equals(expected.clusterPriors(), actual.clusterPriors()));
+  for (int i = 0; i < data.numInstances(); i++) {
+    assertTrue(Arrays.equals(expected.logDensityPerClusterForInstance(data.instance(i)),
+        actual.logDensityPerClusterForInstance(data.instance(i))));
+  }
+}
+
+public void testCrossValidatedClustersMatchSingleThread()
+    throws Exception
+{
+  Instances data = mixture(300, 1);
+  EM single = build(data, -1, 1);
+  assertTrue(single.numberOfClusters() > 1);
+  assertSameModel(data, single, build(data, -1, 4));
+}
+
+public void testFixedClustersMatchSingleThread()
+    throws Exception
+{
+  Instances data = mixture(300, 2);
+  assertSameModel(data, build(data, 3, 1), build(data, 3, 4));
+}
+}